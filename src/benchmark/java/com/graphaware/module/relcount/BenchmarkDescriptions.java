@@ -0,0 +1,68 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Deterministic relationship descriptions for benchmarks. Each description has one of 5 types, a random direction,
+ * two properties with the given number of distinct values ("rating" and "status"), and a "timestamp" property that
+ * is different for each description, like a frequently changing property would be.
+ */
+public final class BenchmarkDescriptions {
+
+    public static final int TYPES = 5;
+
+    private BenchmarkDescriptions() {
+    }
+
+    /**
+     * Generate distinct descriptions.
+     *
+     * @param count               number of descriptions.
+     * @param propertyCardinality number of distinct values of the "rating" and "status" properties.
+     * @param seed                of the random generator.
+     * @return descriptions.
+     */
+    public static List<DetachedRelationshipDescription> descriptions(int count, int propertyCardinality, long seed) {
+        Random random = new Random(seed);
+        List<DetachedRelationshipDescription> descriptions = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            descriptions.add(literal("TYPE" + random.nextInt(TYPES), random.nextBoolean() ? OUTGOING : INCOMING)
+                    .with("rating", equalTo(random.nextInt(propertyCardinality)))
+                    .with("status", equalTo("status" + random.nextInt(propertyCardinality)))
+                    .with("timestamp", equalTo(seed * count + i)));
+        }
+
+        return descriptions;
+    }
+
+    /**
+     * Generate cached degrees.
+     *
+     * @param count               number of cached degrees.
+     * @param propertyCardinality number of distinct values of the "rating" and "status" properties.
+     * @param seed                of the random generator.
+     * @return cached degrees with random values between 1 and 1000.
+     */
+    public static Map<DetachedRelationshipDescription, Integer> degrees(int count, int propertyCardinality, long seed) {
+        Random random = new Random(seed);
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+
+        for (DetachedRelationshipDescription description : descriptions(count, propertyCardinality, seed)) {
+            degrees.put(description, random.nextInt(1000) + 1);
+        }
+
+        return degrees;
+    }
+}
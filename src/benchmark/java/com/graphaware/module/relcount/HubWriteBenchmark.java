@@ -0,0 +1,71 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Benchmarks the throughput of transactions concurrently creating relationships to a single hub node, with its cached
+ * degrees unsharded (0) or split into the given number of shards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+public class HubWriteBenchmark {
+
+    private static final int INITIAL_HUB_DEGREE = 20000;
+
+    @Param({"0", "4", "16"})
+    private int shards;
+
+    private GraphDatabaseService database;
+    private long hubId;
+
+    @Setup(Level.Trial)
+    public void createHub() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(defaultConfiguration().withDegreeSharding(shards, INITIAL_HUB_DEGREE)));
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            Node hub = database.createNode();
+            for (int i = 0; i < INITIAL_HUB_DEGREE; i++) {
+                Relationship relationship = database.createNode().createRelationshipTo(hub, withName("FOLLOWS"));
+                relationship.setProperty("since", "201" + (i % 5));
+            }
+            hubId = hub.getId();
+            tx.success();
+        }
+
+        //one more transaction to have the hub sharded
+        createRelationship();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    public void createRelationship() {
+        try (Transaction tx = database.beginTx()) {
+            Relationship relationship = database.createNode().createRelationshipTo(database.getNodeById(hubId), withName("FOLLOWS"));
+            relationship.setProperty("since", "201" + ThreadLocalRandom.current().nextInt(5));
+            tx.success();
+        }
+    }
+}
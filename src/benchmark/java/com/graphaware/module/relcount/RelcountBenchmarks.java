@@ -0,0 +1,32 @@
+package com.graphaware.module.relcount;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs JMH micro-benchmarks of the relcount hot paths with the GC profiler, which reports allocation rates
+ * (gc.alloc.rate.norm = bytes allocated per operation) next to the timings.
+ * <p/>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec}, optionally with {@code -Dbenchmark.includes=<regex>} to only
+ * run matching benchmarks.
+ */
+public final class RelcountBenchmarks {
+
+    private RelcountBenchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : ".*")
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(5)
+                .measurementIterations(10)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,76 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.relcount.BenchmarkDescriptions.TYPES;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Benchmarks committing transactions creating relationships, with and without {@link RelationshipCountModule}
+ * registered. The difference in time and in bytes allocated per relationship (gc.alloc.rate.norm) is the cost of the
+ * module's write path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WritePathBenchmark {
+
+    private static final int NODES = 100;
+    private static final int RELATIONSHIPS_PER_TX = 1000;
+
+    @Param({"true", "false"})
+    private boolean module;
+
+    private GraphDatabaseService database;
+    private Node[] nodes;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void createNodes() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        if (module) {
+            GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+            runtime.registerModule(new RelationshipCountModule());
+            runtime.start();
+        }
+
+        nodes = new Node[NODES];
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < NODES; i++) {
+                nodes[i] = database.createNode();
+            }
+            tx.success();
+        }
+
+        random = new Random(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RELATIONSHIPS_PER_TX)
+    public void createRelationships() {
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < RELATIONSHIPS_PER_TX; i++) {
+                Relationship relationship = nodes[random.nextInt(NODES)].createRelationshipTo(nodes[random.nextInt(NODES)], withName("TYPE" + random.nextInt(TYPES)));
+                relationship.setProperty("rating", random.nextInt(3));
+                relationship.setProperty("since", "201" + random.nextInt(5));
+            }
+            tx.success();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.relcount.BenchmarkDescriptions.descriptions;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+
+/**
+ * Benchmarks {@link DegreeCachingNode#incrementDegree(DetachedRelationshipDescription, int)} and
+ * {@link DegreeCachingNode#decrementDegree(DetachedRelationshipDescription, int)} of a node that already caches a number
+ * of degrees, including reading them, as done once per node and transaction. Increments of new descriptions trigger
+ * compaction once the node caches as many degrees as the threshold.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DegreeCachingNodeBenchmark {
+
+    private static final String PREFIX = "BENCHMARK";
+    private static final int NEW_DESCRIPTIONS = 1024;
+
+    @Param({"10", "100", "1000"})
+    private int entries;
+
+    @Param({"2", "10", "100"})
+    private int propertyCardinality;
+
+    @Param({"20", "100", "1000"})
+    private int threshold;
+
+    private GraphDatabaseService database;
+    private RelationshipCountConfiguration configuration;
+    private Node node;
+    private Transaction tx;
+
+    private List<DetachedRelationshipDescription> cached;
+    private List<DetachedRelationshipDescription> added;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createNode() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        configuration = defaultConfiguration().withThreshold(threshold);
+
+        try (Transaction tx = database.beginTx()) {
+            node = database.createNode();
+
+            DegreeCachingNode cachingNode = new DegreeCachingNode(node, PREFIX, configuration);
+            for (DetachedRelationshipDescription description : descriptions(entries, propertyCardinality, 1)) {
+                cachingNode.incrementDegree(description, 1);
+            }
+            cachingNode.flush();
+
+            cached = new ArrayList<>(cachingNode.getCachedDegrees().keySet());
+            tx.success();
+        }
+
+        added = descriptions(NEW_DESCRIPTIONS, propertyCardinality, 2);
+    }
+
+    @Setup(Level.Iteration)
+    public void beginTx() {
+        tx = database.beginTx();
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollbackTx() {
+        tx.failure();
+        tx.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    public DegreeCachingNode read() {
+        return new DegreeCachingNode(node, PREFIX, configuration);
+    }
+
+    @Benchmark
+    public DegreeCachingNode increment() {
+        DegreeCachingNode cachingNode = new DegreeCachingNode(node, PREFIX, configuration);
+        cachingNode.incrementDegree(added.get(next++ % NEW_DESCRIPTIONS), 1);
+        return cachingNode;
+    }
+
+    @Benchmark
+    public DegreeCachingNode decrement() {
+        DegreeCachingNode cachingNode = new DegreeCachingNode(node, PREFIX, configuration);
+        cachingNode.decrementDegree(cached.get(next++ % cached.size()), 1);
+        return cachingNode;
+    }
+}
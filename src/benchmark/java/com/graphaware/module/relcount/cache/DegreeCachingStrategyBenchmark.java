@@ -0,0 +1,92 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.relcount.BenchmarkDescriptions.degrees;
+
+/**
+ * Benchmarks writing and reading all cached degrees of a node with each {@link DegreeCachingStrategy}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DegreeCachingStrategyBenchmark {
+
+    private static final String PREFIX = "BENCHMARK";
+
+    @Param({"SingleNodeProperty", "NodeProperties", "Segmented"})
+    private String strategy;
+
+    @Param({"10", "100", "1000"})
+    private int entries;
+
+    @Param({"2", "10", "100"})
+    private int propertyCardinality;
+
+    private GraphDatabaseService database;
+    private DegreeCachingStrategy degreeCachingStrategy;
+    private Map<DetachedRelationshipDescription, Integer> degrees;
+    private Node node;
+    private Transaction tx;
+
+    @Setup(Level.Trial)
+    public void createNode() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        degreeCachingStrategy = strategy(strategy);
+        degrees = degrees(entries, propertyCardinality, 1);
+
+        try (Transaction tx = database.beginTx()) {
+            node = database.createNode();
+            write();
+            tx.success();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void beginTx() {
+        tx = database.beginTx();
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollbackTx() {
+        tx.failure();
+        tx.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    public void write() {
+        degreeCachingStrategy.writeDegrees(node, PREFIX, degrees, degrees.keySet(), Collections.<DetachedRelationshipDescription>emptySet());
+    }
+
+    @Benchmark
+    public Map<DetachedRelationshipDescription, Integer> read() {
+        return degreeCachingStrategy.readDegrees(node, PREFIX);
+    }
+
+    private static DegreeCachingStrategy strategy(String name) {
+        switch (name) {
+            case "SingleNodeProperty":
+                return new SingleNodePropertyDegreeCachingStrategy();
+            case "NodeProperties":
+                return new NodePropertiesDegreeCachingStrategy();
+            case "Segmented":
+                return new SegmentedDegreeCachingStrategy();
+            default:
+                throw new IllegalArgumentException("Unknown strategy " + name);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.serialize.Serializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.relcount.BenchmarkDescriptions.degrees;
+
+/**
+ * Benchmarks encoding and decoding cached degrees with generic serialization, used by previous versions, and with
+ * {@link BinaryDegreeCodec}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DegreeCodecBenchmark {
+
+    @Param({"Generic", "Binary"})
+    private String codec;
+
+    @Param({"1", "10", "100"})
+    private int entries;
+
+    @Param({"2", "100"})
+    private int propertyCardinality;
+
+    private final BinaryDegreeCodec binaryCodec = new BinaryDegreeCodec();
+    private boolean binary;
+    private Map<DetachedRelationshipDescription, Integer> degrees;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void encodeDegrees() {
+        binary = "Binary".equals(codec);
+        degrees = degrees(entries, propertyCardinality, 1);
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return binary ? binaryCodec.encode(degrees) : Serializer.toByteArray(degrees);
+    }
+
+    @Benchmark
+    public Map<DetachedRelationshipDescription, Integer> decode() {
+        if (binary) {
+            return binaryCodec.decode(encoded);
+        }
+
+        //noinspection unchecked
+        return Serializer.fromByteArray(encoded);
+    }
+}
@@ -0,0 +1,102 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Benchmarks caching degrees of relationships with many properties with many distinct values, which makes compaction
+ * search through many candidate generalizations, with different generalization budgets of
+ * {@link ThresholdBasedCompactionStrategy}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompactionWithManyPropertiesBenchmark {
+
+    private static final String PREFIX = "BENCHMARK";
+    private static final int RELATIONSHIPS = 500;
+    private static final int THRESHOLD = 20;
+
+    @Param({"4", "8", "12"})
+    private int properties;
+
+    @Param({"10", "100"})
+    private int distinctValues;
+
+    @Param({"10000", "1000000", "2147483647"})
+    private int budget;
+
+    private GraphDatabaseService database;
+    private RelationshipCountConfiguration configuration;
+    private List<DetachedRelationshipDescription> descriptions;
+    private Node node;
+    private Transaction tx;
+
+    @Setup(Level.Trial)
+    public void createNode() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        configuration = defaultConfiguration().with(new ThresholdBasedCompactionStrategy(THRESHOLD, budget));
+        descriptions = descriptions();
+
+        try (Transaction tx = database.beginTx()) {
+            node = database.createNode();
+            tx.success();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void beginTx() {
+        tx = database.beginTx();
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollbackTx() {
+        tx.failure();
+        tx.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    public int cacheDegrees() {
+        DegreeCachingNode cachingNode = new DegreeCachingNode(node, PREFIX, configuration);
+        for (DetachedRelationshipDescription description : descriptions) {
+            cachingNode.incrementDegree(description, 1);
+        }
+        return cachingNode.getCachedDegrees().size();
+    }
+
+    private List<DetachedRelationshipDescription> descriptions() {
+        Random random = new Random(42);
+        List<DetachedRelationshipDescription> result = new ArrayList<>(RELATIONSHIPS);
+
+        for (int i = 0; i < RELATIONSHIPS; i++) {
+            DetachedRelationshipDescription description = literal("TYPE", OUTGOING);
+            for (int p = 0; p < properties; p++) {
+                description = description.with("key" + p, equalTo("value" + random.nextInt(distinctValues)));
+            }
+            result.add(description);
+        }
+
+        return result;
+    }
+}
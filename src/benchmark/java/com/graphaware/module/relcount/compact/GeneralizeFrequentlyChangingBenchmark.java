@@ -0,0 +1,51 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.relcount.BenchmarkDescriptions.degrees;
+
+/**
+ * Benchmarks {@link GeneralizeFrequentlyChanging} producing a single generalization of cached degrees, with and
+ * without computing {@link PropertyChangeStats} first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeneralizeFrequentlyChangingBenchmark {
+
+    @Param({"20", "100", "1000"})
+    private int entries;
+
+    @Param({"2", "10", "100"})
+    private int propertyCardinality;
+
+    private GeneralizeFrequentlyChanging strategy;
+    private Map<DetachedRelationshipDescription, Integer> degrees;
+    private PropertyChangeStats stats;
+
+    @Setup(Level.Trial)
+    public void createDegrees() {
+        strategy = new GeneralizeFrequentlyChanging();
+        degrees = degrees(entries, propertyCardinality, 1);
+        stats = PropertyChangeStats.of(degrees);
+    }
+
+    @Benchmark
+    public DetachedRelationshipDescription produceGeneralization() {
+        return strategy.produceGeneralization(degrees);
+    }
+
+    @Benchmark
+    public DetachedRelationshipDescription produceGeneralizationWithStats() {
+        return strategy.produceGeneralization(degrees, stats);
+    }
+
+    @Benchmark
+    public PropertyChangeStats computeStats() {
+        return PropertyChangeStats.of(degrees);
+    }
+}
@@ -0,0 +1,89 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.module.relcount.BenchmarkDescriptions.descriptions;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+
+/**
+ * Benchmarks {@link ThresholdBasedCompactionStrategy} compacting a node whose number of cached degrees exceeds the
+ * threshold, i.e. a bulk compaction such as after initialization, rather than the one-at-a-time compaction
+ * measured by {@link com.graphaware.module.relcount.cache.DegreeCachingNodeBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThresholdBasedCompactionBenchmark {
+
+    private static final String PREFIX = "BENCHMARK";
+
+    @Param({"50", "200", "1000"})
+    private int entries;
+
+    @Param({"2", "10", "100"})
+    private int propertyCardinality;
+
+    @Param({"20", "100"})
+    private int threshold;
+
+    private GraphDatabaseService database;
+    private RelationshipCountConfiguration configuration;
+    private ThresholdBasedCompactionStrategy strategy;
+    private List<DetachedRelationshipDescription> descriptions;
+    private Node node;
+    private Transaction tx;
+    private DegreeCachingNode cachingNode;
+
+    @Setup(Level.Trial)
+    public void createNode() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        strategy = new ThresholdBasedCompactionStrategy(threshold);
+        configuration = defaultConfiguration().with(strategy);
+        descriptions = descriptions(entries, propertyCardinality, 1);
+
+        try (Transaction tx = database.beginTx()) {
+            node = database.createNode();
+            tx.success();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void beginTx() {
+        tx = database.beginTx();
+    }
+
+    @Setup(Level.Invocation)
+    public void fillNode() {
+        cachingNode = new DegreeCachingNode(node, PREFIX, configuration);
+        for (DetachedRelationshipDescription description : descriptions) {
+            cachingNode.incrementDegree(description, 1, true);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollbackTx() {
+        tx.failure();
+        tx.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    public int compact() {
+        strategy.compactRelationshipCounts(cachingNode);
+        return cachingNode.getCachedDegrees().size();
+    }
+}
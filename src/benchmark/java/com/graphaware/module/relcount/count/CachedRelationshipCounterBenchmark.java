@@ -0,0 +1,109 @@
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.BenchmarkDescriptions.TYPES;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Benchmarks {@link CachedRelationshipCounter} counting relationships of a node with the given number of relationships,
+ * whose cached degrees have been compacted according to the threshold.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CachedRelationshipCounterBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"100", "1000", "10000"})
+    private int relationships;
+
+    @Param({"2", "10", "100"})
+    private int propertyCardinality;
+
+    @Param({"20", "1000"})
+    private int threshold;
+
+    private GraphDatabaseService database;
+    private CachedRelationshipCounter counter;
+    private RelationshipDescription byType;
+    private RelationshipDescription byProperty;
+    private Node node;
+    private Transaction tx;
+
+    @Setup(Level.Trial)
+    public void createNode() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(defaultConfiguration().withThreshold(threshold)));
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            node = database.createNode();
+            tx.success();
+        }
+
+        Random random = new Random(42);
+        for (int batch = 0; batch < relationships; batch += BATCH_SIZE) {
+            try (Transaction tx = database.beginTx()) {
+                for (int i = batch; i < Math.min(relationships, batch + BATCH_SIZE); i++) {
+                    Relationship relationship = node.createRelationshipTo(database.createNode(), withName("TYPE" + random.nextInt(TYPES)));
+                    relationship.setProperty("rating", random.nextInt(propertyCardinality));
+                    relationship.setProperty("status", "status" + random.nextInt(propertyCardinality));
+                    relationship.setProperty("timestamp", (long) i);
+                }
+                tx.success();
+            }
+        }
+
+        counter = new CachedRelationshipCounter(database);
+        byType = wildcard("TYPE0", OUTGOING);
+        byProperty = wildcard("TYPE0", OUTGOING).with("rating", equalTo(0));
+    }
+
+    @Setup(Level.Iteration)
+    public void beginTx() {
+        tx = database.beginTx();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeTx() {
+        tx.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    public int countByType() {
+        return counter.count(node, byType);
+    }
+
+    /**
+     * Counting by a property that may have been compacted away, in which case the counter gives up.
+     */
+    @Benchmark
+    public int countByProperty() {
+        return counter.countIfPossible(node, byProperty);
+    }
+}
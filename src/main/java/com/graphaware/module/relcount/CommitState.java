@@ -0,0 +1,51 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.module.relcount.cache.DegreeDeltas;
+
+import java.util.Set;
+
+/**
+ * State passed by {@link RelationshipCountModule} from before a transaction commits to after it has committed or
+ * rolled back.
+ */
+public final class CommitState {
+
+    private final Set<Long> touchedNodes;
+    private final DegreeDeltas deferredDeltas;
+    private final long sequence;
+
+    /**
+     * Construct a new state.
+     *
+     * @param touchedNodes   IDs of nodes whose degrees (potentially) change in the transaction, null if not needed.
+     * @param deferredDeltas degree deltas to be applied after the transaction commits, null if they have been applied
+     *                       within the transaction.
+     * @param sequence       number of the deferred deltas, in which order they must be applied, -1 if there are none.
+     */
+    CommitState(Set<Long> touchedNodes, DegreeDeltas deferredDeltas, long sequence) {
+        this.touchedNodes = touchedNodes;
+        this.deferredDeltas = deferredDeltas;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return IDs of nodes whose degrees (potentially) change in the transaction, null if not needed.
+     */
+    public Set<Long> getTouchedNodes() {
+        return touchedNodes;
+    }
+
+    /**
+     * @return degree deltas to be applied after the transaction commits, null if they have been applied within it.
+     */
+    public DegreeDeltas getDeferredDeltas() {
+        return deferredDeltas;
+    }
+
+    /**
+     * @return sequence number of the deferred degree deltas, -1 if there are none.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,117 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.module.relcount.cache.NodeBasedDegreeCache;
+import com.graphaware.module.relcount.cache.PerDatabaseRegistry;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically merges shards of cached degrees of hot nodes back into the nodes' own cached degrees, on a dedicated
+ * background thread, each node in its own transaction. See {@link com.graphaware.module.relcount.cache.DegreeShards}.
+ */
+class DegreeShardMerger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DegreeShardMerger.class);
+
+    private static final long MERGE_INTERVAL_MS = 1000;
+
+    private final NodeBasedDegreeCache degreeCache;
+    private final WriteBehindDegreeMaintainer writeBehind;
+    private final AtomicLong merges = new AtomicLong();
+    private ScheduledExecutorService executor;
+
+    /**
+     * Construct a new merger.
+     *
+     * @param degreeCache which knows sharded nodes and merges their shards.
+     * @param writeBehind maintainer of cached degrees, through which shards are merged if cached degrees are maintained
+     *                    asynchronously, null otherwise.
+     */
+    DegreeShardMerger(NodeBasedDegreeCache degreeCache, WriteBehindDegreeMaintainer writeBehind) {
+        this.degreeCache = degreeCache;
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Start merging shards periodically.
+     *
+     * @param database to merge shards in.
+     */
+    synchronized void start(final GraphDatabaseService database) {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(PerDatabaseRegistry.daemonThreads("relcount-shard-merger"));
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                mergeAll(database);
+            }
+        }, MERGE_INTERVAL_MS, MERGE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop merging shards. Shards not merged yet stay in place and are still counted.
+     */
+    synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(MERGE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        executor = null;
+    }
+
+    /**
+     * Merge shards of all nodes known to be sharded.
+     *
+     * @param database to merge shards in.
+     */
+    void mergeAll(GraphDatabaseService database) {
+        for (long nodeId : degreeCache.getShardedNodes()) {
+            try {
+                merge(database, nodeId);
+            } catch (RuntimeException e) {
+                //e.g. a deadlock with transactions writing to the shards, will be merged next time
+                LOG.debug("Failed to merge shards of node " + nodeId, e);
+                continue;
+            }
+
+            merges.incrementAndGet();
+        }
+    }
+
+    private void merge(GraphDatabaseService database, long nodeId) {
+        if (writeBehind != null) {
+            writeBehind.mergeShards(database, nodeId);
+            return;
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            degreeCache.mergeShards(database, nodeId);
+            tx.success();
+        }
+    }
+
+    /**
+     * @return number of nodes whose shards have been merged.
+     */
+    long getMerges() {
+        return merges.get();
+    }
+}
@@ -0,0 +1,102 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.common.serialize.Serializer;
+import com.graphaware.module.relcount.cache.GraphWideProperties;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Arrays;
+
+/**
+ * Progress of building cached counts for all nodes, persisted as graph properties (see {@link GraphWideProperties}),
+ * so that a build interrupted by a restart can continue where it stopped.
+ * <p/>
+ * The checkpoint consists of a watermark, i.e. a node ID such that counts of all nodes with lower IDs have been built,
+ * and a fingerprint of the configuration the counts have been built with. Only settings that affect the contents of
+ * cached counts are fingerprinted, i.e. the degree caching strategy, the compaction strategy (including its threshold)
+ * and the inclusion policies; operational settings, such as the number of initialization threads, are not. A checkpoint
+ * with a different fingerprint is ignored.
+ * <p/>
+ * All methods run in their own transactions and must not be called within another transaction.
+ */
+public class InitializationCheckpoint {
+
+    private static final String WATERMARK = "INIT_WATERMARK";
+    private static final String FINGERPRINT = "INIT_FINGERPRINT";
+
+    private final GraphDatabaseService database;
+    private final String watermarkKey;
+    private final String fingerprintKey;
+    private final String fingerprint;
+
+    /**
+     * Construct a new checkpoint.
+     *
+     * @param database      the checkpoint is stored in.
+     * @param prefix        of the module the checkpoint is for.
+     * @param configuration of the module.
+     */
+    public InitializationCheckpoint(GraphDatabaseService database, String prefix, RelationshipCountConfiguration configuration) {
+        this.database = database;
+        this.watermarkKey = prefix + WATERMARK;
+        this.fingerprintKey = prefix + FINGERPRINT;
+        this.fingerprint = fingerprint(configuration);
+    }
+
+    /**
+     * Compute the fingerprint of the settings that affect the contents of cached counts.
+     *
+     * @param configuration of the module.
+     * @return fingerprint.
+     */
+    private static String fingerprint(RelationshipCountConfiguration configuration) {
+        int hash = Arrays.hashCode(Serializer.toByteArray(configuration.getDegreeCachingStrategy()));
+        hash = 31 * hash + Arrays.hashCode(Serializer.toByteArray(configuration.getCompactionStrategy()));
+        hash = 31 * hash + Arrays.hashCode(Serializer.toByteArray(configuration.getInclusionPolicies()));
+        return Integer.toHexString(hash);
+    }
+
+    /**
+     * Get the ID of the node from which to continue building counts.
+     *
+     * @return watermark of the last build with the same configuration, 0 if there's none.
+     */
+    public long load() {
+        try (Transaction tx = database.beginTx()) {
+            PropertyContainer properties = GraphWideProperties.of(database);
+
+            if (!fingerprint.equals(properties.getProperty(fingerprintKey, null))) {
+                return 0;
+            }
+
+            return (Long) properties.getProperty(watermarkKey, 0L);
+        }
+    }
+
+    /**
+     * Save progress.
+     *
+     * @param watermark node ID such that counts of all nodes with lower IDs have been built.
+     */
+    public void save(long watermark) {
+        try (Transaction tx = database.beginTx()) {
+            PropertyContainer properties = GraphWideProperties.of(database);
+            properties.setProperty(fingerprintKey, fingerprint);
+            properties.setProperty(watermarkKey, watermark);
+            tx.success();
+        }
+    }
+
+    /**
+     * Remove the checkpoint, once the build has finished.
+     */
+    public void clear() {
+        try (Transaction tx = database.beginTx()) {
+            PropertyContainer properties = GraphWideProperties.of(database);
+            properties.removeProperty(fingerprintKey);
+            properties.removeProperty(watermarkKey);
+            tx.success();
+        }
+    }
+}
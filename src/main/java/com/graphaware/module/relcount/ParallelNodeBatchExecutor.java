@@ -0,0 +1,231 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.tx.executor.batch.UnitOfWork;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executes a {@link UnitOfWork} for every node in the database using multiple threads. The node ID space is split into
+ * chunks of consecutive IDs, which the threads take one by one; each chunk is processed in its own transaction.
+ * Progress and throughput are logged periodically.
+ * <p/>
+ * Processing can start from a given node ID, and a {@link Checkpoint} can be notified as chunks complete, which makes
+ * it possible to resume processing that has been interrupted.
+ * <p/>
+ * The unit of work must only modify the node it is given, so that transactions of different threads don't contend
+ * for the same locks.
+ */
+public class ParallelNodeBatchExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelNodeBatchExecutor.class);
+
+    private static final long REPORT_INTERVAL_MS = 10000;
+    private static final long CHECKPOINT_INTERVAL_MS = 1000;
+
+    /**
+     * Notified of progress.
+     */
+    public interface Checkpoint {
+
+        /**
+         * All nodes with IDs lower than the given one have been processed and the transactions committed.
+         * Called outside of any transaction, by one thread at a time.
+         *
+         * @param watermark ID of the first node that might not have been processed yet.
+         */
+        void reached(long watermark);
+    }
+
+    private final GraphDatabaseService database;
+    private final int batchSize;
+    private final int numberOfThreads;
+    private final UnitOfWork<Node> unitOfWork;
+    private final long startId;
+    private final Checkpoint checkpoint;
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    //guarded by completedChunks
+    private final Set<Long> completedChunks = new HashSet<>();
+    private long watermark;
+    private long lastCheckpoint;
+
+    /**
+     * Construct a new executor.
+     *
+     * @param database        to execute the unit of work against.
+     * @param batchSize       number of consecutive node IDs processed in a single transaction.
+     * @param numberOfThreads number of threads processing the nodes.
+     * @param unitOfWork      to execute for every node.
+     */
+    public ParallelNodeBatchExecutor(GraphDatabaseService database, int batchSize, int numberOfThreads, UnitOfWork<Node> unitOfWork) {
+        this(database, batchSize, numberOfThreads, unitOfWork, 0, null);
+    }
+
+    /**
+     * Construct a new executor.
+     *
+     * @param database        to execute the unit of work against.
+     * @param batchSize       number of consecutive node IDs processed in a single transaction.
+     * @param numberOfThreads number of threads processing the nodes.
+     * @param unitOfWork      to execute for every node.
+     * @param startId         ID of the first node to process.
+     * @param checkpoint      to notify of progress, can be null.
+     */
+    public ParallelNodeBatchExecutor(GraphDatabaseService database, int batchSize, int numberOfThreads, UnitOfWork<Node> unitOfWork, long startId, Checkpoint checkpoint) {
+        if (batchSize < 1 || numberOfThreads < 1) {
+            throw new IllegalArgumentException("Batch size and number of threads must be positive");
+        }
+
+        this.database = database;
+        this.batchSize = batchSize;
+        this.numberOfThreads = numberOfThreads;
+        this.unitOfWork = unitOfWork;
+        this.startId = startId;
+        this.checkpoint = checkpoint;
+        this.nextId.set(startId);
+        this.watermark = startId;
+    }
+
+    /**
+     * Execute the unit of work for all nodes and wait until done.
+     *
+     * @throws RuntimeException if the unit of work failed for any of the nodes. Chunks processed by then stay committed.
+     */
+    public void execute() {
+        final long highestId = highestNodeId();
+        final long start = System.currentTimeMillis();
+        lastReport.set(start);
+
+        LOG.info("Processing nodes with IDs from " + startId + " to " + highestId + " using " + numberOfThreads + " threads, " + batchSize + " nodes per transaction");
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int threadNumber = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processChunks(highestId, threadNumber, start);
+                }
+            }, "relcount-initializer-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, new RuntimeException("Interrupted while waiting for nodes to be processed", e));
+                break;
+            }
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        LOG.info("Processed " + processed.get() + " nodes in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void processChunks(long highestId, int threadNumber, long start) {
+        int batchNumber = 0;
+
+        while (failure.get() == null) {
+            long from = nextId.getAndAdd(batchSize);
+            if (from > highestId) {
+                return;
+            }
+
+            long to = Math.min(from + batchSize - 1, highestId);
+
+            try {
+                processChunk(from, to, ++batchNumber);
+            } catch (RuntimeException e) {
+                LOG.error("Failed to process nodes with IDs " + from + " to " + to + " in thread " + threadNumber, e);
+                failure.compareAndSet(null, e);
+                return;
+            }
+
+            completed(from);
+            report(highestId, start);
+        }
+    }
+
+    private void completed(long chunkStart) {
+        if (checkpoint == null) {
+            return;
+        }
+
+        synchronized (completedChunks) {
+            completedChunks.add(chunkStart);
+            while (completedChunks.remove(watermark)) {
+                watermark += batchSize;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+                lastCheckpoint = now;
+                checkpoint.reached(watermark);
+            }
+        }
+    }
+
+    private void processChunk(long from, long to, int batchNumber) {
+        int stepNumber = 0;
+
+        try (Transaction tx = database.beginTx()) {
+            for (long id = from; id <= to; id++) {
+                Node node;
+                try {
+                    node = database.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue;
+                }
+
+                unitOfWork.execute(database, node, batchNumber, ++stepNumber);
+            }
+
+            tx.success();
+        }
+
+        processed.addAndGet(stepNumber);
+    }
+
+    private void report(long highestId, long start) {
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+
+        if (now - last < REPORT_INTERVAL_MS || !lastReport.compareAndSet(last, now)) {
+            return;
+        }
+
+        long scanned = Math.min(nextId.get(), highestId + 1);
+        long elapsed = Math.max(1, now - start);
+
+        LOG.info("Processed " + processed.get() + " nodes, scanned " + (100 * scanned / (highestId + 1)) + "% of node IDs, "
+                + (processed.get() * 1000 / elapsed) + " nodes/s");
+    }
+
+    private long highestNodeId() {
+        return ((GraphDatabaseAPI) database).getDependencyResolver().resolveDependency(IdGeneratorFactory.class).get(IdType.NODE).getHighestPossibleIdInUse();
+    }
+}
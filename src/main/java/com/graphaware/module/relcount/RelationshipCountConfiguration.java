@@ -25,4 +25,43 @@ public interface RelationshipCountConfiguration extends TxDrivenModuleConfigurat
      * @return contained relationship weighing strategy.
      */
     WeighingStrategy getWeighingStrategy();
+
+    /**
+     * @return maximum number of nodes whose decoded cached degrees are kept in memory by
+     *         {@link com.graphaware.module.relcount.cache.DecodedDegreeCache}, 0 if disabled.
+     */
+    int getDecodedDegreeCacheSize();
+
+    /**
+     * @return number of threads building cached counts when the module is (re-)initialized, at least 1.
+     */
+    int getInitializationThreads();
+
+    /**
+     * @return maximum number of naive counts remembered by
+     *         {@link com.graphaware.module.relcount.count.FallbackResultCache}, 0 if disabled.
+     */
+    int getFallbackResultCacheSize();
+
+    /**
+     * @return maximum number of transactions whose degree changes are queued to be applied to cached degrees
+     *         asynchronously, 0 if cached degrees are maintained synchronously.
+     */
+    int getWriteBehindQueueSize();
+
+    /**
+     * @return number of shards cached degrees of hot nodes are spread over, 0 if sharding is disabled.
+     */
+    int getDegreeShards();
+
+    /**
+     * @return sum of cached degrees from which a node is considered hot and its cached degrees are sharded.
+     */
+    int getHotNodeThreshold();
+
+    /**
+     * @return true iff the module should collect metrics and expose them through JMX, see
+     *         {@link com.graphaware.module.relcount.metrics.RelcountMetrics}.
+     */
+    boolean isMetricsEnabled();
 }
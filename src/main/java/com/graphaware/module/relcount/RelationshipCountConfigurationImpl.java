@@ -20,11 +20,21 @@ import com.graphaware.runtime.policy.all.IncludeAllBusinessRelationships;
 public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfiguration<RelationshipCountConfigurationImpl> implements RelationshipCountConfiguration {
 
     private static final int DEFAULT_COMPACTION_THRESHOLD = 20;
+    private static final int DEFAULT_HOT_NODE_THRESHOLD = 10000;
 
     private final DegreeCachingStrategy degreeCachingStrategy;
     private final CompactionStrategy compactionStrategy;
     private final WeighingStrategy weighingStrategy;
 
+    //operational settings, do not affect what is written to the graph, thus not persisted and not part of equals
+    private transient int decodedDegreeCacheSize;
+    private transient int initializationThreads;
+    private transient int fallbackResultCacheSize;
+    private transient int writeBehindQueueSize;
+    private transient int degreeShards;
+    private transient int hotNodeThreshold;
+    private transient boolean metricsEnabled;
+
     /**
      * Create default strategies.
      *
@@ -58,12 +68,29 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
         this.weighingStrategy = weighingStrategy;
     }
 
+    /**
+     * Copy operational settings of this instance to a reconfigured one.
+     *
+     * @param reconfigured instance.
+     * @return reconfigured instance.
+     */
+    private RelationshipCountConfigurationImpl withOperationalSettings(RelationshipCountConfigurationImpl reconfigured) {
+        reconfigured.decodedDegreeCacheSize = decodedDegreeCacheSize;
+        reconfigured.initializationThreads = initializationThreads;
+        reconfigured.fallbackResultCacheSize = fallbackResultCacheSize;
+        reconfigured.writeBehindQueueSize = writeBehindQueueSize;
+        reconfigured.degreeShards = degreeShards;
+        reconfigured.hotNodeThreshold = hotNodeThreshold;
+        reconfigured.metricsEnabled = metricsEnabled;
+        return reconfigured;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected RelationshipCountConfigurationImpl newInstance(InclusionPolicies inclusionPolicies) {
-        return new RelationshipCountConfigurationImpl(inclusionPolicies, getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy());
+        return withOperationalSettings(new RelationshipCountConfigurationImpl(inclusionPolicies, getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy()));
     }
 
     /**
@@ -73,7 +100,7 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      * @return reconfigured strategies.
      */
     public RelationshipCountConfigurationImpl with(DegreeCachingStrategy degreeCachingStrategy) {
-        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), degreeCachingStrategy, getCompactionStrategy(), getWeighingStrategy());
+        return withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), degreeCachingStrategy, getCompactionStrategy(), getWeighingStrategy()));
     }
 
     /**
@@ -83,7 +110,7 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      * @return reconfigured strategies.
      */
     public RelationshipCountConfigurationImpl with(CompactionStrategy compactionStrategy) {
-        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), compactionStrategy, getWeighingStrategy());
+        return withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), compactionStrategy, getWeighingStrategy()));
     }
 
     /**
@@ -93,7 +120,7 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      * @return reconfigured strategies.
      */
     public RelationshipCountConfigurationImpl withThreshold(int threshold) {
-        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), new ThresholdBasedCompactionStrategy(threshold), getWeighingStrategy());
+        return withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), new ThresholdBasedCompactionStrategy(threshold), getWeighingStrategy()));
     }
 
     /**
@@ -103,7 +130,109 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
      * @return reconfigured strategies.
      */
     public RelationshipCountConfigurationImpl with(WeighingStrategy weighingStrategy) {
-        return new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), weighingStrategy);
+        return withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), weighingStrategy));
+    }
+
+    /**
+     * Reconfigure this instance to keep decoded cached degrees of up to the given number of nodes in memory, so that
+     * counting relationships of frequently counted nodes doesn't need to read and decode their cached degrees every time.
+     * The in-memory cache is disabled by default.
+     *
+     * @param decodedDegreeCacheSize maximum number of nodes whose decoded degrees are kept in memory, 0 to disable.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withDecodedDegreeCacheSize(int decodedDegreeCacheSize) {
+        RelationshipCountConfigurationImpl reconfigured = withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy()));
+        reconfigured.decodedDegreeCacheSize = decodedDegreeCacheSize;
+        return reconfigured;
+    }
+
+    /**
+     * Reconfigure this instance to build cached counts using multiple threads when the module is (re-)initialized.
+     * Nodes are processed in a single thread by default.
+     *
+     * @param initializationThreads number of threads building cached counts.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withInitializationThreads(int initializationThreads) {
+        RelationshipCountConfigurationImpl reconfigured = withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy()));
+        reconfigured.initializationThreads = initializationThreads;
+        return reconfigured;
+    }
+
+    /**
+     * Reconfigure this instance to remember up to the given number of results of naive counting done by fallback
+     * counters when cached degrees aren't granular enough, so that the same relationships of the same node aren't
+     * counted naively over and over again until they change. The in-memory cache is disabled by default.
+     *
+     * @param fallbackResultCacheSize maximum number of remembered naive counts, 0 to disable.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withFallbackResultCacheSize(int fallbackResultCacheSize) {
+        RelationshipCountConfigurationImpl reconfigured = withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy()));
+        reconfigured.fallbackResultCacheSize = fallbackResultCacheSize;
+        return reconfigured;
+    }
+
+    /**
+     * Reconfigure this instance to maintain cached degrees asynchronously. Degree changes of committed transactions are
+     * queued and applied in batches by a background thread, so that committing transactions don't spend time and hold
+     * locks maintaining cached degrees. Cached degrees become eventually consistent, see
+     * {@link RelationshipCountModule#awaitCachedDegrees(long, java.util.concurrent.TimeUnit)}. Cached degrees are
+     * maintained synchronously by default.
+     *
+     * @param writeBehindQueueSize maximum number of transactions whose degree changes are queued before committing
+     *                             transactions have to wait, 0 to maintain cached degrees synchronously.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withWriteBehindQueueSize(int writeBehindQueueSize) {
+        RelationshipCountConfigurationImpl reconfigured = withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy()));
+        reconfigured.writeBehindQueueSize = writeBehindQueueSize;
+        return reconfigured;
+    }
+
+    /**
+     * Reconfigure this instance to shard cached degrees of nodes with at least 10000 cached relationships, see
+     * {@link #withDegreeSharding(int, int)}.
+     *
+     * @param degreeShards number of shards per hot node, 0 to disable sharding.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withDegreeSharding(int degreeShards) {
+        return withDegreeSharding(degreeShards, DEFAULT_HOT_NODE_THRESHOLD);
+    }
+
+    /**
+     * Reconfigure this instance to shard cached degrees of hot nodes. Degree changes of a hot node are then written to
+     * one of its shards (satellite nodes) picked for each transaction, rather than to the node itself, so that concurrent
+     * transactions creating relationships to the same node don't each re-read and re-write all its cached degrees
+     * while holding the lock on it. Shards are summed
+     * when counting and periodically merged back into the node. See {@link com.graphaware.module.relcount.cache.DegreeShards}.
+     * Sharding is disabled by default.
+     *
+     * @param degreeShards     number of shards per hot node, 0 to disable sharding.
+     * @param hotNodeThreshold sum of cached degrees from which a node is considered hot and sharded.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withDegreeSharding(int degreeShards, int hotNodeThreshold) {
+        RelationshipCountConfigurationImpl reconfigured = withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy()));
+        reconfigured.degreeShards = degreeShards;
+        reconfigured.hotNodeThreshold = hotNodeThreshold;
+        return reconfigured;
+    }
+
+    /**
+     * Reconfigure this instance to collect metrics (latencies of commits, counting and compaction, sizes of cached
+     * degrees, fallbacks, etc.) and expose them through JMX. Metrics are disabled by default, in which case collecting
+     * them costs a single branch per instrumented operation.
+     *
+     * @param metricsEnabled true to collect metrics.
+     * @return reconfigured strategies.
+     */
+    public RelationshipCountConfigurationImpl withMetricsEnabled(boolean metricsEnabled) {
+        RelationshipCountConfigurationImpl reconfigured = withOperationalSettings(new RelationshipCountConfigurationImpl(getInclusionPolicies(), getDegreeCachingStrategy(), getCompactionStrategy(), getWeighingStrategy()));
+        reconfigured.metricsEnabled = metricsEnabled;
+        return reconfigured;
     }
 
     /**
@@ -130,6 +259,62 @@ public class RelationshipCountConfigurationImpl extends BaseTxDrivenModuleConfig
         return weighingStrategy;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDecodedDegreeCacheSize() {
+        return decodedDegreeCacheSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInitializationThreads() {
+        return Math.max(1, initializationThreads);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getFallbackResultCacheSize() {
+        return fallbackResultCacheSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWriteBehindQueueSize() {
+        return writeBehindQueueSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getDegreeShards() {
+        return degreeShards;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getHotNodeThreshold() {
+        return hotNodeThreshold > 0 ? hotNodeThreshold : DEFAULT_HOT_NODE_THRESHOLD;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
     /**
      * {@inheritDoc}
      */
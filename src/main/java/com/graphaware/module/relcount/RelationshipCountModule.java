@@ -1,24 +1,38 @@
 package com.graphaware.module.relcount;
 
 import com.graphaware.common.util.Change;
+import com.graphaware.module.relcount.cache.DecodedDegreeCache;
+import com.graphaware.module.relcount.cache.DegreeDeltas;
+import com.graphaware.module.relcount.cache.DegreeShards;
 import com.graphaware.module.relcount.cache.NodeBasedDegreeCache;
+import com.graphaware.module.relcount.cache.PropertyChangeStatsCache;
+import com.graphaware.module.relcount.compact.GeneralizationTemplates;
+import com.graphaware.module.relcount.compact.TemplateLearningCompactionStrategy;
+import com.graphaware.module.relcount.count.FallbackResultCache;
+import com.graphaware.module.relcount.count.QueryStatistics;
+import com.graphaware.module.relcount.metrics.Gauge;
+import com.graphaware.module.relcount.metrics.GaugeGroup;
+import com.graphaware.module.relcount.metrics.JmxMetrics;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
 import com.graphaware.runtime.RuntimeRegistry;
 import com.graphaware.runtime.metadata.TxDrivenModuleMetadata;
 import com.graphaware.runtime.module.TxDrivenModule;
 import com.graphaware.tx.event.improved.api.ImprovedTransactionData;
-import com.graphaware.tx.event.improved.propertycontainer.filtered.FilteredNode;
-import com.graphaware.tx.executor.batch.IterableInputBatchTransactionExecutor;
 import com.graphaware.tx.executor.batch.UnitOfWork;
-import com.graphaware.tx.executor.input.AllNodes;
-import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
+import javax.management.ObjectName;
 
-import static org.neo4j.graphdb.Direction.INCOMING;
-import static org.neo4j.graphdb.Direction.OUTGOING;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link com.graphaware.runtime.module.RuntimeModule} providing caching capabilities for full relationship counting.
@@ -28,17 +42,32 @@ import static org.neo4j.graphdb.Direction.OUTGOING;
  * Once registered with {@link com.graphaware.runtime.GraphAwareRuntime}, relationship
  * counts will be cached on nodes properties. {@link com.graphaware.module.relcount.count.CachedRelationshipCounter} or {@link com.graphaware.module.relcount.count.LegacyFallbackRelationshipCounter} can then be used to
  * count relationships by querying these cached counts.
+ * <p/>
+ * Cached counts are maintained synchronously, within the transactions that change relationships, unless configured to
+ * be maintained asynchronously using {@link RelationshipCountConfigurationImpl#withWriteBehindQueueSize(int)}.
+ * <p/>
+ * If enabled using {@link RelationshipCountConfigurationImpl#withMetricsEnabled(boolean)}, the module collects
+ * {@link RelcountMetrics} and exposes them through JMX while it is running.
  */
-public class RelationshipCountModule implements TxDrivenModule<Void> {
+public class RelationshipCountModule implements TxDrivenModule<CommitState> {
 
     /**
      * Default ID of this module used to identify metadata written by this module.
      */
     public static final String FULL_RELCOUNT_DEFAULT_ID = "FRC";
 
+    private static final Logger LOG = LoggerFactory.getLogger(RelationshipCountModule.class);
+
     private final String id;
     private final RelationshipCountConfiguration relationshipCountConfiguration;
     private final NodeBasedDegreeCache relationshipCountCache;
+    private final DecodedDegreeCache decodedDegreeCache;
+    private final FallbackResultCache fallbackResultCache;
+    private final WriteBehindDegreeMaintainer writeBehind;
+    private final DegreeShardMerger shardMerger;
+    private final RelcountMetrics metrics;
+    private volatile QueryStatistics queryStatistics = QueryStatistics.DISABLED;
+    private volatile ObjectName metricsName;
 
     /**
      * Create a module with default ID and configuration. Use this constructor when you wish to register a single
@@ -71,7 +100,105 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
     public RelationshipCountModule(String id, RelationshipCountConfiguration relationshipCountConfiguration) {
         this.id = id;
         this.relationshipCountConfiguration = relationshipCountConfiguration;
-        this.relationshipCountCache = new NodeBasedDegreeCache(id, relationshipCountConfiguration);
+        this.metrics = relationshipCountConfiguration.isMetricsEnabled() ? new RelcountMetrics(true) : RelcountMetrics.DISABLED;
+        this.relationshipCountCache = new NodeBasedDegreeCache(id, relationshipCountConfiguration, metrics);
+        this.decodedDegreeCache = new DecodedDegreeCache(relationshipCountConfiguration.getDecodedDegreeCacheSize());
+        this.fallbackResultCache = new FallbackResultCache(relationshipCountConfiguration.getFallbackResultCacheSize());
+
+        if (relationshipCountConfiguration.getWriteBehindQueueSize() > 0) {
+            this.writeBehind = new WriteBehindDegreeMaintainer(relationshipCountCache, relationshipCountConfiguration.getWriteBehindQueueSize(), new WriteBehindDegreeMaintainer.Listener() {
+                @Override
+                public void applied(Set<Long> nodeIds) {
+                    decodedDegreeCache.invalidate(nodeIds);
+                }
+            });
+        } else {
+            this.writeBehind = null;
+        }
+
+        this.shardMerger = relationshipCountConfiguration.getDegreeShards() > 0 ? new DegreeShardMerger(relationshipCountCache, writeBehind) : null;
+
+        if (metrics.isEnabled()) {
+            registerGauges();
+        }
+    }
+
+    /**
+     * Register statistics kept by the module's components with metrics.
+     */
+    private void registerGauges() {
+        metrics.register("repairs", new Gauge() {
+            @Override
+            public long value() {
+                return relationshipCountCache.getRepairs();
+            }
+        });
+        metrics.register("decodedDegreeCacheHits", new Gauge() {
+            @Override
+            public long value() {
+                return decodedDegreeCache.getHits();
+            }
+        });
+        metrics.register("decodedDegreeCacheMisses", new Gauge() {
+            @Override
+            public long value() {
+                return decodedDegreeCache.getMisses();
+            }
+        });
+        metrics.register("decodedDegreeCacheEvictions", new Gauge() {
+            @Override
+            public long value() {
+                return decodedDegreeCache.getEvictions();
+            }
+        });
+        metrics.register("fallbackResultCacheHits", new Gauge() {
+            @Override
+            public long value() {
+                return fallbackResultCache.getHits();
+            }
+        });
+        metrics.register("fallbackResultCacheMisses", new Gauge() {
+            @Override
+            public long value() {
+                return fallbackResultCache.getMisses();
+            }
+        });
+        metrics.register("pendingDegreeUpdates", new Gauge() {
+            @Override
+            public long value() {
+                return getPendingDegreeUpdates();
+            }
+        });
+        metrics.register("writeBehindBatches", new Gauge() {
+            @Override
+            public long value() {
+                return writeBehind == null ? 0 : writeBehind.getBatches();
+            }
+        });
+        metrics.register("writeBehindFailures", new Gauge() {
+            @Override
+            public long value() {
+                return writeBehind == null ? 0 : writeBehind.getFailures();
+            }
+        });
+        metrics.register("shardedNodes", new Gauge() {
+            @Override
+            public long value() {
+                return relationshipCountCache.getShardedNodes().size();
+            }
+        });
+        metrics.register("shardMerges", new Gauge() {
+            @Override
+            public long value() {
+                return shardMerger == null ? 0 : shardMerger.getMerges();
+            }
+        });
+        metrics.register("fallbackRate", new GaugeGroup() {
+            @Override
+            public Map<String, ? extends Number> values() {
+                return queryStatistics.getFallbackRates();
+            }
+        });
     }
 
     /**
@@ -79,7 +206,28 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
      */
     @Override
     public void start(GraphDatabaseService database) {
-        //do nothing
+        if (relationshipCountConfiguration.getCompactionStrategy() instanceof TemplateLearningCompactionStrategy) {
+            //created up front, so that it can see compactions of the very first transaction commit
+            GeneralizationTemplates.of(database, prefix(database));
+        }
+
+        //created up front for the same reason, keeps statistics of compacted nodes across transactions
+        PropertyChangeStatsCache.of(database, prefix(database));
+
+        if (writeBehind != null) {
+            writeBehind.start(database);
+        }
+
+        if (shardMerger != null) {
+            shardMerger.start(database);
+        }
+
+        //the same statistics the module's counters record to, nothing is recorded unless the compaction strategy uses them
+        queryStatistics = QueryStatistics.forCounting(database, prefix(database), relationshipCountConfiguration);
+
+        if (metrics.isEnabled()) {
+            metricsName = JmxMetrics.register(metrics, id);
+        }
     }
 
     /**
@@ -87,7 +235,16 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
      */
     @Override
     public void shutdown() {
-        //do nothing
+        if (writeBehind != null) {
+            writeBehind.stop();
+        }
+
+        if (shardMerger != null) {
+            shardMerger.stop();
+        }
+
+        JmxMetrics.unregister(metricsName);
+        metricsName = null;
     }
 
     /**
@@ -106,12 +263,91 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
         return relationshipCountConfiguration;
     }
 
+    /**
+     * Get the in-memory cache of decoded degrees, shared by all counters reading degrees cached by this module.
+     *
+     * @return decoded degree cache, disabled unless configured using {@link RelationshipCountConfigurationImpl#withDecodedDegreeCacheSize(int)}.
+     */
+    public DecodedDegreeCache getDecodedDegreeCache() {
+        return decodedDegreeCache;
+    }
+
+    /**
+     * Get the in-memory cache of naive counts, shared by all fallback counters counting relationships cached by this module.
+     *
+     * @return fallback result cache, disabled unless configured using {@link RelationshipCountConfigurationImpl#withFallbackResultCacheSize(int)}.
+     */
+    public FallbackResultCache getFallbackResultCache() {
+        return fallbackResultCache;
+    }
+
+    /**
+     * Get metrics collected by this module, shared by all counters counting relationships cached by it.
+     *
+     * @return metrics, disabled unless configured using {@link RelationshipCountConfigurationImpl#withMetricsEnabled(boolean)}.
+     */
+    public RelcountMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Wait until degree changes of all transactions committed so far are reflected in cached degrees. Returns
+     * immediately when cached degrees are maintained synchronously.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit    of the timeout.
+     * @return true iff cached degrees have caught up with transactions committed before this method was called.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitCachedDegrees(long timeout, TimeUnit unit) throws InterruptedException {
+        return writeBehind == null || writeBehind.await(timeout, unit);
+    }
+
+    /**
+     * Get the number of committed transactions whose degree changes haven't been applied to cached degrees yet.
+     *
+     * @return number of transactions, always 0 when cached degrees are maintained synchronously.
+     */
+    public long getPendingDegreeUpdates() {
+        return writeBehind == null ? 0 : writeBehind.getPending();
+    }
+
+    /**
+     * Merge shards of cached degrees of all sharded nodes back into the nodes' own cached degrees now, rather than
+     * waiting for the background merge. Does nothing unless sharding is enabled using
+     * {@link RelationshipCountConfigurationImpl#withDegreeSharding(int)}. Must not be called within a transaction.
+     *
+     * @param database to merge shards in.
+     */
+    public void mergeDegreeShards(GraphDatabaseService database) {
+        if (shardMerger != null) {
+            shardMerger.mergeAll(database);
+        }
+    }
+
+    /**
+     * Get the number of nodes whose cached degrees have been found out of sync with their relationships and recounted.
+     *
+     * @return number of repaired nodes since the module was created.
+     */
+    public long getRepairCount() {
+        return relationshipCountCache.getRepairs();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void initialize(GraphDatabaseService database) {
+        //templates learned with a previous configuration would be applied while building cached counts
+        GeneralizationTemplates.clear(database, prefix(database));
+        PropertyChangeStatsCache statsCache = PropertyChangeStatsCache.existing(database, prefix(database));
+        if (statsCache != null) {
+            statsCache.clear();
+        }
         buildCachedCounts(database);
+        decodedDegreeCache.invalidateAll();
+        fallbackResultCache.invalidateAll();
     }
 
     /**
@@ -119,7 +355,7 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
      */
     @Override
     public void reinitialize(GraphDatabaseService database, TxDrivenModuleMetadata oldMetadata) {
-        clearCachedCounts(database);
+        //cached counts of each node are cleared just before they are rebuilt, no need for a separate pass
         initialize(database);
     }
 
@@ -127,42 +363,132 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
      * {@inheritDoc}
      */
     @Override
-    public Void beforeCommit(ImprovedTransactionData transactionData) {
+    public CommitState beforeCommit(ImprovedTransactionData transactionData) {
+        long start = metrics.start();
+
+        if (writeBehind != null && changesRelationships(transactionData)) {
+            //backpressure before any nodes are locked below, the wait is bounded as the transaction holds locks of its own
+            writeBehind.awaitSpace(WriteBehindDegreeMaintainer.MAX_BACKPRESSURE_WAIT_MS);
+        }
+
+        Set<Long> touchedNodes = null;
+        if (decodedDegreeCache.isEnabled() || fallbackResultCache.isEnabled()) {
+            touchedNodes = touchedNodes(transactionData);
+            invalidate(touchedNodes);
+        }
+
         relationshipCountCache.startCaching();
 
+        DegreeDeltas deferredDeltas = null;
         try {
             handleCreatedRelationships(transactionData);
             handleDeletedRelationships(transactionData);
             handleChangedRelationships(transactionData);
+            handleDeletedNodes(transactionData);
         } finally {
-            relationshipCountCache.endCaching();
+            if (writeBehind == null) {
+                relationshipCountCache.endCaching();
+            } else {
+                deferredDeltas = relationshipCountCache.endCachingDeferred();
+            }
         }
 
-        return null;
+        //the nodes are locked by now, so transactions changing degrees of the same nodes are numbered in commit order
+        long sequence = deferredDeltas == null || deferredDeltas.isEmpty() ? -1 : writeBehind.sequence();
+
+        metrics.stop(RelcountMetrics.Operation.BEFORE_COMMIT, start);
+
+        return new CommitState(touchedNodes, deferredDeltas, sequence);
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Invalidates decoded degrees and naive counts of touched nodes once more, as they could have been read and cached
+     * again by other transactions before this one committed.
+     * <p/>
+     * When cached degrees are maintained asynchronously, degree changes of the transaction are queued. Nothing waits
+     * here, transactions wait for space in the queue before they commit.
      */
     @Override
-    public void afterCommit(Void state) {
-        //do nothing
+    public void afterCommit(CommitState state) {
+        if (state.getTouchedNodes() != null) {
+            invalidate(state.getTouchedNodes());
+        }
+
+        if (state.getSequence() >= 0) {
+            writeBehind.queue(state.getSequence(), state.getDeferredDeltas());
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void afterRollback(Void state) {
-        //do nothing
+    public void afterRollback(CommitState state) {
+        if (state != null && state.getTouchedNodes() != null) {
+            invalidate(state.getTouchedNodes());
+        }
+
+        if (state != null && state.getSequence() >= 0) {
+            writeBehind.skip(state.getSequence());
+        }
+    }
+
+    /**
+     * Invalidate everything cached in memory about the given nodes.
+     *
+     * @param touchedNodes IDs of nodes whose relationships (potentially) change.
+     */
+    private void invalidate(Set<Long> touchedNodes) {
+        decodedDegreeCache.invalidate(touchedNodes);
+        fallbackResultCache.invalidate(touchedNodes);
+    }
+
+    /**
+     * Does a transaction create, delete, or change any relationships?
+     *
+     * @param data about the transaction.
+     * @return true iff it does.
+     */
+    private boolean changesRelationships(ImprovedTransactionData data) {
+        return !data.getAllCreatedRelationships().isEmpty()
+                || !data.getAllDeletedRelationships().isEmpty()
+                || !data.getAllChangedRelationships().isEmpty();
+    }
+
+    /**
+     * Find IDs of all nodes whose cached degrees (potentially) change in a transaction.
+     *
+     * @param data about the transaction.
+     * @return node IDs.
+     */
+    private Set<Long> touchedNodes(ImprovedTransactionData data) {
+        Set<Long> result = new HashSet<>();
+
+        for (Relationship relationship : data.getAllCreatedRelationships()) {
+            result.add(relationship.getStartNode().getId());
+            result.add(relationship.getEndNode().getId());
+        }
+
+        for (Relationship relationship : data.getAllDeletedRelationships()) {
+            result.add(relationship.getStartNode().getId());
+            result.add(relationship.getEndNode().getId());
+        }
+
+        for (Change<Relationship> change : data.getAllChangedRelationships()) {
+            result.add(change.getCurrent().getStartNode().getId());
+            result.add(change.getCurrent().getEndNode().getId());
+        }
+
+        return result;
     }
 
     private void handleCreatedRelationships(ImprovedTransactionData data) {
         Collection<Relationship> allCreatedRelationships = data.getAllCreatedRelationships();
 
         for (Relationship createdRelationship : allCreatedRelationships) {
-            relationshipCountCache.handleCreatedRelationship(createdRelationship, createdRelationship.getStartNode(), INCOMING);
-            relationshipCountCache.handleCreatedRelationship(createdRelationship, createdRelationship.getEndNode(), OUTGOING);
+            relationshipCountCache.handleCreatedRelationship(createdRelationship, createdRelationship.getStartNode(), createdRelationship.getEndNode());
         }
     }
 
@@ -171,14 +497,12 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
 
         for (Relationship deletedRelationship : allDeletedRelationships) {
             Node startNode = deletedRelationship.getStartNode();
-            if (!data.hasBeenDeleted(startNode)) {
-                relationshipCountCache.handleDeletedRelationship(deletedRelationship, startNode, INCOMING);
-            }
-
             Node endNode = deletedRelationship.getEndNode();
-            if (!data.hasBeenDeleted(endNode)) {
-                relationshipCountCache.handleDeletedRelationship(deletedRelationship, endNode, Direction.OUTGOING);
-            }
+
+            relationshipCountCache.handleDeletedRelationship(
+                    deletedRelationship,
+                    data.hasBeenDeleted(startNode) ? null : startNode,
+                    data.hasBeenDeleted(endNode) ? null : endNode);
         }
     }
 
@@ -186,78 +510,112 @@ public class RelationshipCountModule implements TxDrivenModule<Void> {
         Collection<Change<Relationship>> allChangedRelationships = data.getAllChangedRelationships();
 
         for (Change<Relationship> changedRelationship : allChangedRelationships) {
-            Relationship current = changedRelationship.getCurrent();
-            Relationship previous = changedRelationship.getPrevious();
-
-            relationshipCountCache.handleDeletedRelationship(previous, previous.getStartNode(), Direction.INCOMING);
-            relationshipCountCache.handleDeletedRelationship(previous, previous.getEndNode(), Direction.OUTGOING);
-            relationshipCountCache.handleCreatedRelationship(current, current.getStartNode(), Direction.INCOMING);
-            relationshipCountCache.handleCreatedRelationship(current, current.getEndNode(), Direction.OUTGOING);
+            relationshipCountCache.handleChangedRelationship(changedRelationship.getPrevious(), changedRelationship.getCurrent());
         }
     }
 
     /**
-     * Clear all cached counts. NOTE: This is a potentially very expensive operation as it traverses the
-     * entire graph! Use with care.
+     * Delete shards of cached degrees of deleted nodes, they would otherwise be left behind.
      *
-     * @param database to perform the operation on.
+     * @param data about the transaction.
      */
-    private void clearCachedCounts(GraphDatabaseService database) {
-        new IterableInputBatchTransactionExecutor<>(
-                database,
-                500,
-                new AllNodes(database, 500),
-                new UnitOfWork<Node>() {
-                    @Override
-                    public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
-                        for (String key : node.getPropertyKeys()) {
-                            if (key.startsWith(RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(id))) {
-                                node.removeProperty(key);
-                            }
-                        }
-                    }
-                }
-        ).execute();
+    private void handleDeletedNodes(ImprovedTransactionData data) {
+        if (relationshipCountConfiguration.getDegreeShards() <= 0) {
+            return;
+        }
+
+        String prefix = null;
+        for (Node deletedNode : data.getAllDeletedNodes()) {
+            if (prefix == null) {
+                prefix = prefix(deletedNode.getGraphDatabase());
+            }
+
+            long[] shards = DegreeShards.shardsOf(data.getDeleted(deletedNode), prefix);
+            if (shards != null) {
+                DegreeShards.delete(deletedNode.getGraphDatabase(), shards);
+            }
+        }
     }
 
     /**
      * Clear and rebuild all cached counts. NOTE: This is a potentially very expensive operation as it traverses the
      * entire graph! Use with care.
+     * <p/>
+     * Progress is checkpointed (see {@link InitializationCheckpoint}), so that when interrupted, e.g. by a restart, the
+     * next build with the same configuration continues from where this one stopped. Since counts of each node are
+     * cleared just before they are rebuilt, processing a node again is harmless.
      *
      * @param database to perform the operation on.
      */
     private void buildCachedCounts(GraphDatabaseService database) {
-        new IterableInputBatchTransactionExecutor<>(
+        final String prefix = prefix(database);
+        final InitializationCheckpoint checkpoint = new InitializationCheckpoint(database, prefix, relationshipCountConfiguration);
+
+        long startId = checkpoint.load();
+        if (startId > 0) {
+            LOG.info("Resuming building of cached counts from node " + startId);
+        } else {
+            deleteDegreeShards(database, prefix);
+        }
+
+        new ParallelNodeBatchExecutor(
                 database,
                 100,
-                new AllNodes(database, 100),
+                relationshipCountConfiguration.getInitializationThreads(),
                 new UnitOfWork<Node>() {
                     @Override
                     public void execute(GraphDatabaseService database, Node node, int batchNumber, int stepNumber) {
-                        Node filteredNode = new FilteredNode(node, getConfiguration().getInclusionPolicies());
-
-                        buildCachedCounts(filteredNode);
-
+                        if (stepNumber == 1) {
+                            //first node of a new transaction
+                            GeneralizationTemplates.transactionStarted();
+                            PropertyChangeStatsCache.transactionStarted();
+                        }
+                        //shards are deleted or recreated when the node they belong to is rebuilt
+                        if (!DegreeShards.isShard(node, prefix)) {
+                            rebuildCachedCounts(node);
+                        }
+                    }
+                },
+                startId,
+                new ParallelNodeBatchExecutor.Checkpoint() {
+                    @Override
+                    public void reached(long watermark) {
+                        checkpoint.save(watermark);
                     }
                 }).execute();
+
+        checkpoint.clear();
     }
 
     /**
-     * Build cached counts for a node.
+     * Delete all shards of cached degrees, including those left behind by nodes deleted before shards were deleted
+     * with them, before cached counts are built from scratch.
      *
-     * @param filteredNode filtered node.
+     * @param database to delete shards in.
+     * @param prefix   of the module.
      */
-    private void buildCachedCounts(Node filteredNode) {
-        relationshipCountCache.startCaching();
-
-        for (Relationship relationship : filteredNode.getRelationships()) {
-            relationshipCountCache.handleCreatedRelationship(relationship, filteredNode, Direction.OUTGOING);
+    private void deleteDegreeShards(GraphDatabaseService database, String prefix) {
+        int deleted;
+        try (Transaction tx = database.beginTx()) {
+            deleted = DegreeShards.deleteAll(database, prefix);
+            tx.success();
+        }
 
-            if (relationship.getStartNode().getId() == relationship.getEndNode().getId()) {
-                relationshipCountCache.handleCreatedRelationship(relationship, filteredNode, Direction.INCOMING);
-            }
+        if (deleted > 0) {
+            LOG.info("Deleted " + deleted + " shards of cached degrees");
         }
+    }
 
-        relationshipCountCache.endCaching();
+    private String prefix(GraphDatabaseService database) {
+        return RuntimeRegistry.getRuntime(database).getConfiguration().createPrefix(id);
+    }
+
+    /**
+     * Clear and rebuild cached counts of a single node.
+     *
+     * @param node to rebuild counts for.
+     */
+    private void rebuildCachedCounts(Node node) {
+        relationshipCountCache.rebuild(node);
     }
 }
@@ -0,0 +1,546 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.module.relcount.cache.DegreeDeltas;
+import com.graphaware.module.relcount.cache.NodeBasedDegreeCache;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies degree deltas of committed transactions to cached degrees asynchronously, in batches, on a dedicated
+ * background thread. Committing transactions thus don't spend time maintaining cached degrees and don't hold locks
+ * while doing so; cached degrees are eventually consistent instead.
+ * <p/>
+ * Each transaction obtains a {@link #sequence()} number before it commits, while it still holds the locks of the nodes
+ * whose degrees it changes, so that transactions changing degrees of the same node are numbered in the order they
+ * commit. Deltas are queued after commit, possibly in a different order, and applied strictly in the order of their
+ * sequence numbers; a rolled back transaction must {@link #skip(long)} its number. Deltas of all transactions ready
+ * to be applied (up to {@link #MAX_BATCH_SIZE}) are merged and applied in a single transaction.
+ * <p/>
+ * Deltas of committed transactions are always accepted, since nothing may wait after commit: the committing transaction
+ * may still hold locks the background thread needs. Instead, transactions wait for the background thread to catch up
+ * before they commit, when the configured number of transactions' deltas are already waiting to be applied
+ * (backpressure, see {@link #awaitSpace(long)}). The wait is bounded, for the same reason.
+ * <p/>
+ * When cached degrees of a node are found out of sync and recounted, the recount already includes all changes committed
+ * before it, so queued deltas of the node numbered before the recount are discarded. Shards must therefore be merged
+ * using {@link #mergeShards(GraphDatabaseService, long)}, which never runs concurrently with applying a batch.
+ * <p/>
+ * A batch failing with a transient error (e.g. a deadlock) is retried with an increasing delay. A batch failing
+ * otherwise is split in halves, which are applied separately, so that only deltas of a transaction that can't be
+ * applied on their own are given up on.
+ */
+class WriteBehindDegreeMaintainer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindDegreeMaintainer.class);
+
+    static final int MAX_BATCH_SIZE = 1000;
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+    /**
+     * Maximum time a transaction waits for space in the queue before it commits, after which its deltas are queued
+     * anyway.
+     */
+    static final long MAX_BACKPRESSURE_WAIT_MS = 1000;
+
+    /**
+     * Time after which transactions waiting for a missing sequence number are applied anyway, in case the transaction
+     * that obtained it never reported its outcome.
+     */
+    static final long MISSING_SEQUENCE_TIMEOUT_MS = 5000;
+
+    private static final long INITIAL_RETRY_DELAY_MS = 10;
+    private static final long MAX_RETRY_DELAY_MS = 1000;
+
+    /**
+     * Number of retries of a batch failing with transient errors after the maintainer has been stopped.
+     */
+    private static final int MAX_RETRIES_WHEN_STOPPED = 5;
+
+    /**
+     * Listener notified of nodes whose cached degrees have been updated.
+     */
+    interface Listener {
+
+        /**
+         * Cached degrees of the given nodes have been updated and committed.
+         *
+         * @param nodeIds IDs of nodes.
+         */
+        void applied(Set<Long> nodeIds);
+    }
+
+    private final NodeBasedDegreeCache degreeCache;
+    private final int queueSize;
+    private final Listener listener;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    //sequence number -> deltas, SKIPPED for rolled back transactions, guarded by itself
+    private final TreeMap<Long, DegreeDeltas> queue = new TreeMap<>();
+    private long nextToTake;
+    private long missingSince = -1;
+
+    //node ID -> sequence number before which queued deltas of the node are discarded, guarded by flushLock
+    private final Map<Long, Long> discardedBefore = new HashMap<>();
+    private final Object flushLock = new Object();
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Object progress = new Object();
+
+    private static final DegreeDeltas SKIPPED = new DegreeDeltas();
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    /**
+     * Construct a new maintainer.
+     *
+     * @param degreeCache to apply deltas with.
+     * @param queueSize   maximum number of queued transactions, must be positive.
+     * @param listener    notified after deltas have been applied.
+     */
+    WriteBehindDegreeMaintainer(NodeBasedDegreeCache degreeCache, int queueSize, Listener listener) {
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("Queue size must be positive");
+        }
+
+        this.degreeCache = degreeCache;
+        this.queueSize = queueSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Start applying queued deltas.
+     *
+     * @param database to apply deltas to.
+     */
+    synchronized void start(final GraphDatabaseService database) {
+        if (flusher != null) {
+            return;
+        }
+
+        running = true;
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushUntilStopped(database);
+            }
+        }, "relcount-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stop applying deltas once all the queued ones have been applied.
+     */
+    synchronized void stop() {
+        if (flusher == null) {
+            return;
+        }
+
+        running = false;
+
+        try {
+            flusher.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (queue) {
+            if (!queue.isEmpty()) {
+                LOG.warn("Stopped with " + queue.size() + " transactions' degree deltas not applied. Cached degrees of affected nodes will be out of sync until the module is re-initialized.");
+            }
+        }
+
+        flusher = null;
+    }
+
+    /**
+     * Obtain a sequence number for deltas of a transaction. Must be called before the transaction commits, while it
+     * holds the locks of all nodes whose degrees it changes. The number must then be passed to either
+     * {@link #queue(long, DegreeDeltas)} or {@link #skip(long)}.
+     *
+     * @return sequence number.
+     */
+    long sequence() {
+        return sequence.getAndIncrement();
+    }
+
+    /**
+     * Wait until fewer than the configured number of transactions' deltas are waiting to be applied. Must be called
+     * before the transaction that is going to queue deltas takes any locks of its own; since it may already hold locks
+     * the background thread needs, the wait is bounded.
+     *
+     * @param timeoutMs maximum time to wait in milliseconds.
+     * @return true iff there is space in the queue, false if the wait timed out or was interrupted.
+     */
+    boolean awaitSpace(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        synchronized (queue) {
+            while (queue.size() >= queueSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                try {
+                    queue.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Queue deltas of a committed transaction. Never waits; the queue may exceed its configured size if transactions
+     * gave up waiting for space before they committed, see {@link #awaitSpace(long)}.
+     *
+     * @param sequence number obtained by the transaction before it committed.
+     * @param deltas   to queue.
+     */
+    void queue(long sequence, DegreeDeltas deltas) {
+        synchronized (queue) {
+            queue.put(sequence, deltas);
+            queue.notifyAll();
+        }
+
+        queued.incrementAndGet();
+    }
+
+    /**
+     * Skip a sequence number obtained by a transaction that has rolled back.
+     *
+     * @param sequence number to skip.
+     */
+    void skip(long sequence) {
+        synchronized (queue) {
+            queue.put(sequence, SKIPPED);
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * Merge shards of a node back into its own cached degrees in a transaction of its own, never concurrently with
+     * applying a batch, so that if the node is recounted, its queued deltas are discarded before they are applied.
+     *
+     * @param database the node is in.
+     * @param nodeId   ID of the node.
+     */
+    void mergeShards(GraphDatabaseService database, long nodeId) {
+        synchronized (flushLock) {
+            boolean recounted;
+            try (Transaction tx = database.beginTx()) {
+                recounted = degreeCache.mergeShards(database, nodeId);
+                tx.success();
+            }
+
+            if (recounted) {
+                recounted(Collections.singleton(nodeId));
+            }
+        }
+    }
+
+    /**
+     * Wait until deltas of all transactions queued so far have been applied.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit    of the timeout.
+     * @return true iff all deltas queued before this method was called have been applied.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = queued.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        synchronized (progress) {
+            while (applied.get() < target) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                progress.wait(remaining);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return number of transactions whose deltas are queued and not applied yet.
+     */
+    long getPending() {
+        return Math.max(0, queued.get() - applied.get());
+    }
+
+    /**
+     * @return number of batches applied.
+     */
+    long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return number of transactions whose deltas failed to be applied and have been given up on.
+     */
+    long getFailures() {
+        return failures.get();
+    }
+
+    private void flushUntilStopped(GraphDatabaseService database) {
+        while (true) {
+            List<Sequenced> batch = take();
+
+            if (batch == null) {
+                return;
+            }
+
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            synchronized (flushLock) {
+                discardRecounted(batch);
+                flush(database, batch);
+                forgetDiscarded(batch.get(batch.size() - 1).sequence);
+            }
+
+            synchronized (progress) {
+                applied.addAndGet(batch.size());
+                progress.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Take deltas of transactions ready to be applied, i.e. those with sequence numbers following the last taken one
+     * without a gap, waiting for them for a while.
+     *
+     * @return batch of deltas in the order of their sequence numbers, skipped ones left out; null if stopped and there
+     *         is nothing left to apply.
+     */
+    private List<Sequenced> take() {
+        List<Sequenced> batch = new ArrayList<>();
+
+        synchronized (queue) {
+            if (!isReady()) {
+                if (!running && queue.isEmpty()) {
+                    return null;
+                }
+
+                try {
+                    queue.wait(POLL_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return batch;
+                }
+
+                skipMissing();
+            }
+
+            //queued after their sequence numbers had been given up on, applied out of order
+            while (!queue.isEmpty() && queue.firstKey() < nextToTake) {
+                Map.Entry<Long, DegreeDeltas> late = queue.pollFirstEntry();
+                if (late.getValue() != SKIPPED) {
+                    batch.add(new Sequenced(late.getKey(), late.getValue()));
+                }
+            }
+
+            while (batch.size() < MAX_BATCH_SIZE && queue.containsKey(nextToTake)) {
+                DegreeDeltas deltas = queue.remove(nextToTake);
+                if (deltas != SKIPPED) {
+                    batch.add(new Sequenced(nextToTake, deltas));
+                }
+                nextToTake++;
+            }
+
+            queue.notifyAll();
+        }
+
+        return batch;
+    }
+
+    /**
+     * Are there deltas ready to be taken? Must be called while holding the lock of the queue.
+     */
+    private boolean isReady() {
+        return !queue.isEmpty() && queue.firstKey() <= nextToTake;
+    }
+
+    /**
+     * Stop waiting for a missing sequence number if later ones have been waiting for too long. Must be called while
+     * holding the lock of the queue.
+     */
+    private void skipMissing() {
+        if (queue.isEmpty() || isReady()) {
+            missingSince = -1;
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (missingSince < 0) {
+            missingSince = now;
+            return;
+        }
+
+        if (now - missingSince >= MISSING_SEQUENCE_TIMEOUT_MS) {
+            long first = queue.firstKey();
+            LOG.warn("Degree deltas with sequence numbers " + nextToTake + " to " + (first - 1) + " have not been queued in "
+                    + MISSING_SEQUENCE_TIMEOUT_MS + " ms, applying later ones anyway.");
+            nextToTake = first;
+            missingSince = -1;
+        }
+    }
+
+    /**
+     * Apply a batch of deltas, retrying transient failures and splitting the batch on other failures.
+     *
+     * @param database to apply deltas to.
+     * @param batch    to apply.
+     */
+    private void flush(GraphDatabaseService database, List<Sequenced> batch) {
+        DegreeDeltas merged = new DegreeDeltas();
+        for (Sequenced deltas : batch) {
+            merged.addAll(deltas.deltas);
+        }
+
+        if (merged.isEmpty()) {
+            return;
+        }
+
+        for (int retries = 0; ; retries++) {
+            Set<Long> recounted;
+            try (Transaction tx = database.beginTx()) {
+                recounted = degreeCache.apply(database, merged);
+                tx.success();
+            } catch (RuntimeException e) {
+                if (isTransient(e) && (running || retries < MAX_RETRIES_WHEN_STOPPED) && backOff(retries)) {
+                    LOG.debug("Transient failure applying degree deltas of " + batch.size() + " transactions, retrying", e);
+                    continue;
+                }
+
+                if (batch.size() > 1) {
+                    LOG.debug("Failed to apply degree deltas of " + batch.size() + " transactions, splitting them", e);
+                    flush(database, batch.subList(0, batch.size() / 2));
+                    flush(database, batch.subList(batch.size() / 2, batch.size()));
+                    return;
+                }
+
+                failures.incrementAndGet();
+                LOG.error("Failed to apply degree deltas of a transaction to cached degrees of " + merged.nodeIds().size()
+                        + " nodes. They will be out of sync until the module is re-initialized.", e);
+                return;
+            }
+
+            batches.incrementAndGet();
+            recounted(recounted);
+            listener.applied(merged.nodeIds());
+            return;
+        }
+    }
+
+    /**
+     * Remember that the given nodes have been recounted, so that their deltas queued before the recount committed are
+     * discarded. Must be called while holding the flush lock, after the recount has committed.
+     *
+     * @param nodeIds IDs of recounted nodes.
+     */
+    private void recounted(Set<Long> nodeIds) {
+        if (nodeIds.isEmpty()) {
+            return;
+        }
+
+        //the recounting transaction held the nodes' locks, so all transactions numbered before now had committed
+        long before = sequence.get();
+        for (Long nodeId : nodeIds) {
+            discardedBefore.put(nodeId, before);
+        }
+    }
+
+    /**
+     * Discard deltas of recounted nodes that the recount already includes. Must be called while holding the flush lock.
+     *
+     * @param batch to discard deltas from.
+     */
+    private void discardRecounted(List<Sequenced> batch) {
+        if (discardedBefore.isEmpty()) {
+            return;
+        }
+
+        for (Sequenced deltas : batch) {
+            for (Long nodeId : new ArrayList<>(deltas.deltas.nodeIds())) {
+                Long before = discardedBefore.get(nodeId);
+                if (before != null && deltas.sequence < before) {
+                    deltas.deltas.remove(nodeId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget recounts that can't affect deltas not taken yet. Must be called while holding the flush lock.
+     *
+     * @param lastTaken sequence number of the last deltas taken.
+     */
+    private void forgetDiscarded(long lastTaken) {
+        for (Iterator<Long> iterator = discardedBefore.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next() <= lastTaken + 1) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static boolean isTransient(Throwable e) {
+        while (e != null) {
+            if (e instanceof TransientFailureException) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Wait before retrying.
+     *
+     * @param retries number of times already retried.
+     * @return false iff interrupted.
+     */
+    private static boolean backOff(int retries) {
+        long delay = Math.min(MAX_RETRY_DELAY_MS, INITIAL_RETRY_DELAY_MS << Math.min(retries, 20));
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Deltas of a single transaction with their sequence number.
+     */
+    private static final class Sequenced {
+        private final long sequence;
+        private final DegreeDeltas deltas;
+
+        private Sequenced(long sequence, DegreeDeltas deltas) {
+            this.sequence = sequence;
+            this.deltas = deltas;
+        }
+    }
+}
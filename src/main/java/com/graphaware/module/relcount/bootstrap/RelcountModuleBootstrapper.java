@@ -35,6 +35,13 @@ public class RelcountModuleBootstrapper implements RuntimeModuleBootstrapper {
     private static final String THRESHOLD = "threshold";
     private static final String RELATIONSHIP = "relationship";
     private static final String RELATIONSHIP_PROPERTY = "relationship.property";
+    private static final String DECODED_DEGREE_CACHE_SIZE = "decodedDegreeCacheSize";
+    private static final String INITIALIZATION_THREADS = "initializationThreads";
+    private static final String FALLBACK_RESULT_CACHE_SIZE = "fallbackResultCacheSize";
+    private static final String WRITE_BEHIND_QUEUE_SIZE = "writeBehindQueueSize";
+    private static final String DEGREE_SHARDS = "degreeShards";
+    private static final String HOT_NODE_THRESHOLD = "hotNodeThreshold";
+    private static final String METRICS = "metrics";
 
     /**
      * {@inheritDoc}
@@ -55,6 +62,34 @@ public class RelcountModuleBootstrapper implements RuntimeModuleBootstrapper {
             relationshipCountStrategies = relationshipCountStrategies.with(StringToRelationshipPropertyInclusionPolicy.getInstance().apply(config.get(RELATIONSHIP_PROPERTY)));
         }
 
+        if (config.containsKey(DECODED_DEGREE_CACHE_SIZE)) {
+            relationshipCountStrategies = relationshipCountStrategies.withDecodedDegreeCacheSize(Integer.valueOf(config.get(DECODED_DEGREE_CACHE_SIZE)));
+        }
+
+        if (config.containsKey(INITIALIZATION_THREADS)) {
+            relationshipCountStrategies = relationshipCountStrategies.withInitializationThreads(Integer.valueOf(config.get(INITIALIZATION_THREADS)));
+        }
+
+        if (config.containsKey(FALLBACK_RESULT_CACHE_SIZE)) {
+            relationshipCountStrategies = relationshipCountStrategies.withFallbackResultCacheSize(Integer.valueOf(config.get(FALLBACK_RESULT_CACHE_SIZE)));
+        }
+
+        if (config.containsKey(WRITE_BEHIND_QUEUE_SIZE)) {
+            relationshipCountStrategies = relationshipCountStrategies.withWriteBehindQueueSize(Integer.valueOf(config.get(WRITE_BEHIND_QUEUE_SIZE)));
+        }
+
+        if (config.containsKey(DEGREE_SHARDS)) {
+            if (config.containsKey(HOT_NODE_THRESHOLD)) {
+                relationshipCountStrategies = relationshipCountStrategies.withDegreeSharding(Integer.valueOf(config.get(DEGREE_SHARDS)), Integer.valueOf(config.get(HOT_NODE_THRESHOLD)));
+            } else {
+                relationshipCountStrategies = relationshipCountStrategies.withDegreeSharding(Integer.valueOf(config.get(DEGREE_SHARDS)));
+            }
+        }
+
+        if (config.containsKey(METRICS)) {
+            relationshipCountStrategies = relationshipCountStrategies.withMetricsEnabled(Boolean.valueOf(config.get(METRICS)));
+        }
+
         return new RelationshipCountModule(moduleId, relationshipCountStrategies);
     }
 }
@@ -0,0 +1,680 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.predicate.EqualTo;
+import com.graphaware.common.description.predicate.Predicate;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.serialize.Serializer;
+import org.neo4j.graphdb.Direction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import static com.graphaware.common.description.predicate.Predicates.*;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+
+/**
+ * Purpose-built, versioned binary format for cached degrees, i.e. a {@link Map} of {@link DetachedRelationshipDescription}s
+ * to degrees.
+ * <p/>
+ * The format is as follows (all numbers are unsigned varints unless stated otherwise):
+ * <pre>
+ * 0x00, version (1 byte)
+ * number of strings, strings, referenced by their index in the rest of the blob:
+ *     version 1: length + UTF-8 bytes
+ *     version 2: {@link TokenDictionary} ID + 1, or 0 followed by length + UTF-8 bytes
+ * number of entries, entries:
+ *     header (relationship type string index &lt;&lt; 2 | direction)
+ *     degree
+ *     number of properties, properties (sorted by key):
+ *         key string index, value tag (1 byte), value (depends on the tag)
+ * </pre>
+ * A codec constructed with a {@link TokenDictionary} writes version 2, in which relationship types and property keys
+ * are, once allocated their ID, and string property values are once hot, referred to by their dictionary ID. A codec without a dictionary
+ * writes version 1. Both versions can be read by a codec with a dictionary.
+ * <p/>
+ * Blobs produced by generic serialization ({@link Serializer#toByteArray(Object)}) never start with a zero byte, which
+ * is how the two formats are told apart, see {@link #isBinary(byte[])}.
+ * <p/>
+ * A single {@link DetachedRelationshipDescription} can also be encoded to a string, see {@link #encodeDescription(DetachedRelationshipDescription)}.
+ * Since such strings are used to look things up, equal descriptions are always encoded to the same string, which is why
+ * property values are never referred to by dictionary ID in this case.
+ */
+public class BinaryDegreeCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte MARKER = 0x00;
+    private static final byte INLINE_STRINGS = 1;
+    private static final byte DICTIONARY_STRINGS = 2;
+
+    private static final int OUTGOING_CODE = 0;
+    private static final int INCOMING_CODE = 1;
+    private static final int BOTH_CODE = 2;
+
+    private static final byte ANY = 0;
+    private static final byte UNDEFINED = 1;
+    private static final byte STRING = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte TRUE = 5;
+    private static final byte FALSE = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte FLOAT = 8;
+    private static final byte SHORT = 9;
+    private static final byte BYTE = 10;
+    private static final byte CHAR = 11;
+    private static final byte SERIALIZED = 12;
+
+    private static final char[] KEY_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private final TokenDictionary dictionary;
+    private final long nodeId;
+
+    /**
+     * Construct a codec that writes all strings inline (version 1).
+     */
+    public BinaryDegreeCodec() {
+        this(null);
+    }
+
+    /**
+     * Construct a codec that refers to strings in a dictionary (version 2). String property values are only referred
+     * to by dictionary ID if they are already in the dictionary.
+     *
+     * @param dictionary to use, can be null, in which case all strings are written inline.
+     */
+    public BinaryDegreeCodec(TokenDictionary dictionary) {
+        this(dictionary, -1);
+    }
+
+    /**
+     * Construct a codec that refers to strings in a dictionary (version 2), encoding degrees of a specific node, so
+     * that string property values encoded for enough distinct nodes become hot.
+     *
+     * @param dictionary to use, can be null, in which case all strings are written inline.
+     * @param nodeId     ID of the node whose degrees are encoded, -1 if unknown.
+     */
+    public BinaryDegreeCodec(TokenDictionary dictionary, long nodeId) {
+        this.dictionary = dictionary;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Is the given blob in the format produced by this codec?
+     *
+     * @param bytes to check.
+     * @return true iff the blob has been produced by this codec.
+     */
+    public static boolean isBinary(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == MARKER;
+    }
+
+    /**
+     * Encode cached degrees.
+     *
+     * @param degrees to encode.
+     * @return encoded degrees.
+     */
+    public byte[] encode(Map<DetachedRelationshipDescription, Integer> degrees) {
+        StringTable strings = new StringTable(true);
+        Output entries = new Output();
+
+        entries.writeVarInt(degrees.size());
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : degrees.entrySet()) {
+            writeDescription(entries, strings, entry.getKey(), entry.getValue());
+        }
+
+        return withHeader(strings, entries);
+    }
+
+    /**
+     * Decode cached degrees.
+     *
+     * @param bytes encoded by {@link #encode(java.util.Map)}.
+     * @return decoded degrees.
+     * @throws IllegalArgumentException if the blob hasn't been produced by this codec or its version is unknown.
+     */
+    public Map<DetachedRelationshipDescription, Integer> decode(byte[] bytes) {
+        Input input = new Input(bytes);
+        String[] strings = readHeader(input);
+
+        int noEntries = input.readVarInt();
+        Map<DetachedRelationshipDescription, Integer> result = new HashMap<>(noEntries * 2);
+        for (int i = 0; i < noEntries; i++) {
+            int header = input.readVarInt();
+            int degree = input.readVarInt();
+            result.put(readDescription(input, strings, header), degree);
+        }
+
+        return result;
+    }
+
+    /**
+     * Encode a single relationship description to a string. Equal descriptions are encoded to equal strings, except
+     * that a description whose relationship type or property keys aren't in the {@link TokenDictionary} yet is encoded
+     * with all strings inline, like by a codec without a dictionary, see {@link #encodeDescriptionInline(DetachedRelationshipDescription)}.
+     * Once they are in the dictionary, the description is encoded referring to them by ID.
+     *
+     * @param description to encode.
+     * @return encoded description, only contains characters [A-Za-z0-9_-].
+     */
+    public String encodeDescription(DetachedRelationshipDescription description) {
+        StringTable strings = new StringTable(false);
+        Output entry = new Output();
+
+        writeDescription(entry, strings, description, null);
+
+        if (dictionary != null && strings.hasInlineNames()) {
+            return encodeDescriptionInline(description);
+        }
+
+        return toKey(withHeader(strings, entry));
+    }
+
+    /**
+     * Encode a single relationship description to a string with all strings inline, i.e. the way a codec without a
+     * {@link TokenDictionary} would, which is how {@link #encodeDescription(DetachedRelationshipDescription)} encodes
+     * descriptions not fully covered by the dictionary yet.
+     *
+     * @param description to encode.
+     * @return encoded description, only contains characters [A-Za-z0-9_-].
+     */
+    public static String encodeDescriptionInline(DetachedRelationshipDescription description) {
+        return new BinaryDegreeCodec().encodeDescription(description);
+    }
+
+    private static String toKey(byte[] bytes) {
+        StringBuilder result = new StringBuilder((bytes.length * 4 + 2) / 3);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int chunk = (bytes[i] & 0xFF) << 16;
+            if (i + 1 < bytes.length) chunk |= (bytes[i + 1] & 0xFF) << 8;
+            if (i + 2 < bytes.length) chunk |= bytes[i + 2] & 0xFF;
+
+            int noChars = Math.min(bytes.length - i, 3) + 1;
+            for (int j = 0; j < noChars; j++) {
+                result.append(KEY_ALPHABET[(chunk >>> (18 - 6 * j)) & 0x3F]);
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Decode a single relationship description.
+     *
+     * @param encoded produced by {@link #encodeDescription(DetachedRelationshipDescription)}.
+     * @return decoded description.
+     * @throws IllegalArgumentException if the string hasn't been produced by this codec or its version is unknown.
+     */
+    public DetachedRelationshipDescription decodeDescription(String encoded) {
+        byte[] bytes = new byte[encoded.length() * 3 / 4];
+        int position = 0;
+        for (int i = 0; i < encoded.length(); i += 4) {
+            int noChars = Math.min(encoded.length() - i, 4);
+            int chunk = 0;
+            for (int j = 0; j < noChars; j++) {
+                chunk |= keyCharValue(encoded.charAt(i + j)) << (18 - 6 * j);
+            }
+            for (int j = 0; j < noChars - 1; j++) {
+                bytes[position++] = (byte) (chunk >>> (16 - 8 * j));
+            }
+        }
+
+        Input input = new Input(bytes);
+        String[] strings = readHeader(input);
+
+        return readDescription(input, strings, input.readVarInt());
+    }
+
+    private byte[] withHeader(StringTable strings, Output body) {
+        Output result = new Output();
+        result.writeByte(MARKER);
+
+        if (dictionary == null) {
+            result.writeByte(INLINE_STRINGS);
+            result.writeVarInt(strings.size());
+            for (String string : strings.strings()) {
+                result.writeString(string);
+            }
+        } else {
+            result.writeByte(DICTIONARY_STRINGS);
+            result.writeVarInt(strings.size());
+            int index = 0;
+            for (String string : strings.strings()) {
+                int id = strings.tokenId(index++);
+                if (id >= 0) {
+                    result.writeVarInt(id + 1);
+                } else {
+                    result.writeVarInt(0);
+                    result.writeString(string);
+                }
+            }
+        }
+
+        result.writeBytes(body.toByteArray());
+
+        return result.toByteArray();
+    }
+
+    private String[] readHeader(Input input) {
+        if (!isBinary(input.bytes)) {
+            throw new IllegalArgumentException("Not a binary degree blob");
+        }
+
+        input.readByte();
+
+        byte version = input.readByte();
+        if (version != INLINE_STRINGS && version != DICTIONARY_STRINGS) {
+            throw new IllegalArgumentException("Unknown binary degree blob version " + version);
+        }
+
+        if (version == DICTIONARY_STRINGS && dictionary == null) {
+            throw new IllegalStateException("Binary degree blob version " + version + " requires a token dictionary. This is a bug.");
+        }
+
+        String[] strings = new String[input.readVarInt()];
+        for (int i = 0; i < strings.length; i++) {
+            if (version == INLINE_STRINGS) {
+                strings[i] = input.readString();
+            } else {
+                int id = input.readVarInt();
+                strings[i] = id == 0 ? input.readString() : dictionary.tokenOf(id - 1);
+            }
+        }
+
+        return strings;
+    }
+
+    private void writeDescription(Output output, StringTable strings, DetachedRelationshipDescription description, Integer degree) {
+        output.writeVarInt((strings.indexOf(description.getType().name(), true) << 2) | directionCode(description.getDirection()));
+
+        if (degree != null) {
+            output.writeVarInt(degree);
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            keys.add(key);
+        }
+        Collections.sort(keys);
+
+        output.writeVarInt(keys.size());
+        for (String key : keys) {
+            output.writeVarInt(strings.indexOf(key, true));
+            writePredicate(output, strings, description.getPropertiesDescription().get(key));
+        }
+    }
+
+    private DetachedRelationshipDescription readDescription(Input input, String[] strings, int header) {
+        DetachedRelationshipDescription description = literal(strings[header >>> 2], direction(header & 3));
+
+        int noProperties = input.readVarInt();
+        for (int i = 0; i < noProperties; i++) {
+            String key = strings[input.readVarInt()];
+            description = description.with(key, readPredicate(input, strings));
+        }
+
+        return description;
+    }
+
+    private void writePredicate(Output output, StringTable strings, Predicate predicate) {
+        if (any().equals(predicate)) {
+            output.writeByte(ANY);
+            return;
+        }
+
+        if (undefined().equals(predicate)) {
+            output.writeByte(UNDEFINED);
+            return;
+        }
+
+        Object value = EqualToValue.of(predicate);
+
+        if (value instanceof String) {
+            output.writeByte(STRING);
+            output.writeVarInt(strings.indexOf((String) value, false));
+        } else if (value instanceof Integer) {
+            output.writeByte(INT);
+            output.writeVarLong(zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeVarLong(zigZag((Long) value));
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeFixedLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeVarInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Short) {
+            output.writeByte(SHORT);
+            output.writeVarLong(zigZag((Short) value));
+        } else if (value instanceof Byte) {
+            output.writeByte(BYTE);
+            output.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            output.writeByte(CHAR);
+            output.writeVarInt((Character) value);
+        } else {
+            //arrays, non-equality predicates, or unknown predicate implementations
+            output.writeByte(SERIALIZED);
+            byte[] serialized = Serializer.toByteArray(predicate);
+            output.writeVarInt(serialized.length);
+            output.writeBytes(serialized);
+        }
+    }
+
+    private Predicate readPredicate(Input input, String[] strings) {
+        byte tag = input.readByte();
+        switch (tag) {
+            case ANY:
+                return any();
+            case UNDEFINED:
+                return undefined();
+            case STRING:
+                return equalTo(strings[input.readVarInt()]);
+            case INT:
+                return equalTo((int) unZigZag(input.readVarLong()));
+            case LONG:
+                return equalTo(unZigZag(input.readVarLong()));
+            case TRUE:
+                return equalTo(true);
+            case FALSE:
+                return equalTo(false);
+            case DOUBLE:
+                return equalTo(Double.longBitsToDouble(input.readFixedLong()));
+            case FLOAT:
+                return equalTo(Float.intBitsToFloat(input.readVarInt()));
+            case SHORT:
+                return equalTo((short) unZigZag(input.readVarLong()));
+            case BYTE:
+                return equalTo(input.readByte());
+            case CHAR:
+                return equalTo((char) input.readVarInt());
+            case SERIALIZED:
+                return Serializer.fromByteArray(input.readBytes(input.readVarInt()));
+            default:
+                throw new IllegalArgumentException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Get the value of an equality predicate, if it is written in the compact typed encoding rather than serialized
+     * generically.
+     *
+     * @param predicate to get value of.
+     * @return value, null if the predicate is serialized generically.
+     */
+    static Object compactValueOf(Predicate predicate) {
+        return EqualToValue.of(predicate);
+    }
+
+    private static int directionCode(Direction direction) {
+        switch (direction) {
+            case OUTGOING:
+                return OUTGOING_CODE;
+            case INCOMING:
+                return INCOMING_CODE;
+            default:
+                return BOTH_CODE;
+        }
+    }
+
+    private static Direction direction(int code) {
+        switch (code) {
+            case OUTGOING_CODE:
+                return Direction.OUTGOING;
+            case INCOMING_CODE:
+                return Direction.INCOMING;
+            default:
+                return Direction.BOTH;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int keyCharValue(char c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A';
+        if (c >= 'a' && c <= 'z') return c - 'a' + 26;
+        if (c >= '0' && c <= '9') return c - '0' + 52;
+        if (c == '-') return 62;
+        if (c == '_') return 63;
+        throw new IllegalArgumentException("Illegal character in encoded description: " + c);
+    }
+
+    /**
+     * Strings of a single blob, each of which is written once and then referenced by its index. Strings that are in
+     * the {@link TokenDictionary} are written as their dictionary ID.
+     */
+    private class StringTable {
+        private final Map<String, Integer> indices = new LinkedHashMap<>();
+        private final List<Integer> tokenIds = new ArrayList<>();
+        private final boolean hotValues;
+        private boolean inlineNames;
+
+        /**
+         * @param hotValues true iff string values that are hot should be referred to by dictionary ID.
+         */
+        StringTable(boolean hotValues) {
+            this.hotValues = hotValues;
+        }
+
+        /**
+         * @param string to get index of.
+         * @param name   true for relationship types and property keys, false for property values.
+         * @return index of the string in the table.
+         */
+        int indexOf(String string, boolean name) {
+            Integer index = indices.get(string);
+            if (index == null) {
+                index = indices.size();
+                indices.put(string, index);
+                tokenIds.add(null);
+            }
+
+            if (dictionary != null) {
+                Integer tokenId = tokenIds.get(index);
+                if (name && (tokenId == null || tokenId < 0)) {
+                    tokenId = dictionary.idOf(string);
+                    tokenIds.set(index, tokenId);
+                    if (tokenId < 0) {
+                        inlineNames = true;
+                    }
+                } else if (!name && tokenId == null) {
+                    tokenIds.set(index, hotValues ? hotValueIdOf(string) : -1);
+                }
+            }
+
+            return index;
+        }
+
+        private int hotValueIdOf(String string) {
+            if (nodeId < 0) {
+                Integer id = dictionary.existingIdOf(string);
+                return id == null ? -1 : id;
+            }
+            return dictionary.hotValueIdOf(string, nodeId);
+        }
+
+        int tokenId(int index) {
+            Integer tokenId = tokenIds.get(index);
+            return tokenId == null ? -1 : tokenId;
+        }
+
+        int size() {
+            return indices.size();
+        }
+
+        /**
+         * @return true iff a relationship type or property key isn't in the dictionary yet and is written inline.
+         */
+        boolean hasInlineNames() {
+            return inlineNames;
+        }
+
+        Set<String> strings() {
+            return indices.keySet();
+        }
+    }
+
+    /**
+     * Reads values of equality predicates, which the framework does not expose publicly, through the accessor of the
+     * value-based predicate they extend. The accessor is resolved once; should it be missing (e.g. with an incompatible
+     * framework version), a warning is logged and callers fall back to generic serialization.
+     */
+    private static final class EqualToValue {
+
+        private static final Logger LOG = LoggerFactory.getLogger(EqualToValue.class);
+
+        private static final Method ACCESSOR = accessor();
+
+        private static Method accessor() {
+            for (Class<?> type = EqualTo.class; type != null; type = type.getSuperclass()) {
+                try {
+                    Method method = type.getDeclaredMethod("getValue");
+                    method.setAccessible(true);
+                    return method;
+                } catch (NoSuchMethodException | SecurityException e) {
+                    //try the superclass
+                }
+            }
+
+            LOG.warn("Values of equality predicates can't be read, they will be serialized generically in cached degrees");
+            return null;
+        }
+
+        /**
+         * @param predicate to read value of.
+         * @return value the predicate is equal to, null if it isn't an equality predicate or the value can't be read.
+         */
+        static Object of(Predicate predicate) {
+            if (ACCESSOR == null || predicate.getClass() != EqualTo.class) {
+                return null;
+            }
+
+            try {
+                return ACCESSOR.invoke(predicate);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class Output {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        void writeByte(int b) {
+            bytes.write(b);
+        }
+
+        void writeBytes(byte[] b) {
+            bytes.write(b, 0, b.length);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+
+        void writeFixedLong(long value) {
+            for (int i = 56; i >= 0; i -= 8) {
+                bytes.write((int) (value >>> i));
+            }
+        }
+
+        void writeString(String string) {
+            byte[] utf = string.getBytes(UTF_8);
+            writeVarInt(utf.length);
+            writeBytes(utf);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static class Input {
+        final byte[] bytes;
+        private int position;
+
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readByte() {
+            return bytes[position++];
+        }
+
+        byte[] readBytes(int length) {
+            byte[] result = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return result;
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        long readFixedLong() {
+            long result = 0;
+            for (int i = 0; i < 8; i++) {
+                result = (result << 8) | (bytes[position++] & 0xFF);
+            }
+            return result;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            String result = new String(bytes, position, length, UTF_8);
+            position += length;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, in-memory, least-recently-used cache of degrees decoded by {@link DegreeCachingStrategy#readDegrees(org.neo4j.graphdb.Node, String)},
+ * keyed by node ID and kept as {@link PartitionedDegrees}. It is shared by all counters reading degrees cached by the same {@link com.graphaware.module.relcount.RelationshipCountModule},
+ * which keeps it correct by invalidating entries of nodes whose degrees change.
+ * <p/>
+ * Since a counter may read degrees from the database just before they change and put them in the cache just after
+ * they've been invalidated, every read must obtain a {@link #stamp()} before reading from the database and pass it to
+ * {@link #put(long, java.util.Map, long)}. Degrees of a node read before the node's last invalidation are then not
+ * cached, see {@link NodeInvalidations}.
+ * <p/>
+ * A cache with maximum size of 0 is disabled; it never caches anything.
+ */
+public class DecodedDegreeCache {
+
+    private final int maxEntries;
+    private final Map<Long, PartitionedDegrees> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final NodeInvalidations invalidations = new NodeInvalidations();
+
+    /**
+     * Construct a new cache.
+     *
+     * @param maxEntries maximum number of nodes whose degrees are cached, 0 to disable the cache.
+     */
+    public DecodedDegreeCache(final int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Maximum number of entries must not be negative");
+        }
+
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Long, PartitionedDegrees>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, PartitionedDegrees> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return true iff the cache is enabled.
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Get the current stamp of the cache, which changes every time entries are invalidated.
+     *
+     * @return stamp.
+     */
+    public long stamp() {
+        return invalidations.stamp();
+    }
+
+    /**
+     * Get cached degrees of a node.
+     *
+     * @param nodeId ID of the node.
+     * @return cached degrees, null if not cached.
+     */
+    public PartitionedDegrees get(long nodeId) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        PartitionedDegrees degrees;
+        synchronized (entries) {
+            degrees = entries.get(nodeId);
+        }
+
+        if (degrees == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return degrees;
+    }
+
+    /**
+     * Cache degrees of a node, unless the node has been invalidated since the degrees were read.
+     *
+     * @param nodeId  ID of the node.
+     * @param degrees decoded degrees of the node.
+     * @param stamp   obtained by {@link #stamp()} before the degrees were read from the database.
+     * @return partitioned degrees.
+     */
+    public PartitionedDegrees put(long nodeId, Map<DetachedRelationshipDescription, Integer> degrees, long stamp) {
+        PartitionedDegrees partitioned = PartitionedDegrees.of(degrees);
+
+        if (!isEnabled()) {
+            return partitioned;
+        }
+
+        synchronized (entries) {
+            if (invalidations.isCurrent(nodeId, stamp)) {
+                entries.put(nodeId, partitioned);
+            }
+        }
+
+        return partitioned;
+    }
+
+    /**
+     * Invalidate cached degrees of the given nodes.
+     *
+     * @param nodeIds IDs of nodes whose degrees have (potentially) changed.
+     */
+    public void invalidate(Collection<Long> nodeIds) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            invalidations.invalidated(nodeIds);
+            for (Long nodeId : nodeIds) {
+                entries.remove(nodeId);
+            }
+        }
+    }
+
+    /**
+     * Invalidate all cached degrees.
+     */
+    public void invalidateAll() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            invalidations.invalidatedAll();
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return number of nodes whose degrees are currently cached.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return number of times degrees were found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of times degrees were not found in the cache.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of times degrees were evicted from the cache to make space for others.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
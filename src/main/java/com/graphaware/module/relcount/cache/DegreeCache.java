@@ -66,6 +66,40 @@ public interface DegreeCache {
      */
     void handleDeletedRelationship(Relationship relationship, Node pointOfView, Direction defaultDirection);
 
+    /**
+     * Handle a created relationship from the point of view of both its nodes. This is equivalent to, but cheaper than,
+     * handling it from the point of view of the start node with {@link Direction#INCOMING} as default direction and the
+     * end node with {@link Direction#OUTGOING} as default direction.
+     *
+     * @param relationship the has been created.
+     * @param startNode    start node of the relationship, null if it should not be handled. Can be wrapped in a decorator.
+     * @param endNode      end node of the relationship, null if it should not be handled. Can be wrapped in a decorator.
+     */
+    void handleCreatedRelationship(Relationship relationship, Node startNode, Node endNode);
+
+    /**
+     * Handle a deleted relationship from the point of view of both its nodes. This is equivalent to, but cheaper than,
+     * handling it from the point of view of the start node with {@link Direction#INCOMING} as default direction and the
+     * end node with {@link Direction#OUTGOING} as default direction.
+     *
+     * @param relationship the has been deleted.
+     * @param startNode    start node of the relationship, null if it should not be handled (e.g. it has been deleted too).
+     *                     Can be wrapped in a decorator.
+     * @param endNode      end node of the relationship, null if it should not be handled (e.g. it has been deleted too).
+     *                     Can be wrapped in a decorator.
+     */
+    void handleDeletedRelationship(Relationship relationship, Node startNode, Node endNode);
+
+    /**
+     * Handle a relationship whose properties have changed, from the point of view of both its nodes. This is equivalent
+     * to handling the previous version as deleted and the current version as created, but implementations may skip
+     * changes that don't affect cached degrees.
+     *
+     * @param previous version of the relationship.
+     * @param current  version of the relationship.
+     */
+    void handleChangedRelationship(Relationship previous, Relationship current);
+
     // Explanation of the relationship direction above: The meaning of BOTH can be unclear - is it just the cyclical relationship
     // or all? Also, there would be trouble during compaction and eventually, incoming and outgoing relationships could
     // be compacted to BOTH, so it would be impossible to find only incoming or outgoing.
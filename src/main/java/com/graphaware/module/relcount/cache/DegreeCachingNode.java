@@ -2,7 +2,13 @@ package com.graphaware.module.relcount.cache;
 
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.compact.CompactionStrategy;
+import com.graphaware.module.relcount.compact.GeneralizingCompactionStrategy;
+import com.graphaware.module.relcount.compact.PropertyChangeStats;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
 import com.graphaware.runtime.module.NeedsInitializationException;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,11 +25,19 @@ public class DegreeCachingNode {
     private final Node node;
     private final String prefix;
     private final RelationshipCountConfiguration configuration;
+    private final RelcountMetrics metrics;
 
     private final Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
     private final Set<DetachedRelationshipDescription> updatedDegrees = new HashSet<>();
     private final Set<DetachedRelationshipDescription> removedDegrees = new HashSet<>();
 
+    //cached descriptions indexed by type and direction, so that only those that can possibly match are compared
+    private final Map<Bucket, Set<DetachedRelationshipDescription>> buckets = new HashMap<>();
+
+    //leased from the cache, or created on first use by compaction, then kept up to date with cached degrees
+    private PropertyChangeStats propertyChangeStats;
+    private final PropertyChangeStatsCache.Lease lease;
+
     /**
      * Construct a new caching node.
      *
@@ -32,11 +46,45 @@ public class DegreeCachingNode {
      * @param configuration for caching degrees.
      */
     public DegreeCachingNode(Node node, String prefix, RelationshipCountConfiguration configuration) {
+        this(node, prefix, configuration, RelcountMetrics.DISABLED);
+    }
+
+    /**
+     * Construct a new caching node.
+     *
+     * @param node          represented Neo4j node.
+     * @param prefix        of the metadata written to the graph.
+     * @param configuration for caching degrees.
+     * @param metrics       to record compaction passes to.
+     */
+    public DegreeCachingNode(Node node, String prefix, RelationshipCountConfiguration configuration, RelcountMetrics metrics) {
+        this(node, prefix, configuration, metrics, null);
+    }
+
+    /**
+     * Construct a new caching node, which keeps statistics of its cached degrees across transactions. Must be called
+     * under the node's write lock.
+     *
+     * @param node          represented Neo4j node.
+     * @param prefix        of the metadata written to the graph.
+     * @param configuration for caching degrees.
+     * @param metrics       to record compaction passes to.
+     * @param statsCache    to lease statistics of cached degrees from, null to build them in every transaction.
+     */
+    DegreeCachingNode(Node node, String prefix, RelationshipCountConfiguration configuration, RelcountMetrics metrics, PropertyChangeStatsCache statsCache) {
         this.node = node;
         this.prefix = prefix;
         this.configuration = configuration;
+        this.metrics = metrics;
 
         cachedDegrees.putAll(configuration.getDegreeCachingStrategy().readDegrees(node, prefix));
+
+        for (DetachedRelationshipDescription description : cachedDegrees.keySet()) {
+            bucket(description, true).add(description);
+        }
+
+        this.lease = statsCache == null ? null : statsCache.lease(node.getId());
+        this.propertyChangeStats = lease == null ? null : lease.getStats();
     }
 
     /**
@@ -48,6 +96,24 @@ public class DegreeCachingNode {
         return node.getId();
     }
 
+    /**
+     * Database the represented Neo4j {@link org.neo4j.graphdb.Node} belongs to.
+     *
+     * @return database.
+     */
+    public GraphDatabaseService getDatabase() {
+        return node.getGraphDatabase();
+    }
+
+    /**
+     * Prefix of the metadata written to the graph.
+     *
+     * @return prefix.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
     /**
      * Get all degrees cached by the node.
      *
@@ -57,6 +123,36 @@ public class DegreeCachingNode {
         return Collections.unmodifiableMap(cachedDegrees);
     }
 
+    /**
+     * Get statistics of cached degrees, which are kept up to date as degrees change. Unless leased from a
+     * {@link PropertyChangeStatsCache}, they are built from all cached degrees on first use, so that nodes that never
+     * need compaction don't pay for them. Leased statistics are returned to the cache when this node is flushed.
+     *
+     * @return statistics.
+     */
+    public PropertyChangeStats getPropertyChangeStats() {
+        if (propertyChangeStats == null) {
+            propertyChangeStats = PropertyChangeStats.of(cachedDegrees);
+        }
+        return propertyChangeStats;
+    }
+
+    /**
+     * Get the cached description that degrees with respect to the given description are counted towards.
+     *
+     * @param description of a relationship.
+     * @return cached description more general than (or equal to) the given one, null if there is none.
+     */
+    public DetachedRelationshipDescription getGeneralization(DetachedRelationshipDescription description) {
+        for (DetachedRelationshipDescription cachedDescription : candidates(description)) {
+            if (cachedDescription.isMoreGeneralThan(description)) {
+                return cachedDescription;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Increment the degree of this node with respect to a relationship description by a delta.
      *
@@ -75,7 +171,16 @@ public class DegreeCachingNode {
      * @param preventCompaction true for preventing compaction.
      */
     public void incrementDegree(DetachedRelationshipDescription description, int delta, boolean preventCompaction) {
-        for (DetachedRelationshipDescription cachedDescription : cachedDegrees.keySet()) {
+        CompactionStrategy compactionStrategy = configuration.getCompactionStrategy();
+        if (!preventCompaction && compactionStrategy instanceof GeneralizingCompactionStrategy) {
+            DetachedRelationshipDescription generalized = ((GeneralizingCompactionStrategy) compactionStrategy).generalize(this, description);
+            if (!generalized.equals(description)) {
+                absorb(generalized);
+                description = generalized;
+            }
+        }
+
+        for (DetachedRelationshipDescription cachedDescription : candidates(description)) {
             if (cachedDescription.isMoreGeneralThan(description)) {
                 int newValue = cachedDegrees.get(cachedDescription) + delta;
                 put(cachedDescription, newValue);
@@ -86,10 +191,52 @@ public class DegreeCachingNode {
         put(description, delta);
 
         if (!preventCompaction) {
-            configuration.getCompactionStrategy().compactRelationshipCounts(this);
+            compact();
         }
     }
 
+    /**
+     * Run a compaction pass, recording it to metrics.
+     */
+    private void compact() {
+        int before = cachedDegrees.size();
+        long start = metrics.start();
+
+        configuration.getCompactionStrategy().compactRelationshipCounts(this);
+
+        metrics.stop(RelcountMetrics.Operation.COMPACTION, start);
+        if (cachedDegrees.size() < before) {
+            metrics.count(RelcountMetrics.Event.COMPACTIONS, 1);
+        }
+    }
+
+    /**
+     * Merge cached degrees more specific than the given description into a single cached degree with respect to it.
+     *
+     * @param generalization to merge cached degrees into.
+     */
+    private void absorb(DetachedRelationshipDescription generalization) {
+        List<DetachedRelationshipDescription> absorbed = new LinkedList<>();
+        for (DetachedRelationshipDescription cachedDescription : candidates(generalization)) {
+            if (!cachedDescription.equals(generalization) && generalization.isMoreGeneralThan(cachedDescription)) {
+                absorbed.add(cachedDescription);
+            }
+        }
+
+        if (absorbed.isEmpty()) {
+            return;
+        }
+
+        Integer existing = cachedDegrees.get(generalization);
+        int total = existing == null ? 0 : existing;
+        for (DetachedRelationshipDescription cachedDescription : absorbed) {
+            total += cachedDegrees.get(cachedDescription);
+            delete(cachedDescription);
+        }
+
+        put(generalization, total);
+    }
+
     /**
      * Decrement the degree of this node with respect to a relationship description by a delta.
      *
@@ -99,7 +246,7 @@ public class DegreeCachingNode {
      *          if the total degree of this node with respect to the given relationships becomes negative.
      */
     public void decrementDegree(DetachedRelationshipDescription description, int delta) {
-        for (DetachedRelationshipDescription cachedDescription : cachedDegrees.keySet()) {
+        for (DetachedRelationshipDescription cachedDescription : candidates(description)) {
             if (cachedDescription.isMoreGeneralThan(description)) {
                 int newValue = cachedDegrees.get(cachedDescription) - delta;
                 put(cachedDescription, newValue);
@@ -122,10 +269,23 @@ public class DegreeCachingNode {
     }
 
     /**
-     * Apply all the changes to cached degrees to persistent storage.
+     * Apply all the changes to cached degrees to persistent storage. Nothing is written if there are no changes.
+     * Statistics leased from a {@link PropertyChangeStatsCache} are released, to be returned to it once the current
+     * transaction commits; this node must not be changed afterwards.
+     *
+     * @return number of bytes of encoded degrees written, as reported by the {@link DegreeCachingStrategy}.
      */
-    public void flush() {
-        configuration.getDegreeCachingStrategy().writeDegrees(node, prefix, cachedDegrees, updatedDegrees, removedDegrees);
+    public long flush() {
+        long written = 0;
+        if (!updatedDegrees.isEmpty() || !removedDegrees.isEmpty()) {
+            written = configuration.getDegreeCachingStrategy().writeDegrees(node, prefix, cachedDegrees, updatedDegrees, removedDegrees);
+        }
+
+        if (lease != null && propertyChangeStats != null) {
+            lease.getCache().release(lease, propertyChangeStats);
+        }
+
+        return written;
     }
 
     /**
@@ -135,7 +295,19 @@ public class DegreeCachingNode {
      * @param value       new value.
      */
     private void put(DetachedRelationshipDescription description, int value) {
-        cachedDegrees.put(description, value);
+        Integer previous = cachedDegrees.put(description, value);
+        if (previous == null) {
+            bucket(description, true).add(description);
+        }
+
+        if (propertyChangeStats != null) {
+            if (previous == null) {
+                propertyChangeStats.added(description, value);
+            } else {
+                propertyChangeStats.changed(description, value - previous);
+            }
+        }
+
         updatedDegrees.add(description);
         removedDegrees.remove(description);
     }
@@ -146,8 +318,78 @@ public class DegreeCachingNode {
      * @param description to delete.
      */
     private void delete(DetachedRelationshipDescription description) {
-        cachedDegrees.remove(description);
+        Integer previous = cachedDegrees.remove(description);
+        if (previous != null) {
+            if (propertyChangeStats != null) {
+                propertyChangeStats.removed(description, previous);
+            }
+
+            Set<DetachedRelationshipDescription> bucket = bucket(description, false);
+            bucket.remove(description);
+            if (bucket.isEmpty()) {
+                buckets.remove(new Bucket(description));
+            }
+        }
         updatedDegrees.remove(description);
         removedDegrees.add(description);
     }
+
+    /**
+     * Get cached descriptions that could possibly be more general than the given one, i.e. the ones with the same
+     * relationship type and direction.
+     *
+     * @param description to find candidates for.
+     * @return candidates, must not be structurally modified while iterating.
+     */
+    private Set<DetachedRelationshipDescription> candidates(DetachedRelationshipDescription description) {
+        Set<DetachedRelationshipDescription> bucket = bucket(description, false);
+        return bucket == null ? Collections.<DetachedRelationshipDescription>emptySet() : bucket;
+    }
+
+    /**
+     * Get the bucket of cached descriptions with the same relationship type and direction as the given one.
+     *
+     * @param description to get bucket for.
+     * @param create      true to create the bucket if it doesn't exist.
+     * @return bucket, null if it doesn't exist and should not be created.
+     */
+    private Set<DetachedRelationshipDescription> bucket(DetachedRelationshipDescription description, boolean create) {
+        Bucket key = new Bucket(description);
+        Set<DetachedRelationshipDescription> bucket = buckets.get(key);
+
+        if (bucket == null && create) {
+            bucket = new HashSet<>();
+            buckets.put(key, bucket);
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Relationship type and direction of cached descriptions.
+     */
+    private static final class Bucket {
+        private final String type;
+        private final Direction direction;
+
+        private Bucket(DetachedRelationshipDescription description) {
+            this.type = description.getType().name();
+            this.direction = description.getDirection();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Bucket bucket = (Bucket) o;
+
+            return direction == bucket.direction && type.equals(bucket.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + direction.hashCode();
+        }
+    }
 }
@@ -19,8 +19,9 @@ public interface DegreeCachingStrategy {
      * @param cachedDegrees  the "full picture" - all cached degrees of the node.
      * @param updatedDegrees updated degrees only.
      * @param removedDegrees removed degrees only.
+     * @return number of bytes of encoded degrees written, 0 if the strategy doesn't encode degrees into byte arrays.
      */
-    void writeDegrees(Node node,
+    long writeDegrees(Node node,
                       String prefix,
                       Map<DetachedRelationshipDescription, Integer> cachedDegrees,
                       Set<DetachedRelationshipDescription> updatedDegrees,
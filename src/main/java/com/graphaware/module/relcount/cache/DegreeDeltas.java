@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Net degree deltas per node ID and relationship description, detached from the transaction they were collected in,
+ * so that they can be applied to cached degrees later (see {@link NodeBasedDegreeCache#endCachingDeferred()}).
+ * Deltas of several transactions can be merged into one instance and applied at once. Nodes are iterated in ascending
+ * order of their IDs, so that applying deltas takes node locks in a deterministic order.
+ * <p/>
+ * This class is not thread-safe.
+ */
+public final class DegreeDeltas {
+
+    private final Map<Long, Map<DetachedRelationshipDescription, Integer>> deltas = new TreeMap<>();
+
+    /**
+     * Add a degree delta.
+     *
+     * @param nodeId      ID of the node.
+     * @param description of relationships.
+     * @param delta       to add.
+     */
+    public void add(long nodeId, DetachedRelationshipDescription description, int delta) {
+        Map<DetachedRelationshipDescription, Integer> nodeDeltas = deltas.get(nodeId);
+        if (nodeDeltas == null) {
+            nodeDeltas = new LinkedHashMap<>();
+            deltas.put(nodeId, nodeDeltas);
+        }
+
+        Integer existing = nodeDeltas.get(description);
+        nodeDeltas.put(description, existing == null ? delta : existing + delta);
+    }
+
+    /**
+     * Add all deltas of another instance to this one.
+     *
+     * @param other deltas to add.
+     */
+    public void addAll(DegreeDeltas other) {
+        for (Map.Entry<Long, Map<DetachedRelationshipDescription, Integer>> nodeDeltas : other.deltas.entrySet()) {
+            for (Map.Entry<DetachedRelationshipDescription, Integer> delta : nodeDeltas.getValue().entrySet()) {
+                add(nodeDeltas.getKey(), delta.getKey(), delta.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove all deltas of a node.
+     *
+     * @param nodeId ID of the node.
+     */
+    public void remove(long nodeId) {
+        deltas.remove(nodeId);
+    }
+
+    /**
+     * @return IDs of nodes with deltas.
+     */
+    public Set<Long> nodeIds() {
+        return Collections.unmodifiableSet(deltas.keySet());
+    }
+
+    /**
+     * Get deltas of a single node.
+     *
+     * @param nodeId ID of the node.
+     * @return deltas, empty if there are none.
+     */
+    public Map<DetachedRelationshipDescription, Integer> get(long nodeId) {
+        Map<DetachedRelationshipDescription, Integer> nodeDeltas = deltas.get(nodeId);
+        if (nodeDeltas == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(nodeDeltas);
+    }
+
+    /**
+     * @return true iff there are no deltas.
+     */
+    public boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+}
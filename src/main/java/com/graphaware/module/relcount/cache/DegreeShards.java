@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.ResourceIterator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Shards of cached degrees of "hot" nodes, i.e. nodes with so many relationships that concurrent transactions creating
+ * relationships to them queue up on the lock of the node, each holding it while re-reading and re-writing all of the
+ * node's cached degrees.
+ * <p/>
+ * Degree deltas of a sharded node are not written to the node itself. Each transaction adds them to one of the node's
+ * shards, picked at random, which only holds the deltas not merged into the node yet and is thus much cheaper to read
+ * and write. Concurrent transactions mostly write different shards. A shard is a satellite node
+ * with no relationships, labelled with the module's prefix followed by {@link #SHARD}, holding the sum of the deltas
+ * added to it (possibly negative) encoded by {@link BinaryDegreeCodec}. IDs of a node's shards are stored in its
+ * {@link #SHARDS} property, which lies within the module's namespace of node properties, so
+ * {@link DegreeCachingStrategy}s must not treat it as cached degrees, see {@link #isShardsKey(String, String)}.
+ * <p/>
+ * The degrees of a sharded node are the sum of its own cached degrees and of its shards, see
+ * {@link #withShards(Node, String, Map)}. Shards are periodically merged back into the node's own cached degrees,
+ * see {@link NodeBasedDegreeCache#mergeShards(GraphDatabaseService, long)}.
+ * <p/>
+ * Shard nodes are deleted when the node they belong to is, as well as whenever its cached degrees are rebuilt, see
+ * {@link NodeBasedDegreeCache#rebuild(Node)}. All shard nodes are deleted when the module builds cached degrees of
+ * all nodes from scratch.
+ */
+public final class DegreeShards {
+
+    /**
+     * Suffix of the key of the property holding IDs of a node's shards.
+     */
+    public static final String SHARDS = "SHARDS";
+
+    /**
+     * Suffix of the key of the property holding degree deltas on a shard node and of the label of shard nodes.
+     */
+    public static final String SHARD = "SHARD";
+
+    private DegreeShards() {
+    }
+
+    /**
+     * Get IDs of a node's shards.
+     *
+     * @param node   to get shards of.
+     * @param prefix of the module.
+     * @return shard node IDs, null if the node isn't sharded.
+     */
+    public static long[] shardsOf(Node node, String prefix) {
+        return (long[]) node.getProperty(prefix + SHARDS, null);
+    }
+
+    /**
+     * Is the given key the key of the property holding IDs of a node's shards?
+     *
+     * @param key    of a node property.
+     * @param prefix of the module.
+     * @return true iff the key belongs to shard bookkeeping rather than cached degrees.
+     */
+    static boolean isShardsKey(String key, String prefix) {
+        return key.equals(prefix + SHARDS);
+    }
+
+    /**
+     * Is the given node a shard?
+     *
+     * @param node   to check.
+     * @param prefix of the module.
+     * @return true iff the node is a shard of another node.
+     */
+    public static boolean isShard(Node node, String prefix) {
+        return node.hasLabel(DynamicLabel.label(prefix + SHARD));
+    }
+
+    /**
+     * Create shards of a node. Must be called within a transaction.
+     *
+     * @param node   to shard.
+     * @param prefix of the module.
+     * @param count  number of shards.
+     * @return shard node IDs.
+     */
+    public static long[] create(Node node, String prefix, int count) {
+        GraphDatabaseService database = node.getGraphDatabase();
+
+        long[] shards = new long[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = database.createNode(DynamicLabel.label(prefix + SHARD)).getId();
+        }
+
+        node.setProperty(prefix + SHARDS, shards);
+        return shards;
+    }
+
+    /**
+     * Delete shard nodes. Must be called within a transaction. Shards that no longer exist are ignored.
+     *
+     * @param database the shards are in.
+     * @param shards   IDs of the shards.
+     */
+    public static void delete(GraphDatabaseService database, long[] shards) {
+        for (long shardId : shards) {
+            try {
+                database.getNodeById(shardId).delete();
+            } catch (NotFoundException e) {
+                //already deleted
+            }
+        }
+    }
+
+    /**
+     * Delete all shard nodes of the module. Must be called within a transaction.
+     *
+     * @param database to delete shards in.
+     * @param prefix   of the module.
+     * @return number of deleted shards.
+     */
+    public static int deleteAll(GraphDatabaseService database, String prefix) {
+        int deleted = 0;
+        try (ResourceIterator<Node> shards = database.findNodes(DynamicLabel.label(prefix + SHARD))) {
+            while (shards.hasNext()) {
+                shards.next().delete();
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Add degree deltas to one of the node's shards, picked at random. Must be called within a transaction.
+     *
+     * @param database the shards are in.
+     * @param shards   IDs of the shards.
+     * @param prefix   of the module.
+     * @param deltas   to add.
+     * @return false iff the picked shard no longer exists and the deltas haven't been added.
+     */
+    public static boolean add(GraphDatabaseService database, long[] shards, String prefix, Map<DetachedRelationshipDescription, Integer> deltas) {
+        Node shard;
+        try {
+            shard = database.getNodeById(shards[ThreadLocalRandom.current().nextInt(shards.length)]);
+        } catch (NotFoundException e) {
+            return false;
+        }
+
+        Map<DetachedRelationshipDescription, Integer> sum = read(shard, prefix);
+        for (Map.Entry<DetachedRelationshipDescription, Integer> delta : deltas.entrySet()) {
+            add(sum, delta.getKey(), delta.getValue());
+        }
+
+        write(shard, prefix, sum);
+        return true;
+    }
+
+    /**
+     * Read degree deltas of a shard.
+     *
+     * @param shard  to read.
+     * @param prefix of the module.
+     * @return deltas.
+     */
+    static Map<DetachedRelationshipDescription, Integer> read(Node shard, String prefix) {
+        byte[] bytes = (byte[]) shard.getProperty(prefix + SHARD, null);
+        if (bytes == null) {
+            return new HashMap<>();
+        }
+        return codec(shard, prefix).decode(bytes);
+    }
+
+    /**
+     * Write degree deltas of a shard.
+     *
+     * @param shard  to write.
+     * @param prefix of the module.
+     * @param deltas to write, replacing existing ones.
+     */
+    static void write(Node shard, String prefix, Map<DetachedRelationshipDescription, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            shard.removeProperty(prefix + SHARD);
+        } else {
+            shard.setProperty(prefix + SHARD, codec(shard, prefix).encode(deltas));
+        }
+    }
+
+    /**
+     * Add degree deltas of a node's shards to the node's own cached degrees. Deltas are added to the cached description
+     * they count towards, if the node's cached degrees have been compacted.
+     *
+     * @param node    whose degrees to complete.
+     * @param prefix  of the module.
+     * @param degrees node's own cached degrees.
+     * @return the given degrees if the node isn't sharded, a copy with shards added otherwise.
+     */
+    public static Map<DetachedRelationshipDescription, Integer> withShards(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> degrees) {
+        long[] shards = shardsOf(node, prefix);
+        if (shards == null) {
+            return degrees;
+        }
+
+        Map<DetachedRelationshipDescription, Integer> result = new HashMap<>(degrees);
+
+        Map<DetachedRelationshipDescription, Integer> deltas = new HashMap<>();
+        for (long shardId : shards) {
+            Node shard;
+            try {
+                shard = node.getGraphDatabase().getNodeById(shardId);
+            } catch (NotFoundException e) {
+                continue;
+            }
+
+            for (Map.Entry<DetachedRelationshipDescription, Integer> delta : read(shard, prefix).entrySet()) {
+                add(deltas, generalization(result, delta.getKey()), delta.getValue());
+            }
+        }
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> delta : deltas.entrySet()) {
+            Integer existing = result.get(delta.getKey());
+            int value = existing == null ? delta.getValue() : existing + delta.getValue();
+            if (value > 0) {
+                result.put(delta.getKey(), value);
+            } else {
+                result.remove(delta.getKey());
+            }
+        }
+
+        return result;
+    }
+
+    private static void add(Map<DetachedRelationshipDescription, Integer> deltas, DetachedRelationshipDescription description, int delta) {
+        Integer existing = deltas.get(description);
+        int value = existing == null ? delta : existing + delta;
+        if (value == 0) {
+            deltas.remove(description);
+        } else {
+            deltas.put(description, value);
+        }
+    }
+
+    private static DetachedRelationshipDescription generalization(Map<DetachedRelationshipDescription, Integer> degrees, DetachedRelationshipDescription description) {
+        if (degrees.containsKey(description)) {
+            return description;
+        }
+
+        for (DetachedRelationshipDescription candidate : degrees.keySet()) {
+            if (description.isMoreSpecificThan(candidate)) {
+                return candidate;
+            }
+        }
+
+        return description;
+    }
+
+    private static BinaryDegreeCodec codec(Node node, String prefix) {
+        return new BinaryDegreeCodec(TokenDictionary.of(node.getGraphDatabase(), prefix), node.getId());
+    }
+}
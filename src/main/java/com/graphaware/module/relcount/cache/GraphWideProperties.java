@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+/**
+ * Access to graph properties, i.e. properties that belong to the graph as a whole rather than to any node or
+ * relationship. Used for module-level metadata, which must not live on nodes, as that would make it visible to
+ * (and modifiable by) the rest of the application.
+ * <p/>
+ * Must be called within a transaction, just like access to any other {@link PropertyContainer}.
+ */
+public final class GraphWideProperties {
+
+    private GraphWideProperties() {
+    }
+
+    /**
+     * Get the graph properties of a database.
+     *
+     * @param database to get graph properties for.
+     * @return graph properties.
+     */
+    public static PropertyContainer of(GraphDatabaseService database) {
+        return ((GraphDatabaseAPI) database).getDependencyResolver().resolveDependency(NodeManager.class).newGraphProperties();
+    }
+}
@@ -21,31 +21,61 @@ import com.graphaware.common.description.relationship.DetachedRelationshipDescri
 import com.graphaware.common.description.relationship.DetachedRelationshipDescriptionImpl;
 import com.graphaware.common.wrapper.NodeWrapper;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.compact.GeneralizationTemplates;
+import com.graphaware.module.relcount.count.WeighingStrategy;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
 import com.graphaware.runtime.RuntimeRegistry;
+import com.graphaware.runtime.module.NeedsInitializationException;
+import com.graphaware.tx.event.improved.propertycontainer.filtered.FilteredNode;
 import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.graphaware.common.util.DirectionUtils.resolveDirection;
 
 /**
  * {@link DegreeCache} that caches degrees using {@link DegreeCachingNode}s.
  * <p/>
- * It has its own "cache" of {@link DegreeCachingNode}s in order to optimize database reads/writes.
+ * Handled relationships are first aggregated into net degree deltas per node and relationship description, which
+ * are applied to {@link DegreeCachingNode}s when caching ends. This way, every node is read and written once, every
+ * description is looked up once per node, and relationships created and deleted in the same transaction cancel out.
+ * Deltas are netted per cached description first, so that a decrement never precedes the increment it cancels, and
+ * negative net deltas are then applied before positive ones, so that cached degrees dropping to zero are removed before
+ * new ones are added. Otherwise, the number of cached degrees could temporarily exceed the compaction threshold and
+ * trigger a compaction that isn't needed.
+ * <p/>
+ * Relationships should preferably be handled from the point of view of both their nodes at once (see
+ * {@link #handleCreatedRelationship(Relationship, Node, Node)}), so that their properties are only read once. Equal
+ * descriptions handled within one transaction share a single instance.
+ * <p/>
+ * When the cached degrees of a node are found to be out of sync with its relationships (e.g. a deleted relationship
+ * was never counted), the node is repaired by recounting all its relationships, rather than having the whole graph
+ * re-initialized.
+ * <p/>
+ * If configured, cached degrees of hot nodes are sharded, so that concurrent transactions don't all have to re-write
+ * all of the node's cached degrees to update them, see {@link DegreeShards}.
  */
 public class NodeBasedDegreeCache implements DegreeCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(NodeBasedDegreeCache.class);
 
-    private static final ThreadLocal<Map<Long, DegreeCachingNode>> nodeCache = new ThreadLocal<>();
+    private static final ThreadLocal<Caching> caching = new ThreadLocal<>();
 
     private final String id;
     private final RelationshipCountConfiguration relationshipCountConfiguration;
+    private final RelcountMetrics metrics;
+    private final AtomicLong repairs = new AtomicLong();
+    private final Set<Long> shardedNodes = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private volatile String prefix;
 
     /**
      * Construct a new cache.
@@ -54,8 +84,20 @@ public class NodeBasedDegreeCache implements DegreeCache {
      * @param relationshipCountConfiguration strategies for degree caching.
      */
     public NodeBasedDegreeCache(String id, RelationshipCountConfiguration relationshipCountConfiguration) {
+        this(id, relationshipCountConfiguration, RelcountMetrics.DISABLED);
+    }
+
+    /**
+     * Construct a new cache.
+     *
+     * @param id                             of the module this cache belongs to.
+     * @param relationshipCountConfiguration strategies for degree caching.
+     * @param metrics                        to record flushes, compactions and sizes of cached degrees to.
+     */
+    public NodeBasedDegreeCache(String id, RelationshipCountConfiguration relationshipCountConfiguration, RelcountMetrics metrics) {
         this.id = id;
         this.relationshipCountConfiguration = relationshipCountConfiguration;
+        this.metrics = metrics;
     }
 
     /**
@@ -63,33 +105,129 @@ public class NodeBasedDegreeCache implements DegreeCache {
      */
     @Override
     public void startCaching() {
-        if (nodeCache.get() != null) {
+        if (caching.get() != null) {
             throw new IllegalStateException("Previous caching hasn't been ended!");
         }
 
-        nodeCache.set(new HashMap<Long, DegreeCachingNode>());
+        caching.set(new Caching());
+        GeneralizationTemplates.transactionStarted();
+        PropertyChangeStatsCache.transactionStarted();
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Cached degrees are written in ascending order of node IDs, so that transactions writing cached degrees of
+     * overlapping sets of nodes take the nodes' locks in the same order and don't deadlock.
      */
     @Override
     public void endCaching() {
-        ThreadLocal<Map<Long, DegreeCachingNode>> nodeCache = NodeBasedDegreeCache.nodeCache;
+        Caching current = caching.get();
 
-        if (nodeCache.get() == null) {
+        if (current == null) {
             throw new IllegalStateException("No caching has been started!");
         }
 
+        long start = metrics.start();
         try {
-            for (DegreeCachingNode node : nodeCache.get().values()) {
-                node.flush();
+            for (NodeDeltas deltas : current.nodes.values()) {
+                if (!deltas.isEmpty()) {
+                    apply(deltas.node, deltas.deltas);
+                }
             }
         } finally {
+            metrics.stop(RelcountMetrics.Operation.FLUSH, start);
             //no need to catch, exception will propagate and rollback transaction, but we must indicate end of caching
-            nodeCache.set(null);
+            caching.set(null);
+        }
+    }
+
+    /**
+     * End caching without applying the aggregated degree deltas to cached degrees. They are returned instead, detached
+     * from the current transaction, so that they can be applied later in a different transaction using
+     * {@link #apply(GraphDatabaseService, DegreeDeltas)}.
+     * <p/>
+     * Nodes with non-zero deltas are write-locked in ascending order of their IDs (a relationship property change
+     * doesn't lock them otherwise), so that deltas of transactions changing degrees of the same node can be ordered
+     * the way the transactions commit.
+     *
+     * @return net degree deltas of the ended caching, only non-zero ones.
+     */
+    public DegreeDeltas endCachingDeferred() {
+        Caching current = current();
+        caching.set(null);
+
+        DegreeDeltas result = new DegreeDeltas();
+        for (NodeDeltas deltas : current.nodes.values()) {
+            boolean locked = false;
+            for (Map.Entry<DetachedRelationshipDescription, Integer> delta : deltas.deltas.entrySet()) {
+                if (delta.getValue() != 0) {
+                    if (!locked) {
+                        lock(deltas.node);
+                        locked = true;
+                    }
+                    result.add(deltas.node.getId(), delta.getKey(), delta.getValue());
+                }
+            }
         }
 
+        return result;
+    }
+
+    /**
+     * Write-lock a node until the current transaction finishes.
+     *
+     * @param node to lock, not wrapped.
+     */
+    private void lock(Node node) {
+        try (Transaction tx = node.getGraphDatabase().beginTx()) {
+            tx.acquireWriteLock(node);
+            tx.success();
+        }
+    }
+
+    /**
+     * Read-lock a node until the current transaction finishes.
+     *
+     * @param node to lock, not wrapped.
+     */
+    private void readLock(Node node) {
+        try (Transaction tx = node.getGraphDatabase().beginTx()) {
+            tx.acquireReadLock(node);
+            tx.success();
+        }
+    }
+
+    /**
+     * Apply degree deltas collected by {@link #endCachingDeferred()} to cached degrees. Must be called within a
+     * transaction, before anything else in it changes cached degrees. Deltas of nodes that no longer exist are ignored.
+     *
+     * @param database to apply the deltas to.
+     * @param deltas   to apply.
+     * @return IDs of nodes whose cached degrees have been found out of sync and recounted instead. Once the transaction
+     *         commits, their cached degrees include all relationship changes committed before it.
+     */
+    public Set<Long> apply(GraphDatabaseService database, DegreeDeltas deltas) {
+        long start = metrics.start();
+        GeneralizationTemplates.transactionStarted();
+        PropertyChangeStatsCache.transactionStarted();
+
+        Set<Long> recounted = new HashSet<>();
+        for (long nodeId : deltas.nodeIds()) {
+            Node node;
+            try {
+                node = database.getNodeById(nodeId);
+            } catch (NotFoundException e) {
+                continue;
+            }
+
+            if (!apply(node, deltas.get(nodeId))) {
+                recounted.add(nodeId);
+            }
+        }
+
+        metrics.stop(RelcountMetrics.Operation.FLUSH, start);
+        return recounted;
     }
 
     /**
@@ -99,15 +237,7 @@ public class NodeBasedDegreeCache implements DegreeCache {
     public void handleCreatedRelationship(Relationship relationship, Node pointOfView, Direction defaultDirection) {
         throwExceptionIfDirectionIsNullOrBoth(defaultDirection);
 
-        DetachedRelationshipDescription createdRelationship = new DetachedRelationshipDescriptionImpl(
-                relationship.getType(),
-                resolveDirection(relationship, pointOfView, defaultDirection),
-                new LiteralPropertiesDescription(relationship));
-
-        int relationshipWeight = relationshipCountConfiguration.getWeighingStrategy().getRelationshipWeight(relationship, pointOfView);
-
-        DegreeCachingNode cachingNode = cachingNode(unwrap(pointOfView));
-        cachingNode.incrementDegree(createdRelationship, relationshipWeight);
+        handle(relationship, new LiteralPropertiesDescription(relationship), pointOfView, defaultDirection, 1);
     }
 
     /**
@@ -117,35 +247,373 @@ public class NodeBasedDegreeCache implements DegreeCache {
     public void handleDeletedRelationship(Relationship relationship, Node pointOfView, Direction defaultDirection) {
         throwExceptionIfDirectionIsNullOrBoth(defaultDirection);
 
-        DetachedRelationshipDescription deletedRelationship = new DetachedRelationshipDescriptionImpl(
+        handle(relationship, new LiteralPropertiesDescription(relationship), pointOfView, defaultDirection, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleCreatedRelationship(Relationship relationship, Node startNode, Node endNode) {
+        handle(relationship, startNode, endNode, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleDeletedRelationship(Relationship relationship, Node startNode, Node endNode) {
+        handle(relationship, startNode, endNode, -1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Nothing is recorded if the change doesn't affect the description or the weight of the relationship, e.g. when
+     * only properties excluded from counting have changed.
+     */
+    @Override
+    public void handleChangedRelationship(Relationship previous, Relationship current) {
+        LiteralPropertiesDescription previousProperties = new LiteralPropertiesDescription(previous);
+        LiteralPropertiesDescription currentProperties = new LiteralPropertiesDescription(current);
+
+        WeighingStrategy weighingStrategy = relationshipCountConfiguration.getWeighingStrategy();
+        if (previousProperties.equals(currentProperties)
+                && weighingStrategy.getRelationshipWeight(previous, previous.getStartNode()) == weighingStrategy.getRelationshipWeight(current, current.getStartNode())
+                && weighingStrategy.getRelationshipWeight(previous, previous.getEndNode()) == weighingStrategy.getRelationshipWeight(current, current.getEndNode())) {
+            return;
+        }
+
+        handle(previous, previousProperties, previous.getStartNode(), Direction.INCOMING, -1);
+        handle(previous, previousProperties, previous.getEndNode(), Direction.OUTGOING, -1);
+        handle(current, currentProperties, current.getStartNode(), Direction.INCOMING, 1);
+        handle(current, currentProperties, current.getEndNode(), Direction.OUTGOING, 1);
+    }
+
+    /**
+     * Handle a relationship from the point of view of its start and/or end node, reading its properties only once.
+     *
+     * @param relationship to handle.
+     * @param startNode    start node, null if it should not be handled.
+     * @param endNode      end node, null if it should not be handled.
+     * @param sign         1 for created, -1 for deleted relationships.
+     */
+    private void handle(Relationship relationship, Node startNode, Node endNode, int sign) {
+        LiteralPropertiesDescription properties = new LiteralPropertiesDescription(relationship);
+
+        if (startNode != null) {
+            handle(relationship, properties, startNode, Direction.INCOMING, sign);
+        }
+
+        if (endNode != null) {
+            handle(relationship, properties, endNode, Direction.OUTGOING, sign);
+        }
+    }
+
+    /**
+     * Handle a relationship from the point of view of one of its nodes.
+     *
+     * @param relationship     to handle.
+     * @param properties       of the relationship.
+     * @param pointOfView      node whose point of view the relationship is being handled.
+     * @param defaultDirection direction of the relationship if it is a self-loop.
+     * @param sign             1 for created, -1 for deleted relationships.
+     */
+    private void handle(Relationship relationship, LiteralPropertiesDescription properties, Node pointOfView, Direction defaultDirection, int sign) {
+        Caching current = current();
+
+        DetachedRelationshipDescription description = current.intern(new DetachedRelationshipDescriptionImpl(
                 relationship.getType(),
                 resolveDirection(relationship, pointOfView, defaultDirection),
-                new LiteralPropertiesDescription(relationship));
+                properties));
 
         int relationshipWeight = relationshipCountConfiguration.getWeighingStrategy().getRelationshipWeight(relationship, pointOfView);
 
-        DegreeCachingNode cachingNode = cachingNode(unwrap(pointOfView));
-        cachingNode.decrementDegree(deletedRelationship, relationshipWeight);
+        current.deltas(unwrap(pointOfView)).add(description, sign * relationshipWeight);
     }
 
     /**
-     * Get an instance of caching node from cache, or create a new one and put it in cache.
+     * Apply aggregated degree deltas of a node to its cached degrees, or to one of its shards if it is sharded and the
+     * shard still exists.
      *
-     * @param node for which a caching node should be obtained.
-     * @return caching node.
+     * @param node   to apply the deltas to, not wrapped.
+     * @param deltas to apply.
+     * @return false iff the node's cached degrees were out of sync and have been recounted instead.
      */
-    private DegreeCachingNode cachingNode(Node node) {
-        Map<Long, DegreeCachingNode> nodeCache = NodeBasedDegreeCache.nodeCache.get();
+    private boolean apply(Node node, Map<DetachedRelationshipDescription, Integer> deltas) {
+        String prefix = prefix(node);
 
-        if (nodeCache == null) {
-            throw new IllegalStateException("No caching has been started!");
+        if (DegreeShards.shardsOf(node, prefix) != null) {
+            //a shared lock is enough to keep the shards from being deleted by a rebuild of the node, re-read under it
+            readLock(node);
+
+            long[] shards = DegreeShards.shardsOf(node, prefix);
+            if (shards != null && DegreeShards.add(node.getGraphDatabase(), shards, prefix, deltas)) {
+                shardedNodes.add(node.getId());
+                return true;
+            }
+        }
+
+        //the node's own cached degrees are read and written back, so it is locked exclusively before reading them;
+        //two transactions holding a shared lock would deadlock upgrading it
+        lock(node);
+
+        DegreeCachingNode cachingNode = applyToNode(node, prefix, deltas);
+        if (cachingNode == null) {
+            return false;
+        }
+
+        shardIfHot(node, prefix, cachingNode);
+        return true;
+    }
+
+    /**
+     * Apply aggregated degree deltas of a node to its own cached degrees, regardless of whether it is sharded.
+     * <p/>
+     * Deltas are first netted out on the cached descriptions they count towards, so that e.g. a change of a property
+     * that the node's cached degrees have been compacted away from doesn't modify them at all.
+     *
+     * @param node   to apply the deltas to, not wrapped.
+     * @param prefix of the module.
+     * @param deltas to apply.
+     * @return the node with updated cached degrees, null if its degrees were out of sync and have been recounted.
+     */
+    private DegreeCachingNode applyToNode(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> deltas) {
+        DegreeCachingNode cachingNode;
+        long written;
+
+        try {
+            cachingNode = newDegreeCachingNode(node, prefix, relationshipCountConfiguration);
+
+            Map<DetachedRelationshipDescription, Integer> netDeltas = new LinkedHashMap<>();
+            for (Map.Entry<DetachedRelationshipDescription, Integer> delta : deltas.entrySet()) {
+                if (delta.getValue() == 0) {
+                    continue;
+                }
+
+                DetachedRelationshipDescription generalization = cachingNode.getGeneralization(delta.getKey());
+                DetachedRelationshipDescription description = generalization != null ? generalization : delta.getKey();
+
+                Integer existing = netDeltas.get(description);
+                netDeltas.put(description, existing == null ? delta.getValue() : existing + delta.getValue());
+            }
+
+            for (Map.Entry<DetachedRelationshipDescription, Integer> delta : netDeltas.entrySet()) {
+                if (delta.getValue() < 0) {
+                    cachingNode.decrementDegree(delta.getKey(), -delta.getValue());
+                }
+            }
+
+            for (Map.Entry<DetachedRelationshipDescription, Integer> delta : netDeltas.entrySet()) {
+                if (delta.getValue() > 0) {
+                    cachingNode.incrementDegree(delta.getKey(), delta.getValue());
+                }
+            }
+
+            written = cachingNode.flush();
+        } catch (NeedsInitializationException e) {
+            //thrown by decrements, but also possibly by compaction strategies when incrementing or flushing
+            LOG.warn("Cached degrees of node " + node.getId() + " are out of sync, they will be recounted");
+            repair(node);
+            return null;
+        }
+
+        if (written > 0) {
+            metrics.cachedDegreesWritten(written);
+        }
+
+        return cachingNode;
+    }
+
+    /**
+     * Shard cached degrees of a node if sharding is enabled and the node has become hot, i.e. the sum of its cached
+     * degrees has reached the configured threshold.
+     *
+     * @param node        to shard, not wrapped.
+     * @param prefix      of the module.
+     * @param cachingNode representing the node, with up-to-date cached degrees.
+     */
+    private void shardIfHot(Node node, String prefix, DegreeCachingNode cachingNode) {
+        int shards = relationshipCountConfiguration.getDegreeShards();
+        if (shards <= 0) {
+            return;
+        }
+
+        long total = 0;
+        for (int degree : cachingNode.getCachedDegrees().values()) {
+            total += degree;
+        }
+
+        //the node is locked by now, so another transaction can't be sharding it at the same time
+        if (total >= relationshipCountConfiguration.getHotNodeThreshold() && DegreeShards.shardsOf(node, prefix) == null) {
+            DegreeShards.create(node, prefix, shards);
+            shardedNodes.add(node.getId());
+            LOG.info("Sharded cached degrees of node " + node.getId() + " into " + shards + " shards");
+        }
+    }
+
+    /**
+     * Merge degree deltas accumulated in shards of a node back into its own cached degrees. Must be called within a
+     * transaction, before anything else in it changes cached degrees. Does nothing if the node isn't sharded or doesn't
+     * exist.
+     *
+     * @param database the node is in.
+     * @param nodeId   ID of the node to merge shards of.
+     * @return true iff the node's cached degrees have been found out of sync and recounted instead. Once the transaction
+     *         commits, they include all relationship changes committed before it.
+     */
+    public boolean mergeShards(GraphDatabaseService database, long nodeId) {
+        GeneralizationTemplates.transactionStarted();
+        PropertyChangeStatsCache.transactionStarted();
+
+        Node node;
+        try {
+            node = database.getNodeById(nodeId);
+        } catch (NotFoundException e) {
+            shardedNodes.remove(nodeId);
+            return false;
+        }
+
+        String prefix = prefix(node);
+
+        long[] shards = DegreeShards.shardsOf(node, prefix);
+        if (shards == null) {
+            shardedNodes.remove(nodeId);
+            return false;
+        }
+
+        //lock the node before its shards, transactions creating relationships lock it first too
+        node.setProperty(prefix + DegreeShards.SHARDS, shards);
+
+        long[] ordered = shards.clone();
+        Arrays.sort(ordered);
+
+        Map<DetachedRelationshipDescription, Integer> deltas = new LinkedHashMap<>();
+        for (long shardId : ordered) {
+            Node shard;
+            try {
+                shard = node.getGraphDatabase().getNodeById(shardId);
+            } catch (NotFoundException e) {
+                continue;
+            }
+
+            for (Map.Entry<DetachedRelationshipDescription, Integer> delta : DegreeShards.read(shard, prefix).entrySet()) {
+                Integer existing = deltas.get(delta.getKey());
+                deltas.put(delta.getKey(), existing == null ? delta.getValue() : existing + delta.getValue());
+            }
+
+            DegreeShards.write(shard, prefix, Collections.<DetachedRelationshipDescription, Integer>emptyMap());
+        }
+
+        return !deltas.isEmpty() && applyToNode(node, prefix, deltas) == null;
+    }
+
+    /**
+     * Get IDs of nodes known to have sharded cached degrees, i.e. sharded or written to since this cache was created.
+     *
+     * @return node IDs, a snapshot.
+     */
+    public Set<Long> getShardedNodes() {
+        return new HashSet<>(shardedNodes);
+    }
+
+    /**
+     * Get the number of nodes whose cached degrees have been found out of sync and recounted.
+     *
+     * @return number of repairs since this cache was created.
+     */
+    public long getRepairs() {
+        return repairs.get();
+    }
+
+    /**
+     * Clear cached degrees of a node and recount them from its relationships, because they have been found out of sync.
+     *
+     * @param node to repair, not wrapped.
+     */
+    private void repair(Node node) {
+        rebuild(node);
+        repairs.incrementAndGet();
+
+        LOG.info("Recounted cached degrees of node " + node.getId());
+    }
+
+    /**
+     * Clear cached degrees of a node and recount them from its relationships. Must be called within a transaction, but
+     * not while caching is in progress in the current thread.
+     * <p/>
+     * This is how cached degrees of all nodes are built when the module is (re-)initialized, as well as how a single
+     * node is repaired when its cached degrees are found out of sync. Shards of the node's cached degrees are deleted,
+     * the node is sharded anew if it is still hot.
+     *
+     * @param node to rebuild cached degrees of, not wrapped.
+     */
+    public void rebuild(Node node) {
+        String prefix = prefix(node);
+
+        //a node with no cached degrees yet wouldn't be locked until they are written
+        lock(node);
+        long[] shards = DegreeShards.shardsOf(node, prefix);
+
+        for (String key : node.getPropertyKeys()) {
+            if (key.startsWith(prefix)) {
+                node.removeProperty(key);
+            }
+        }
+
+        if (shards != null) {
+            //relationships are recounted on the node itself, it is sharded again below if it is still hot
+            DegreeShards.delete(node.getGraphDatabase(), shards);
+            shardedNodes.remove(node.getId());
         }
 
-        if (!nodeCache.containsKey(node.getId())) {
-            nodeCache.put(node.getId(), newDegreeCachingNode(node, RuntimeRegistry.getRuntime(node.getGraphDatabase()).getConfiguration().createPrefix(id), relationshipCountConfiguration));
+        DegreeCachingNode cachingNode = newDegreeCachingNode(node, prefix, relationshipCountConfiguration);
+        Node filteredNode = new FilteredNode(node, relationshipCountConfiguration.getInclusionPolicies());
+
+        for (Relationship relationship : filteredNode.getRelationships()) {
+            int relationshipWeight = relationshipCountConfiguration.getWeighingStrategy().getRelationshipWeight(relationship, filteredNode);
+
+            cachingNode.incrementDegree(new DetachedRelationshipDescriptionImpl(
+                    relationship.getType(),
+                    resolveDirection(relationship, filteredNode, Direction.OUTGOING),
+                    new LiteralPropertiesDescription(relationship)), relationshipWeight);
+
+            if (relationship.getStartNode().getId() == relationship.getEndNode().getId()) {
+                cachingNode.incrementDegree(new DetachedRelationshipDescriptionImpl(
+                        relationship.getType(),
+                        Direction.INCOMING,
+                        new LiteralPropertiesDescription(relationship)), relationshipWeight);
+            }
         }
 
-        return nodeCache.get(node.getId());
+        cachingNode.flush();
+
+        shardIfHot(node, prefix, cachingNode);
+    }
+
+    /**
+     * Get the state of caching in progress in the current thread.
+     *
+     * @return caching state.
+     * @throws IllegalStateException if no caching has been started.
+     */
+    private Caching current() {
+        Caching current = caching.get();
+
+        if (current == null) {
+            throw new IllegalStateException("No caching has been started!");
+        }
+
+        return current;
+    }
+
+    private String prefix(Node node) {
+        String prefix = this.prefix;
+        if (prefix == null) {
+            prefix = RuntimeRegistry.getRuntime(node.getGraphDatabase()).getConfiguration().createPrefix(id);
+            this.prefix = prefix;
+        }
+        return prefix;
     }
 
     /**
@@ -155,7 +623,7 @@ public class NodeBasedDegreeCache implements DegreeCache {
      * @return degree caching node.
      */
     protected DegreeCachingNode newDegreeCachingNode(Node node, String prefix, RelationshipCountConfiguration configuration) {
-        return new DegreeCachingNode(node, prefix, configuration);
+        return new DegreeCachingNode(node, prefix, configuration, metrics, PropertyChangeStatsCache.existing(node.getGraphDatabase(), prefix));
     }
 
     /**
@@ -184,4 +652,69 @@ public class NodeBasedDegreeCache implements DegreeCache {
             throw new IllegalArgumentException("Default direction must not be null or BOTH. This is a bug.");
         }
     }
+
+    /**
+     * State of caching in progress, i.e. of a single transaction.
+     */
+    private static final class Caching {
+        //ordered by node ID, so that concurrent transactions flushing overlapping nodes lock them in the same order
+        private final Map<Long, NodeDeltas> nodes = new TreeMap<>();
+        private final Map<DetachedRelationshipDescription, DetachedRelationshipDescription> descriptions = new HashMap<>();
+
+        /**
+         * Get degree deltas of a node, creating them if they don't exist yet.
+         *
+         * @param node for which deltas should be obtained, not wrapped.
+         * @return deltas.
+         */
+        private NodeDeltas deltas(Node node) {
+            NodeDeltas deltas = nodes.get(node.getId());
+            if (deltas == null) {
+                deltas = new NodeDeltas(node);
+                nodes.put(node.getId(), deltas);
+            }
+            return deltas;
+        }
+
+        /**
+         * Get the instance of a description equal to the given one that has been handled before, if any.
+         *
+         * @param description to intern.
+         * @return equal description handled before, or the given one.
+         */
+        private DetachedRelationshipDescription intern(DetachedRelationshipDescription description) {
+            DetachedRelationshipDescription interned = descriptions.get(description);
+            if (interned == null) {
+                descriptions.put(description, description);
+                return description;
+            }
+            return interned;
+        }
+    }
+
+    /**
+     * Net degree deltas of a single node, per relationship description.
+     */
+    private static final class NodeDeltas {
+        private final Node node;
+        private final Map<DetachedRelationshipDescription, Integer> deltas = new LinkedHashMap<>();
+
+        private NodeDeltas(Node node) {
+            this.node = node;
+        }
+
+        private void add(DetachedRelationshipDescription description, int delta) {
+            Integer existing = deltas.get(description);
+            deltas.put(description, existing == null ? delta : existing + delta);
+        }
+
+        private boolean isEmpty() {
+            for (int delta : deltas.values()) {
+                if (delta != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
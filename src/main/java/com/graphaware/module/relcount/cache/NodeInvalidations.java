@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Record of when in-memory caches invalidated entries of individual nodes, so that a cache can tell whether a value
+ * read from the database for a node may be stale without rejecting values of all other nodes too.
+ * <p/>
+ * A reader obtains a {@link #stamp()} before reading from the database, and the value is only cached if the node hasn't
+ * been invalidated since, see {@link #isCurrent(long, long)}. Invalidated nodes are remembered up to a limit; once it is
+ * reached, they are forgotten and values read before that moment are rejected for all nodes.
+ * <p/>
+ * {@link #stamp()} is thread-safe, all other methods must be called while holding the lock of the cache using this
+ * instance.
+ */
+public class NodeInvalidations {
+
+    /**
+     * Maximum number of invalidated nodes remembered.
+     */
+    static final int MAX_REMEMBERED = 10000;
+
+    private volatile long clock;
+    private long forgottenAt;
+    private final Map<Long, Long> invalidatedAt = new HashMap<>();
+
+    /**
+     * Get the current stamp, which changes every time nodes are invalidated.
+     *
+     * @return stamp.
+     */
+    public long stamp() {
+        return clock;
+    }
+
+    /**
+     * Record that entries of the given nodes have been invalidated.
+     *
+     * @param nodeIds IDs of invalidated nodes.
+     */
+    public void invalidated(Collection<Long> nodeIds) {
+        long now = ++clock;
+
+        if (invalidatedAt.size() + nodeIds.size() > MAX_REMEMBERED) {
+            invalidatedAll();
+            return;
+        }
+
+        for (Long nodeId : nodeIds) {
+            invalidatedAt.put(nodeId, now);
+        }
+    }
+
+    /**
+     * Record that entries of all nodes have been invalidated.
+     */
+    public void invalidatedAll() {
+        forgottenAt = ++clock;
+        invalidatedAt.clear();
+    }
+
+    /**
+     * Is a value of a node read from the database after obtaining the given stamp still current, i.e. hasn't the node
+     * been invalidated since?
+     *
+     * @param nodeId ID of the node.
+     * @param stamp  obtained by {@link #stamp()} before reading the value.
+     * @return true iff the value can be cached.
+     */
+    public boolean isCurrent(long nodeId, long stamp) {
+        if (stamp < forgottenAt) {
+            return false;
+        }
+
+        Long invalidated = invalidatedAt.get(nodeId);
+        return invalidated == null || invalidated <= stamp;
+    }
+}
@@ -1,33 +1,62 @@
 package com.graphaware.module.relcount.cache;
 
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
-import com.graphaware.common.description.relationship.DetachedRelationshipDescriptionImpl;
 import com.graphaware.common.serialize.Serializer;
 import org.neo4j.graphdb.Node;
 
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * {@link DegreeCachingStrategy} that caches degrees as node properties on the node that the degree is for. For each
  * degree with respect to a {@link DetachedRelationshipDescription}, one property is created. The key of the property
- * is the {@link DetachedRelationshipDescription} serialized to string and the value is the actual degree.
+ * is the {@link DetachedRelationshipDescription} encoded to string by {@link BinaryDegreeCodec#encodeDescription(DetachedRelationshipDescription)},
+ * referring to the relationship type and property keys by their IDs in the module's {@link TokenDictionary}, or inline
+ * until they have been allocated IDs.
+ * The value is the actual degree.
+ * <p/>
+ * Keys written by previous versions using generic serialization can still be read. All properties of a node are
+ * migrated to the new keys when the degrees of the node are next written. The property holding IDs of the node's
+ * {@link DegreeShards} is neither.
  */
 public class NodePropertiesDegreeCachingStrategy implements DegreeCachingStrategy {
 
+    private static final String BINARY_KEY_MARKER = "!";
+
     /**
      * {@inheritDoc}
+     * <p/>
+     * Degrees are stored as integers, so no encoded bytes are ever reported as written.
      */
     @Override
-    public void writeDegrees(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> cachedDegrees, Set<DetachedRelationshipDescription> updatedDegrees, Set<DetachedRelationshipDescription> removedDegrees) {
+    public long writeDegrees(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> cachedDegrees, Set<DetachedRelationshipDescription> updatedDegrees, Set<DetachedRelationshipDescription> removedDegrees) {
+        BinaryDegreeCodec codec = codec(node, prefix);
+
+        if (removeLegacyKeys(node, prefix)) {
+            for (Map.Entry<DetachedRelationshipDescription, Integer> cached : cachedDegrees.entrySet()) {
+                String key = binaryKey(codec, prefix, cached.getKey());
+                node.setProperty(key, cached.getValue());
+                removeInlineKey(node, prefix, key, cached.getKey());
+            }
+            return 0;
+        }
+
         for (DetachedRelationshipDescription updated : updatedDegrees) {
-            node.setProperty(Serializer.toString(updated, prefix), cachedDegrees.get(updated));
+            String key = binaryKey(codec, prefix, updated);
+            node.setProperty(key, cachedDegrees.get(updated));
+            removeInlineKey(node, prefix, key, updated);
         }
 
         for (DetachedRelationshipDescription removed : removedDegrees) {
-            node.removeProperty(Serializer.toString(removed, prefix));
+            String key = binaryKey(codec, prefix, removed);
+            node.removeProperty(key);
+            removeInlineKey(node, prefix, key, removed);
         }
+
+        return 0;
     }
 
     /**
@@ -37,8 +66,16 @@ public class NodePropertiesDegreeCachingStrategy implements DegreeCachingStrateg
     public Map<DetachedRelationshipDescription, Integer> readDegrees(Node node, String prefix) {
         Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
 
+        String binaryPrefix = prefix + BINARY_KEY_MARKER;
+        BinaryDegreeCodec codec = null;
+
         for (String key : node.getPropertyKeys()) {
-            if (key.startsWith(prefix)) {
+            if (key.startsWith(binaryPrefix)) {
+                if (codec == null) {
+                    codec = codec(node, prefix);
+                }
+                cachedCounts.put(codec.decodeDescription(key.substring(binaryPrefix.length())), (Integer) node.getProperty(key));
+            } else if (key.startsWith(prefix) && !DegreeShards.isShardsKey(key, prefix)) {
                 DetachedRelationshipDescription description = Serializer.fromString(key, prefix);
                 cachedCounts.put(description, (Integer) node.getProperty(key));
             }
@@ -46,4 +83,52 @@ public class NodePropertiesDegreeCachingStrategy implements DegreeCachingStrateg
 
         return cachedCounts;
     }
+
+    /**
+     * Remove all properties with keys written by previous versions, leaving shard bookkeeping alone.
+     *
+     * @param node   to remove properties from.
+     * @param prefix of the properties.
+     * @return true iff there were any.
+     */
+    private boolean removeLegacyKeys(Node node, String prefix) {
+        String binaryPrefix = prefix + BINARY_KEY_MARKER;
+
+        List<String> legacyKeys = new LinkedList<>();
+        for (String key : node.getPropertyKeys()) {
+            if (key.startsWith(prefix) && !key.startsWith(binaryPrefix) && !DegreeShards.isShardsKey(key, prefix)) {
+                legacyKeys.add(key);
+            }
+        }
+
+        for (String legacyKey : legacyKeys) {
+            node.removeProperty(legacyKey);
+        }
+
+        return !legacyKeys.isEmpty();
+    }
+
+    /**
+     * Remove the property of a description written with its relationship type or property keys inline, because they
+     * weren't in the {@link TokenDictionary} yet at the time, now that the description has a different key.
+     *
+     * @param node        to remove the property from.
+     * @param prefix      of the properties.
+     * @param key         current key of the description.
+     * @param description whose inline key to remove.
+     */
+    private void removeInlineKey(Node node, String prefix, String key, DetachedRelationshipDescription description) {
+        String inlineKey = prefix + BINARY_KEY_MARKER + BinaryDegreeCodec.encodeDescriptionInline(description);
+        if (!inlineKey.equals(key) && node.hasProperty(inlineKey)) {
+            node.removeProperty(inlineKey);
+        }
+    }
+
+    private String binaryKey(BinaryDegreeCodec codec, String prefix, DetachedRelationshipDescription description) {
+        return prefix + BINARY_KEY_MARKER + codec.encodeDescription(description);
+    }
+
+    private BinaryDegreeCodec codec(Node node, String prefix) {
+        return new BinaryDegreeCodec(TokenDictionary.of(node.getGraphDatabase(), prefix), node.getId());
+    }
 }
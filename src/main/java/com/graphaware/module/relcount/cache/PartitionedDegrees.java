@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Direction;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable cached degrees of a node, partitioned by relationship type and direction, so that counting relationships
+ * of a specific type and direction only needs to look at cached degrees that can possibly match.
+ */
+public final class PartitionedDegrees {
+
+    private final Map<DetachedRelationshipDescription, Integer> all;
+    private final Map<String, Map<DetachedRelationshipDescription, Integer>> outgoing = new HashMap<>();
+    private final Map<String, Map<DetachedRelationshipDescription, Integer>> incoming = new HashMap<>();
+
+    /**
+     * Partition cached degrees.
+     *
+     * @param degrees to partition, must only contain descriptions with {@link Direction#INCOMING} or {@link Direction#OUTGOING}.
+     * @return partitioned degrees.
+     */
+    public static PartitionedDegrees of(Map<DetachedRelationshipDescription, Integer> degrees) {
+        return new PartitionedDegrees(degrees);
+    }
+
+    private PartitionedDegrees(Map<DetachedRelationshipDescription, Integer> degrees) {
+        this.all = Collections.unmodifiableMap(new HashMap<>(degrees));
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : degrees.entrySet()) {
+            Map<String, Map<DetachedRelationshipDescription, Integer>> partitions = Direction.INCOMING.equals(entry.getKey().getDirection()) ? incoming : outgoing;
+
+            String type = entry.getKey().getType().name();
+            Map<DetachedRelationshipDescription, Integer> partition = partitions.get(type);
+            if (partition == null) {
+                partition = new HashMap<>();
+                partitions.put(type, partition);
+            }
+
+            partition.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Get cached degrees of relationships with the given type and direction.
+     *
+     * @param type      relationship type name.
+     * @param direction {@link Direction#INCOMING} or {@link Direction#OUTGOING}.
+     * @return cached degrees, empty if there are none. Must not be modified.
+     */
+    public Map<DetachedRelationshipDescription, Integer> get(String type, Direction direction) {
+        Map<DetachedRelationshipDescription, Integer> partition = (Direction.INCOMING.equals(direction) ? incoming : outgoing).get(type);
+        return partition == null ? Collections.<DetachedRelationshipDescription, Integer>emptyMap() : partition;
+    }
+
+    /**
+     * @return all cached degrees, unmodifiable.
+     */
+    public Map<DetachedRelationshipDescription, Integer> asMap() {
+        return all;
+    }
+}
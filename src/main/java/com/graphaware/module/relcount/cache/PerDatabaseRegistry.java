@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Registry of objects that exist once per database and module prefix, such as {@link TokenDictionary}. An instance is
+ * created on first use by {@link #create(GraphDatabaseService, String)} and released by {@link #release(Object)} when
+ * its database shuts down, so that a new database (e.g. after a restart, or in the next test) starts from scratch.
+ *
+ * @param <T> type of the registered objects.
+ */
+public abstract class PerDatabaseRegistry<T> {
+
+    private final ConcurrentMap<Key, T> instances = new ConcurrentHashMap<>();
+
+    /**
+     * Get the instance for a database and prefix, creating it if needed.
+     *
+     * @param database the instance is for.
+     * @param prefix   of the module the instance is for.
+     * @return instance.
+     */
+    public T of(GraphDatabaseService database, String prefix) {
+        Key key = new Key(database, prefix);
+
+        T instance = instances.get(key);
+        if (instance != null) {
+            return instance;
+        }
+
+        T newInstance = create(database, prefix);
+        instance = instances.putIfAbsent(key, newInstance);
+        if (instance != null) {
+            release(newInstance);
+            return instance;
+        }
+
+        database.registerKernelEventHandler(new ReleasingHandler(key, newInstance));
+        return newInstance;
+    }
+
+    /**
+     * Get the instance for a database and prefix, if it has been created.
+     *
+     * @param database the instance is for.
+     * @param prefix   of the module the instance is for.
+     * @return instance, null if there is none.
+     */
+    public T existing(GraphDatabaseService database, String prefix) {
+        return instances.get(new Key(database, prefix));
+    }
+
+    /**
+     * Get all instances, for all databases and prefixes.
+     *
+     * @return read-only view of the instances.
+     */
+    public Collection<T> all() {
+        return Collections.unmodifiableCollection(instances.values());
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param database the instance is for.
+     * @param prefix   of the module the instance is for.
+     * @return new instance.
+     */
+    protected abstract T create(GraphDatabaseService database, String prefix);
+
+    /**
+     * Release resources held by an instance, either because its database is shutting down, or because it has lost the
+     * race against an instance created concurrently for the same database and prefix. Does nothing by default.
+     *
+     * @param instance to release.
+     */
+    protected void release(T instance) {
+        //do nothing by default
+    }
+
+    /**
+     * Create a factory of daemon threads with the given name, so that background work of registered objects never
+     * prevents the JVM from exiting.
+     *
+     * @param name of created threads.
+     * @return thread factory.
+     */
+    public static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static final class Key {
+        private final GraphDatabaseService database;
+        private final String prefix;
+
+        private Key(GraphDatabaseService database, String prefix) {
+            this.database = database;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return database == key.database && prefix.equals(key.prefix);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(database) + prefix.hashCode();
+        }
+    }
+
+    /**
+     * Releases an instance when its database shuts down.
+     */
+    private final class ReleasingHandler implements KernelEventHandler {
+        private final Key key;
+        private final T instance;
+
+        private ReleasingHandler(Key key, T instance) {
+            this.key = key;
+            this.instance = instance;
+        }
+
+        @Override
+        public void beforeShutdown() {
+            instances.remove(key, instance);
+            release(instance);
+        }
+
+        @Override
+        public void kernelPanic(ErrorState error) {
+            //do nothing
+        }
+
+        @Override
+        public Object getResource() {
+            return null;
+        }
+
+        @Override
+        public ExecutionOrder orderComparedTo(KernelEventHandler other) {
+            return ExecutionOrder.DOESNT_MATTER;
+        }
+    }
+}
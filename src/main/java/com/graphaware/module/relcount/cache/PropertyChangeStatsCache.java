@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.module.relcount.compact.PropertyChangeStats;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded, in-memory, least-recently-used cache of {@link PropertyChangeStats} of nodes' cached degrees, so that nodes
+ * compacted over and over, typically hot ones, don't have their statistics rebuilt from all cached degrees in every
+ * transaction.
+ * <p/>
+ * Statistics are used by a single {@link DegreeCachingNode} at a time. A node leases the statistics when it is created
+ * (see {@link #lease(long)}), which must happen under the node's write lock, i.e. in the order in which transactions
+ * changing its cached degrees commit. Leased statistics are no longer in the cache, and are only returned to it (see
+ * {@link #release(Lease, PropertyChangeStats)}) once the transaction that changed them commits, by a
+ * {@link TransactionEventHandler}, like compactions recorded by
+ * {@link com.graphaware.module.relcount.compact.GeneralizationTemplates}. Each lease is numbered; statistics returned
+ * under a lease older than the node's latest one describe cached degrees that have been changed since, and are
+ * discarded. Code that creates caching nodes thus calls {@link #transactionStarted()} at the start of each transaction.
+ * <p/>
+ * There is one instance per database and prefix, created by the module when it starts. Without it, caching nodes
+ * build their statistics in every transaction, as they always have.
+ */
+public class PropertyChangeStatsCache {
+
+    /**
+     * Maximum number of nodes whose statistics are kept.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    private static final PerDatabaseRegistry<PropertyChangeStatsCache> INSTANCES = new PerDatabaseRegistry<PropertyChangeStatsCache>() {
+        @Override
+        protected PropertyChangeStatsCache create(GraphDatabaseService database, String prefix) {
+            PropertyChangeStatsCache cache = new PropertyChangeStatsCache(database);
+            database.registerTransactionEventHandler(cache.commitListener);
+            return cache;
+        }
+
+        @Override
+        protected void release(PropertyChangeStatsCache cache) {
+            cache.database.unregisterTransactionEventHandler(cache.commitListener);
+        }
+    };
+
+    private final GraphDatabaseService database;
+
+    //node ID -> statistics with the number of the latest lease, null statistics while leased, guarded by itself
+    private final Map<Long, Entry> entries;
+    private long leases = 0;
+    //statistics released under leases lower than this are discarded, raised when entries are evicted or cleared
+    private long oldestValidLease = 0;
+
+    //statistics released by the transaction in progress in the current thread, returned to the cache once it commits
+    private final ThreadLocal<List<Released>> pending = new ThreadLocal<>();
+    private final CommitListener commitListener = new CommitListener();
+
+    /**
+     * Get the cache for a database and prefix, creating it if needed. The instance is released when the database shuts
+     * down.
+     *
+     * @param database the cache is for.
+     * @param prefix   of the module the cache is for.
+     * @return cache.
+     */
+    public static PropertyChangeStatsCache of(GraphDatabaseService database, String prefix) {
+        return INSTANCES.of(database, prefix);
+    }
+
+    /**
+     * Get the cache for a database and prefix, if it has been created.
+     *
+     * @param database the cache is for.
+     * @param prefix   of the module the cache is for.
+     * @return cache, null if there is none.
+     */
+    public static PropertyChangeStatsCache existing(GraphDatabaseService database, String prefix) {
+        return INSTANCES.existing(database, prefix);
+    }
+
+    /**
+     * Discard statistics released by the current thread that haven't been taken over by a committing transaction. Must
+     * be called at the start of every transaction in which caching nodes may be created, so that statistics of an
+     * earlier transaction that failed before committing aren't returned to the cache with it.
+     */
+    public static void transactionStarted() {
+        for (PropertyChangeStatsCache cache : INSTANCES.all()) {
+            cache.pending.remove();
+        }
+    }
+
+    private PropertyChangeStatsCache(GraphDatabaseService database) {
+        this.database = database;
+        this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > MAX_ENTRIES) {
+                    //a statistics released under an older lease of the evicted node could no longer be told stale
+                    oldestValidLease = Math.max(oldestValidLease, eldest.getValue().lease + 1);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Lease statistics of a node's cached degrees. Must be called under the node's write lock, just after its cached
+     * degrees have been read.
+     *
+     * @param nodeId ID of the node.
+     * @return lease, with statistics of the cached degrees that have just been read, or without statistics if there
+     *         are none.
+     */
+    Lease lease(long nodeId) {
+        synchronized (entries) {
+            Entry entry = entries.get(nodeId);
+            long lease = ++leases;
+            entries.put(nodeId, new Entry(lease, null));
+            return new Lease(this, nodeId, lease, entry == null ? null : entry.stats);
+        }
+    }
+
+    /**
+     * Release statistics, to be returned to the cache if the current transaction commits. Must be called just after
+     * the cached degrees they describe have been written.
+     *
+     * @param lease under which the node's cached degrees have been read.
+     * @param stats of the written cached degrees, must not be changed afterwards.
+     */
+    void release(Lease lease, PropertyChangeStats stats) {
+        List<Released> released = pending.get();
+        if (released == null) {
+            released = new ArrayList<>();
+            pending.set(released);
+        }
+
+        released.add(new Released(lease.nodeId, lease.lease, stats));
+    }
+
+    /**
+     * Forget all statistics, e.g. when all cached degrees are rebuilt.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            oldestValidLease = leases + 1;
+        }
+    }
+
+    /**
+     * @return number of nodes whose statistics are currently cached.
+     */
+    public int size() {
+        synchronized (entries) {
+            int result = 0;
+            for (Entry entry : entries.values()) {
+                if (entry.stats != null) {
+                    result++;
+                }
+            }
+            return result;
+        }
+    }
+
+    private void returned(Released released) {
+        synchronized (entries) {
+            if (released.lease < oldestValidLease) {
+                return;
+            }
+
+            Entry entry = entries.get(released.nodeId);
+            if (entry == null || entry.lease <= released.lease) {
+                entries.put(released.nodeId, new Entry(released.lease, released.stats));
+            }
+        }
+    }
+
+    /**
+     * Statistics leased by a {@link DegreeCachingNode}.
+     */
+    static final class Lease {
+        private final PropertyChangeStatsCache cache;
+        private final long nodeId;
+        private final long lease;
+        private final PropertyChangeStats stats;
+
+        private Lease(PropertyChangeStatsCache cache, long nodeId, long lease, PropertyChangeStats stats) {
+            this.cache = cache;
+            this.nodeId = nodeId;
+            this.lease = lease;
+            this.stats = stats;
+        }
+
+        /**
+         * @return cache the statistics have been leased from.
+         */
+        PropertyChangeStatsCache getCache() {
+            return cache;
+        }
+
+        /**
+         * @return leased statistics, null if there were none.
+         */
+        PropertyChangeStats getStats() {
+            return stats;
+        }
+    }
+
+    private static final class Entry {
+        private final long lease;
+        private final PropertyChangeStats stats;
+
+        private Entry(long lease, PropertyChangeStats stats) {
+            this.lease = lease;
+            this.stats = stats;
+        }
+    }
+
+    private static final class Released {
+        private final long nodeId;
+        private final long lease;
+        private final PropertyChangeStats stats;
+
+        private Released(long nodeId, long lease, PropertyChangeStats stats) {
+            this.nodeId = nodeId;
+            this.lease = lease;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Takes over statistics released by the committing thread and returns them to the cache once the transaction has
+     * committed.
+     */
+    private final class CommitListener implements TransactionEventHandler<List<Released>> {
+
+        @Override
+        public List<Released> beforeCommit(TransactionData data) throws Exception {
+            List<Released> released = pending.get();
+            pending.remove();
+            return released;
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, List<Released> released) {
+            if (released == null) {
+                return;
+            }
+
+            for (Released stats : released) {
+                returned(stats);
+            }
+        }
+
+        @Override
+        public void afterRollback(TransactionData data, List<Released> released) {
+            //changes described by the statistics have been rolled back, the nodes will build their statistics again
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link DegreeCachingStrategy} that caches degrees as node properties on the node that the degrees are for, one property
+ * (segment) per relationship type and direction. The key of the property is the prefix followed by the direction and
+ * the relationship type name. The value is the map of degrees of that type and direction, serialized to a byte array
+ * using {@link BinaryDegreeCodec} with the module's {@link TokenDictionary}.
+ * <p/>
+ * Only the segments containing updated or removed degrees are rewritten, which makes a difference for nodes with
+ * relationships of many types. Counting relationships of a single type only needs to read one segment (two for
+ * {@link Direction#BOTH}), see {@link TypeAwareDegreeCachingStrategy}.
+ */
+public class SegmentedDegreeCachingStrategy implements TypeAwareDegreeCachingStrategy {
+
+    private static final String SEGMENT_MARKER = "~";
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only the bytes of rewritten segments are reported as written.
+     */
+    @Override
+    public long writeDegrees(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> cachedDegrees, Set<DetachedRelationshipDescription> updatedDegrees, Set<DetachedRelationshipDescription> removedDegrees) {
+        Set<String> changedSegments = new HashSet<>();
+        for (DetachedRelationshipDescription updated : updatedDegrees) {
+            changedSegments.add(segmentKey(prefix, updated.getType().name(), updated.getDirection()));
+        }
+        for (DetachedRelationshipDescription removed : removedDegrees) {
+            changedSegments.add(segmentKey(prefix, removed.getType().name(), removed.getDirection()));
+        }
+
+        if (changedSegments.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, Map<DetachedRelationshipDescription, Integer>> segments = new HashMap<>();
+        for (String changedSegment : changedSegments) {
+            segments.put(changedSegment, new HashMap<DetachedRelationshipDescription, Integer>());
+        }
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> cached : cachedDegrees.entrySet()) {
+            Map<DetachedRelationshipDescription, Integer> segment = segments.get(segmentKey(prefix, cached.getKey().getType().name(), cached.getKey().getDirection()));
+            if (segment != null) {
+                segment.put(cached.getKey(), cached.getValue());
+            }
+        }
+
+        BinaryDegreeCodec codec = codec(node, prefix);
+        long written = 0;
+        for (Map.Entry<String, Map<DetachedRelationshipDescription, Integer>> segment : segments.entrySet()) {
+            if (segment.getValue().isEmpty()) {
+                node.removeProperty(segment.getKey());
+            } else {
+                byte[] bytes = codec.encode(segment.getValue());
+                node.setProperty(segment.getKey(), bytes);
+                written += bytes.length;
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<DetachedRelationshipDescription, Integer> readDegrees(Node node, String prefix) {
+        Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+
+        String segmentPrefix = prefix + SEGMENT_MARKER;
+        BinaryDegreeCodec codec = null;
+
+        for (String key : node.getPropertyKeys()) {
+            if (key.startsWith(segmentPrefix)) {
+                if (codec == null) {
+                    codec = codec(node, prefix);
+                }
+                cachedDegrees.putAll(codec.decode((byte[]) node.getProperty(key)));
+            }
+        }
+
+        return cachedDegrees;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<DetachedRelationshipDescription, Integer> readDegrees(Node node, String prefix, String type, Direction direction) {
+        Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+
+        if (!Direction.INCOMING.equals(direction)) {
+            readSegment(node, prefix, segmentKey(prefix, type, Direction.OUTGOING), cachedDegrees);
+        }
+
+        if (!Direction.OUTGOING.equals(direction)) {
+            readSegment(node, prefix, segmentKey(prefix, type, Direction.INCOMING), cachedDegrees);
+        }
+
+        return cachedDegrees;
+    }
+
+    private void readSegment(Node node, String prefix, String segmentKey, Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+        byte[] segment = (byte[]) node.getProperty(segmentKey, null);
+
+        if (segment != null) {
+            cachedDegrees.putAll(codec(node, prefix).decode(segment));
+        }
+    }
+
+    private String segmentKey(String prefix, String type, Direction direction) {
+        return prefix + SEGMENT_MARKER + (Direction.INCOMING.equals(direction) ? "I" : "O") + type;
+    }
+
+    private BinaryDegreeCodec codec(Node node, String prefix) {
+        return new BinaryDegreeCodec(TokenDictionary.of(node.getGraphDatabase(), prefix), node.getId());
+    }
+}
@@ -7,12 +7,16 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-import static com.graphaware.common.serialize.Serializer.*;
+import static com.graphaware.common.serialize.Serializer.fromByteArray;
 
 /**
  * {@link DegreeCachingStrategy} that caches degrees as a single node property on the node that the degrees are for.
  * The key of the property is the prefix (runtime identifier + module prefix) and the value is the entire map of
- * degrees serialized to a byte array.
+ * degrees serialized to a byte array using {@link BinaryDegreeCodec}, referring to relationship types, property keys,
+ * and hot property values by their IDs in the module's {@link TokenDictionary}.
+ * <p/>
+ * Byte arrays written by previous versions using generic serialization can still be read. They are migrated to
+ * the binary format lazily, i.e. when the degrees of the node are next written.
  */
 public class SingleNodePropertyDegreeCachingStrategy implements DegreeCachingStrategy {
 
@@ -20,8 +24,10 @@ public class SingleNodePropertyDegreeCachingStrategy implements DegreeCachingStr
      * {@inheritDoc}
      */
     @Override
-    public void writeDegrees(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> cachedDegrees, Set<DetachedRelationshipDescription> updatedDegrees, Set<DetachedRelationshipDescription> removedDegrees) {
-        node.setProperty(prefix, toByteArray(cachedDegrees));
+    public long writeDegrees(Node node, String prefix, Map<DetachedRelationshipDescription, Integer> cachedDegrees, Set<DetachedRelationshipDescription> updatedDegrees, Set<DetachedRelationshipDescription> removedDegrees) {
+        byte[] bytes = codec(node, prefix).encode(cachedDegrees);
+        node.setProperty(prefix, bytes);
+        return bytes.length;
     }
 
     /**
@@ -33,7 +39,17 @@ public class SingleNodePropertyDegreeCachingStrategy implements DegreeCachingStr
             return new HashMap<>();
         }
 
+        byte[] bytes = (byte[]) node.getProperty(prefix);
+
+        if (BinaryDegreeCodec.isBinary(bytes)) {
+            return codec(node, prefix).decode(bytes);
+        }
+
         //noinspection unchecked
-        return fromByteArray((byte[]) node.getProperty(prefix));
+        return fromByteArray(bytes);
+    }
+
+    private BinaryDegreeCodec codec(Node node, String prefix) {
+        return new BinaryDegreeCodec(TokenDictionary.of(node.getGraphDatabase(), prefix), node.getId());
     }
 }
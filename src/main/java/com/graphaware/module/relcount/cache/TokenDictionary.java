@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.cache;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Graph-wide dictionary mapping relationship type names, property keys, and frequently used (hot) property values to
+ * small integer IDs, so that cached degrees can refer to them by ID rather than repeating them on every node.
+ * <p/>
+ * The dictionary is append-only and persisted once per module as graph properties (see {@link GraphWideProperties}),
+ * one per page of {@link #PAGE_SIZE} tokens, so that allocating a token only rewrites the last page. New tokens are
+ * allocated in a separate transaction on a dedicated thread, so that an ID, once handed out, is committed regardless
+ * of the outcome of the transaction that asked for it. An unused token is harmless, whereas a rolled back token
+ * referenced by another transaction's cached degrees would not be. Tokens requested concurrently are allocated
+ * together in a single transaction. Nobody waits for the allocation, tokens are written inline until it completes.
+ * <p/>
+ * There is one instance per database and prefix, obtained using {@link #of(org.neo4j.graphdb.GraphDatabaseService, String)}.
+ */
+public class TokenDictionary {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TokenDictionary.class);
+
+    private static final String TOKENS = "TOKENS";
+
+    /**
+     * Number of tokens persisted in a single graph property.
+     */
+    static final int PAGE_SIZE = 256;
+
+    /**
+     * Number of distinct nodes a string value must be encoded for before it is considered hot and added to the dictionary.
+     */
+    private static final int HOT_VALUE_THRESHOLD = 16;
+
+    /**
+     * Maximum length of a string value that can be added to the dictionary.
+     */
+    private static final int MAX_VALUE_LENGTH = 64;
+
+    /**
+     * Maximum number of values tracked as potentially hot. The tracking starts over once reached.
+     */
+    private static final int MAX_VALUE_CANDIDATES = 10000;
+
+    /**
+     * Maximum number of tokens. Once reached, hot values are no longer added to the dictionary.
+     */
+    private static final int MAX_TOKENS = 100000;
+
+    private static final PerDatabaseRegistry<TokenDictionary> DICTIONARIES = new PerDatabaseRegistry<TokenDictionary>() {
+        @Override
+        protected TokenDictionary create(GraphDatabaseService database, String prefix) {
+            return new TokenDictionary(database, prefix);
+        }
+
+        @Override
+        protected void release(TokenDictionary dictionary) {
+            dictionary.allocator.shutdownNow();
+        }
+    };
+
+    private final GraphDatabaseService database;
+    private final String propertyKey;
+    private final ThreadPoolExecutor allocator;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> tokens = new ConcurrentHashMap<>();
+    private final Set<String> requested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String, Set<Long>> valueCandidates = new ConcurrentHashMap<>();
+    private volatile int size;
+
+    /**
+     * Get the dictionary for a database and prefix, creating it if needed. The dictionary is released when the
+     * database shuts down.
+     *
+     * @param database the dictionary is for.
+     * @param prefix   of the module the dictionary is for.
+     * @return dictionary.
+     */
+    public static TokenDictionary of(GraphDatabaseService database, String prefix) {
+        return DICTIONARIES.of(database, prefix);
+    }
+
+    private TokenDictionary(GraphDatabaseService database, String prefix) {
+        this.database = database;
+        this.propertyKey = prefix + TOKENS;
+        this.allocator = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                PerDatabaseRegistry.daemonThreads("relcount-token-allocator-" + propertyKey));
+        this.allocator.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the ID of a token, requesting a new one if the token isn't in the dictionary yet. New IDs are allocated
+     * asynchronously, the caller never waits for the allocation, which needs to lock graph properties, so that a
+     * committing transaction can't be stalled or deadlocked by another one holding that lock. Until the ID is
+     * allocated, the token has to be written inline.
+     *
+     * @param token to get ID for.
+     * @return ID, -1 if the token isn't in the dictionary yet.
+     */
+    public int idOf(String token) {
+        Integer id = ids.get(token);
+        if (id != null) {
+            return id;
+        }
+
+        if (!requested.add(token)) {
+            return -1; //allocation already requested
+        }
+
+        //allocated by a different instance of the dictionary, e.g. before a restart
+        try (Transaction tx = database.beginTx()) {
+            refresh();
+            tx.success();
+        }
+
+        id = ids.get(token);
+        if (id != null) {
+            requested.remove(token);
+            return id;
+        }
+
+        try {
+            allocator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        allocateRequested();
+                    } catch (RuntimeException e) {
+                        LOG.warn("Failed to allocate tokens in " + propertyKey + ", they will be requested again", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //the database is shutting down
+            requested.remove(token);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the ID of a token, if it is already in the dictionary.
+     *
+     * @param token to get ID for.
+     * @return ID, null if the token isn't in the dictionary.
+     */
+    public Integer existingIdOf(String token) {
+        return ids.get(token);
+    }
+
+    /**
+     * Get the ID of a property value, if the value is in the dictionary or has just become hot. Values are only
+     * added to the dictionary once they have been seen on enough distinct nodes, so that a value repeatedly written
+     * to the same node doesn't become hot.
+     *
+     * @param value  to get ID for.
+     * @param nodeId ID of the node the value is being encoded for.
+     * @return ID, -1 if the value should be stored inline.
+     */
+    public int hotValueIdOf(String value, long nodeId) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+
+        if (value.length() > MAX_VALUE_LENGTH || size >= MAX_TOKENS) {
+            return -1;
+        }
+
+        if (valueCandidates.size() >= MAX_VALUE_CANDIDATES) {
+            valueCandidates.clear();
+        }
+
+        Set<Long> newNodes = new HashSet<>();
+        Set<Long> nodes = valueCandidates.putIfAbsent(value, newNodes);
+        if (nodes == null) {
+            nodes = newNodes;
+        }
+
+        synchronized (nodes) {
+            nodes.add(nodeId);
+            if (nodes.size() < HOT_VALUE_THRESHOLD) {
+                return -1;
+            }
+        }
+
+        valueCandidates.remove(value);
+        return idOf(value);
+    }
+
+    /**
+     * Get the token with the given ID. Must be called within a transaction.
+     *
+     * @param id of the token.
+     * @return token.
+     * @throws IllegalStateException if there is no such token.
+     */
+    public String tokenOf(int id) {
+        String token = tokens.get(id);
+        if (token != null) {
+            return token;
+        }
+
+        //allocated by a different instance of the dictionary, e.g. before a restart
+        refresh();
+
+        token = tokens.get(id);
+        if (token != null) {
+            return token;
+        }
+
+        throw new IllegalStateException("Token with ID " + id + " does not exist in " + propertyKey + ". This is a bug.");
+    }
+
+    /**
+     * Allocate IDs of all requested tokens in a single transaction.
+     */
+    private void allocateRequested() {
+        Map<Integer, String[]> written = new TreeMap<>();
+
+        try (Transaction tx = database.beginTx()) {
+            refresh();
+
+            List<String> toAllocate = new ArrayList<>();
+            for (String candidate : requested) {
+                requested.remove(candidate);
+                if (!ids.containsKey(candidate)) {
+                    toAllocate.add(candidate);
+                }
+            }
+
+            if (toAllocate.isEmpty()) {
+                return;
+            }
+
+            int next = size;
+            for (String newToken : toAllocate) {
+                int page = next / PAGE_SIZE;
+                String[] persisted = written.get(page);
+                if (persisted == null) {
+                    persisted = readPage(page);
+                }
+                String[] updated = Arrays.copyOf(persisted, persisted.length + 1);
+                updated[persisted.length] = newToken;
+                written.put(page, updated);
+                next++;
+            }
+
+            for (Map.Entry<Integer, String[]> page : written.entrySet()) {
+                GraphWideProperties.of(database).setProperty(pageKey(page.getKey()), page.getValue());
+            }
+
+            tx.success();
+        }
+
+        for (Map.Entry<Integer, String[]> page : written.entrySet()) {
+            publish(page.getKey(), page.getValue());
+        }
+
+        LOG.debug("Allocated tokens up to ID " + (size - 1) + " in " + propertyKey);
+    }
+
+    /**
+     * Read pages persisted since this instance last looked. Must be called within a transaction.
+     */
+    private void refresh() {
+        int page = size / PAGE_SIZE;
+        String[] persisted = readPage(page);
+        while (persisted.length > 0) {
+            publish(page, persisted);
+            if (persisted.length < PAGE_SIZE) {
+                return;
+            }
+            persisted = readPage(++page);
+        }
+    }
+
+    private String[] readPage(int page) {
+        return (String[]) GraphWideProperties.of(database).getProperty(pageKey(page), new String[0]);
+    }
+
+    private String pageKey(int page) {
+        return propertyKey + page;
+    }
+
+    private synchronized void publish(int page, String[] persisted) {
+        for (int i = size - page * PAGE_SIZE; i < persisted.length; i++) {
+            int id = page * PAGE_SIZE + i;
+            if (i < 0 || id != size) {
+                return;
+            }
+            tokens.put(id, persisted[i]);
+            ids.put(persisted[i], id);
+            size = id + 1;
+        }
+    }
+}
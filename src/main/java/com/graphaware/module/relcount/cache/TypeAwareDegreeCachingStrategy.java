@@ -0,0 +1,25 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+
+import java.util.Map;
+
+/**
+ * A {@link DegreeCachingStrategy} that is able to read only the cached degrees of a single relationship type, without
+ * reading the rest.
+ */
+public interface TypeAwareDegreeCachingStrategy extends DegreeCachingStrategy {
+
+    /**
+     * Read the cached degrees for a node with respect to a relationship type and direction.
+     *
+     * @param node      to read cached degrees for.
+     * @param prefix    for metadata read.
+     * @param type      name of the relationship type.
+     * @param direction of the relationships. {@link Direction#BOTH} means both incoming and outgoing.
+     * @return cached degrees with the given type and direction(s).
+     */
+    Map<DetachedRelationshipDescription, Integer> readDegrees(Node node, String prefix, String type, Direction direction);
+}
@@ -1,6 +1,8 @@
 package com.graphaware.module.relcount.compact;
 
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
@@ -22,97 +24,217 @@ import static com.graphaware.common.description.predicate.Predicates.any;
  * As soon as one element in a set of attempted generalizations results in a compaction, the element that results in
  * maximum compaction is returned. In the above example, if this already happens in point 1), no further generalizations
  * are attempted.
+ * <p/>
+ * The search is pruned and bounded: properties that are already generalized in all descriptions of the type are
+ * skipped (generalizing them again wouldn't change anything), each distinct generalization is only evaluated once, and once
+ * the number of comparisons of descriptions exceeds a budget, the search gives up, returning the best generalization
+ * found in the attempt in progress, if any.
+ * <p/>
+ * Since the number of property sets to attempt doubles with every property of a type, they are generated lazily, one at
+ * a time, and creating each of them is charged against the budget as well.
  */
 class GeneralizationGenerator {
 
-    private final Set<DetachedRelationshipDescription> descriptions;
+    private static final Logger LOG = LoggerFactory.getLogger(GeneralizationGenerator.class);
+
+    /**
+     * Default maximum number of comparisons of descriptions performed when searching for a generalization.
+     */
+    static final int DEFAULT_BUDGET = 1000000;
+
+    private final Map<String, List<DetachedRelationshipDescription>> descriptionsByType = new HashMap<>();
     private final Iterator<PropertyChangeFrequency> frequencies;
-    private final Map<String, List<Set<String>>> usedPropertySetsByType = new HashMap<>();
+    private final Map<String, List<String>> usedPropertiesByType = new HashMap<>();
+    private final int budget;
+    private int comparisons;
 
     /**
-     * Construct a new generalizer.
+     * Construct a new generalizer with default budget.
      *
      * @param descriptions from which to create generalizations.
      * @param frequencies  of properties of the above descriptions.
      */
     GeneralizationGenerator(Set<DetachedRelationshipDescription> descriptions, List<PropertyChangeFrequency> frequencies) {
-        this.descriptions = descriptions;
+        this(descriptions, frequencies, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Construct a new generalizer.
+     *
+     * @param descriptions from which to create generalizations.
+     * @param frequencies  of properties of the above descriptions.
+     * @param budget       maximum number of comparisons of descriptions performed before giving up.
+     */
+    GeneralizationGenerator(Set<DetachedRelationshipDescription> descriptions, List<PropertyChangeFrequency> frequencies, int budget) {
+        for (DetachedRelationshipDescription description : descriptions) {
+            String type = description.getType().name();
+            if (!descriptionsByType.containsKey(type)) {
+                descriptionsByType.put(type, new ArrayList<DetachedRelationshipDescription>());
+            }
+            descriptionsByType.get(type).add(description);
+        }
+
         this.frequencies = frequencies.iterator();
+        this.budget = budget;
     }
 
     /**
      * Generate the best generalization that will result in a compaction.
      *
-     * @return best generalization.
+     * @return best generalization, null if there is none or the budget has been exhausted.
      */
     public DetachedRelationshipDescription generate() {
-        if (!frequencies.hasNext()) {
-            return null;
-        }
+        while (frequencies.hasNext() && !budgetExhausted()) {
+            PropertyChangeFrequency frequency = frequencies.next();
 
-        PropertyChangeFrequency frequency = frequencies.next();
+            if (!isGeneralizable(frequency.getType(), frequency.getProperty())) {
+                continue;
+            }
+
+            DetachedRelationshipDescription attempt = generate(frequency.getType(), newPropertySets(frequency));
 
-        DetachedRelationshipDescription attempt = generate(frequency.getType(), createNewPropertySets(frequency));
+            if (attempt != null) {
+                return attempt;
+            }
+        }
 
-        if (attempt == null) {
-            return generate();
+        if (budgetExhausted()) {
+            LOG.debug("Gave up searching for a generalization after " + comparisons + " comparisons");
         }
 
-        return attempt;
+        return null;
     }
 
-    private DetachedRelationshipDescription generate(String type, List<Set<String>> newPropertySets) {
-        for (Set<String> newPropertySet : newPropertySets) {
+    private DetachedRelationshipDescription generate(String type, Iterator<Set<String>> newPropertySets) {
+        List<DetachedRelationshipDescription> descriptions = descriptionsByType.get(type);
+        if (descriptions == null || descriptions.size() < 2) {
+            return null;
+        }
+
+        while (newPropertySets.hasNext() && !budgetExhausted()) {
+            Set<String> newPropertySet = newPropertySets.next();
             int maxMatches = 1;
             DetachedRelationshipDescription result = null;
+            Set<DetachedRelationshipDescription> evaluated = new HashSet<>();
 
             for (DetachedRelationshipDescription candidate : descriptions) {
-                if (!candidate.getType().name().equals(type)) {
-                    continue;
-                }
-
                 DetachedRelationshipDescription generalizedDescription = candidate;
                 for (String property : newPropertySet) {
                     generalizedDescription = generalizedDescription.with(property, any());
                 }
 
+                if (!evaluated.add(generalizedDescription)) {
+                    continue;
+                }
+
                 int matches = 0;
                 for (DetachedRelationshipDescription description : descriptions) {
                     if (description.isMoreSpecificThan(generalizedDescription)) {
                         matches++;
                     }
                 }
+                comparisons += descriptions.size();
 
                 if (matches > maxMatches) {
                     maxMatches = matches;
                     result = generalizedDescription;
                 }
+
+                if (maxMatches == descriptions.size() || budgetExhausted()) {
+                    //can't do better, or can't afford to try
+                    break;
+                }
             }
 
             if (result != null) {
                 return result;
             }
+
+            if (budgetExhausted()) {
+                return null;
+            }
         }
 
         return null;
     }
 
-    private List<Set<String>> createNewPropertySets(PropertyChangeFrequency frequency) {
-        if (!usedPropertySetsByType.containsKey(frequency.getType())) {
-            usedPropertySetsByType.put(frequency.getType(), new LinkedList<Set<String>>());
+    private boolean isGeneralizable(String type, String property) {
+        List<DetachedRelationshipDescription> descriptions = descriptionsByType.get(type);
+        if (descriptions == null) {
+            return false;
+        }
+
+        for (DetachedRelationshipDescription description : descriptions) {
+            if (!any().equals(description.getPropertiesDescription().get(property))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean budgetExhausted() {
+        return comparisons >= budget;
+    }
+
+    /**
+     * Create property sets to attempt generalizing for a property, i.e. the property alone, followed by the property
+     * together with each of the property sets attempted before for the same type, in the order they were attempted.
+     * <p/>
+     * With properties of a type numbered in the order they are attempted, a property set is a bit mask and the sets
+     * attempted for the k-th property are exactly the masks from 2^k to 2^(k+1) - 1, in ascending order. They are
+     * therefore generated from the mask on demand rather than stored.
+     *
+     * @param frequency of the property.
+     * @return property sets, generated lazily.
+     */
+    private Iterator<Set<String>> newPropertySets(PropertyChangeFrequency frequency) {
+        List<String> usedProperties = usedPropertiesByType.get(frequency.getType());
+        if (usedProperties == null) {
+            usedProperties = new ArrayList<>();
+            usedPropertiesByType.put(frequency.getType(), usedProperties);
         }
 
-        List<Set<String>> newPropertySets = new LinkedList<>();
+        final List<String> properties = usedProperties;
+        final int index = properties.size();
+        properties.add(frequency.getProperty());
 
-        newPropertySets.add(Collections.singleton(frequency.getProperty()));
-        for (Set<String> usedPropertySet : usedPropertySetsByType.get(frequency.getType())) {
-            Set<String> newPropertySet = new HashSet<>(usedPropertySet);
-            newPropertySet.add(frequency.getProperty());
-            newPropertySets.add(newPropertySet);
+        if (index >= Long.SIZE - 1) {
+            //2^63 property sets, the budget would be exhausted long before attempting them
+            return Collections.<Set<String>>emptyIterator();
         }
 
-        usedPropertySetsByType.get(frequency.getType()).addAll(newPropertySets);
+        return new Iterator<Set<String>>() {
+            private long mask = 1L << index;
+            private final long end = 1L << (index + 1);
+
+            @Override
+            public boolean hasNext() {
+                return mask < end;
+            }
+
+            @Override
+            public Set<String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
 
-        return newPropertySets;
+                Set<String> result = new HashSet<>();
+                for (int i = 0; i <= index; i++) {
+                    if ((mask & (1L << i)) != 0) {
+                        result.add(properties.get(i));
+                    }
+                }
+
+                comparisons += result.size();
+                mask++;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 }
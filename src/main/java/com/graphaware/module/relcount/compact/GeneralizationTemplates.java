@@ -0,0 +1,381 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.cache.GraphWideProperties;
+import com.graphaware.module.relcount.cache.PerDatabaseRegistry;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+
+/**
+ * Graph-wide templates of generalizations, learned from compactions of individual nodes. A template says "always
+ * generalize property key X of relationships with type T". Once enough distinct nodes have had the same property of the
+ * same relationship type compacted away, a template is published and new relationship descriptions are generalized
+ * using it before they are cached, so that other nodes don't need to go through compaction to arrive at the same result.
+ * <p/>
+ * Only compactions of committed transactions are learned from. Compactions are recorded per thread while a
+ * transaction is in progress and taken over by a {@link TransactionEventHandler} when the transaction commits, or
+ * discarded when it rolls back. A transaction that fails before it starts committing isn't seen by the handler, which
+ * is why code that compacts cached degrees calls {@link #transactionStarted()} at the start of each transaction.
+ * <p/>
+ * Templates are persisted as a graph property (see {@link GraphWideProperties}) and reloaded when first used after a
+ * restart. Like {@link com.graphaware.module.relcount.cache.TokenDictionary}, they are written in a separate transaction
+ * on a dedicated thread, so that the transaction that triggered the publication never holds a lock on graph properties.
+ * Nobody waits for them to be written; a template that fails to persist is logged and learned again after a restart.
+ * Templates are only valid for the configuration they have been learned with, so they are cleared whenever the module
+ * (re-)initializes, see {@link #clear(GraphDatabaseService, String)}.
+ * <p/>
+ * There is one instance per database and prefix, obtained using {@link #of(GraphDatabaseService, String)}.
+ */
+public class GeneralizationTemplates {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GeneralizationTemplates.class);
+
+    private static final String TEMPLATES = "TEMPLATES";
+    private static final String SEPARATOR = "\u001F";
+
+    private static final PerDatabaseRegistry<GeneralizationTemplates> INSTANCES = new PerDatabaseRegistry<GeneralizationTemplates>() {
+        @Override
+        protected GeneralizationTemplates create(GraphDatabaseService database, String prefix) {
+            GeneralizationTemplates templates = new GeneralizationTemplates(database, prefix);
+            database.registerTransactionEventHandler(templates.commitListener);
+            return templates;
+        }
+
+        @Override
+        protected void release(GeneralizationTemplates templates) {
+            templates.writer.shutdownNow();
+            templates.database.unregisterTransactionEventHandler(templates.commitListener);
+        }
+    };
+
+    private final GraphDatabaseService database;
+    private final String propertyKey;
+    private final ExecutorService writer;
+
+    //type -> keys to generalize, copy on write
+    private volatile Map<String, Set<String>> templates = Collections.emptyMap();
+    private volatile boolean loaded = false;
+
+    //type + separator + key -> IDs of nodes that have had the key generalized by compaction
+    private final ConcurrentMap<String, Set<Long>> observations = new ConcurrentHashMap<>();
+
+    //compactions of the transaction in progress in the current thread, learned from once it commits
+    private final ThreadLocal<List<Compaction>> pending = new ThreadLocal<>();
+    private final CommitListener commitListener = new CommitListener();
+
+    /**
+     * Get the templates for a database and prefix, creating them if needed. The instance is released when the
+     * database shuts down.
+     *
+     * @param database the templates are for.
+     * @param prefix   of the module the templates are for.
+     * @return templates.
+     */
+    public static GeneralizationTemplates of(GraphDatabaseService database, String prefix) {
+        return INSTANCES.of(database, prefix);
+    }
+
+    /**
+     * Clear all templates and observations for a database and prefix, both persisted and in memory. Must not be called
+     * within a transaction.
+     *
+     * @param database the templates are for.
+     * @param prefix   of the module the templates are for.
+     */
+    public static void clear(GraphDatabaseService database, String prefix) {
+        GeneralizationTemplates templates = INSTANCES.existing(database, prefix);
+
+        if (templates != null) {
+            synchronized (templates) {
+                templates.observations.clear();
+                templates.templates = Collections.emptyMap();
+                templates.loaded = true;
+                templates.awaitPersisted();
+            }
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            GraphWideProperties.of(database).removeProperty(prefix + TEMPLATES);
+            tx.success();
+        }
+    }
+
+    private GeneralizationTemplates(GraphDatabaseService database, String prefix) {
+        this.database = database;
+        this.propertyKey = prefix + TEMPLATES;
+        this.writer = Executors.newSingleThreadExecutor(PerDatabaseRegistry.daemonThreads("relcount-template-writer-" + propertyKey));
+    }
+
+    /**
+     * Discard compactions recorded by the current thread that haven't been taken over by a committing transaction.
+     * Must be called at the start of every transaction in which cached degrees may be compacted, so that compactions
+     * of an earlier transaction that failed before committing aren't attributed to it.
+     */
+    public static void transactionStarted() {
+        for (GeneralizationTemplates templates : INSTANCES.all()) {
+            templates.pending.remove();
+        }
+    }
+
+    /**
+     * Generalize a relationship description using the templates. Must be called within a transaction.
+     *
+     * @param description to generalize.
+     * @return generalized description, the given one if no template applies to it.
+     */
+    public DetachedRelationshipDescription apply(DetachedRelationshipDescription description) {
+        Set<String> keys = templates().get(description.getType().name());
+        if (keys == null) {
+            return description;
+        }
+
+        DetachedRelationshipDescription result = description;
+        for (String key : keys) {
+            if (!any().equals(result.getPropertiesDescription().get(key))) {
+                result = result.with(key, any());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Learn from a generalization produced by compaction of a node's cached degrees. Must be called within the
+     * transaction that compacted the node; the compaction is only learned from if the transaction commits.
+     *
+     * @param nodeId         ID of the compacted node.
+     * @param generalization the node's cached degrees have been compacted into.
+     * @param threshold      number of distinct nodes that must have the same property of the same relationship type
+     *                       generalized before a template is published.
+     */
+    public void learn(long nodeId, DetachedRelationshipDescription generalization, int threshold) {
+        List<Compaction> compactions = pending.get();
+        if (compactions == null) {
+            compactions = new ArrayList<>();
+            pending.set(compactions);
+        }
+
+        compactions.add(new Compaction(nodeId, generalization, threshold));
+    }
+
+    /**
+     * Learn from a generalization produced by a committed compaction of a node's cached degrees.
+     *
+     * @param compaction committed compaction.
+     */
+    private void learn(Compaction compaction) {
+        DetachedRelationshipDescription generalization = compaction.generalization;
+        String type = generalization.getType().name();
+        //possibly not loaded yet, in which case a known template is just published again, which is harmless
+        Set<String> known = templates.get(type);
+
+        for (String key : generalization.getPropertiesDescription().getKeys()) {
+            if (!any().equals(generalization.getPropertiesDescription().get(key))) {
+                continue;
+            }
+
+            if (known != null && known.contains(key)) {
+                continue;
+            }
+
+            String observation = type + SEPARATOR + key;
+
+            boolean reached;
+            while (true) {
+                Set<Long> nodes = observations.get(observation);
+                if (nodes == null) {
+                    Set<Long> newNodes = new HashSet<>();
+                    nodes = observations.putIfAbsent(observation, newNodes);
+                    if (nodes == null) {
+                        nodes = newNodes;
+                    }
+                }
+
+                synchronized (nodes) {
+                    if (observations.get(observation) != nodes) {
+                        //removed by a concurrent publication, or by clearing, in the meantime
+                        continue;
+                    }
+
+                    nodes.add(compaction.nodeId);
+                    reached = nodes.size() >= compaction.threshold;
+                    if (reached) {
+                        observations.remove(observation, nodes);
+                    }
+                }
+                break;
+            }
+
+            if (reached) {
+                publish(type, key);
+            }
+        }
+    }
+
+    /**
+     * Get all templates.
+     *
+     * @return templates, key = relationship type, value = property keys to generalize.
+     */
+    public Map<String, Set<String>> getTemplates() {
+        return templates();
+    }
+
+    private Map<String, Set<String>> templates() {
+        if (!loaded) {
+            load();
+        }
+        return templates;
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+
+        Map<String, Set<String>> result = new HashMap<>();
+        for (String template : (String[]) GraphWideProperties.of(database).getProperty(propertyKey, new String[0])) {
+            String[] typeAndKey = template.split(SEPARATOR, 2);
+            add(result, typeAndKey[0], typeAndKey[1]);
+        }
+
+        templates = result;
+        loaded = true;
+    }
+
+    private void publish(final String type, final String key) {
+        synchronized (this) {
+            Map<String, Set<String>> result = copy(templates);
+            if (!add(result, type, key)) {
+                return;
+            }
+            templates = result;
+
+            LOG.info("Published generalization template: property " + key + " of relationships with type " + type);
+
+            //runs after the commit of the transaction that taught us the template, nobody waits for it
+            try {
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            persist(type, key);
+                        } catch (RuntimeException e) {
+                            LOG.warn("Failed to persist generalization template, it will be learned again after restart", e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Generalization template not persisted, database is shutting down");
+            }
+        }
+    }
+
+    /**
+     * Wait for templates published so far to be persisted.
+     */
+    private void awaitPersisted() {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            //nothing to wait for
+        }
+    }
+
+    private void persist(String type, String key) {
+        try (Transaction tx = database.beginTx()) {
+            String[] persisted = (String[]) GraphWideProperties.of(database).getProperty(propertyKey, new String[0]);
+            String template = type + SEPARATOR + key;
+
+            if (Arrays.asList(persisted).contains(template)) {
+                return;
+            }
+
+            String[] updated = Arrays.copyOf(persisted, persisted.length + 1);
+            updated[persisted.length] = template;
+            GraphWideProperties.of(database).setProperty(propertyKey, updated);
+
+            tx.success();
+        }
+    }
+
+    private static Map<String, Set<String>> copy(Map<String, Set<String>> templates) {
+        Map<String, Set<String>> result = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : templates.entrySet()) {
+            result.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        return result;
+    }
+
+    private static boolean add(Map<String, Set<String>> templates, String type, String key) {
+        if (!templates.containsKey(type)) {
+            templates.put(type, new HashSet<String>());
+        }
+        return templates.get(type).add(key);
+    }
+
+    /**
+     * A compaction of a node's cached degrees that hasn't been committed yet.
+     */
+    private static final class Compaction {
+        private final long nodeId;
+        private final DetachedRelationshipDescription generalization;
+        private final int threshold;
+
+        private Compaction(long nodeId, DetachedRelationshipDescription generalization, int threshold) {
+            this.nodeId = nodeId;
+            this.generalization = generalization;
+            this.threshold = threshold;
+        }
+    }
+
+    /**
+     * Takes over compactions recorded by the committing thread and learns from them once the transaction has committed.
+     */
+    private final class CommitListener implements TransactionEventHandler<List<Compaction>> {
+
+        @Override
+        public List<Compaction> beforeCommit(TransactionData data) throws Exception {
+            List<Compaction> compactions = pending.get();
+            pending.remove();
+            return compactions;
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, List<Compaction> compactions) {
+            if (compactions == null) {
+                return;
+            }
+
+            //templates are deliberately not loaded here, the graph must not be accessed after commit
+            for (Compaction compaction : compactions) {
+                learn(compaction);
+            }
+        }
+
+        @Override
+        public void afterRollback(TransactionData data, List<Compaction> compactions) {
+            //compactions have been rolled back, nothing to learn
+        }
+    }
+}
@@ -16,13 +16,9 @@
 
 package com.graphaware.module.relcount.compact;
 
-import com.graphaware.common.description.predicate.Predicate;
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
 
-import java.util.*;
-
-import static com.graphaware.common.description.predicate.Predicates.any;
-import static com.graphaware.common.description.predicate.Predicates.undefined;
+import java.util.Map;
 
 /**
  * A {@link GeneralizationStrategy} with a "property change frequency" heuristic.
@@ -31,97 +27,61 @@ import static com.graphaware.common.description.predicate.Predicates.undefined;
  * frequently changing values (like timestamp on a relationship), whilst keeping the ones that change less frequently,
  * thus providing more value (like strength of a friendship).
  */
-class GeneralizeFrequentlyChanging implements GeneralizationStrategy {
+class GeneralizeFrequentlyChanging implements IncrementalGeneralizationStrategy {
+
+    private final int budget;
+
+    /**
+     * Construct a new strategy with the default search budget.
+     */
+    GeneralizeFrequentlyChanging() {
+        this(GeneralizationGenerator.DEFAULT_BUDGET);
+    }
+
+    /**
+     * Construct a new strategy.
+     *
+     * @param budget maximum number of comparisons of cached descriptions performed when searching for a generalization,
+     *               before giving up.
+     */
+    GeneralizeFrequentlyChanging(int budget) {
+        this.budget = budget;
+    }
 
     /**
      * {@inheritDoc}
      */
     @Override
     public DetachedRelationshipDescription produceGeneralization(Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
-        CachedDegreesStats cachedDegreesStats = new CachedDegreesStats();
-
-        for (DetachedRelationshipDescription description : cachedDegrees.keySet()) {
-            cachedDegreesStats.acknowledge(description, cachedDegrees.get(description));
-        }
-
-        return new GeneralizationGenerator(cachedDegrees.keySet(), cachedDegreesStats.produceFrequencies()).generate();
+        return produceGeneralization(cachedDegrees, PropertyChangeStats.of(cachedDegrees));
     }
 
     /**
-     * Collector of cached degree statistics, which later produces property change frequencies.
+     * {@inheritDoc}
      */
-    private class CachedDegreesStats {
-        private final Map<String, Map<String, Set<Predicate>>> valuesByTypeAndKey = new HashMap<>();
-        private final Map<String, Integer> degreeByType = new HashMap<>();
-        private final Map<String, Map<String, Integer>> wildcardsByTypeAndKey = new HashMap<>();
-
-        public void acknowledge(DetachedRelationshipDescription description, int degree) {
-            initMaps(description.getType().name());
-            addDegree(description.getType().name(), degree);
-            addValuesAndWildcards(description, degree);
-        }
-
-        private void initMaps(String type) {
-            if (!degreeByType.containsKey(type)) {
-                degreeByType.put(type, 0);
-            }
-            if (!valuesByTypeAndKey.containsKey(type)) {
-                valuesByTypeAndKey.put(type, new HashMap<String, Set<Predicate>>());
-            }
-            if (!wildcardsByTypeAndKey.containsKey(type)) {
-                wildcardsByTypeAndKey.put(type, new HashMap<String, Integer>());
-            }
-        }
-
-        private void addDegree(String type, int degree) {
-            degreeByType.put(type, degreeByType.get(type) + degree);
-        }
-
-        private void addValuesAndWildcards(DetachedRelationshipDescription description, int degree) {
-            String type = description.getType().name();
-
-            Set<String> allKeysForType = new HashSet<>();
-            allKeysForType.addAll(valuesByTypeAndKey.get(type).keySet());
-            allKeysForType.addAll(wildcardsByTypeAndKey.get(type).keySet());
-
-            for (String key : description.getPropertiesDescription().getKeys()) {
-                if (!valuesByTypeAndKey.get(type).containsKey(key)) {
-                    valuesByTypeAndKey.get(type).put(key, new HashSet<Predicate>());
-                    if (degreeByType.get(type) > degree) {
-                        //key not encountered before, thus there is at least one occurrence of unknown
-                        valuesByTypeAndKey.get(type).get(key).add(undefined());
-                    }
-                }
-
-                if (!wildcardsByTypeAndKey.get(type).containsKey(key)) {
-                    wildcardsByTypeAndKey.get(type).put(key, 0);
-                }
+    @Override
+    public DetachedRelationshipDescription produceGeneralization(Map<DetachedRelationshipDescription, Integer> cachedDegrees, PropertyChangeStats stats) {
+        return new GeneralizationGenerator(cachedDegrees.keySet(), stats.produceFrequencies(), budget).generate();
+    }
 
-                allKeysForType.remove(key);
-                Predicate value = description.getPropertiesDescription().get(key);
-                if (any().equals(value)) {
-                    wildcardsByTypeAndKey.get(type).put(key, wildcardsByTypeAndKey.get(type).get(key) + degree);
-                } else {
-                    valuesByTypeAndKey.get(type).get(key).add(value);
-                }
-            }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
 
-            for (String newKey : allKeysForType) {
-                valuesByTypeAndKey.get(type).get(newKey).add(undefined());
-            }
-        }
+        GeneralizeFrequentlyChanging that = (GeneralizeFrequentlyChanging) o;
 
-        private List<PropertyChangeFrequency> produceFrequencies() {
-            Set<PropertyChangeFrequency> propertyChangeFrequencies = new TreeSet<>();
-            for (String type : degreeByType.keySet()) {
-                for (String key : valuesByTypeAndKey.get(type).keySet()) {
-                    propertyChangeFrequencies.add(new PropertyChangeFrequency(type, key,
-                            ((double) valuesByTypeAndKey.get(type).get(key).size()
-                                    + wildcardsByTypeAndKey.get(type).get(key)) / ((double) degreeByType.get(type) + 1)));
-                }
-            }
+        return budget == that.budget;
+    }
 
-            return new LinkedList<>(propertyChangeFrequencies);
-        }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return budget;
     }
 }
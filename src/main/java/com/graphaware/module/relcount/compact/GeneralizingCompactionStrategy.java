@@ -0,0 +1,20 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+
+/**
+ * A {@link CompactionStrategy} that can generalize relationship descriptions before they are cached, rather than
+ * only compacting cached degrees after the fact.
+ */
+public interface GeneralizingCompactionStrategy extends CompactionStrategy {
+
+    /**
+     * Generalize a description of a relationship about to be cached.
+     *
+     * @param node        that will cache the degree.
+     * @param description of the relationship.
+     * @return description to cache the degree with, can be the given one.
+     */
+    DetachedRelationshipDescription generalize(DegreeCachingNode node, DetachedRelationshipDescription description);
+}
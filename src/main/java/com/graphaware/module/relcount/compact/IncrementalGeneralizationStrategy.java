@@ -0,0 +1,21 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.Map;
+
+/**
+ * A {@link GeneralizationStrategy} that can make use of {@link PropertyChangeStats} kept up to date incrementally
+ * by the node whose cached degrees are being compacted, rather than computing them from scratch.
+ */
+public interface IncrementalGeneralizationStrategy extends GeneralizationStrategy {
+
+    /**
+     * Produce the best generalizations of the cached degrees that will result in compaction.
+     *
+     * @param cachedDegrees cached degrees that need to be compacted.
+     * @param stats         up-to-date statistics of the cached degrees.
+     * @return best generalization.
+     */
+    DetachedRelationshipDescription produceGeneralization(Map<DetachedRelationshipDescription, Integer> cachedDegrees, PropertyChangeStats stats);
+}
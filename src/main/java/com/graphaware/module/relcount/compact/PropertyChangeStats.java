@@ -0,0 +1,220 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.predicate.Predicate;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+
+import java.util.*;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+
+/**
+ * Statistics of cached degrees of a single node, from which property change frequencies are produced. The statistics
+ * are kept up to date incrementally as cached degrees are added, changed, and removed, so that they don't need to be
+ * recomputed from all cached degrees every time a generalization is needed.
+ * <p/>
+ * The statistics are built from all cached degrees of a node the first time a generalization is needed for it. They
+ * are then kept across transactions by {@link com.graphaware.module.relcount.cache.PropertyChangeStatsCache}, so that
+ * a node compacted over and over doesn't pay for building them every time.
+ * <p/>
+ * For each relationship type and property key, the statistics track the number of distinct values (including undefined,
+ * if some cached description of that type doesn't have the property), and the total degree of cached descriptions in
+ * which the property is already generalized (i.e. {@link com.graphaware.common.description.predicate.Any}).
+ * <p/>
+ * Not thread-safe.
+ */
+public class PropertyChangeStats {
+
+    private final Map<String, TypeStats> statsByType;
+    private final PropertyWeights weights;
+
+    /**
+     * Create statistics of the given cached degrees.
+     *
+     * @param cachedDegrees to create statistics of.
+     * @return statistics.
+     */
+    public static PropertyChangeStats of(Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+        PropertyChangeStats stats = new PropertyChangeStats();
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : cachedDegrees.entrySet()) {
+            stats.added(entry.getKey(), entry.getValue());
+        }
+        return stats;
+    }
+
+    /**
+     * Create empty statistics.
+     */
+    public PropertyChangeStats() {
+        this(new HashMap<String, TypeStats>(), null);
+    }
+
+    private PropertyChangeStats(Map<String, TypeStats> statsByType, PropertyWeights weights) {
+        this.statsByType = statsByType;
+        this.weights = weights;
+    }
+
+    /**
+     * Get a view of these statistics that produces weighted frequencies. The view shares state with these statistics,
+     * so it reflects cached degrees acknowledged later by either of them.
+     *
+     * @param weights of properties.
+     * @return weighted view.
+     */
+    public PropertyChangeStats weighted(PropertyWeights weights) {
+        return new PropertyChangeStats(statsByType, weights);
+    }
+
+    /**
+     * Acknowledge a new cached degree.
+     *
+     * @param description of the new cached degree.
+     * @param degree      value of the new cached degree.
+     */
+    public void added(DetachedRelationshipDescription description, int degree) {
+        String type = description.getType().name();
+
+        TypeStats typeStats = statsByType.get(type);
+        if (typeStats == null) {
+            typeStats = new TypeStats();
+            statsByType.put(type, typeStats);
+        }
+
+        typeStats.entries++;
+        typeStats.degree += degree;
+
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            KeyStats keyStats = typeStats.keyStats.get(key);
+            if (keyStats == null) {
+                keyStats = new KeyStats();
+                typeStats.keyStats.put(key, keyStats);
+            }
+
+            keyStats.entries++;
+
+            Predicate value = description.getPropertiesDescription().get(key);
+            if (any().equals(value)) {
+                keyStats.wildcards += degree;
+            } else {
+                Integer count = keyStats.values.get(value);
+                keyStats.values.put(value, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /**
+     * Acknowledge a change of the value of a cached degree.
+     *
+     * @param description of the changed cached degree.
+     * @param delta       by how much the degree has changed, can be negative.
+     */
+    public void changed(DetachedRelationshipDescription description, int delta) {
+        TypeStats typeStats = statsByType.get(description.getType().name());
+        if (typeStats == null) {
+            throw new IllegalStateException("Cached degree " + description + " has not been acknowledged. This is a bug.");
+        }
+
+        typeStats.degree += delta;
+
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            if (any().equals(description.getPropertiesDescription().get(key))) {
+                typeStats.keyStats.get(key).wildcards += delta;
+            }
+        }
+    }
+
+    /**
+     * Acknowledge a removed cached degree.
+     *
+     * @param description of the removed cached degree.
+     * @param degree      value of the removed cached degree before removal.
+     */
+    public void removed(DetachedRelationshipDescription description, int degree) {
+        String type = description.getType().name();
+
+        TypeStats typeStats = statsByType.get(type);
+        if (typeStats == null) {
+            throw new IllegalStateException("Cached degree " + description + " has not been acknowledged. This is a bug.");
+        }
+
+        if (--typeStats.entries == 0) {
+            statsByType.remove(type);
+            return;
+        }
+
+        typeStats.degree -= degree;
+
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            KeyStats keyStats = typeStats.keyStats.get(key);
+
+            if (--keyStats.entries == 0) {
+                typeStats.keyStats.remove(key);
+                continue;
+            }
+
+            Predicate value = description.getPropertiesDescription().get(key);
+            if (any().equals(value)) {
+                keyStats.wildcards -= degree;
+            } else {
+                int count = keyStats.values.get(value);
+                if (count == 1) {
+                    keyStats.values.remove(value);
+                } else {
+                    keyStats.values.put(value, count - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Produce property change frequencies, the most frequently changing first. If these statistics are
+     * {@link #weighted(PropertyWeights)}, frequencies are multiplied by the weights of their properties and properties
+     * with no weight are left out.
+     *
+     * @return frequencies.
+     */
+    List<PropertyChangeFrequency> produceFrequencies() {
+        Set<PropertyChangeFrequency> propertyChangeFrequencies = new TreeSet<>();
+
+        for (Map.Entry<String, TypeStats> typeEntry : statsByType.entrySet()) {
+            TypeStats typeStats = typeEntry.getValue();
+
+            for (Map.Entry<String, KeyStats> keyEntry : typeStats.keyStats.entrySet()) {
+                double weight = weights == null ? 1 : weights.weightOf(typeEntry.getKey(), keyEntry.getKey());
+                if (weight <= 0) {
+                    continue;
+                }
+
+                KeyStats keyStats = keyEntry.getValue();
+
+                int distinctValues = keyStats.values.size();
+                if (keyStats.entries < typeStats.entries) {
+                    //some cached descriptions of this type don't have the property
+                    distinctValues++;
+                }
+
+                propertyChangeFrequencies.add(new PropertyChangeFrequency(typeEntry.getKey(), keyEntry.getKey(),
+                        weight * ((double) distinctValues + keyStats.wildcards) / ((double) typeStats.degree + 1)));
+            }
+        }
+
+        return new LinkedList<>(propertyChangeFrequencies);
+    }
+
+    /**
+     * Statistics of cached degrees with a single relationship type.
+     */
+    private static final class TypeStats {
+        private int entries;
+        private int degree;
+        private final Map<String, KeyStats> keyStats = new HashMap<>();
+    }
+
+    /**
+     * Statistics of a single property key of cached degrees with a single relationship type.
+     */
+    private static final class KeyStats {
+        private int entries;
+        private int wildcards;
+        private final Map<Predicate, Integer> values = new HashMap<>();
+    }
+}
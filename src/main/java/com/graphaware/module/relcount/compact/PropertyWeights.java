@@ -0,0 +1,19 @@
+package com.graphaware.module.relcount.compact;
+
+/**
+ * Weights of properties of cached degrees, applied to their change frequencies (see
+ * {@link PropertyChangeStats#weighted(PropertyWeights)}), so that a compaction strategy can make some properties more
+ * or less likely to be generalized than their change frequencies alone would.
+ */
+public interface PropertyWeights {
+
+    /**
+     * Get the weight of a property.
+     *
+     * @param type     relationship type.
+     * @param property property key.
+     * @return weight the change frequency of the property is multiplied by, 1 for no change. A property with weight 0
+     *         (or less) is not offered for generalization at all.
+     */
+    double weightOf(String type, String property);
+}
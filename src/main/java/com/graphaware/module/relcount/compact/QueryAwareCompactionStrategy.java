@@ -0,0 +1,94 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import com.graphaware.module.relcount.count.QueryStatistics;
+import com.graphaware.module.relcount.count.QueryStatisticsAware;
+
+import java.util.Map;
+
+/**
+ * {@link ThresholdBasedCompactionStrategy} that protects the granularity counters actually use. Properties that have
+ * been queried with concrete predicates (see {@link QueryStatistics}) are only generalized when the threshold can't be
+ * achieved by generalizing other properties.
+ * <p/>
+ * Queried properties can only be protected when the {@link GeneralizationStrategy} is an
+ * {@link IncrementalGeneralizationStrategy}, which the default one is. Other strategies are used as they are.
+ */
+public class QueryAwareCompactionStrategy extends ThresholdBasedCompactionStrategy implements QueryStatisticsAware {
+
+    /**
+     * Construct a new compaction strategy with default {@link GeneralizationStrategy}.
+     *
+     * @param compactionThreshold compaction threshold.
+     */
+    public QueryAwareCompactionStrategy(int compactionThreshold) {
+        super(compactionThreshold);
+    }
+
+    /**
+     * Construct a new compaction strategy with default {@link GeneralizationStrategy} using a custom search budget.
+     *
+     * @param compactionThreshold  compaction threshold.
+     * @param generalizationBudget maximum number of comparisons of cached descriptions performed when searching for
+     *                             a single generalization.
+     */
+    public QueryAwareCompactionStrategy(int compactionThreshold, int generalizationBudget) {
+        super(compactionThreshold, generalizationBudget);
+    }
+
+    /**
+     * Construct a new compaction strategy.
+     *
+     * @param compactionThreshold    compaction threshold.
+     * @param generalizationStrategy generalization strategy.
+     */
+    public QueryAwareCompactionStrategy(int compactionThreshold, GeneralizationStrategy generalizationStrategy) {
+        super(compactionThreshold, generalizationStrategy);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Generalizations of properties that haven't been queried are attempted first.
+     */
+    @Override
+    protected DetachedRelationshipDescription produceGeneralization(DegreeCachingNode node, Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+        GeneralizationStrategy generalizationStrategy = getGeneralizationStrategy();
+        if (!(generalizationStrategy instanceof IncrementalGeneralizationStrategy)) {
+            return super.produceGeneralization(node, cachedDegrees);
+        }
+
+        UnqueriedOnly unqueriedOnly = new UnqueriedOnly(QueryStatistics.of(node.getDatabase(), node.getPrefix()));
+        PropertyChangeStats unqueriedStats = node.getPropertyChangeStats().weighted(unqueriedOnly);
+
+        //when no property has been queried, the weighted search is the plain one, no need to repeat it
+        DetachedRelationshipDescription generalization = ((IncrementalGeneralizationStrategy) generalizationStrategy).produceGeneralization(cachedDegrees, unqueriedStats);
+        if (generalization != null || !unqueriedOnly.anyQueried) {
+            return generalization;
+        }
+
+        return super.produceGeneralization(node, cachedDegrees);
+    }
+
+    /**
+     * Weights that leave out properties that have been queried, remembering whether there were any.
+     */
+    private static final class UnqueriedOnly implements PropertyWeights {
+        private final QueryStatistics queryStatistics;
+        private boolean anyQueried;
+
+        private UnqueriedOnly(QueryStatistics queryStatistics) {
+            this.queryStatistics = queryStatistics;
+        }
+
+        @Override
+        public double weightOf(String type, String property) {
+            if (queryStatistics.isQueried(type, property)) {
+                anyQueried = true;
+                return 0;
+            }
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+
+/**
+ * {@link ThresholdBasedCompactionStrategy} that learns from compactions across the whole graph. When enough distinct
+ * nodes have had the same property of the same relationship type compacted away, new descriptions of relationships
+ * with that type are generalized before they are cached, so that most nodes never need to be compacted at all.
+ *
+ * @see GeneralizationTemplates
+ */
+public class TemplateLearningCompactionStrategy extends ThresholdBasedCompactionStrategy implements GeneralizingCompactionStrategy {
+
+    private static final int DEFAULT_LEARNING_THRESHOLD = 10;
+
+    private final int learningThreshold;
+
+    /**
+     * Construct a new compaction strategy with default learning threshold.
+     *
+     * @param compactionThreshold compaction threshold.
+     */
+    public TemplateLearningCompactionStrategy(int compactionThreshold) {
+        this(compactionThreshold, DEFAULT_LEARNING_THRESHOLD);
+    }
+
+    /**
+     * Construct a new compaction strategy.
+     *
+     * @param compactionThreshold compaction threshold.
+     * @param learningThreshold   number of distinct nodes that must have the same property of the same relationship
+     *                            type compacted away before it is generalized for all nodes.
+     */
+    public TemplateLearningCompactionStrategy(int compactionThreshold, int learningThreshold) {
+        super(compactionThreshold);
+        this.learningThreshold = learningThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DetachedRelationshipDescription generalize(DegreeCachingNode node, DetachedRelationshipDescription description) {
+        return templates(node).apply(description);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void compacted(DegreeCachingNode node, DetachedRelationshipDescription generalization) {
+        templates(node).learn(node.getId(), generalization, learningThreshold);
+    }
+
+    private GeneralizationTemplates templates(DegreeCachingNode node) {
+        return GeneralizationTemplates.of(node.getDatabase(), node.getPrefix());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        TemplateLearningCompactionStrategy that = (TemplateLearningCompactionStrategy) o;
+
+        return learningThreshold == that.learningThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + learningThreshold;
+    }
+}
@@ -33,6 +33,19 @@ public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
         this(compactionThreshold, new GeneralizeFrequentlyChanging());
     }
 
+    /**
+     * Construct a new compaction strategy with {@link GeneralizeFrequentlyChanging} using a custom search budget.
+     * Compaction of nodes whose cached degrees have many distinct properties can be expensive; once the budget is
+     * exhausted, compaction gives up and the node is left above the threshold until the next attempt.
+     *
+     * @param compactionThreshold  compaction threshold.
+     * @param generalizationBudget maximum number of comparisons of cached descriptions performed when searching for
+     *                             a single generalization.
+     */
+    public ThresholdBasedCompactionStrategy(int compactionThreshold, int generalizationBudget) {
+        this(compactionThreshold, new GeneralizeFrequentlyChanging(generalizationBudget));
+    }
+
     /**
      * Construct a new compaction strategy.
      *
@@ -67,7 +80,7 @@ public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
         }
 
         //Not suitable generalization => bad luck
-        DetachedRelationshipDescription generalization = generalizationStrategy.produceGeneralization(cachedDegrees);
+        DetachedRelationshipDescription generalization = produceGeneralization(node, cachedDegrees);
         if (generalization == null) {
             return false;
         }
@@ -89,10 +102,44 @@ public class ThresholdBasedCompactionStrategy implements CompactionStrategy {
 
         node.incrementDegree(generalization, candidateCachedCount, true);
 
+        compacted(node, generalization);
+
         //enough? => return, otherwise try again
         return cachedDegrees.size() <= compactionThreshold || performCompaction(node);
     }
 
+    /**
+     * Called after cached degrees of a node have been compacted into a generalization. Does nothing by default.
+     *
+     * @param node           whose cached degrees have been compacted.
+     * @param generalization the cached degrees have been compacted into.
+     */
+    protected void compacted(DegreeCachingNode node, DetachedRelationshipDescription generalization) {
+        //for subclasses
+    }
+
+    /**
+     * Produce the best generalization of a node's cached degrees using the {@link GeneralizationStrategy}.
+     *
+     * @param node          whose cached degrees need to be compacted.
+     * @param cachedDegrees of the node.
+     * @return generalization, null if there is no suitable one.
+     */
+    protected DetachedRelationshipDescription produceGeneralization(DegreeCachingNode node, Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+        if (generalizationStrategy instanceof IncrementalGeneralizationStrategy) {
+            return ((IncrementalGeneralizationStrategy) generalizationStrategy).produceGeneralization(cachedDegrees, node.getPropertyChangeStats());
+        }
+
+        return generalizationStrategy.produceGeneralization(cachedDegrees);
+    }
+
+    /**
+     * @return strategy producing generalizations of cached degrees.
+     */
+    protected GeneralizationStrategy getGeneralizationStrategy() {
+        return generalizationStrategy;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -17,13 +17,19 @@
 package com.graphaware.module.relcount.count;
 
 import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
 import org.neo4j.graphdb.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * {@link com.graphaware.module.relcount.count.RelationshipCounter} that counts matching relationships by first trying to use {@link com.graphaware.module.relcount.count.CachedRelationshipCounter}
- * and if that fails (i.e., throws a {@link com.graphaware.module.relcount.count.UnableToCountException}), resorts to {@link LegacyNaiveRelationshipCounter}.
+ * and if that fails (i.e., the cached degrees aren't granular enough), resorts to {@link LegacyNaiveRelationshipCounter}.
  * It is designed to be used as a "singleton", i.e., do not create a new instance every time you want to count.
  * <p/>
  * It should be used in conjunction with {@link com.graphaware.module.relcount.RelationshipCountModule}
@@ -34,19 +40,38 @@ import org.slf4j.LoggerFactory;
  * About fallback: Fallback to naive approach only happens if it is detected that compaction has taken place
  * (see {@link com.graphaware.module.relcount.cache.NodeBasedDegreeCache}) and the needed granularity has
  * been compacted out. There is a performance penalty to this fallback.
- * To avoid it, make sure the compaction threshold is set correctly. No fallback happens when a {@link com.graphaware.common.policy.RelationshipInclusionPolicy} has been used that explicitly excludes
+ * To avoid it, make sure the compaction threshold is set correctly. Alternatively, results of naive counting can be
+ * remembered until relationships of the node change, see {@link FallbackResultCache}. Fallbacks are counted
+ * ({@link #getFallbackCount()}) and logged at debug level only.
+ * <p/>
+ * No fallback happens when a {@link com.graphaware.common.policy.RelationshipInclusionPolicy} has been used that explicitly excludes
  * the relationships being counted (0 is returned). If you prefer an exception to fallback, use {@link com.graphaware.module.relcount.count.CachedRelationshipCounter}.
  */
-public abstract class BaseFallbackRelationshipCounter implements RelationshipCounter {
+public abstract class BaseFallbackRelationshipCounter implements BatchRelationshipCounter {
 
     private static final Logger LOG = LoggerFactory.getLogger(BaseFallbackRelationshipCounter.class);
 
     private final LegacyNaiveRelationshipCounter naiveRelationshipCounter;
     private final CachedRelationshipCounter cachedRelationshipCounter;
+    private final FallbackResultCache fallbackResultCache;
+
+    private final AtomicLong fallbacks = new AtomicLong();
 
     protected BaseFallbackRelationshipCounter(LegacyNaiveRelationshipCounter naiveRelationshipCounter, CachedRelationshipCounter cachedRelationshipCounter) {
+        this(naiveRelationshipCounter, cachedRelationshipCounter, new FallbackResultCache(0));
+    }
+
+    /**
+     * Construct a new relationship counter.
+     *
+     * @param naiveRelationshipCounter  counter to fall back to.
+     * @param cachedRelationshipCounter counter to try first.
+     * @param fallbackResultCache       cache of naive counts, typically obtained from {@link com.graphaware.module.relcount.RelationshipCountModule#getFallbackResultCache()}.
+     */
+    protected BaseFallbackRelationshipCounter(LegacyNaiveRelationshipCounter naiveRelationshipCounter, CachedRelationshipCounter cachedRelationshipCounter, FallbackResultCache fallbackResultCache) {
         this.naiveRelationshipCounter = naiveRelationshipCounter;
         this.cachedRelationshipCounter = cachedRelationshipCounter;
+        this.fallbackResultCache = fallbackResultCache;
     }
 
     /**
@@ -54,12 +79,132 @@ public abstract class BaseFallbackRelationshipCounter implements RelationshipCou
      */
     @Override
     public int count(Node node, RelationshipDescription description) {
-        try {
-            return cachedRelationshipCounter.count(node, description);
-        } catch (UnableToCountException e) {
-            LOG.warn("Unable to count relationships with description: " + description.toString() +
-                    " for node " + node.toString() + ". Falling back to naive approach");
-            return naiveRelationshipCounter.count(node, description);
+        int result = cachedRelationshipCounter.countIfPossible(node, description);
+
+        if (result != CachedRelationshipCounter.UNCOUNTABLE) {
+            return result;
+        }
+
+        return countNaively(node, description);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Nodes whose relationships can't be counted using cached degrees are all counted naively at the end.
+     */
+    @Override
+    public NodeCounts count(Iterable<Node> nodes, RelationshipDescription description) {
+        List<Node> uncountable = new ArrayList<>();
+
+        NodeCounts result = cachedRelationshipCounter.count(nodes, description, uncountable);
+
+        if (uncountable.isEmpty()) {
+            return result;
+        }
+
+        fellBack(description, uncountable.size());
+
+        boolean cacheable = isCacheable(uncountable.get(0));
+
+        long stamp = fallbackResultCache.stamp();
+        List<Node> notCached = new ArrayList<>();
+        for (Node node : uncountable) {
+            Integer cached = cacheable ? fallbackResultCache.get(node.getId(), description) : null;
+            if (cached == null) {
+                notCached.add(node);
+            } else {
+                result.put(node.getId(), cached);
+            }
+        }
+
+        if (notCached.isEmpty()) {
+            return result;
+        }
+
+        RelcountMetrics metrics = cachedRelationshipCounter.getMetrics();
+        long start = metrics.start();
+
+        NodeCounts naiveResult = naiveRelationshipCounter.count(notCached, description);
+        for (long nodeId : naiveResult.nodeIds()) {
+            int count = naiveResult.get(nodeId);
+            result.put(nodeId, count);
+            if (cacheable) {
+                fallbackResultCache.put(nodeId, description, count, stamp);
+            }
+        }
+
+        metrics.stop(RelcountMetrics.Operation.COUNT_FALLBACK, start);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only descriptions that can't be counted using cached degrees are counted naively.
+     */
+    @Override
+    public DescriptionCounts count(Node node, Collection<? extends RelationshipDescription> descriptions) {
+        DescriptionCounts result = cachedRelationshipCounter.count(node, descriptions);
+
+        for (RelationshipDescription description : new ArrayList<>(result.getUncountable())) {
+            result.put(description, countNaively(node, description));
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the number of times relationships of a node had to be counted naively (or taken from {@link FallbackResultCache}),
+     * because cached degrees weren't granular enough.
+     *
+     * @return number of fallbacks since this counter was created.
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    private int countNaively(Node node, RelationshipDescription description) {
+        fellBack(description, 1);
+
+        boolean cacheable = isCacheable(node);
+
+        if (cacheable) {
+            Integer cached = fallbackResultCache.get(node.getId(), description);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        RelcountMetrics metrics = cachedRelationshipCounter.getMetrics();
+        long start = metrics.start();
+
+        long stamp = fallbackResultCache.stamp();
+        int result = naiveRelationshipCounter.count(node, description);
+        if (cacheable) {
+            fallbackResultCache.put(node.getId(), description, result, stamp);
+        }
+
+        metrics.stop(RelcountMetrics.Operation.COUNT_FALLBACK, start);
+        return result;
+    }
+
+    /**
+     * Can naive counts of relationships of the given node be taken from and put into the {@link FallbackResultCache}?
+     * Not if the current transaction has uncommitted changes, which naive counting would see but other transactions
+     * would not.
+     */
+    private boolean isCacheable(Node node) {
+        return fallbackResultCache.isEnabled() && !PendingChanges.exist(node.getGraphDatabase());
+    }
+
+    private void fellBack(RelationshipDescription description, int nodes) {
+        fallbacks.addAndGet(nodes);
+        cachedRelationshipCounter.getMetrics().count(RelcountMetrics.Event.FALLBACKS, nodes);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Unable to count relationships with description: " + description.toString() +
+                    " for " + nodes + " node(s). Falling back to naive approach");
         }
     }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import org.neo4j.graphdb.Node;
+
+import java.util.Collection;
+
+/**
+ * A {@link RelationshipCounter} that can count relationships of many nodes, or with many descriptions, at once. It is a separate interface, so
+ * that implementations of {@link RelationshipCounter} outside of this module don't have to implement batch counting.
+ */
+public interface BatchRelationshipCounter extends RelationshipCounter {
+
+    /**
+     * Count relationships with the given description at each of the given nodes. Prefer this to calling
+     * {@link #count(org.neo4j.graphdb.Node, com.graphaware.common.description.relationship.RelationshipDescription)}
+     * in a loop, as work that only depends on the description is done just once.
+     *
+     * @param nodes       on which to count relationships.
+     * @param description of the relationships to count.
+     * @return number of relationships for each node, keyed by node ID.
+     * @throws UnableToCountException indicating that for some reason, relationships could not be counted for one of
+     *                                the nodes. See {@link #count(org.neo4j.graphdb.Node, com.graphaware.common.description.relationship.RelationshipDescription)}.
+     */
+    NodeCounts count(Iterable<Node> nodes, RelationshipDescription description);
+
+    /**
+     * Count relationships with each of the given descriptions at the given node. Prefer this to calling
+     * {@link #count(org.neo4j.graphdb.Node, com.graphaware.common.description.relationship.RelationshipDescription)}
+     * repeatedly for the same node, as the node's cached degrees are only read once.
+     * <p/>
+     * Unlike the other count methods, this one does not throw {@link UnableToCountException}. Descriptions for which
+     * relationships could not be counted are reported by {@link DescriptionCounts#getUncountable()}.
+     *
+     * @param node         on which to count relationships.
+     * @param descriptions of the relationships to count.
+     * @return number of relationships for each description.
+     */
+    DescriptionCounts count(Node node, Collection<? extends RelationshipDescription> descriptions);
+}
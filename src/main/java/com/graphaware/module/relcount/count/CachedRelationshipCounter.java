@@ -20,13 +20,24 @@ import com.graphaware.common.description.relationship.DetachedRelationshipDescri
 import com.graphaware.common.description.relationship.RelationshipDescription;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
 import com.graphaware.module.relcount.RelationshipCountModule;
-import com.graphaware.module.relcount.cache.DegreeCachingNode;
-import com.graphaware.runtime.config.RuntimeConfiguration;
+import com.graphaware.module.relcount.cache.DecodedDegreeCache;
+import com.graphaware.module.relcount.cache.DegreeCachingStrategy;
+import com.graphaware.module.relcount.cache.PartitionedDegrees;
+import com.graphaware.module.relcount.cache.TypeAwareDegreeCachingStrategy;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 
+import java.util.*;
+
 import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static com.graphaware.module.relcount.cache.DegreeShards.withShards;
+import static com.graphaware.module.relcount.metrics.RelcountMetrics.Operation.CACHE_READ;
+import static com.graphaware.module.relcount.metrics.RelcountMetrics.Operation.COUNT_CACHED;
 import static com.graphaware.runtime.RuntimeRegistry.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
 
 /**
  * {@link RelationshipCounter} that counts matching relationships by looking them up cached in {@link org.neo4j.graphdb.Node}'s properties.
@@ -42,11 +53,19 @@ import static com.graphaware.runtime.RuntimeRegistry.*;
  *
  * @see com.graphaware.module.relcount.compact.CompactionStrategy
  */
-public class CachedRelationshipCounter implements RelationshipCounter {
+public class CachedRelationshipCounter implements BatchRelationshipCounter {
 
-    private final String id;
-    private final RuntimeConfiguration config;
+    /**
+     * Returned by package-private counting methods instead of throwing {@link UnableToCountException}, so that
+     * fallback counters don't pay for creating an exception every time they fall back.
+     */
+    static final int UNCOUNTABLE = Integer.MIN_VALUE;
+
+    private final String prefix;
     private final RelationshipCountConfiguration relationshipCountConfiguration;
+    private final DecodedDegreeCache decodedDegreeCache;
+    private final QueryStatistics queryStatistics;
+    private final RelcountMetrics metrics;
 
     /**
      * Construct a new relationship counter. Use this constructor when {@link com.graphaware.runtime.GraphAwareRuntime}
@@ -68,9 +87,12 @@ public class CachedRelationshipCounter implements RelationshipCounter {
      * @param id       of the {@link com.graphaware.module.relcount.RelationshipCountModule} used to cache relationship counts.
      */
     public CachedRelationshipCounter(GraphDatabaseService database, String id) {
-        this.id = id;
-        this.config = getStartedRuntime(database).getConfiguration();
-        this.relationshipCountConfiguration = getStartedRuntime(database).getModule(id, RelationshipCountModule.class).getConfiguration();
+        this.prefix = getStartedRuntime(database).getConfiguration().createPrefix(id);
+        RelationshipCountModule module = getStartedRuntime(database).getModule(id, RelationshipCountModule.class);
+        this.relationshipCountConfiguration = module.getConfiguration();
+        this.decodedDegreeCache = module.getDecodedDegreeCache();
+        this.queryStatistics = QueryStatistics.forCounting(database, prefix, relationshipCountConfiguration);
+        this.metrics = module.getMetrics();
     }
 
     /**
@@ -78,27 +100,362 @@ public class CachedRelationshipCounter implements RelationshipCounter {
      */
     @Override
     public int count(Node node, RelationshipDescription description) {
+        int result = countIfPossible(node, description);
+
+        if (result == UNCOUNTABLE) {
+            throw unableToCount(description);
+        }
+
+        return result;
+    }
+
+    /**
+     * Count relationships with the given description at the given node.
+     *
+     * @param node        on which to count relationships.
+     * @param description of the relationships to count.
+     * @return number of relationships, {@link #UNCOUNTABLE} if they can't be counted using cached degrees.
+     */
+    int countIfPossible(Node node, RelationshipDescription description) {
+        long start = metrics.start();
+        queryStatistics.queried(description, 1);
+
+        String type = description.getType().name();
+        Direction direction = description.getDirection();
+        PartitionedDegrees cachedDegrees = cachedDegrees(node, type, direction);
+
         int result = 0;
+        if (!INCOMING.equals(direction)) {
+            result = count(cachedDegrees.get(type, OUTGOING), description);
+        }
+        if (result != UNCOUNTABLE && !OUTGOING.equals(direction)) {
+            int incoming = count(cachedDegrees.get(type, INCOMING), description);
+            result = incoming == UNCOUNTABLE ? UNCOUNTABLE : result + incoming;
+        }
 
-        DegreeCachingNode cachingNode = new DegreeCachingNode(node, config.createPrefix(id), relationshipCountConfiguration);
+        if (result == UNCOUNTABLE) {
+            queryStatistics.fellBack(description, 1);
+            metrics.count(RelcountMetrics.Event.UNCOUNTABLE, 1);
+        }
 
-        for (DetachedRelationshipDescription candidate : cachingNode.getCachedDegrees().keySet()) {
+        metrics.stop(COUNT_CACHED, start);
+        return result;
+    }
 
-            boolean matches = candidate.isMoreSpecificThan(description);
+    /**
+     * Count relationships using cached degrees of a single relationship type and direction.
+     *
+     * @param cachedDegrees of relationships with the type and direction of the description (or one of them if the
+     *                      description's direction is {@link Direction#BOTH}).
+     * @param description   of the relationships to count.
+     * @return number of matching relationships, {@link #UNCOUNTABLE} if the cached degrees aren't granular enough.
+     */
+    private static int count(Map<DetachedRelationshipDescription, Integer> cachedDegrees, RelationshipDescription description) {
+        int result = 0;
 
-            if (!matches && !candidate.isMutuallyExclusive(description)) {
-                throw new UnableToCountException("Unable to count relationships with the following description: "
-                        + description.toString()
-                        + " Since there are potentially compacted out cached matches," +
-                        " it looks like compaction has taken away the granularity you need. Please try to count this kind " +
-                        "of relationship with a naive counter. Alternatively, increase the compaction threshold.");
+        for (Map.Entry<DetachedRelationshipDescription, Integer> candidate : cachedDegrees.entrySet()) {
+            boolean matches = candidate.getKey().isMoreSpecificThan(description);
+
+            if (!matches && !candidate.getKey().isMutuallyExclusive(description)) {
+                return UNCOUNTABLE;
             }
 
             if (matches) {
-                result += cachingNode.getCachedDegrees().get(candidate);
+                result += candidate.getValue();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Cached degrees of the node are read once for all the descriptions.
+     */
+    @Override
+    public DescriptionCounts count(Node node, Collection<? extends RelationshipDescription> descriptions) {
+        long start = metrics.start();
+
+        List<CompiledDescription> compiled = new ArrayList<>(descriptions.size());
+        for (RelationshipDescription description : descriptions) {
+            queryStatistics.queried(description, 1);
+            compiled.add(new CompiledDescription(description));
+        }
+
+        PartitionedDegrees cachedDegrees = cachedDegrees(node, compiled);
+
+        DescriptionCounts result = new DescriptionCounts();
+        for (CompiledDescription description : compiled) {
+            int count = description.count(cachedDegrees);
+            if (count == UNCOUNTABLE) {
+                queryStatistics.fellBack(description.description, 1);
+                metrics.count(RelcountMetrics.Event.UNCOUNTABLE, 1);
+                result.putUncountable(description.description);
+            } else {
+                result.put(description.description, count);
             }
         }
 
+        metrics.stop(COUNT_CACHED, start);
         return result;
     }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Matching of each distinct cached description against the given description is only evaluated once for all nodes.
+     */
+    @Override
+    public NodeCounts count(Iterable<Node> nodes, RelationshipDescription description) {
+        return count(nodes, description, null);
+    }
+
+    /**
+     * Count relationships with the given description at the given nodes.
+     *
+     * @param nodes       on which to count relationships.
+     * @param description of the relationships to count.
+     * @param uncountable collection to which nodes whose relationships can't be counted should be added. If null,
+     *                    {@link UnableToCountException} is thrown for the first such node.
+     * @return number of relationships for each countable node.
+     */
+    NodeCounts count(Iterable<Node> nodes, RelationshipDescription description, Collection<Node> uncountable) {
+        CompiledDescription compiled = new CompiledDescription(description);
+        Collection<CompiledDescription> singleton = Collections.singleton(compiled);
+        NodeCounts result = new NodeCounts();
+        int counted = 0, fellBack = 0;
+        long start = metrics.start();
+
+        try {
+            for (Node node : nodes) {
+                counted++;
+                int count = compiled.count(cachedDegrees(node, singleton));
+                if (count == UNCOUNTABLE) {
+                    fellBack++;
+                    if (uncountable == null) {
+                        throw unableToCount(description);
+                    }
+                    uncountable.add(node);
+                } else {
+                    result.put(node.getId(), count);
+                }
+            }
+        } finally {
+            queryStatistics.queried(description, counted);
+            queryStatistics.fellBack(description, fellBack);
+            metrics.count(RelcountMetrics.Event.UNCOUNTABLE, fellBack);
+            metrics.stop(COUNT_CACHED, start);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return metrics of the module this counter reads cached degrees of.
+     */
+    RelcountMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static UnableToCountException unableToCount(RelationshipDescription description) {
+        return new UnableToCountException("Unable to count relationships with the following description: "
+                + description.toString()
+                + " Since there are potentially compacted out cached matches," +
+                " it looks like compaction has taken away the granularity you need. Please try to count this kind " +
+                "of relationship with a naive counter. Alternatively, increase the compaction threshold.");
+    }
+
+    /**
+     * Read cached degrees that are needed to count relationships with the given description. If the in-memory
+     * {@link DecodedDegreeCache} is enabled, all degrees of the node are read once and then served from memory until
+     * they change. Otherwise, if the degree caching strategy supports it, only degrees of the relationship types and
+     * directions being counted are read; if it doesn't, all degrees are read, but only those of the relationship types
+     * and directions being counted are partitioned. Degrees of sharded nodes include their shards.
+     *
+     * @param node         to read cached degrees for.
+     * @param descriptions of the relationships to count.
+     * @return cached degrees.
+     */
+    PartitionedDegrees cachedDegrees(Node node, Collection<CompiledDescription> descriptions) {
+        long start = metrics.start();
+        try {
+            return readCachedDegrees(node, null, null, descriptions);
+        } finally {
+            metrics.stop(CACHE_READ, start);
+        }
+    }
+
+    /**
+     * Read cached degrees that are needed to count relationships of a single type and direction, see
+     * {@link #cachedDegrees(org.neo4j.graphdb.Node, java.util.Collection)}.
+     *
+     * @param node      to read cached degrees for.
+     * @param type      of the relationships to count.
+     * @param direction of the relationships to count.
+     * @return cached degrees.
+     */
+    PartitionedDegrees cachedDegrees(Node node, String type, Direction direction) {
+        long start = metrics.start();
+        try {
+            return readCachedDegrees(node, type, direction, null);
+        } finally {
+            metrics.stop(CACHE_READ, start);
+        }
+    }
+
+    /**
+     * Read cached degrees of either a single type and direction, or those of the given descriptions.
+     */
+    private PartitionedDegrees readCachedDegrees(Node node, String type, Direction direction, Collection<CompiledDescription> descriptions) {
+        DegreeCachingStrategy degreeCachingStrategy = relationshipCountConfiguration.getDegreeCachingStrategy();
+
+        if (decodedDegreeCache.isEnabled()) {
+            PartitionedDegrees cached = decodedDegreeCache.get(node.getId());
+            if (cached != null) {
+                return cached;
+            }
+
+            long stamp = decodedDegreeCache.stamp();
+            return decodedDegreeCache.put(node.getId(), withShards(node, prefix, degreeCachingStrategy.readDegrees(node, prefix)), stamp);
+        }
+
+        if (descriptions != null && descriptions.size() == 1) {
+            CompiledDescription description = descriptions.iterator().next();
+            return readCachedDegrees(node, description.type, description.direction, null);
+        }
+
+        if (degreeCachingStrategy instanceof TypeAwareDegreeCachingStrategy) {
+            TypeAwareDegreeCachingStrategy typeAwareStrategy = (TypeAwareDegreeCachingStrategy) degreeCachingStrategy;
+
+            if (descriptions == null) {
+                return PartitionedDegrees.of(withShards(node, prefix, typeAwareStrategy.readDegrees(node, prefix, type, direction)));
+            }
+
+            Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+            Set<String> read = new HashSet<>();
+            for (CompiledDescription description : descriptions) {
+                if (read.add(description.direction.name() + description.type)) {
+                    degrees.putAll(typeAwareStrategy.readDegrees(node, prefix, description.type, description.direction));
+                }
+            }
+            return PartitionedDegrees.of(withShards(node, prefix, degrees));
+        }
+
+        Map<DetachedRelationshipDescription, Integer> degrees = withShards(node, prefix, degreeCachingStrategy.readDegrees(node, prefix));
+        Map<DetachedRelationshipDescription, Integer> filtered = new HashMap<>();
+
+        for (Map.Entry<DetachedRelationshipDescription, Integer> entry : degrees.entrySet()) {
+            String candidateType = entry.getKey().getType().name();
+            Direction candidateDirection = entry.getKey().getDirection();
+
+            if (descriptions == null) {
+                if (relevant(type, direction, candidateType, candidateDirection)) {
+                    filtered.put(entry.getKey(), entry.getValue());
+                }
+                continue;
+            }
+
+            for (CompiledDescription description : descriptions) {
+                if (relevant(description.type, description.direction, candidateType, candidateDirection)) {
+                    filtered.put(entry.getKey(), entry.getValue());
+                    break;
+                }
+            }
+        }
+
+        return PartitionedDegrees.of(filtered);
+    }
+
+    /**
+     * Can cached degrees of the given candidate type and direction possibly match relationships of the counted type and
+     * direction?
+     */
+    private static boolean relevant(String type, Direction direction, String candidateType, Direction candidateDirection) {
+        return type.equals(candidateType) && (Direction.BOTH.equals(direction) || direction.equals(candidateDirection));
+    }
+
+    /**
+     * A relationship description prepared for counting relationships of possibly many nodes. It remembers which
+     * cached descriptions it has been matched against and the outcome.
+     */
+    static final class CompiledDescription {
+
+        final RelationshipDescription description;
+        final String type;
+        final Direction direction;
+
+        //true = cached description matches, false = cached description is mutually exclusive
+        private final Map<DetachedRelationshipDescription, Boolean> verdicts = new HashMap<>();
+
+        CompiledDescription(RelationshipDescription description) {
+            this.description = description;
+            this.type = description.getType().name();
+            this.direction = description.getDirection();
+        }
+
+        /**
+         * Count relationships using cached degrees.
+         *
+         * @param cachedDegrees of a node.
+         * @return number of matching relationships, {@link #UNCOUNTABLE} if the cached degrees aren't granular enough.
+         */
+        private int count(PartitionedDegrees cachedDegrees) {
+            int outgoing = INCOMING.equals(direction) ? 0 : count(cachedDegrees.get(type, OUTGOING));
+            if (outgoing == UNCOUNTABLE) {
+                return UNCOUNTABLE;
+            }
+
+            int incoming = OUTGOING.equals(direction) ? 0 : count(cachedDegrees.get(type, INCOMING));
+            if (incoming == UNCOUNTABLE) {
+                return UNCOUNTABLE;
+            }
+
+            return outgoing + incoming;
+        }
+
+        /**
+         * Count relationships using cached degrees of a single relationship type and direction.
+         *
+         * @param cachedDegrees of relationships with the type and direction of the description (or one of them if the
+         *                      description's direction is {@link Direction#BOTH}).
+         * @return number of matching relationships, {@link #UNCOUNTABLE} if the cached degrees aren't granular enough.
+         */
+        private int count(Map<DetachedRelationshipDescription, Integer> cachedDegrees) {
+            int result = 0;
+
+            for (Map.Entry<DetachedRelationshipDescription, Integer> candidate : cachedDegrees.entrySet()) {
+                Boolean matches = matches(candidate.getKey());
+                if (matches == null) {
+                    return UNCOUNTABLE;
+                }
+                if (matches) {
+                    result += candidate.getValue();
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * @param candidate cached description.
+         * @return true if the candidate matches, false if it is mutually exclusive, null if it could contain matching
+         *         as well as non-matching relationships.
+         */
+        Boolean matches(DetachedRelationshipDescription candidate) {
+            Boolean verdict = verdicts.get(candidate);
+            if (verdict != null) {
+                return verdict;
+            }
+
+            boolean matches = candidate.isMoreSpecificThan(description);
+
+            if (!matches && !candidate.isMutuallyExclusive(description)) {
+                return null;
+            }
+
+            verdicts.put(candidate, matches);
+            return matches;
+        }
+    }
 }
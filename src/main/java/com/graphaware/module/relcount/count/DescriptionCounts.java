@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Relationship counts of a single node for multiple relationship descriptions. Relationships with some of the
+ * descriptions might not have been countable (see {@link UnableToCountException}), in which case the result says so
+ * for these descriptions rather than failing as a whole.
+ */
+public class DescriptionCounts {
+
+    private final Map<RelationshipDescription, Integer> counts = new LinkedHashMap<>();
+    private final Set<RelationshipDescription> uncountable = new LinkedHashSet<>();
+
+    /**
+     * Set the count for a description.
+     *
+     * @param description of relationships.
+     * @param count       number of relationships.
+     */
+    public void put(RelationshipDescription description, int count) {
+        uncountable.remove(description);
+        counts.put(description, count);
+    }
+
+    /**
+     * Mark relationships with a description as not countable.
+     *
+     * @param description of relationships.
+     */
+    public void putUncountable(RelationshipDescription description) {
+        counts.remove(description);
+        uncountable.add(description);
+    }
+
+    /**
+     * Get the count for a description.
+     *
+     * @param description of relationships.
+     * @return number of relationships.
+     * @throws UnableToCountException if relationships with the description could not be counted.
+     * @throws IllegalArgumentException if relationships with the description haven't been counted at all.
+     */
+    public int get(RelationshipDescription description) {
+        Integer count = counts.get(description);
+
+        if (count != null) {
+            return count;
+        }
+
+        if (uncountable.contains(description)) {
+            throw new UnableToCountException("Unable to count relationships with the following description: " + description.toString());
+        }
+
+        throw new IllegalArgumentException("Relationships with description " + description.toString() + " have not been counted");
+    }
+
+    /**
+     * @param description of relationships.
+     * @return true iff relationships with the description have been counted.
+     */
+    public boolean isCountable(RelationshipDescription description) {
+        return counts.containsKey(description);
+    }
+
+    /**
+     * @return counts of all countable descriptions, unmodifiable.
+     */
+    public Map<RelationshipDescription, Integer> getCounts() {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return descriptions that could not be counted and need a fallback, unmodifiable.
+     */
+    public Set<RelationshipDescription> getUncountable() {
+        return Collections.unmodifiableSet(uncountable);
+    }
+}
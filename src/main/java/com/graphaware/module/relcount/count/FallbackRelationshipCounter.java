@@ -19,6 +19,8 @@ package com.graphaware.module.relcount.count;
 import com.graphaware.module.relcount.RelationshipCountModule;
 import org.neo4j.graphdb.GraphDatabaseService;
 
+import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
+
 /**
  * {@link BaseFallbackRelationshipCounter} using {@link NaiveRelationshipCounter}.
  */
@@ -43,6 +45,8 @@ public class FallbackRelationshipCounter extends BaseFallbackRelationshipCounter
      * @param id       of the {@link com.graphaware.module.relcount.RelationshipCountModule} used to cache relationship counts.
      */
     public FallbackRelationshipCounter(GraphDatabaseService database, String id) {
-        super(new NaiveRelationshipCounter(database, id), new CachedRelationshipCounter(database, id));
+        super(new NaiveRelationshipCounter(database, id),
+                new CachedRelationshipCounter(database, id),
+                getStartedRuntime(database).getModule(id, RelationshipCountModule.class).getFallbackResultCache());
     }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.cache.NodeInvalidations;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, in-memory, least-recently-used cache of relationship counts produced by naive counting in
+ * {@link BaseFallbackRelationshipCounter}, keyed by node ID and relationship description. It is shared by all fallback
+ * counters counting relationships cached by the same {@link com.graphaware.module.relcount.RelationshipCountModule},
+ * which keeps it correct by invalidating results of nodes whose relationships change.
+ * <p/>
+ * Like with {@link com.graphaware.module.relcount.cache.DecodedDegreeCache}, every naive count must obtain a
+ * {@link #stamp()} before counting and pass it to {@link #put(long, RelationshipDescription, int, long)}, so that results
+ * counted before the last invalidation of the node are not cached. Results must not be cached (or served) when counted
+ * in a transaction with uncommitted changes, as they could include relationships that never get committed.
+ * <p/>
+ * A cache with maximum size of 0 is disabled; it never caches anything.
+ */
+public class FallbackResultCache {
+
+    private final int maxEntries;
+    private final Map<Key, Integer> entries;
+    private final Map<Long, Set<Key>> keysByNode = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final NodeInvalidations invalidations = new NodeInvalidations();
+
+    /**
+     * Construct a new cache.
+     *
+     * @param maxEntries maximum number of cached results, 0 to disable the cache.
+     */
+    public FallbackResultCache(final int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Maximum number of entries must not be negative");
+        }
+
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    unindex(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return true iff the cache is enabled.
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Get the current stamp of the cache, which changes every time results are invalidated.
+     *
+     * @return stamp.
+     */
+    public long stamp() {
+        return invalidations.stamp();
+    }
+
+    /**
+     * Get a cached count.
+     *
+     * @param nodeId      ID of the node.
+     * @param description of the counted relationships.
+     * @return cached count, null if not cached.
+     */
+    public Integer get(long nodeId, RelationshipDescription description) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Integer count;
+        synchronized (entries) {
+            count = entries.get(new Key(nodeId, description));
+        }
+
+        if (count == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return count;
+    }
+
+    /**
+     * Cache a count, unless the node has been invalidated since counting started.
+     *
+     * @param nodeId      ID of the node.
+     * @param description of the counted relationships.
+     * @param count       number of relationships.
+     * @param stamp       obtained by {@link #stamp()} before counting.
+     */
+    public void put(long nodeId, RelationshipDescription description, int count, long stamp) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Key key = new Key(nodeId, description);
+
+        synchronized (entries) {
+            if (!invalidations.isCurrent(nodeId, stamp)) {
+                return;
+            }
+
+            Set<Key> keys = keysByNode.get(nodeId);
+            if (keys == null) {
+                keys = new HashSet<>();
+                keysByNode.put(nodeId, keys);
+            }
+            keys.add(key);
+
+            entries.put(key, count);
+        }
+    }
+
+    /**
+     * Invalidate cached counts of the given nodes.
+     *
+     * @param nodeIds IDs of nodes whose relationships have (potentially) changed.
+     */
+    public void invalidate(Collection<Long> nodeIds) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            invalidations.invalidated(nodeIds);
+            for (Long nodeId : nodeIds) {
+                Set<Key> keys = keysByNode.remove(nodeId);
+                if (keys != null) {
+                    for (Key key : keys) {
+                        entries.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidate all cached counts.
+     */
+    public void invalidateAll() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (entries) {
+            invalidations.invalidatedAll();
+            entries.clear();
+            keysByNode.clear();
+        }
+    }
+
+    /**
+     * @return number of currently cached counts.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return number of times a count was found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of times a count was not found in the cache.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of times a count was evicted from the cache to make space for others.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private void unindex(Key key) {
+        Set<Key> keys = keysByNode.get(key.nodeId);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByNode.remove(key.nodeId);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final long nodeId;
+        private final RelationshipDescription description;
+
+        private Key(long nodeId, RelationshipDescription description) {
+            this.nodeId = nodeId;
+            this.description = description;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return nodeId == key.nodeId && description.equals(key.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (nodeId ^ (nodeId >>> 32)) + description.hashCode();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.property.LiteralPropertiesDescription;
+import com.graphaware.common.description.property.PropertiesDescription;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.cache.PartitionedDegrees;
+import com.graphaware.module.relcount.count.CachedRelationshipCounter.CompiledDescription;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
+import com.graphaware.tx.event.improved.propertycontainer.filtered.FilteredNode;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * {@link RelationshipCounter} that counts matching relationships using cached degrees where they are granular enough
+ * and inspects {@link org.neo4j.graphdb.Node}'s {@link org.neo4j.graphdb.Relationship}s only where they aren't.
+ * It is designed to be used as a "singleton", i.e., do not create a new instance every time you want to count.
+ * <p/>
+ * Cached degrees that match the counted description are summed up and cached degrees that are mutually exclusive with
+ * it are ignored, like in {@link CachedRelationshipCounter}. Cached degrees that have been compacted to a description
+ * more general than the counted one (and thus contain matching as well as non-matching relationships) are resolved by
+ * inspecting relationships with the counted type and direction. Inspection stops as soon as relationships whose weight
+ * adds up to all such cached degrees have been found, so it is cheap when compaction only affected a small part of the
+ * node's relationships, compared to {@link FallbackRelationshipCounter}, which counts all of them.
+ * <p/>
+ * It must be used in conjunction with {@link com.graphaware.module.relcount.RelationshipCountModule}
+ * registered with {@link com.graphaware.runtime.GraphAwareRuntime}. Relationships are inspected through the module's
+ * {@link com.graphaware.common.policy.InclusionPolicies}, so the result is always consistent with cached degrees.
+ * <p/>
+ * This counter always returns a count, never throws {@link UnableToCountException}.
+ */
+public class HybridRelationshipCounter implements BatchRelationshipCounter {
+
+    private final CachedRelationshipCounter cachedRelationshipCounter;
+    private final RelationshipCountConfiguration relationshipCountConfiguration;
+    private final QueryStatistics queryStatistics;
+
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong scannedRelationships = new AtomicLong();
+
+    /**
+     * Construct a new relationship counter. Use this constructor when
+     * only a single instance of {@link com.graphaware.module.relcount.RelationshipCountModule} is registered.
+     *
+     * @param database on which the module is running.
+     */
+    public HybridRelationshipCounter(GraphDatabaseService database) {
+        this(database, FULL_RELCOUNT_DEFAULT_ID);
+    }
+
+    /**
+     * Construct a new relationship counter. Use this constructor when multiple instances of {@link com.graphaware.module.relcount.RelationshipCountModule}
+     * have been registered with the {@link com.graphaware.runtime.GraphAwareRuntime}.
+     * This should rarely be the case.
+     *
+     * @param database on which the module is running.
+     * @param id       of the {@link com.graphaware.module.relcount.RelationshipCountModule} used to cache relationship counts.
+     */
+    public HybridRelationshipCounter(GraphDatabaseService database, String id) {
+        this.cachedRelationshipCounter = new CachedRelationshipCounter(database, id);
+        this.relationshipCountConfiguration = getStartedRuntime(database).getModule(id, RelationshipCountModule.class).getConfiguration();
+        this.queryStatistics = QueryStatistics.forCounting(database, getStartedRuntime(database).getConfiguration().createPrefix(id), relationshipCountConfiguration);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int count(Node node, RelationshipDescription description) {
+        queryStatistics.queried(description, 1);
+
+        CompiledDescription compiled = new CompiledDescription(description);
+        return count(node, compiled, cachedRelationshipCounter.cachedDegrees(node, Collections.singleton(compiled)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Matching of each distinct cached description against the given description is only evaluated once for all nodes.
+     */
+    @Override
+    public NodeCounts count(Iterable<Node> nodes, RelationshipDescription description) {
+        CompiledDescription compiled = new CompiledDescription(description);
+        Collection<CompiledDescription> singleton = Collections.singleton(compiled);
+        NodeCounts result = new NodeCounts();
+        int counted = 0;
+
+        try {
+            for (Node node : nodes) {
+                counted++;
+                result.put(node.getId(), count(node, compiled, cachedRelationshipCounter.cachedDegrees(node, singleton)));
+            }
+        } finally {
+            queryStatistics.queried(description, counted);
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Cached degrees of the node are read once for all the descriptions.
+     */
+    @Override
+    public DescriptionCounts count(Node node, Collection<? extends RelationshipDescription> descriptions) {
+        List<CompiledDescription> compiled = new ArrayList<>(descriptions.size());
+        for (RelationshipDescription description : descriptions) {
+            queryStatistics.queried(description, 1);
+            compiled.add(new CompiledDescription(description));
+        }
+
+        PartitionedDegrees cachedDegrees = cachedRelationshipCounter.cachedDegrees(node, compiled);
+
+        DescriptionCounts result = new DescriptionCounts();
+        for (CompiledDescription description : compiled) {
+            result.put(description.description, count(node, description, cachedDegrees));
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the number of times relationships of a node had to be inspected, because some of its cached degrees weren't
+     * granular enough.
+     *
+     * @return number of inspections since this counter was created.
+     */
+    public long getScans() {
+        return scans.get();
+    }
+
+    /**
+     * Get the total number of relationships inspected.
+     *
+     * @return number of inspected relationships since this counter was created.
+     */
+    public long getScannedRelationships() {
+        return scannedRelationships.get();
+    }
+
+    private int count(Node node, CompiledDescription description, PartitionedDegrees cachedDegrees) {
+        int result = 0;
+        boolean scanned = false;
+
+        for (Direction direction : directions(description.direction)) {
+            Map<DetachedRelationshipDescription, Integer> ambiguous = null;
+
+            for (Map.Entry<DetachedRelationshipDescription, Integer> candidate : cachedDegrees.get(description.type, direction).entrySet()) {
+                Boolean matches = description.matches(candidate.getKey());
+                if (matches == null) {
+                    if (ambiguous == null) {
+                        ambiguous = new HashMap<>();
+                    }
+                    ambiguous.put(candidate.getKey(), candidate.getValue());
+                } else if (matches) {
+                    result += candidate.getValue();
+                }
+            }
+
+            if (ambiguous != null) {
+                result += resolve(node, description.description, direction, ambiguous);
+                scanned = true;
+            }
+        }
+
+        if (scanned) {
+            scans.incrementAndGet();
+            queryStatistics.fellBack(description.description, 1);
+            cachedRelationshipCounter.getMetrics().count(RelcountMetrics.Event.HYBRID_SCANS, 1);
+        }
+
+        return result;
+    }
+
+    /**
+     * Count matching relationships that have been cached under more general descriptions by inspecting them.
+     *
+     * @param node        whose relationships to inspect.
+     * @param description of the relationships to count.
+     * @param direction   of the relationships to inspect, never {@link Direction#BOTH}.
+     * @param ambiguous   cached descriptions more general than the counted one, with their cached degrees.
+     * @return number of matching relationships cached under the ambiguous descriptions.
+     */
+    private int resolve(Node node, RelationshipDescription description, Direction direction, Map<DetachedRelationshipDescription, Integer> ambiguous) {
+        Map<DetachedRelationshipDescription, Integer> remaining = new HashMap<>(ambiguous);
+        Node filteredNode = new FilteredNode(node, relationshipCountConfiguration.getInclusionPolicies());
+        WeighingStrategy weighingStrategy = relationshipCountConfiguration.getWeighingStrategy();
+
+        int result = 0;
+        long inspected = 0;
+
+        for (Relationship relationship : filteredNode.getRelationships(direction, description.getType())) {
+            inspected++;
+
+            PropertiesDescription properties = new LiteralPropertiesDescription(relationship);
+            DetachedRelationshipDescription cached = cachedUnder(properties, remaining.keySet());
+            if (cached == null) {
+                continue;
+            }
+
+            int relationshipWeight = weighingStrategy.getRelationshipWeight(relationship, filteredNode);
+            if (properties.isMoreSpecificThan(description.getPropertiesDescription())) {
+                result += relationshipWeight;
+            }
+
+            int left = remaining.get(cached) - relationshipWeight;
+            if (left > 0) {
+                remaining.put(cached, left);
+            } else {
+                remaining.remove(cached);
+                if (remaining.isEmpty()) {
+                    break;
+                }
+            }
+        }
+
+        scannedRelationships.addAndGet(inspected);
+
+        return result;
+    }
+
+    private DetachedRelationshipDescription cachedUnder(PropertiesDescription properties, Set<DetachedRelationshipDescription> candidates) {
+        for (DetachedRelationshipDescription candidate : candidates) {
+            if (properties.isMoreSpecificThan(candidate.getPropertiesDescription())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static Direction[] directions(Direction direction) {
+        if (OUTGOING.equals(direction)) {
+            return new Direction[]{OUTGOING};
+        }
+        if (INCOMING.equals(direction)) {
+            return new Direction[]{INCOMING};
+        }
+        return new Direction[]{OUTGOING, INCOMING};
+    }
+}
@@ -19,6 +19,8 @@ package com.graphaware.module.relcount.count;
 import com.graphaware.module.relcount.RelationshipCountModule;
 import org.neo4j.graphdb.GraphDatabaseService;
 
+import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
+
 /**
  * {@link BaseFallbackRelationshipCounter} using {@link LegacyNaiveRelationshipCounter}.
  * <p/>
@@ -48,6 +50,8 @@ public class LegacyFallbackRelationshipCounter extends BaseFallbackRelationshipC
      * @param id       of the {@link com.graphaware.module.relcount.RelationshipCountModule} used to cache relationship counts.
      */
     public LegacyFallbackRelationshipCounter(GraphDatabaseService database, String id) {
-        super(new LegacyNaiveRelationshipCounter(database, id), new CachedRelationshipCounter(database, id));
+        super(new LegacyNaiveRelationshipCounter(database, id),
+                new CachedRelationshipCounter(database, id),
+                getStartedRuntime(database).getModule(id, RelationshipCountModule.class).getFallbackResultCache());
     }
 }
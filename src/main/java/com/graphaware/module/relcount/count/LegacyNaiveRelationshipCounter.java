@@ -22,10 +22,13 @@ import com.graphaware.common.description.relationship.RelationshipDescription;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
 import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
 import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 
+import java.util.Collection;
+
 import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
 import static org.neo4j.graphdb.Direction.BOTH;
 
@@ -45,9 +48,10 @@ import static org.neo4j.graphdb.Direction.BOTH;
  * @deprecated in favour of {@link NaiveRelationshipCounter}
  */
 @Deprecated
-public class LegacyNaiveRelationshipCounter implements RelationshipCounter {
+public class LegacyNaiveRelationshipCounter implements BatchRelationshipCounter {
 
     protected final RelationshipCountConfiguration relationshipCountConfiguration;
+    protected final RelcountMetrics metrics;
 
     /**
      * Construct a new relationship counter. Use when no runtime or relationship count module is present.
@@ -63,6 +67,7 @@ public class LegacyNaiveRelationshipCounter implements RelationshipCounter {
      */
     protected LegacyNaiveRelationshipCounter(WeighingStrategy weighingStrategy) {
         this.relationshipCountConfiguration = RelationshipCountConfigurationImpl.defaultConfiguration().with(weighingStrategy);
+        this.metrics = RelcountMetrics.DISABLED;
     }
 
     /**
@@ -72,7 +77,9 @@ public class LegacyNaiveRelationshipCounter implements RelationshipCounter {
      * @param id       of the relationship count module.
      */
     protected LegacyNaiveRelationshipCounter(GraphDatabaseService database, String id) {
-        this.relationshipCountConfiguration = getStartedRuntime(database).getModule(id, RelationshipCountModule.class).getConfiguration();
+        RelationshipCountModule module = getStartedRuntime(database).getModule(id, RelationshipCountModule.class);
+        this.relationshipCountConfiguration = module.getConfiguration();
+        this.metrics = module.getMetrics();
     }
 
     /**
@@ -80,6 +87,7 @@ public class LegacyNaiveRelationshipCounter implements RelationshipCounter {
      */
     @Override
     public int count(Node node, RelationshipDescription description) {
+        long start = metrics.start();
         int result = 0;
 
         for (Relationship candidateRelationship : node.getRelationships(description.getDirection(), description.getType())) {
@@ -96,6 +104,35 @@ public class LegacyNaiveRelationshipCounter implements RelationshipCounter {
             }
         }
 
+        metrics.stop(RelcountMetrics.Operation.COUNT_NAIVE_SCAN, start);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NodeCounts count(Iterable<Node> nodes, RelationshipDescription description) {
+        NodeCounts result = new NodeCounts();
+
+        for (Node node : nodes) {
+            result.put(node.getId(), count(node, description));
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DescriptionCounts count(Node node, Collection<? extends RelationshipDescription> descriptions) {
+        DescriptionCounts result = new DescriptionCounts();
+
+        for (RelationshipDescription description : descriptions) {
+            result.put(description, count(node, description));
+        }
+
         return result;
     }
 }
@@ -19,6 +19,7 @@ package com.graphaware.module.relcount.count;
 import com.graphaware.common.description.property.PropertiesDescription;
 import com.graphaware.common.description.relationship.RelationshipDescription;
 import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
 import com.graphaware.runtime.config.RuntimeConfiguration;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
@@ -77,18 +78,50 @@ public class NaiveRelationshipCounter extends LegacyNaiveRelationshipCounter {
     @Override
     public int count(Node node, RelationshipDescription description) {
         //performance optimization since 2.1
-        if (doesNotCareAboutProperties(description) && OneForEach.getInstance().equals(relationshipCountConfiguration.getWeighingStrategy())) {
-            if (BOTH.equals(description.getDirection())) {
-                //Neo4j only counts loop as 1
-                return node.getDegree(description.getType(), OUTGOING) + node.getDegree(description.getType(), INCOMING);
-            }
-
-            return node.getDegree(description.getType(), description.getDirection());
+        if (canUseDegree(description)) {
+            return degree(node, description);
         }
 
         return super.count(node, description);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NodeCounts count(Iterable<Node> nodes, RelationshipDescription description) {
+        if (!canUseDegree(description)) {
+            return super.count(nodes, description);
+        }
+
+        NodeCounts result = new NodeCounts();
+
+        for (Node node : nodes) {
+            result.put(node.getId(), degree(node, description));
+        }
+
+        return result;
+    }
+
+    private boolean canUseDegree(RelationshipDescription description) {
+        return doesNotCareAboutProperties(description) && OneForEach.getInstance().equals(relationshipCountConfiguration.getWeighingStrategy());
+    }
+
+    private int degree(Node node, RelationshipDescription description) {
+        long start = metrics.start();
+        int result;
+
+        if (BOTH.equals(description.getDirection())) {
+            //Neo4j only counts loop as 1
+            result = node.getDegree(description.getType(), OUTGOING) + node.getDegree(description.getType(), INCOMING);
+        } else {
+            result = node.getDegree(description.getType(), description.getDirection());
+        }
+
+        metrics.stop(RelcountMetrics.Operation.COUNT_NAIVE_FAST, start);
+        return result;
+    }
+
     private boolean doesNotCareAboutProperties(RelationshipDescription description) {
         PropertiesDescription propertiesDescription = description.getPropertiesDescription();
 
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import java.util.Arrays;
+
+/**
+ * Relationship counts of multiple nodes, keyed by node ID. A primitive open-addressing map, so that counting
+ * relationships of many nodes doesn't box every node ID and count.
+ * <p/>
+ * Node IDs are kept in the order in which they were first put, see {@link #nodeIds()}.
+ */
+public class NodeCounts {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private long[] order;
+    private int size;
+
+    /**
+     * Construct empty counts.
+     */
+    public NodeCounts() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct empty counts.
+     *
+     * @param expectedSize expected number of nodes.
+     */
+    public NodeCounts(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, expectedSize * 2) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        order = new long[Math.max(DEFAULT_CAPACITY, expectedSize)];
+    }
+
+    /**
+     * Set the count of a node.
+     *
+     * @param nodeId ID of the node.
+     * @param count  number of relationships.
+     */
+    public void put(long nodeId, int count) {
+        int slot = slot(nodeId);
+
+        if (used[slot]) {
+            values[slot] = count;
+            return;
+        }
+
+        used[slot] = true;
+        keys[slot] = nodeId;
+        values[slot] = count;
+
+        if (size == order.length) {
+            order = Arrays.copyOf(order, size * 2);
+        }
+        order[size++] = nodeId;
+
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Get the count of a node.
+     *
+     * @param nodeId ID of the node.
+     * @return number of relationships, 0 if the node hasn't been counted.
+     */
+    public int get(long nodeId) {
+        int slot = slot(nodeId);
+        return used[slot] ? values[slot] : 0;
+    }
+
+    /**
+     * @param nodeId ID of the node.
+     * @return true iff the node has been counted.
+     */
+    public boolean containsKey(long nodeId) {
+        return used[slot(nodeId)];
+    }
+
+    /**
+     * @return number of counted nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return IDs of counted nodes, in the order in which they were counted.
+     */
+    public long[] nodeIds() {
+        return Arrays.copyOf(order, size);
+    }
+
+    private int slot(long nodeId) {
+        int mask = keys.length - 1;
+        int slot = hash(nodeId) & mask;
+
+        while (used[slot] && keys[slot] != nodeId) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(long nodeId) {
+        long h = nodeId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
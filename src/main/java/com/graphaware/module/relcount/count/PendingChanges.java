@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+
+/**
+ * Detection of uncommitted changes in the transaction bound to the current thread. Results read in such a transaction
+ * may include changes that never get committed, so they must not be cached for other transactions.
+ */
+final class PendingChanges {
+
+    private PendingChanges() {
+    }
+
+    /**
+     * Does the transaction bound to the current thread have uncommitted changes?
+     *
+     * @param database the transaction runs against.
+     * @return true iff there are uncommitted changes, or if it can't be determined.
+     */
+    static boolean exist(GraphDatabaseService database) {
+        KernelTransaction transaction = ((GraphDatabaseAPI) database).getDependencyResolver()
+                .resolveDependency(ThreadToStatementContextBridge.class).getKernelTransactionBoundToThisThread(false);
+
+        if (transaction == null) {
+            return false;
+        }
+
+        if (!(transaction instanceof TxStateHolder)) {
+            return true;
+        }
+
+        return ((TxStateHolder) transaction).hasTxStateWithChanges();
+    }
+}
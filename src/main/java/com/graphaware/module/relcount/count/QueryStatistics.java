@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.predicate.Predicate;
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.cache.PerDatabaseRegistry;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.undefined;
+
+/**
+ * Lightweight in-memory record of how {@link CachedRelationshipCounter} is used: which properties of which relationship
+ * types are queried with concrete predicates, and how often counting by type fails because cached degrees have been
+ * compacted (and a fallback counter has to count naively). Compaction strategies can use it to keep the granularity
+ * that is actually queried, see {@link QueryStatisticsAware}.
+ * <p/>
+ * Fallback rates are reported as metrics of the module, if enabled.
+ * <p/>
+ * Statistics are not persisted. There is one instance per database and prefix, obtained using
+ * {@link #of(org.neo4j.graphdb.GraphDatabaseService, String)}. Counters only record statistics when the module's
+ * compaction strategy makes use of them, see {@link #forCounting(GraphDatabaseService, String, RelationshipCountConfiguration)};
+ * otherwise they get {@link #DISABLED} statistics, which record nothing and cost nothing.
+ */
+public class QueryStatistics {
+
+    /**
+     * Maximum number of distinct queried type-property pairs tracked. The tracking starts over once reached.
+     */
+    private static final int MAX_QUERIED_PROPERTIES = 10000;
+
+    private static final PerDatabaseRegistry<QueryStatistics> INSTANCES = new PerDatabaseRegistry<QueryStatistics>() {
+        @Override
+        protected QueryStatistics create(GraphDatabaseService database, String prefix) {
+            return new QueryStatistics(true);
+        }
+    };
+
+    /**
+     * Statistics that record nothing.
+     */
+    public static final QueryStatistics DISABLED = new QueryStatistics(false);
+
+    private final boolean enabled;
+
+    //type -> queried property keys, nested rather than keyed by type and property so that recording allocates nothing
+    private final ConcurrentMap<String, Set<String>> queriedProperties = new ConcurrentHashMap<>();
+    private final AtomicInteger queriedPropertiesSize = new AtomicInteger();
+    private final ConcurrentMap<String, AtomicLong> countsByType = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> fallbacksByType = new ConcurrentHashMap<>();
+
+    /**
+     * Get the statistics for a database and prefix, creating them if needed. The instance is released when the
+     * database shuts down.
+     *
+     * @param database the statistics are for.
+     * @param prefix   of the module the statistics are for.
+     * @return statistics.
+     */
+    public static QueryStatistics of(GraphDatabaseService database, String prefix) {
+        return INSTANCES.of(database, prefix);
+    }
+
+    /**
+     * Get the statistics counters should record to, which are {@link #DISABLED} unless the compaction strategy of the
+     * module makes use of them, i.e. is {@link QueryStatisticsAware}.
+     *
+     * @param database      the statistics are for.
+     * @param prefix        of the module the statistics are for.
+     * @param configuration of the module the statistics are for.
+     * @return statistics.
+     */
+    public static QueryStatistics forCounting(GraphDatabaseService database, String prefix, RelationshipCountConfiguration configuration) {
+        if (!(configuration.getCompactionStrategy() instanceof QueryStatisticsAware)) {
+            return DISABLED;
+        }
+        return of(database, prefix);
+    }
+
+    private QueryStatistics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Record that relationships with the given description are being counted.
+     *
+     * @param description of counted relationships.
+     * @param nodes       number of nodes whose relationships are being counted.
+     */
+    public void queried(RelationshipDescription description, int nodes) {
+        if (!enabled) {
+            return;
+        }
+
+        String type = description.getType().name();
+
+        for (String key : description.getPropertiesDescription().getKeys()) {
+            Predicate predicate = description.getPropertiesDescription().get(key);
+            if (!any().equals(predicate) && !undefined().equals(predicate)) {
+                queried(type, key);
+            }
+        }
+
+        increment(countsByType, type, nodes);
+    }
+
+    private void queried(String type, String key) {
+        Set<String> keys = queriedProperties.get(type);
+        if (keys != null && keys.contains(key)) {
+            return;
+        }
+
+        if (queriedPropertiesSize.get() >= MAX_QUERIED_PROPERTIES) {
+            queriedProperties.clear();
+            queriedPropertiesSize.set(0);
+        }
+
+        if (keys == null) {
+            Set<String> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            keys = queriedProperties.putIfAbsent(type, newKeys);
+            if (keys == null) {
+                keys = newKeys;
+            }
+        }
+
+        if (keys.add(key)) {
+            queriedPropertiesSize.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record that relationships with the given description could not be counted using cached degrees.
+     *
+     * @param description of relationships that could not be counted.
+     * @param nodes       number of nodes whose relationships could not be counted.
+     */
+    public void fellBack(RelationshipDescription description, int nodes) {
+        if (!enabled) {
+            return;
+        }
+
+        increment(fallbacksByType, description.getType().name(), nodes);
+    }
+
+    /**
+     * Has the given property of relationships with the given type been queried with a concrete predicate?
+     *
+     * @param type     relationship type.
+     * @param property property key.
+     * @return true iff queried.
+     */
+    public boolean isQueried(String type, String property) {
+        Set<String> keys = queriedProperties.get(type);
+        return keys != null && keys.contains(property);
+    }
+
+    /**
+     * Get the rate at which counting falls back to naive counting, per relationship type.
+     *
+     * @return fallback rates (0 to 1) by relationship type name, only for types that have been counted.
+     */
+    public Map<String, Double> getFallbackRates() {
+        Map<String, Double> result = new HashMap<>();
+
+        for (Map.Entry<String, AtomicLong> entry : countsByType.entrySet()) {
+            long counts = entry.getValue().get();
+            if (counts == 0) {
+                continue;
+            }
+
+            AtomicLong fallbacks = fallbacksByType.get(entry.getKey());
+            result.put(entry.getKey(), fallbacks == null ? 0.0 : (double) fallbacks.get() / counts);
+        }
+
+        return result;
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> counters, String key, int delta) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+}
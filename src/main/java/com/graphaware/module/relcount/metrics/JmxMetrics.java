@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.relcount.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only {@link DynamicMBean} exposing {@link RelcountMetrics} as flat numeric attributes (one per entry of
+ * {@link RelcountMetrics#snapshot()}), so that they can be scraped by any JMX-based monitoring. Registered under
+ * {@code com.graphaware.module.relcount:type=Metrics,module=<module ID>}.
+ */
+public final class JmxMetrics implements DynamicMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxMetrics.class);
+
+    private static final String DOMAIN = "com.graphaware.module.relcount";
+
+    private final RelcountMetrics metrics;
+
+    private JmxMetrics(RelcountMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Register metrics with the platform MBean server. Failure to register is logged, not propagated, as metrics
+     * must not prevent the module from starting.
+     *
+     * @param metrics  to register.
+     * @param moduleId ID of the module the metrics belong to.
+     * @return name the metrics have been registered under, null if registration failed.
+     */
+    public static ObjectName register(RelcountMetrics metrics, String moduleId) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Metrics,module=" + moduleId);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxMetrics(metrics), name);
+            return name;
+        } catch (JMException e) {
+            LOG.warn("Could not register metrics of module " + moduleId + " with JMX", e);
+            return null;
+        }
+    }
+
+    /**
+     * Unregister metrics from the platform MBean server.
+     *
+     * @param name returned by {@link #register(RelcountMetrics, String)}, nothing happens if null.
+     */
+    public static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOG.warn("Could not unregister " + name + " from JMX", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = metrics.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> snapshot = metrics.snapshot();
+
+        AttributeList result = new AttributeList();
+        for (String attribute : attributes) {
+            Object value = snapshot.get(attribute);
+            if (value != null) {
+                result.add(new Attribute(attribute, value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        //built on every call, values of gauge groups come and go
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Object> metric : metrics.snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(metric.getKey(), metric.getValue().getClass().getName(), metric.getKey(), true, false, false));
+        }
+
+        return new MBeanInfo(JmxMetrics.class.getName(), "GraphAware relationship count module metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2013 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.graphaware.module.relcount.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of a {@link com.graphaware.module.relcount.RelationshipCountModule}: latency histograms of instrumented
+ * {@link Operation}s, counts of {@link Event}s, a histogram of the sizes of cached degrees written to nodes, and
+ * {@link Gauge}s and {@link GaugeGroup}s of components that keep their own statistics. Exposed through JMX by {@link JmxMetrics}.
+ * <p/>
+ * Instrumented code calls {@link #start()} and {@link #stop(Operation, long)} around an operation. When metrics are
+ * disabled, neither reads the clock, so the overhead is a single branch per call.
+ * <p/>
+ * This class is thread-safe.
+ */
+public final class RelcountMetrics {
+
+    /**
+     * Metrics that are never collected, for components used without a module that collects them.
+     */
+    public static final RelcountMetrics DISABLED = new RelcountMetrics(false);
+
+    /**
+     * Instrumented operations, whose latencies are recorded.
+     */
+    public enum Operation {
+        /**
+         * Handling of a transaction by the module before it commits, including {@link #FLUSH}.
+         */
+        BEFORE_COMMIT,
+        /**
+         * Writing degree changes collected during a transaction (or a write-behind batch) to cached degrees.
+         */
+        FLUSH,
+        /**
+         * A single compaction pass over cached degrees of a node.
+         */
+        COMPACTION,
+        /**
+         * Reading cached degrees of a node for counting.
+         */
+        CACHE_READ,
+        /**
+         * Counting relationships using cached degrees.
+         */
+        COUNT_CACHED,
+        /**
+         * Naive counting using {@link org.neo4j.graphdb.Node#getDegree()}.
+         */
+        COUNT_NAIVE_FAST,
+        /**
+         * Naive counting by inspecting relationships.
+         */
+        COUNT_NAIVE_SCAN,
+        /**
+         * Naive counting by a fallback counter, after cached degrees turned out not to be granular enough.
+         */
+        COUNT_FALLBACK
+    }
+
+    /**
+     * Counted events.
+     */
+    public enum Event {
+        /**
+         * Relationships of a node couldn't be counted using cached degrees (an {@link com.graphaware.module.relcount.count.UnableToCountException}
+         * was thrown or a fallback counter fell back).
+         */
+        UNCOUNTABLE,
+        /**
+         * Relationships of a node were counted naively by a fallback counter (or taken from its result cache).
+         */
+        FALLBACKS,
+        /**
+         * Relationships of a node were inspected by a hybrid counter.
+         */
+        HYBRID_SCANS,
+        /**
+         * A compaction pass reduced the number of cached degrees of a node.
+         */
+        COMPACTIONS
+    }
+
+    private final boolean enabled;
+    private final Histogram[] latencies;
+    private final AtomicLongArray events;
+    private final Histogram cachedDegreesBytes;
+    private final Map<String, Gauge> gauges = Collections.synchronizedMap(new LinkedHashMap<String, Gauge>());
+    private final Map<String, GaugeGroup> gaugeGroups = Collections.synchronizedMap(new LinkedHashMap<String, GaugeGroup>());
+
+    /**
+     * Construct new metrics.
+     *
+     * @param enabled true to collect metrics, false for all the methods recording them to do nothing.
+     */
+    public RelcountMetrics(boolean enabled) {
+        this.enabled = enabled;
+        this.latencies = new Histogram[Operation.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+        this.events = new AtomicLongArray(Event.values().length);
+        this.cachedDegreesBytes = new Histogram();
+    }
+
+    /**
+     * @return true iff metrics are collected.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start timing an operation.
+     *
+     * @return start time to pass to {@link #stop(Operation, long)}, 0 if metrics are disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Stop timing an operation and record its latency.
+     *
+     * @param operation that has been timed.
+     * @param start     time returned by {@link #start()}.
+     */
+    public void stop(Operation operation, long start) {
+        if (enabled) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Count an event.
+     *
+     * @param event  that happened.
+     * @param amount number of times it happened.
+     */
+    public void count(Event event, long amount) {
+        if (enabled && amount != 0) {
+            events.addAndGet(event.ordinal(), amount);
+        }
+    }
+
+    /**
+     * Record the size of cached degrees written to a node.
+     *
+     * @param bytes size of encoded cached degrees written to the node's properties.
+     */
+    public void cachedDegreesWritten(long bytes) {
+        if (enabled) {
+            cachedDegreesBytes.record(bytes);
+        }
+    }
+
+    /**
+     * Register a gauge, read whenever metrics are read. Replaces a gauge registered with the same name before.
+     *
+     * @param name  of the gauge, in camel case.
+     * @param gauge to register.
+     */
+    public void register(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Register a group of gauges, read whenever metrics are read. Each value is reported under the name of the group
+     * followed by a dot and its key, e.g. "fallbackRate.FRIEND_OF". Replaces a group registered with the same name before.
+     *
+     * @param name  of the group, in camel case.
+     * @param group to register.
+     */
+    public void register(String name, GaugeGroup group) {
+        gaugeGroups.put(name, group);
+    }
+
+    /**
+     * @param operation to get latencies of.
+     * @return latencies of the operation in nanoseconds.
+     */
+    public Histogram getLatencies(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    /**
+     * @param event to get the count of.
+     * @return number of times the event happened.
+     */
+    public long getCount(Event event) {
+        return events.get(event.ordinal());
+    }
+
+    /**
+     * @return sizes of cached degrees written to nodes, in bytes.
+     */
+    public Histogram getCachedDegreesBytes() {
+        return cachedDegreesBytes;
+    }
+
+    /**
+     * Read all metrics at once. Latencies are reported in microseconds. Keys are stable, so that they can be used as
+     * names of JMX attributes, e.g. "beforeCommitCount", "beforeCommitP99Micros", "fallbacks", "cachedDegreesBytesMax",
+     * except for values of {@link GaugeGroup}s, which come and go with their keys.
+     *
+     * @return metric name to value (a {@link Number}), in a stable order.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = getLatencies(operation);
+            String name = camelCase(operation.name());
+            result.put(name + "Count", histogram.getCount());
+            result.put(name + "MeanMicros", histogram.getMean() / 1000);
+            result.put(name + "P50Micros", micros(histogram.getPercentile(0.5)));
+            result.put(name + "P99Micros", micros(histogram.getPercentile(0.99)));
+            result.put(name + "MaxMicros", micros(histogram.getMax()));
+        }
+
+        for (Event event : Event.values()) {
+            result.put(camelCase(event.name()), getCount(event));
+        }
+
+        result.put("cachedDegreesBytesCount", cachedDegreesBytes.getCount());
+        result.put("cachedDegreesBytesMean", cachedDegreesBytes.getMean());
+        result.put("cachedDegreesBytesP50", cachedDegreesBytes.getPercentile(0.5));
+        result.put("cachedDegreesBytesP99", cachedDegreesBytes.getPercentile(0.99));
+        result.put("cachedDegreesBytesMax", cachedDegreesBytes.getMax());
+
+        synchronized (gauges) {
+            for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+                result.put(gauge.getKey(), gauge.getValue().value());
+            }
+        }
+
+        synchronized (gaugeGroups) {
+            for (Map.Entry<String, GaugeGroup> group : gaugeGroups.entrySet()) {
+                for (Map.Entry<String, ? extends Number> value : group.getValue().values().entrySet()) {
+                    result.put(group.getKey() + "." + value.getKey(), value.getValue());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static String camelCase(String constant) {
+        StringBuilder result = new StringBuilder();
+        for (String part : constant.toLowerCase().split("_")) {
+            if (result.length() == 0) {
+                result.append(part);
+            } else {
+                result.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.module.relcount.cache.GraphWideProperties;
+import com.graphaware.module.relcount.cache.NodePropertiesDegreeCachingStrategy;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.runtime.config.FluentRuntimeConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link InitializationCheckpoint}.
+ */
+public class InitializationCheckpointTest {
+
+    private static final String PREFIX = FluentRuntimeConfiguration.defaultConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+    private static final String MARKER = PREFIX + "MARKER";
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < 1000; i++) {
+                Node node = database.createNode();
+                node.createRelationshipTo(node, withName("SELF"));
+                node.setProperty(MARKER, true);
+            }
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void checkpointShouldOnlyBeUsedWithSameConfiguration() {
+        InitializationCheckpoint checkpoint = new InitializationCheckpoint(database, PREFIX, RelationshipCountConfigurationImpl.defaultConfiguration());
+        assertEquals(0, checkpoint.load());
+
+        checkpoint.save(500);
+        assertEquals(500, checkpoint.load());
+        assertEquals(500, new InitializationCheckpoint(database, PREFIX, RelationshipCountConfigurationImpl.defaultConfiguration()).load());
+        assertEquals(0, new InitializationCheckpoint(database, PREFIX, RelationshipCountConfigurationImpl.defaultConfiguration().withThreshold(5)).load());
+        assertEquals(0, new InitializationCheckpoint(database, PREFIX, RelationshipCountConfigurationImpl.defaultConfiguration().with(new NodePropertiesDegreeCachingStrategy())).load());
+
+        checkpoint.clear();
+        assertEquals(0, checkpoint.load());
+    }
+
+    @Test
+    public void checkpointShouldBeUsedWithDifferentOperationalSettings() {
+        new InitializationCheckpoint(database, PREFIX, RelationshipCountConfigurationImpl.defaultConfiguration()).save(500);
+
+        RelationshipCountConfigurationImpl configuration = RelationshipCountConfigurationImpl.defaultConfiguration()
+                .withInitializationThreads(7)
+                .withDecodedDegreeCacheSize(100)
+                .withWriteBehindQueueSize(1000);
+
+        assertEquals(500, new InitializationCheckpoint(database, PREFIX, configuration).load());
+    }
+
+    @Test
+    public void interruptedInitializationShouldBeResumed() {
+        RelationshipCountConfigurationImpl configuration = RelationshipCountConfigurationImpl.defaultConfiguration();
+        new InitializationCheckpoint(database, PREFIX, configuration).save(500);
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(configuration));
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            //nodes below the watermark have been left alone
+            assertTrue(database.getNodeById(0).hasProperty(MARKER));
+            assertTrue(database.getNodeById(499).hasProperty(MARKER));
+
+            //nodes from the watermark on have been cleared and rebuilt
+            assertFalse(database.getNodeById(500).hasProperty(MARKER));
+            assertFalse(database.getNodeById(999).hasProperty(MARKER));
+            assertFalse(configuration.getDegreeCachingStrategy().readDegrees(database.getNodeById(999), PREFIX).isEmpty());
+
+            assertFalse(GraphWideProperties.of(database).hasProperty(PREFIX + "INIT_WATERMARK"));
+        }
+    }
+}
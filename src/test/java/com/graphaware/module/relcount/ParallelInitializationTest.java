@@ -0,0 +1,84 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.runtime.config.FluentRuntimeConfiguration;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for building cached counts using multiple threads, see {@link ParallelNodeBatchExecutor}.
+ */
+public class ParallelInitializationTest {
+
+    private static final int NODES = 1000;
+    private static final int RELATIONSHIPS = 5000;
+
+    @Test
+    public void parallelInitializationShouldProduceSameResultsAsSerial() {
+        Map<Long, Map<DetachedRelationshipDescription, Integer>> serial = initializeAndRead(RelationshipCountConfigurationImpl.defaultConfiguration().withThreshold(5));
+        Map<Long, Map<DetachedRelationshipDescription, Integer>> parallel = initializeAndRead(RelationshipCountConfigurationImpl.defaultConfiguration().withThreshold(5).withInitializationThreads(4));
+
+        assertEquals(NODES, serial.size());
+        assertEquals(serial, parallel);
+    }
+
+    private Map<Long, Map<DetachedRelationshipDescription, Integer>> initializeAndRead(RelationshipCountConfigurationImpl configuration) {
+        GraphDatabaseService database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try {
+            createGraph(database);
+
+            GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+            runtime.registerModule(new RelationshipCountModule(configuration));
+            runtime.start();
+
+            String prefix = FluentRuntimeConfiguration.defaultConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+            Map<Long, Map<DetachedRelationshipDescription, Integer>> result = new HashMap<>();
+
+            try (Transaction tx = database.beginTx()) {
+                for (long id = 0; id < NODES; id++) {
+                    Node node = database.getNodeById(id);
+                    result.put(id, configuration.getDegreeCachingStrategy().readDegrees(node, prefix));
+                }
+            }
+
+            assertFalse(result.get(0L).isEmpty());
+
+            return result;
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    private void createGraph(GraphDatabaseService database) {
+        Random random = new Random(42);
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < NODES; i++) {
+                database.createNode();
+            }
+
+            for (int i = 0; i < RELATIONSHIPS; i++) {
+                Node from = database.getNodeById(i < NODES ? i : random.nextInt(NODES));
+                Node to = database.getNodeById(random.nextInt(NODES));
+                from.createRelationshipTo(to, withName("TYPE" + random.nextInt(3))).setProperty("weight", random.nextInt(10));
+            }
+
+            tx.success();
+        }
+    }
+}
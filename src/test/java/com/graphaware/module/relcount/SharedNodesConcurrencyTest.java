@@ -0,0 +1,219 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.module.relcount.count.CachedRelationshipCounter;
+import com.graphaware.module.relcount.count.RelationshipCounter;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for concurrent transactions changing relationships of the same nodes with {@link RelationshipCountModule}
+ * registered. Each transaction's cached degree changes must be applied without deadlocking other transactions, and
+ * must all be reflected in the cached degrees in the end.
+ */
+public class SharedNodesConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS_PER_THREAD = 100;
+    private static final int TYPES = 3;
+    private static final int VALUES = 3;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private GraphDatabaseService database;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule());
+        runtime.start();
+
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        database.shutdown();
+    }
+
+    @Test
+    public void concurrentPropertyChangesOfRelationshipsOfSharedNodeShouldNotDeadlock() throws Exception {
+        final List<Long> relationshipIds = new ArrayList<>();
+        final List<Long> nodeIds = new ArrayList<>();
+
+        try (Transaction tx = database.beginTx()) {
+            Node hub = database.createNode();
+            nodeIds.add(hub.getId());
+
+            for (int i = 0; i < 20; i++) {
+                Node follower = database.createNode();
+                Relationship relationship = follower.createRelationshipTo(hub, withName("TYPE0"));
+                relationship.setProperty("weight", 0);
+                nodeIds.add(follower.getId());
+                relationshipIds.add(relationship.getId());
+            }
+
+            tx.success();
+        }
+
+        //a relationship property change doesn't lock its nodes, only the cached degrees of the hub do
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                try (Transaction tx = database.beginTx()) {
+                    Relationship relationship = database.getRelationshipById(relationshipIds.get(random.nextInt(relationshipIds.size())));
+                    relationship.setProperty("weight", random.nextInt(VALUES));
+                    tx.success();
+                }
+            }
+        }, false);
+
+        assertCachedDegreesMatch(nodeIds);
+    }
+
+    @Test
+    public void concurrentlyCreatedRelationshipsBetweenSharedNodesShouldAllBeCounted() throws Exception {
+        final List<Long> nodeIds = new ArrayList<>();
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < 10; i++) {
+                nodeIds.add(database.createNode().getId());
+            }
+            tx.success();
+        }
+
+        //creating relationships locks their nodes in no particular order, deadlocks among those are retried
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                try (Transaction tx = database.beginTx()) {
+                    for (int i = 0; i < 3; i++) {
+                        int first = random.nextInt(nodeIds.size());
+                        int second = (first + 1 + random.nextInt(nodeIds.size() - 1)) % nodeIds.size();
+
+                        Relationship relationship = database.getNodeById(nodeIds.get(first))
+                                .createRelationshipTo(database.getNodeById(nodeIds.get(second)), withName("TYPE" + random.nextInt(TYPES)));
+                        relationship.setProperty("weight", random.nextInt(VALUES));
+                    }
+                    tx.success();
+                }
+            }
+        }, true);
+
+        assertCachedDegreesMatch(nodeIds);
+    }
+
+    /**
+     * Run transactions from multiple threads at once and wait for all of them to finish.
+     *
+     * @param transaction     to run repeatedly, commits a transaction.
+     * @param retryDeadlocked true to retry transactions that failed with a deadlock, false to fail the test.
+     */
+    private void runConcurrently(final Runnable transaction, final boolean retryDeadlocked) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+
+                    for (int i = 0; i < TRANSACTIONS_PER_THREAD; i++) {
+                        try {
+                            transaction.run();
+                        } catch (RuntimeException e) {
+                            if (!retryDeadlocked || !isDeadlock(e)) {
+                                throw e;
+                            }
+                            i--;
+                        }
+                    }
+
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        for (Future<Void> future : futures) {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void assertCachedDegreesMatch(List<Long> nodeIds) {
+        RelationshipCounter counter = new CachedRelationshipCounter(database);
+
+        try (Transaction tx = database.beginTx()) {
+            for (long nodeId : nodeIds) {
+                Node node = database.getNodeById(nodeId);
+                int total = 0;
+
+                for (Direction direction : new Direction[]{OUTGOING, INCOMING}) {
+                    for (int type = 0; type < TYPES; type++) {
+                        for (int value = 0; value < VALUES; value++) {
+                            int expected = 0;
+                            for (Relationship relationship : node.getRelationships(direction, withName("TYPE" + type))) {
+                                if (relationship.getProperty("weight").equals(value)) {
+                                    expected++;
+                                }
+                            }
+
+                            assertEquals(expected, counter.count(node, literal("TYPE" + type, direction).with("weight", equalTo(value))));
+                            total += expected;
+                        }
+                    }
+                }
+
+                assertEquals(node.getDegree(), total);
+            }
+
+            tx.success();
+        }
+    }
+
+    private static boolean isDeadlock(Throwable throwable) {
+        while (throwable != null) {
+            if (throwable instanceof DeadlockDetectedException) {
+                return true;
+            }
+            throwable = throwable.getCause();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,191 @@
+package com.graphaware.module.relcount;
+
+import com.graphaware.module.relcount.cache.DegreeDeltas;
+import com.graphaware.module.relcount.cache.NodeBasedDegreeCache;
+import com.graphaware.module.relcount.count.CachedRelationshipCounter;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link WriteBehindDegreeMaintainer}.
+ */
+public class WriteBehindDegreeMaintainerTest {
+
+    private GraphDatabaseService database;
+    private RelationshipCountModule module;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        module = new RelationshipCountModule(defaultConfiguration().withWriteBehindQueueSize(2).withDecodedDegreeCacheSize(10));
+        runtime.registerModule(module);
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            database.createNode();
+            database.createNode();
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void cachedDegreesShouldEventuallyReflectAllCommittedTransactions() throws InterruptedException {
+        for (int i = 0; i < 20; i++) {
+            try (Transaction tx = database.beginTx()) {
+                Relationship relationship = database.getNodeById(0).createRelationshipTo(database.getNodeById(1), withName("TEST"));
+                relationship.setProperty("k", i % 2 == 0 ? "even" : "odd");
+                tx.success();
+            }
+        }
+
+        assertTrue(module.awaitCachedDegrees(10, TimeUnit.SECONDS));
+        assertEquals(0, module.getPendingDegreeUpdates());
+
+        CachedRelationshipCounter counter = new CachedRelationshipCounter(database);
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(20, counter.count(database.getNodeById(0), wildcard("TEST", OUTGOING)));
+            assertEquals(10, counter.count(database.getNodeById(1), wildcard("TEST", INCOMING).with("k", equalTo("odd"))));
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            for (Relationship relationship : database.getNodeById(0).getRelationships(OUTGOING)) {
+                if ("odd".equals(relationship.getProperty("k"))) {
+                    relationship.delete();
+                }
+            }
+            tx.success();
+        }
+
+        assertTrue(module.awaitCachedDegrees(10, TimeUnit.SECONDS));
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(10, counter.count(database.getNodeById(0), wildcard("TEST", OUTGOING)));
+            assertEquals(0, counter.count(database.getNodeById(1), wildcard("TEST", INCOMING).with("k", equalTo("odd"))));
+        }
+    }
+
+    @Test
+    public void rolledBackTransactionsShouldNotBeApplied() throws InterruptedException {
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.getNodeById(0);
+            node.createRelationshipTo(database.getNodeById(1), withName("TEST"));
+            tx.failure();
+        }
+
+        assertTrue(module.awaitCachedDegrees(10, TimeUnit.SECONDS));
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(0, new CachedRelationshipCounter(database).count(database.getNodeById(0), wildcard("TEST", OUTGOING)));
+        }
+    }
+
+    @Test
+    public void deltasShouldBeAppliedInSequenceOrder() throws InterruptedException {
+        NodeBasedDegreeCache degreeCache = new NodeBasedDegreeCache(FULL_RELCOUNT_DEFAULT_ID, module.getConfiguration());
+        WriteBehindDegreeMaintainer maintainer = new WriteBehindDegreeMaintainer(degreeCache, 10, noListener());
+        maintainer.start(database);
+
+        try {
+            long first = maintainer.sequence();
+            long second = maintainer.sequence();
+
+            maintainer.queue(second, deltas(-1));
+            assertFalse(maintainer.await(200, TimeUnit.MILLISECONDS));
+
+            maintainer.queue(first, deltas(1));
+            assertTrue(maintainer.await(10, TimeUnit.SECONDS));
+
+            //a decrement applied before the increment would have been found out of sync
+            assertEquals(0, degreeCache.getRepairs());
+        } finally {
+            maintainer.stop();
+        }
+    }
+
+    @Test
+    public void skippedSequenceNumbersShouldNotBeWaitedFor() throws InterruptedException {
+        NodeBasedDegreeCache degreeCache = new NodeBasedDegreeCache(FULL_RELCOUNT_DEFAULT_ID, module.getConfiguration());
+        WriteBehindDegreeMaintainer maintainer = new WriteBehindDegreeMaintainer(degreeCache, 10, noListener());
+        maintainer.start(database);
+
+        try {
+            long rolledBack = maintainer.sequence();
+            long committed = maintainer.sequence();
+
+            maintainer.queue(committed, deltas(1));
+            maintainer.skip(rolledBack);
+
+            assertTrue(maintainer.await(1, TimeUnit.SECONDS));
+        } finally {
+            maintainer.stop();
+        }
+    }
+
+    @Test
+    public void deltasShouldBeQueuedWithoutWaitingAndSpaceWaitedForBoundedly() throws InterruptedException {
+        NodeBasedDegreeCache degreeCache = new NodeBasedDegreeCache(FULL_RELCOUNT_DEFAULT_ID, module.getConfiguration());
+        WriteBehindDegreeMaintainer maintainer = new WriteBehindDegreeMaintainer(degreeCache, 1, noListener());
+
+        //not started, nothing is taken from the queue
+        maintainer.queue(maintainer.sequence(), deltas(1));
+        maintainer.queue(maintainer.sequence(), deltas(1));
+        assertEquals(2, maintainer.getPending());
+
+        long start = System.currentTimeMillis();
+        assertFalse(maintainer.awaitSpace(200));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        maintainer.start(database);
+        try {
+            assertTrue(maintainer.awaitSpace(10000));
+            assertTrue(maintainer.await(10, TimeUnit.SECONDS));
+        } finally {
+            maintainer.stop();
+        }
+    }
+
+    private DegreeDeltas deltas(int delta) {
+        DegreeDeltas deltas = new DegreeDeltas();
+        deltas.add(0, literal("OTHER", OUTGOING), delta);
+        return deltas;
+    }
+
+    private WriteBehindDegreeMaintainer.Listener noListener() {
+        return new WriteBehindDegreeMaintainer.Listener() {
+            @Override
+            public void applied(Set<Long> nodeIds) {
+            }
+        };
+    }
+}
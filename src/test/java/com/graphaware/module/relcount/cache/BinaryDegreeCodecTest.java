@@ -0,0 +1,93 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.serialize.Serializer;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.*;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Unit test for {@link BinaryDegreeCodec}.
+ */
+public class BinaryDegreeCodecTest {
+
+    private final BinaryDegreeCodec codec = new BinaryDegreeCodec();
+
+    @Test
+    public void emptyDegreesShouldBeEncodedAndDecoded() {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+
+        byte[] encoded = codec.encode(degrees);
+
+        assertTrue(BinaryDegreeCodec.isBinary(encoded));
+        assertTrue(codec.decode(encoded).isEmpty());
+    }
+
+    @Test
+    public void decodedDegreesShouldEqualToEncodedOnes() {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        degrees.put(literal("TEST", OUTGOING), 1);
+        degrees.put(literal("TEST", INCOMING), 300000);
+        degrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")).with("k2", any()), 2);
+        degrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v2")).with("k2", undefined()), 3);
+        degrees.put(literal("TEST2", OUTGOING).with("int", equalTo(-5)).with("long", equalTo(Long.MAX_VALUE)), 4);
+        degrees.put(literal("TEST2", OUTGOING).with("bool", equalTo(true)).with("bool2", equalTo(false)), 5);
+        degrees.put(literal("TEST2", INCOMING).with("double", equalTo(1.5d)).with("float", equalTo(-2.5f)), 6);
+        degrees.put(literal("TEST2", INCOMING).with("short", equalTo((short) 7)).with("byte", equalTo((byte) -1)), 7);
+        degrees.put(literal("TEST2", INCOMING).with("char", equalTo('c')).with("unicode", equalTo("žluťoučký")), 8);
+        degrees.put(literal("TEST3", INCOMING).with("array", equalTo(new int[]{1, 2, 3})), 9);
+        degrees.put(literal("TEST3", INCOMING).with("gt", greaterThan(3)), 10);
+
+        assertEquals(degrees, codec.decode(codec.encode(degrees)));
+    }
+
+    @Test
+    public void encodedDegreesShouldBeSmallerThanGenericallySerializedOnes() {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            degrees.put(literal("FRIEND_OF", OUTGOING).with("strength", equalTo(i % 3)).with("since", equalTo("201" + i)), i + 1);
+        }
+
+        assertTrue(codec.encode(degrees).length < Serializer.toByteArray(degrees).length);
+    }
+
+    @Test
+    public void stringAndNumberValuesShouldUseCompactTypedEncoding() {
+        assertEquals("v1", BinaryDegreeCodec.compactValueOf(equalTo("v1")));
+        assertEquals(-5, BinaryDegreeCodec.compactValueOf(equalTo(-5)));
+        assertEquals(Long.MAX_VALUE, BinaryDegreeCodec.compactValueOf(equalTo(Long.MAX_VALUE)));
+        assertEquals(1.5d, BinaryDegreeCodec.compactValueOf(equalTo(1.5d)));
+        assertEquals(true, BinaryDegreeCodec.compactValueOf(equalTo(true)));
+
+        assertNull(BinaryDegreeCodec.compactValueOf(greaterThan(3)));
+
+        //a timestamp-like value encoded compactly takes a few bytes, far fewer than a serialized predicate would
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        degrees.put(literal("T", OUTGOING).with("k", equalTo(1400000000000L)), 1);
+        assertTrue(codec.encode(degrees).length < Serializer.toByteArray(equalTo(1400000000000L)).length);
+    }
+
+    @Test
+    public void genericallySerializedDegreesShouldNotBeMistakenForBinary() {
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        degrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
+
+        assertFalse(BinaryDegreeCodec.isBinary(Serializer.toByteArray(degrees)));
+        assertFalse(BinaryDegreeCodec.isBinary(Serializer.toByteArray(new HashMap<DetachedRelationshipDescription, Integer>())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersionShouldBeRejected() {
+        byte[] encoded = codec.encode(new HashMap<DetachedRelationshipDescription, Integer>());
+        encoded[1] = 99;
+
+        codec.decode(encoded);
+    }
+}
@@ -0,0 +1,140 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.count.CachedRelationshipCounter;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link DecodedDegreeCache}.
+ */
+public class DecodedDegreeCacheTest {
+
+    private final Map<DetachedRelationshipDescription, Integer> degrees = Collections.singletonMap(literal("TEST", OUTGOING), 1);
+
+    @Test
+    public void disabledCacheShouldNotCacheAnything() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(0);
+
+        cache.put(1L, degrees, cache.stamp());
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get(1L));
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesShouldBeEvicted() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(2);
+
+        cache.put(1L, degrees, cache.stamp());
+        cache.put(2L, degrees, cache.stamp());
+        assertEquals(degrees, cache.get(1L).asMap());
+        cache.put(3L, degrees, cache.stamp());
+
+        assertNull(cache.get(2L));
+        assertEquals(degrees, cache.get(1L).asMap());
+        assertEquals(degrees, cache.get(3L).asMap());
+
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void degreesReadBeforeInvalidationShouldNotBeCached() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(10);
+
+        cache.put(1L, degrees, cache.stamp());
+        long stamp = cache.stamp();
+        cache.invalidate(Collections.singleton(1L));
+        cache.put(1L, degrees, stamp);
+
+        assertNull(cache.get(1L));
+    }
+
+    @Test
+    public void degreesOfOtherNodesShouldBeCachedAfterInvalidation() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(10);
+
+        long stamp = cache.stamp();
+        cache.invalidate(Collections.singleton(1L));
+        cache.put(2L, degrees, stamp);
+
+        assertNotNull(cache.get(2L));
+    }
+
+    @Test
+    public void degreesReadBeforeForgettingInvalidatedNodesShouldNotBeCached() {
+        DecodedDegreeCache cache = new DecodedDegreeCache(10);
+
+        long stamp = cache.stamp();
+        for (long nodeId = 1; nodeId <= NodeInvalidations.MAX_REMEMBERED + 1; nodeId++) {
+            cache.invalidate(Collections.singleton(nodeId));
+        }
+        cache.put(0L, degrees, stamp);
+        cache.put(1L, degrees, cache.stamp());
+
+        assertNull(cache.get(0L));
+        assertNotNull(cache.get(1L));
+    }
+
+    @Test
+    public void countsShouldBeServedFromMemoryAndInvalidatedOnChange() {
+        GraphDatabaseService database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try {
+            GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+            RelationshipCountModule module = new RelationshipCountModule(defaultConfiguration().withDecodedDegreeCacheSize(100));
+            runtime.registerModule(module);
+            runtime.start();
+
+            try (Transaction tx = database.beginTx()) {
+                Node node1 = database.createNode();
+                Node node2 = database.createNode();
+                node1.createRelationshipTo(node2, withName("TEST"));
+                tx.success();
+            }
+
+            CachedRelationshipCounter counter = new CachedRelationshipCounter(database);
+
+            try (Transaction tx = database.beginTx()) {
+                assertEquals(1, counter.count(database.getNodeById(0), wildcard("TEST", OUTGOING)));
+                assertEquals(1, counter.count(database.getNodeById(0), wildcard("TEST", OUTGOING)));
+            }
+
+            assertEquals(1, module.getDecodedDegreeCache().getMisses());
+            assertEquals(1, module.getDecodedDegreeCache().getHits());
+
+            try (Transaction tx = database.beginTx()) {
+                database.getNodeById(0).createRelationshipTo(database.getNodeById(1), withName("TEST"));
+                tx.success();
+            }
+
+            try (Transaction tx = database.beginTx()) {
+                assertEquals(2, counter.count(database.getNodeById(0), wildcard("TEST", OUTGOING)));
+            }
+
+            assertEquals(2, module.getDecodedDegreeCache().getMisses());
+        } finally {
+            database.shutdown();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.graphaware.common.description.predicate.Predicates;
 import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
 import com.graphaware.module.relcount.compact.CompactionStrategy;
+import com.graphaware.module.relcount.compact.GeneralizingCompactionStrategy;
 import com.graphaware.runtime.module.NeedsInitializationException;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,6 +14,8 @@ import java.util.*;
 
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 import static org.neo4j.graphdb.Direction.INCOMING;
 import static org.neo4j.graphdb.Direction.OUTGOING;
@@ -264,4 +267,95 @@ public class DegreeCachingNodeTest {
         cachingNode.decrementDegree(literal("TEST", INCOMING), 1);
         cachingNode.flush();
     }
+
+    @Test
+    public void descriptionsOfSameTypeAndDifferentDirectionShouldNotGeneralizeEachOther() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = Collections.singletonMap(literal("TEST", OUTGOING).with("k1", Predicates.any()), 3);
+        when(mockDegreeCachingStrategy.readDegrees(mockNode, TEST_PREFIX)).thenReturn(cachedCounts);
+
+        DegreeCachingNode cachingNode = new DegreeCachingNode(mockNode, TEST_PREFIX, mockStrategies);
+
+        assertEquals(literal("TEST", OUTGOING).with("k1", Predicates.any()), cachingNode.getGeneralization(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v1"))));
+        assertNull(cachingNode.getGeneralization(literal("TEST", INCOMING).with("k1", Predicates.equalTo("v1"))));
+
+        cachingNode.incrementDegree(literal("TEST", INCOMING).with("k1", Predicates.equalTo("v1")), 1);
+
+        Map<DetachedRelationshipDescription, Integer> expectedCachedCounts = new HashMap<>();
+        expectedCachedCounts.put(literal("TEST", OUTGOING).with("k1", Predicates.any()), 3);
+        expectedCachedCounts.put(literal("TEST", INCOMING).with("k1", Predicates.equalTo("v1")), 1);
+        assertEquals(expectedCachedCounts, cachingNode.getCachedDegrees());
+    }
+
+    @Test
+    public void descriptionsOfDifferentTypesShouldNotGeneralizeEachOther() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = Collections.singletonMap(literal("TEST", OUTGOING).with("k1", Predicates.any()), 3);
+        when(mockDegreeCachingStrategy.readDegrees(mockNode, TEST_PREFIX)).thenReturn(cachedCounts);
+
+        DegreeCachingNode cachingNode = new DegreeCachingNode(mockNode, TEST_PREFIX, mockStrategies);
+
+        assertNull(cachingNode.getGeneralization(literal("OTHER", OUTGOING).with("k1", Predicates.equalTo("v1"))));
+
+        try {
+            cachingNode.decrementDegree(literal("OTHER", OUTGOING), 1);
+            fail();
+        } catch (NeedsInitializationException e) {
+            //OK
+        }
+
+        assertEquals(3, (int) cachingNode.getCachedDegrees().get(literal("TEST", OUTGOING).with("k1", Predicates.any())));
+    }
+
+    @Test
+    public void emptiedBucketShouldBeRemovedAndRecreated() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
+        cachedCounts.put(literal("TEST", OUTGOING).with("k1", Predicates.any()), 1);
+        cachedCounts.put(literal("TEST", INCOMING), 2);
+        when(mockDegreeCachingStrategy.readDegrees(mockNode, TEST_PREFIX)).thenReturn(cachedCounts);
+
+        DegreeCachingNode cachingNode = new DegreeCachingNode(mockNode, TEST_PREFIX, mockStrategies);
+
+        cachingNode.decrementDegree(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v1")), 1);
+
+        assertNull(cachingNode.getGeneralization(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v1"))));
+        assertEquals(literal("TEST", INCOMING), cachingNode.getGeneralization(literal("TEST", INCOMING).with("k1", Predicates.equalTo("v1"))));
+
+        cachingNode.incrementDegree(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v2")), 1);
+
+        assertEquals(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v2")), cachingNode.getGeneralization(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v2"))));
+        assertNull(cachingNode.getGeneralization(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v1"))));
+
+        Map<DetachedRelationshipDescription, Integer> expectedCachedCounts = new HashMap<>();
+        expectedCachedCounts.put(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("v2")), 1);
+        expectedCachedCounts.put(literal("TEST", INCOMING), 2);
+        assertEquals(expectedCachedCounts, cachingNode.getCachedDegrees());
+    }
+
+    @Test
+    public void generalizationShouldOnlyAbsorbDescriptionsOfSameTypeAndDirection() {
+        Map<DetachedRelationshipDescription, Integer> cachedCounts = new HashMap<>();
+        cachedCounts.put(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("a")), 1);
+        cachedCounts.put(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("b")), 2);
+        cachedCounts.put(literal("TEST", INCOMING).with("k1", Predicates.equalTo("a")), 5);
+        cachedCounts.put(literal("OTHER", OUTGOING).with("k1", Predicates.equalTo("a")), 7);
+        when(mockDegreeCachingStrategy.readDegrees(mockNode, TEST_PREFIX)).thenReturn(cachedCounts);
+
+        GeneralizingCompactionStrategy generalizingStrategy = mock(GeneralizingCompactionStrategy.class);
+        when(generalizingStrategy.generalize(any(DegreeCachingNode.class), eq(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("c")))))
+                .thenReturn(literal("TEST", OUTGOING).with("k1", Predicates.any()));
+        when(mockStrategies.getCompactionStrategy()).thenReturn(generalizingStrategy);
+
+        DegreeCachingNode cachingNode = new DegreeCachingNode(mockNode, TEST_PREFIX, mockStrategies);
+
+        cachingNode.incrementDegree(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("c")), 1);
+
+        Map<DetachedRelationshipDescription, Integer> expectedCachedCounts = new HashMap<>();
+        expectedCachedCounts.put(literal("TEST", OUTGOING).with("k1", Predicates.any()), 4);
+        expectedCachedCounts.put(literal("TEST", INCOMING).with("k1", Predicates.equalTo("a")), 5);
+        expectedCachedCounts.put(literal("OTHER", OUTGOING).with("k1", Predicates.equalTo("a")), 7);
+        assertEquals(expectedCachedCounts, cachingNode.getCachedDegrees());
+
+        assertEquals(literal("TEST", OUTGOING).with("k1", Predicates.any()), cachingNode.getGeneralization(literal("TEST", OUTGOING).with("k1", Predicates.equalTo("a"))));
+        assertNull(cachingNode.getGeneralization(literal("TEST", INCOMING).with("k1", Predicates.equalTo("b"))));
+        assertNull(cachingNode.getGeneralization(literal("OTHER", OUTGOING).with("k1", Predicates.equalTo("b"))));
+    }
 }
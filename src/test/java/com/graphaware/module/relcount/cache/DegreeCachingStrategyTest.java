@@ -29,8 +29,8 @@ import static org.neo4j.graphdb.Direction.OUTGOING;
  */
 public abstract class DegreeCachingStrategyTest {
 
-    private GraphDatabaseService database;
-    private TransactionExecutor txExecutor;
+    protected GraphDatabaseService database;
+    protected TransactionExecutor txExecutor;
 
     @Before
     public void setUp() {
@@ -0,0 +1,222 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.count.CachedRelationshipCounter;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID;
+import static com.graphaware.runtime.RuntimeRegistry.getStartedRuntime;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Integration test for {@link DegreeShards}, run with each {@link DegreeCachingStrategy} by subclasses.
+ */
+public abstract class DegreeShardsTest {
+
+    private GraphDatabaseService database;
+    private RelationshipCountModule module;
+    private String prefix;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        module = new RelationshipCountModule(defaultConfiguration().with(degreeCachingStrategy()).withDegreeSharding(4, 5));
+        runtime.registerModule(module);
+        runtime.start();
+
+        prefix = getStartedRuntime(database).getConfiguration().createPrefix(FULL_RELCOUNT_DEFAULT_ID);
+
+        try (Transaction tx = database.beginTx()) {
+            database.createNode();
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    protected abstract DegreeCachingStrategy degreeCachingStrategy();
+
+    @Test
+    public void hotNodeShouldBeShardedAndCountedCorrectly() {
+        createRelationships(10, "TEST");
+
+        try (Transaction tx = database.beginTx()) {
+            long[] shards = DegreeShards.shardsOf(database.getNodeById(0), prefix);
+            assertNotNull(shards);
+            assertEquals(4, shards.length);
+        }
+
+        assertCounts(10);
+    }
+
+    @Test
+    public void coldNodeShouldNotBeSharded() {
+        createRelationships(4, "TEST");
+
+        try (Transaction tx = database.beginTx()) {
+            assertNull(DegreeShards.shardsOf(database.getNodeById(0), prefix));
+            assertNull(DegreeShards.shardsOf(database.getNodeById(1), prefix));
+        }
+    }
+
+    @Test
+    public void mergingShardsShouldNotChangeCounts() {
+        createRelationships(20, "TEST");
+        assertCounts(20);
+
+        module.mergeDegreeShards(database);
+
+        assertCounts(20);
+
+        try (Transaction tx = database.beginTx()) {
+            Node hub = database.getNodeById(0);
+            for (long shardId : DegreeShards.shardsOf(hub, prefix)) {
+                assertTrue(DegreeShards.read(database.getNodeById(shardId), prefix).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void deletedRelationshipsShouldBeSubtractedFromShards() {
+        createRelationships(20, "TEST");
+
+        try (Transaction tx = database.beginTx()) {
+            for (Relationship relationship : database.getNodeById(0).getRelationships(OUTGOING)) {
+                if ("odd".equals(relationship.getProperty("k"))) {
+                    relationship.delete();
+                }
+            }
+            tx.success();
+        }
+
+        assertCounts(10, 0, 10);
+
+        module.mergeDegreeShards(database);
+
+        assertCounts(10, 0, 10);
+    }
+
+    @Test
+    public void shardsShouldBeDeletedWithTheirNode() {
+        createRelationships(10, "TEST");
+
+        long[] shards;
+        try (Transaction tx = database.beginTx()) {
+            Node hub = database.getNodeById(0);
+            shards = DegreeShards.shardsOf(hub, prefix);
+            for (Relationship relationship : hub.getRelationships()) {
+                relationship.delete();
+            }
+            hub.delete();
+            tx.success();
+        }
+
+        assertShardsDeleted(shards);
+    }
+
+    @Test
+    public void rebuildingShouldReplaceShards() {
+        createRelationships(20, "TEST");
+
+        long[] shards;
+        try (Transaction tx = database.beginTx()) {
+            Node hub = database.getNodeById(0);
+            shards = DegreeShards.shardsOf(hub, prefix);
+            new NodeBasedDegreeCache(FULL_RELCOUNT_DEFAULT_ID, module.getConfiguration()).rebuild(hub);
+            tx.success();
+        }
+
+        assertShardsDeleted(shards);
+
+        try (Transaction tx = database.beginTx()) {
+            long[] newShards = DegreeShards.shardsOf(database.getNodeById(0), prefix);
+            assertNotNull(newShards);
+            assertEquals(4, newShards.length);
+        }
+
+        assertCounts(20);
+    }
+
+    @Test
+    public void initializationShouldDeleteLeftBehindShards() {
+        createRelationships(20, "TEST");
+
+        long[] shards;
+        long orphan;
+        try (Transaction tx = database.beginTx()) {
+            shards = DegreeShards.shardsOf(database.getNodeById(0), prefix);
+            orphan = database.createNode(DynamicLabel.label(prefix + DegreeShards.SHARD)).getId();
+            tx.success();
+        }
+
+        module.initialize(database);
+
+        assertShardsDeleted(shards);
+        assertShardsDeleted(new long[]{orphan});
+        assertCounts(20);
+    }
+
+    private void assertShardsDeleted(long[] shards) {
+        assertNotNull(shards);
+
+        try (Transaction tx = database.beginTx()) {
+            for (long shardId : shards) {
+                try {
+                    database.getNodeById(shardId);
+                    fail("Shard " + shardId + " should have been deleted");
+                } catch (NotFoundException e) {
+                    //ok
+                }
+            }
+        }
+    }
+
+    private void createRelationships(int count, String type) {
+        for (int i = 0; i < count; i++) {
+            try (Transaction tx = database.beginTx()) {
+                Node other = database.createNode();
+                Relationship relationship = database.getNodeById(0).createRelationshipTo(other, withName(type));
+                relationship.setProperty("k", i % 2 == 0 ? "even" : "odd");
+                tx.success();
+            }
+        }
+    }
+
+    private void assertCounts(int total) {
+        assertCounts(total, total / 2, total / 2);
+    }
+
+    private void assertCounts(int total, int odd, int even) {
+        CachedRelationshipCounter counter = new CachedRelationshipCounter(database);
+
+        try (Transaction tx = database.beginTx()) {
+            Node hub = database.getNodeById(0);
+            assertEquals(total, counter.count(hub, wildcard("TEST", OUTGOING)));
+            assertEquals(odd, counter.count(hub, wildcard("TEST", OUTGOING).with("k", equalTo("odd"))));
+            assertEquals(even, counter.count(hub, wildcard("TEST", OUTGOING).with("k", equalTo("even"))));
+            assertEquals(0, counter.count(hub, wildcard("TEST", INCOMING)));
+        }
+    }
+}
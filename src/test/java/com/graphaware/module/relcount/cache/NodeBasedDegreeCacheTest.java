@@ -1,5 +1,7 @@
 package com.graphaware.module.relcount.cache;
 
+import com.graphaware.common.description.predicate.Predicates;
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
 import com.graphaware.common.serialize.Serializer;
 import com.graphaware.common.wrapper.NodeWrapper;
 import com.graphaware.module.relcount.RelationshipCountConfiguration;
@@ -12,16 +14,20 @@ import com.graphaware.runtime.config.RuntimeConfiguration;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import static com.graphaware.common.description.predicate.Predicates.equalTo;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 import static org.neo4j.graphdb.Direction.*;
@@ -127,11 +133,9 @@ public class NodeBasedDegreeCacheTest {
         cache.startCaching();
 
         cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
-        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
-        verifyNoMoreInteractions(mockDegreeCachingNode);
-
         cache.endCaching();
 
+        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
         verify(mockDegreeCachingNode).flush();
         verifyNoMoreInteractions(mockDegreeCachingNode);
     }
@@ -169,9 +173,9 @@ public class NodeBasedDegreeCacheTest {
         cache.startCaching();
 
         cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
-        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 100);
-
         cache.endCaching();
+
+        verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 100);
     }
 
     @Test
@@ -198,11 +202,9 @@ public class NodeBasedDegreeCacheTest {
         cache.startCaching();
 
         cache.handleDeletedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
-        verify(mockDegreeCachingNode).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
-        verifyNoMoreInteractions(mockDegreeCachingNode);
-
         cache.endCaching();
 
+        verify(mockDegreeCachingNode).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
         verify(mockDegreeCachingNode).flush();
         verifyNoMoreInteractions(mockDegreeCachingNode);
     }
@@ -240,9 +242,41 @@ public class NodeBasedDegreeCacheTest {
         cache.startCaching();
 
         cache.handleDeletedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
+        cache.endCaching();
+
         verify(mockDegreeCachingNode).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 100);
+    }
 
+    @Test
+    public void relationshipCreatedAndDeletedInSameTransactionShouldNotTouchCachedDegrees() {
+        Node mockStartNode = mock(Node.class);
+        when(mockStartNode.getId()).thenReturn(123L);
+        when(mockStartNode.getGraphDatabase()).thenReturn(database);
+
+        Node mockEndNode = mock(Node.class);
+        when(mockEndNode.getId()).thenReturn(124L);
+        when(mockEndNode.getGraphDatabase()).thenReturn(database);
+
+        NodeWrapper mockNodeWrapper = mock(NodeWrapper.class);
+        when(mockNodeWrapper.getId()).thenReturn(123L);
+        when(mockNodeWrapper.getWrapped()).thenReturn(mockStartNode);
+
+        Relationship mockRelationship = mock(Relationship.class);
+        when(mockRelationship.getType()).thenReturn(withName("TEST"));
+        when(mockRelationship.getStartNode()).thenReturn(mockStartNode);
+        when(mockRelationship.getEndNode()).thenReturn(mockEndNode);
+        when(mockRelationship.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(mockRelationship.getProperty("k1")).thenReturn("v1");
+
+        DegreeCachingNode untouched = mockDegreeCachingNode;
+
+        cache.startCaching();
+        cache.handleCreatedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
+        cache.handleDeletedRelationship(mockRelationship, mockNodeWrapper, OUTGOING);
         cache.endCaching();
+
+        assertSame(untouched, mockDegreeCachingNode);
+        verifyZeroInteractions(mockDegreeCachingNode);
     }
 
     @Test
@@ -273,11 +307,183 @@ public class NodeBasedDegreeCacheTest {
         verifyNoMoreInteractions(mockDegreeCachingNode);
     }
 
+    @Test
+    public void relationshipShouldBeHandledFromPointOfViewOfBothNodesReadingPropertiesOnce() {
+        final Map<Long, DegreeCachingNode> cachingNodes = new HashMap<>();
+        cache = new TestNodeBasedDegreeCache("TEST_ID", RelationshipCountConfigurationImpl.defaultConfiguration()) {
+            @Override
+            protected DegreeCachingNode newDegreeCachingNode(Node node, String prefix, RelationshipCountConfiguration configuration) {
+                DegreeCachingNode cachingNode = super.newDegreeCachingNode(node, prefix, configuration);
+                cachingNodes.put(node.getId(), cachingNode);
+                return cachingNode;
+            }
+        };
+
+        Node mockStartNode = mock(Node.class);
+        when(mockStartNode.getId()).thenReturn(123L);
+        when(mockStartNode.getGraphDatabase()).thenReturn(database);
+
+        Node mockEndNode = mock(Node.class);
+        when(mockEndNode.getId()).thenReturn(124L);
+        when(mockEndNode.getGraphDatabase()).thenReturn(database);
+
+        NodeWrapper mockStartNodeWrapper = mock(NodeWrapper.class);
+        when(mockStartNodeWrapper.getId()).thenReturn(123L);
+        when(mockStartNodeWrapper.getWrapped()).thenReturn(mockStartNode);
+
+        NodeWrapper mockEndNodeWrapper = mock(NodeWrapper.class);
+        when(mockEndNodeWrapper.getId()).thenReturn(124L);
+        when(mockEndNodeWrapper.getWrapped()).thenReturn(mockEndNode);
+
+        Relationship mockRelationship = mock(Relationship.class);
+        when(mockRelationship.getType()).thenReturn(withName("TEST"));
+        when(mockRelationship.getStartNode()).thenReturn(mockStartNode);
+        when(mockRelationship.getEndNode()).thenReturn(mockEndNode);
+        when(mockRelationship.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(mockRelationship.getProperty("k1")).thenReturn("v1");
+
+        cache.startCaching();
+        cache.handleCreatedRelationship(mockRelationship, mockStartNodeWrapper, mockEndNodeWrapper);
+        cache.endCaching();
+
+        verify(mockRelationship, times(1)).getPropertyKeys();
+        verify(cachingNodes.get(123L)).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
+        verify(cachingNodes.get(124L)).incrementDegree(literal("TEST", INCOMING).with("k1", equalTo("v1")), 1);
+
+        cache.startCaching();
+        cache.handleDeletedRelationship(mockRelationship, mockStartNodeWrapper, null);
+        cache.endCaching();
+
+        verify(cachingNodes.get(123L)).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
+        assertEquals(2, cachingNodes.size());
+    }
+
+    @Test
+    public void changeNotAffectingDescriptionShouldNotTouchCachedDegrees() {
+        Node mockStartNode = mock(Node.class);
+        when(mockStartNode.getId()).thenReturn(123L);
+        when(mockStartNode.getGraphDatabase()).thenReturn(database);
+
+        Node mockEndNode = mock(Node.class);
+        when(mockEndNode.getId()).thenReturn(124L);
+        when(mockEndNode.getGraphDatabase()).thenReturn(database);
+
+        Relationship previous = mock(Relationship.class);
+        when(previous.getType()).thenReturn(withName("TEST"));
+        when(previous.getStartNode()).thenReturn(mockStartNode);
+        when(previous.getEndNode()).thenReturn(mockEndNode);
+        when(previous.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(previous.getProperty("k1")).thenReturn("v1");
+
+        Relationship current = mock(Relationship.class);
+        when(current.getType()).thenReturn(withName("TEST"));
+        when(current.getStartNode()).thenReturn(mockStartNode);
+        when(current.getEndNode()).thenReturn(mockEndNode);
+        when(current.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(current.getProperty("k1")).thenReturn("v1");
+
+        DegreeCachingNode untouched = mockDegreeCachingNode;
+
+        cache.startCaching();
+        cache.handleChangedRelationship(previous, current);
+        cache.endCaching();
+
+        assertSame(untouched, mockDegreeCachingNode);
+        verifyZeroInteractions(mockDegreeCachingNode);
+    }
+
+    @Test
+    public void deltasCountingTowardsSameCachedDescriptionShouldCancelOut() {
+        final DetachedRelationshipDescription generalization = literal("TEST", OUTGOING).with("k1", Predicates.any());
+
+        cache = new TestNodeBasedDegreeCache("TEST_ID", RelationshipCountConfigurationImpl.defaultConfiguration()) {
+            @Override
+            protected DegreeCachingNode newDegreeCachingNode(Node node, String prefix, RelationshipCountConfiguration configuration) {
+                DegreeCachingNode cachingNode = super.newDegreeCachingNode(node, prefix, configuration);
+                when(cachingNode.getGeneralization(isA(DetachedRelationshipDescription.class))).thenReturn(generalization);
+                return cachingNode;
+            }
+        };
+
+        Node mockNode = mock(Node.class);
+        when(mockNode.getId()).thenReturn(123L);
+        when(mockNode.getGraphDatabase()).thenReturn(database);
+
+        Node mockOtherNode = mock(Node.class);
+        when(mockOtherNode.getId()).thenReturn(124L);
+        when(mockOtherNode.getGraphDatabase()).thenReturn(database);
+
+        NodeWrapper mockNodeWrapper = mock(NodeWrapper.class);
+        when(mockNodeWrapper.getId()).thenReturn(123L);
+        when(mockNodeWrapper.getWrapped()).thenReturn(mockNode);
+
+        Relationship previous = mock(Relationship.class);
+        when(previous.getType()).thenReturn(withName("TEST"));
+        when(previous.getStartNode()).thenReturn(mockNode);
+        when(previous.getEndNode()).thenReturn(mockOtherNode);
+        when(previous.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(previous.getProperty("k1")).thenReturn("v1");
+
+        Relationship current = mock(Relationship.class);
+        when(current.getType()).thenReturn(withName("TEST"));
+        when(current.getStartNode()).thenReturn(mockNode);
+        when(current.getEndNode()).thenReturn(mockOtherNode);
+        when(current.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(current.getProperty("k1")).thenReturn("v2");
+
+        cache.startCaching();
+        cache.handleDeletedRelationship(previous, mockNodeWrapper, OUTGOING);
+        cache.handleCreatedRelationship(current, mockNodeWrapper, OUTGOING);
+        cache.endCaching();
+
+        verify(mockDegreeCachingNode, never()).incrementDegree(isA(DetachedRelationshipDescription.class), anyInt());
+        verify(mockDegreeCachingNode, never()).decrementDegree(isA(DetachedRelationshipDescription.class), anyInt());
+    }
+
+    @Test
+    public void decrementsShouldBeAppliedBeforeIncrements() {
+        Node mockNode = mock(Node.class);
+        when(mockNode.getId()).thenReturn(123L);
+        when(mockNode.getGraphDatabase()).thenReturn(database);
+
+        Node mockOtherNode = mock(Node.class);
+        when(mockOtherNode.getId()).thenReturn(124L);
+        when(mockOtherNode.getGraphDatabase()).thenReturn(database);
+
+        NodeWrapper mockNodeWrapper = mock(NodeWrapper.class);
+        when(mockNodeWrapper.getId()).thenReturn(123L);
+        when(mockNodeWrapper.getWrapped()).thenReturn(mockNode);
+
+        Relationship created = mock(Relationship.class);
+        when(created.getType()).thenReturn(withName("TEST"));
+        when(created.getStartNode()).thenReturn(mockNode);
+        when(created.getEndNode()).thenReturn(mockOtherNode);
+        when(created.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(created.getProperty("k1")).thenReturn("v2");
+
+        Relationship deleted = mock(Relationship.class);
+        when(deleted.getType()).thenReturn(withName("TEST"));
+        when(deleted.getStartNode()).thenReturn(mockNode);
+        when(deleted.getEndNode()).thenReturn(mockOtherNode);
+        when(deleted.getPropertyKeys()).thenReturn(Collections.singleton("k1"));
+        when(deleted.getProperty("k1")).thenReturn("v1");
+
+        cache.startCaching();
+        cache.handleCreatedRelationship(created, mockNodeWrapper, OUTGOING);
+        cache.handleDeletedRelationship(deleted, mockNodeWrapper, OUTGOING);
+        cache.endCaching();
+
+        InOrder inOrder = inOrder(mockDegreeCachingNode);
+        inOrder.verify(mockDegreeCachingNode).decrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
+        inOrder.verify(mockDegreeCachingNode).incrementDegree(literal("TEST", OUTGOING).with("k1", equalTo("v2")), 1);
+        inOrder.verify(mockDegreeCachingNode).flush();
+    }
+
     private class TestNodeBasedDegreeCache extends NodeBasedDegreeCache {
 
         private final boolean doNotCheckConfiguration;
 
-        private TestNodeBasedDegreeCache(String id, RelationshipCountConfiguration relationshipCountConfiguration) {
+        TestNodeBasedDegreeCache(String id, RelationshipCountConfiguration relationshipCountConfiguration) {
             this(id, relationshipCountConfiguration, false);
         }
 
@@ -1,5 +1,25 @@
 package com.graphaware.module.relcount.cache;
 
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.serialize.Serializer;
+import com.graphaware.tx.executor.single.VoidReturningCallback;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
 /**
  * Unit test for {@link com.graphaware.module.relcount.cache.NodePropertiesDegreeCachingStrategy}.
  */
@@ -8,4 +28,85 @@ public class NodePropertiesDegreeCachingStrategyTest extends DegreeCachingStrate
     protected DegreeCachingStrategy strategy() {
         return new NodePropertiesDegreeCachingStrategy();
     }
+
+    @Test
+    public void legacyDegreesShouldBeReadAndMigratedOnNextWrite() {
+        final DetachedRelationshipDescription description1 = literal("TEST", OUTGOING).with("k1", equalTo("v1"));
+        final DetachedRelationshipDescription description2 = literal("TEST", INCOMING).with("k2", any());
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                database.getNodeById(0).setProperty(Serializer.toString(description1, "TEST"), 1);
+                database.getNodeById(0).setProperty(Serializer.toString(description2, "TEST"), 3);
+            }
+        });
+
+        final Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(description1, 1);
+        expected.put(description2, 3);
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(expected, strategy().readDegrees(database.getNodeById(0), "TEST"));
+        }
+
+        expected.put(description1, 2);
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                strategy().writeDegrees(database.getNodeById(0), "TEST", expected, Collections.singleton(description1), new HashSet<DetachedRelationshipDescription>());
+            }
+        });
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(expected, strategy().readDegrees(database.getNodeById(0), "TEST"));
+
+            int noKeys = 0;
+            for (String key : database.getNodeById(0).getPropertyKeys()) {
+                assertTrue(key.startsWith("TEST!"));
+                noKeys++;
+            }
+            assertEquals(2, noKeys);
+        }
+    }
+
+    @Test
+    public void keyWrittenInlineShouldBeReplacedOnceTokensAreAllocated() throws InterruptedException {
+        final DetachedRelationshipDescription description = literal("TEST", OUTGOING).with("k1", equalTo("v1"));
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                database.getNodeById(0).setProperty("TEST!" + BinaryDegreeCodec.encodeDescriptionInline(description), 1);
+            }
+        });
+
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dictionary.idOf("TEST") < 0 || dictionary.idOf("k1") < 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        final Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(description, 2);
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                strategy().writeDegrees(database.getNodeById(0), "TEST", expected, Collections.singleton(description), new HashSet<DetachedRelationshipDescription>());
+            }
+        });
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(expected, strategy().readDegrees(database.getNodeById(0), "TEST"));
+
+            int noKeys = 0;
+            for (String key : database.getNodeById(0).getPropertyKeys()) {
+                noKeys++;
+            }
+            assertEquals(1, noKeys);
+        }
+    }
 }
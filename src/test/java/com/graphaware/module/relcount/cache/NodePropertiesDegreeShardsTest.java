@@ -0,0 +1,12 @@
+package com.graphaware.module.relcount.cache;
+
+/**
+ * Integration test for {@link DegreeShards} with {@link NodePropertiesDegreeCachingStrategy}.
+ */
+public class NodePropertiesDegreeShardsTest extends DegreeShardsTest {
+
+    @Override
+    protected DegreeCachingStrategy degreeCachingStrategy() {
+        return new NodePropertiesDegreeCachingStrategy();
+    }
+}
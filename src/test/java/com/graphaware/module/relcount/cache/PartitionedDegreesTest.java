@@ -0,0 +1,48 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Unit test for {@link PartitionedDegrees}.
+ */
+public class PartitionedDegreesTest {
+
+    @Test
+    public void degreesShouldBePartitionedByTypeAndDirection() {
+        DetachedRelationshipDescription friendOut1 = literal("FRIEND_OF", OUTGOING).with("k", equalTo(1));
+        DetachedRelationshipDescription friendOut2 = literal("FRIEND_OF", OUTGOING).with("k", equalTo(2));
+        DetachedRelationshipDescription friendIn = literal("FRIEND_OF", INCOMING).with("k", equalTo(1));
+        DetachedRelationshipDescription likesOut = literal("LIKES", OUTGOING);
+
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        degrees.put(friendOut1, 1);
+        degrees.put(friendOut2, 2);
+        degrees.put(friendIn, 3);
+        degrees.put(likesOut, 4);
+
+        PartitionedDegrees partitioned = PartitionedDegrees.of(degrees);
+
+        Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(friendOut1, 1);
+        expected.put(friendOut2, 2);
+
+        assertEquals(expected, partitioned.get("FRIEND_OF", OUTGOING));
+        assertEquals(Collections.singletonMap(friendIn, 3), partitioned.get("FRIEND_OF", INCOMING));
+        assertEquals(Collections.singletonMap(likesOut, 4), partitioned.get("LIKES", OUTGOING));
+        assertTrue(partitioned.get("LIKES", INCOMING).isEmpty());
+        assertTrue(partitioned.get("UNKNOWN", OUTGOING).isEmpty());
+        assertEquals(degrees, partitioned.asMap());
+    }
+}
@@ -0,0 +1,151 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.compact.PropertyChangeStats;
+import com.graphaware.module.relcount.metrics.RelcountMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Test for {@link PropertyChangeStatsCache}.
+ */
+public class PropertyChangeStatsCacheTest {
+
+    private static final String PREFIX = "TEST";
+
+    private GraphDatabaseService database;
+    private PropertyChangeStatsCache cache;
+    private final RelationshipCountConfiguration configuration = defaultConfiguration();
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        cache = PropertyChangeStatsCache.of(database, PREFIX);
+
+        try (Transaction tx = database.beginTx()) {
+            database.createNode();
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void statsShouldBeKeptAcrossTransactions() {
+        PropertyChangeStats stats = increment("v1", true);
+        assertEquals(1, cache.size());
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            assertSame(stats, node.getPropertyChangeStats());
+            assertEquals(0, cache.size());
+
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v2")), 1);
+            node.flush();
+            tx.success();
+        }
+
+        assertEquals(1, cache.size());
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            assertSame(stats, node.getPropertyChangeStats());
+        }
+    }
+
+    @Test
+    public void statsOfRolledBackTransactionShouldNotBeKept() {
+        PropertyChangeStats stats = increment("v1", true);
+
+        increment("v2", false);
+        assertEquals(0, cache.size());
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            assertNotSame(stats, node.getPropertyChangeStats());
+        }
+    }
+
+    @Test
+    public void statsReleasedUnderOlderLeaseShouldBeDiscarded() throws Exception {
+        final CountDownLatch leased = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<PropertyChangeStats> older = executor.submit(new Callable<PropertyChangeStats>() {
+            @Override
+            public PropertyChangeStats call() throws Exception {
+                PropertyChangeStatsCache.transactionStarted();
+                try (Transaction tx = database.beginTx()) {
+                    DegreeCachingNode node = cachingNode();
+                    leased.countDown();
+                    assertTrue(proceed.await(10, TimeUnit.SECONDS));
+
+                    PropertyChangeStats stats = node.getPropertyChangeStats();
+                    node.flush();
+                    tx.success();
+                    return stats;
+                }
+            }
+        });
+
+        assertTrue(leased.await(10, TimeUnit.SECONDS));
+        PropertyChangeStats newer = increment("v1", true);
+        proceed.countDown();
+        assertNotSame(newer, older.get(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        try (Transaction tx = database.beginTx()) {
+            assertSame(newer, cachingNode().getPropertyChangeStats());
+        }
+    }
+
+    @Test
+    public void clearedStatsShouldBeForgotten() {
+        increment("v1", true);
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+    }
+
+    private PropertyChangeStats increment(String value, boolean commit) {
+        PropertyChangeStatsCache.transactionStarted();
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = cachingNode();
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo(value)), 1);
+            PropertyChangeStats stats = node.getPropertyChangeStats();
+            node.flush();
+
+            if (commit) {
+                tx.success();
+            } else {
+                tx.failure();
+            }
+            return stats;
+        }
+    }
+
+    private DegreeCachingNode cachingNode() {
+        return new DegreeCachingNode(database.getNodeById(0), PREFIX, configuration, RelcountMetrics.DISABLED, cache);
+    }
+}
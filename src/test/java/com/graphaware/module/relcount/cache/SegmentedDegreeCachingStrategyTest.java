@@ -0,0 +1,117 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.tx.executor.single.VoidReturningCallback;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+import static org.neo4j.graphdb.Direction.*;
+
+/**
+ * Unit test for {@link com.graphaware.module.relcount.cache.SegmentedDegreeCachingStrategy}.
+ */
+public class SegmentedDegreeCachingStrategyTest extends DegreeCachingStrategyTest {
+
+    protected SegmentedDegreeCachingStrategy strategy() {
+        return new SegmentedDegreeCachingStrategy();
+    }
+
+    @Test
+    public void onlyChangedSegmentsShouldBeWritten() {
+        Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        DetachedRelationshipDescription updated = literal("FRIEND_OF", OUTGOING).with("k1", equalTo("v1"));
+        cachedDegrees.put(updated, 1);
+        cachedDegrees.put(literal("FRIEND_OF", OUTGOING).with("k1", equalTo("v2")), 2);
+        cachedDegrees.put(literal("FRIEND_OF", INCOMING).with("k1", equalTo("v1")), 3);
+        cachedDegrees.put(literal("LIKES", OUTGOING).with("k2", any()), 4);
+
+        Node node = mock(Node.class);
+        when(node.getGraphDatabase()).thenReturn(database);
+
+        strategy().writeDegrees(node, "TEST", cachedDegrees, Collections.singleton(updated), new HashSet<DetachedRelationshipDescription>());
+
+        verify(node).setProperty(eq("TEST~OFRIEND_OF"), isA(byte[].class));
+        verify(node, never()).setProperty(eq("TEST~IFRIEND_OF"), anyObject());
+        verify(node, never()).setProperty(eq("TEST~OLIKES"), anyObject());
+    }
+
+    @Test
+    public void segmentShouldBeRemovedWhenItsLastDegreeIsRemoved() {
+        final DetachedRelationshipDescription removed = literal("LIKES", OUTGOING).with("k2", any());
+        final Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        cachedDegrees.put(literal("FRIEND_OF", OUTGOING).with("k1", equalTo("v1")), 1);
+        cachedDegrees.put(removed, 4);
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                strategy().writeDegrees(database.getNodeById(0), "TEST", cachedDegrees, cachedDegrees.keySet(), new HashSet<DetachedRelationshipDescription>());
+            }
+        });
+
+        cachedDegrees.remove(removed);
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                strategy().writeDegrees(database.getNodeById(0), "TEST", cachedDegrees, new HashSet<DetachedRelationshipDescription>(), Collections.singleton(removed));
+            }
+        });
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(cachedDegrees, strategy().readDegrees(database.getNodeById(0), "TEST"));
+            assertEquals(Collections.singleton("TEST~OFRIEND_OF"), toSet(database.getNodeById(0).getPropertyKeys()));
+        }
+    }
+
+    @Test
+    public void onlyRequestedSegmentsShouldBeRead() {
+        final Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        final DetachedRelationshipDescription outgoing = literal("FRIEND_OF", OUTGOING).with("k1", equalTo("v1"));
+        final DetachedRelationshipDescription incoming = literal("FRIEND_OF", INCOMING).with("k1", equalTo("v1"));
+        cachedDegrees.put(outgoing, 1);
+        cachedDegrees.put(incoming, 3);
+        cachedDegrees.put(literal("LIKES", OUTGOING).with("k2", any()), 4);
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                strategy().writeDegrees(database.getNodeById(0), "TEST", cachedDegrees, cachedDegrees.keySet(), new HashSet<DetachedRelationshipDescription>());
+            }
+        });
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.getNodeById(0);
+
+            assertEquals(Collections.singletonMap(outgoing, 1), strategy().readDegrees(node, "TEST", "FRIEND_OF", OUTGOING));
+            assertEquals(Collections.singletonMap(incoming, 3), strategy().readDegrees(node, "TEST", "FRIEND_OF", INCOMING));
+
+            Map<DetachedRelationshipDescription, Integer> both = new HashMap<>();
+            both.put(outgoing, 1);
+            both.put(incoming, 3);
+            assertEquals(both, strategy().readDegrees(node, "TEST", "FRIEND_OF", BOTH));
+
+            assertEquals(Collections.<DetachedRelationshipDescription, Integer>emptyMap(), strategy().readDegrees(node, "TEST", "LIKES", INCOMING));
+        }
+    }
+
+    private static HashSet<String> toSet(Iterable<String> iterable) {
+        HashSet<String> result = new HashSet<>();
+        for (String s : iterable) {
+            result.add(s);
+        }
+        return result;
+    }
+}
@@ -1,5 +1,23 @@
 package com.graphaware.module.relcount.cache;
 
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.common.serialize.Serializer;
+import com.graphaware.tx.executor.single.VoidReturningCallback;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
 /**
  * Unit test for {@link com.graphaware.module.relcount.cache.SingleNodePropertyDegreeCachingStrategy}.
  */
@@ -8,4 +26,49 @@ public class SingleNodePropertyDegreeCachingStrategyTest extends DegreeCachingSt
     protected DegreeCachingStrategy strategy() {
         return new SingleNodePropertyDegreeCachingStrategy();
     }
+
+    @Test
+    public void legacyDegreesShouldBeReadAndMigratedOnNextWrite() {
+        final Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        cachedDegrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
+        cachedDegrees.put(literal("TEST", INCOMING).with("k2", any()), 3);
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                database.getNodeById(0).setProperty("TEST", Serializer.toByteArray(cachedDegrees));
+            }
+        });
+
+        try (Transaction tx = database.beginTx()) {
+            assertFalse(BinaryDegreeCodec.isBinary((byte[]) database.getNodeById(0).getProperty("TEST")));
+            assertEquals(cachedDegrees, strategy().readDegrees(database.getNodeById(0), "TEST"));
+        }
+
+        txExecutor.executeInTransaction(new VoidReturningCallback() {
+            @Override
+            protected void doInTx(GraphDatabaseService database) {
+                Map<DetachedRelationshipDescription, Integer> read = strategy().readDegrees(database.getNodeById(0), "TEST");
+                strategy().writeDegrees(database.getNodeById(0), "TEST", read, new HashSet<DetachedRelationshipDescription>(), new HashSet<DetachedRelationshipDescription>());
+            }
+        });
+
+        try (Transaction tx = database.beginTx()) {
+            assertTrue(BinaryDegreeCodec.isBinary((byte[]) database.getNodeById(0).getProperty("TEST")));
+            assertEquals(cachedDegrees, strategy().readDegrees(database.getNodeById(0), "TEST"));
+        }
+    }
+
+    @Test
+    public void writtenBytesShouldBeReported() {
+        final Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        cachedDegrees.put(literal("TEST", OUTGOING).with("k1", equalTo("v1")), 1);
+        cachedDegrees.put(literal("TEST", INCOMING).with("k2", any()), 3);
+
+        try (Transaction tx = database.beginTx()) {
+            long written = strategy().writeDegrees(database.getNodeById(0), "TEST", cachedDegrees, cachedDegrees.keySet(), new HashSet<DetachedRelationshipDescription>());
+            assertEquals(((byte[]) database.getNodeById(0).getProperty("TEST")).length, written);
+            tx.success();
+        }
+    }
 }
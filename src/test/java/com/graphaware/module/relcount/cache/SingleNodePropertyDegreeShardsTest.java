@@ -0,0 +1,12 @@
+package com.graphaware.module.relcount.cache;
+
+/**
+ * Integration test for {@link DegreeShards} with {@link SingleNodePropertyDegreeCachingStrategy}.
+ */
+public class SingleNodePropertyDegreeShardsTest extends DegreeShardsTest {
+
+    @Override
+    protected DegreeCachingStrategy degreeCachingStrategy() {
+        return new SingleNodePropertyDegreeCachingStrategy();
+    }
+}
@@ -0,0 +1,213 @@
+package com.graphaware.module.relcount.cache;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Test for {@link TokenDictionary}.
+ */
+public class TokenDictionaryTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void sameDictionaryShouldBeReturnedForSameDatabaseAndPrefix() {
+        assertSame(TokenDictionary.of(database, "TEST"), TokenDictionary.of(database, "TEST"));
+        assertNotSame(TokenDictionary.of(database, "TEST"), TokenDictionary.of(database, "TEST2"));
+    }
+
+    @Test
+    public void tokensShouldBeAllocatedOnceAndPersisted() throws InterruptedException {
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+
+        int id1 = allocated(dictionary, "FRIEND_OF");
+        int id2 = allocated(dictionary, "strength");
+
+        assertNotEquals(id1, id2);
+        assertEquals(id1, dictionary.idOf("FRIEND_OF"));
+        assertEquals(id2, dictionary.idOf("strength"));
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals("FRIEND_OF", dictionary.tokenOf(id1));
+            assertEquals("strength", dictionary.tokenOf(id2));
+            assertEquals(Arrays.asList("FRIEND_OF", "strength"), Arrays.asList((String[]) GraphWideProperties.of(database).getProperty("TESTTOKENS0")));
+        }
+    }
+
+    @Test
+    public void tokensShouldBeAllocatedEvenIfRequestingTransactionRollsBack() throws InterruptedException {
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+
+        try (Transaction tx = database.beginTx()) {
+            database.createNode();
+            dictionary.idOf("FRIEND_OF");
+            tx.failure();
+        }
+
+        int id = allocated(dictionary, "FRIEND_OF");
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals("FRIEND_OF", dictionary.tokenOf(id));
+            assertEquals(Arrays.asList("FRIEND_OF"), Arrays.asList((String[]) GraphWideProperties.of(database).getProperty("TESTTOKENS0")));
+        }
+    }
+
+    @Test
+    public void valuesShouldOnlyBeAllocatedOnceHot() throws InterruptedException {
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+
+        for (int i = 0; i < 15; i++) {
+            assertEquals(-1, dictionary.hotValueIdOf("hot", i));
+        }
+        assertNull(dictionary.existingIdOf("hot"));
+
+        dictionary.hotValueIdOf("hot", 15);
+        int id = allocated(dictionary, "hot");
+        assertEquals(id, dictionary.hotValueIdOf("hot", 0));
+        assertEquals(-1, dictionary.hotValueIdOf("cold", 0));
+    }
+
+    @Test
+    public void valuesRepeatedlyEncodedForSameNodeShouldNotBecomeHot() {
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(-1, dictionary.hotValueIdOf("hot", 1));
+        }
+    }
+
+    @Test
+    public void tokensShouldBePersistedInPages() throws InterruptedException {
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+
+        int noTokens = TokenDictionary.PAGE_SIZE + 10;
+        for (int i = 0; i < noTokens; i++) {
+            assertEquals(i, allocated(dictionary, "token" + i));
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(TokenDictionary.PAGE_SIZE, ((String[]) GraphWideProperties.of(database).getProperty("TESTTOKENS0")).length);
+            assertEquals(10, ((String[]) GraphWideProperties.of(database).getProperty("TESTTOKENS1")).length);
+            assertEquals("token" + (noTokens - 1), dictionary.tokenOf(noTokens - 1));
+        }
+    }
+
+    @Test
+    public void degreesEncodedWithDictionaryShouldBeDecodedAndSmaller() throws InterruptedException {
+        allocated(TokenDictionary.of(database, "TEST"), "FRIEND_OF");
+        allocated(TokenDictionary.of(database, "TEST"), "strength");
+        allocated(TokenDictionary.of(database, "TEST"), "since");
+
+        Map<DetachedRelationshipDescription, Integer> degrees = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            degrees.put(literal("FRIEND_OF", i % 2 == 0 ? OUTGOING : INCOMING).with("strength", equalTo(i)).with("since", any()), i + 1);
+        }
+
+        BinaryDegreeCodec codec = new BinaryDegreeCodec(TokenDictionary.of(database, "TEST"));
+
+        byte[] encoded = codec.encode(degrees);
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(degrees, codec.decode(encoded));
+            assertEquals(degrees, codec.decode(new BinaryDegreeCodec().encode(degrees)));
+        }
+
+        assertTrue(encoded.length < new BinaryDegreeCodec().encode(degrees).length);
+    }
+
+    @Test
+    public void equalDescriptionsShouldBeEncodedToEqualStrings() throws InterruptedException {
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+        BinaryDegreeCodec codec = new BinaryDegreeCodec(dictionary);
+
+        DetachedRelationshipDescription description1 = literal("FRIEND_OF", OUTGOING).with("a", equalTo("x")).with("b", equalTo(1)).with("c", any());
+        DetachedRelationshipDescription description2 = literal("FRIEND_OF", OUTGOING).with("c", any()).with("b", equalTo(1)).with("a", equalTo("x"));
+
+        //until the type and keys are allocated IDs, descriptions are encoded inline
+        for (String token : Arrays.asList("FRIEND_OF", "a", "b", "c")) {
+            allocated(dictionary, token);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(codec.encodeDescription(description1), codec.encodeDescription(description2));
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(description1, codec.decodeDescription(codec.encodeDescription(description1)));
+        }
+    }
+
+    @Test
+    public void allocationShouldNotBeWaitedFor() throws InterruptedException {
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+
+        try (Transaction tx = database.beginTx()) {
+            //holds the lock of graph properties, which the allocation needs
+            GraphWideProperties.of(database).setProperty("TESTLOCK", true);
+
+            long start = System.currentTimeMillis();
+            assertEquals(-1, dictionary.idOf("FRIEND_OF"));
+            assertTrue(System.currentTimeMillis() - start < 1000);
+
+            tx.success();
+        }
+
+        assertTrue(allocated(dictionary, "FRIEND_OF") >= 0);
+    }
+
+    @Test
+    public void descriptionsShouldBeEncodedInlineUntilAllocated() throws InterruptedException {
+        TokenDictionary dictionary = TokenDictionary.of(database, "TEST");
+        BinaryDegreeCodec codec = new BinaryDegreeCodec(dictionary);
+        DetachedRelationshipDescription description = literal("FRIEND_OF", OUTGOING).with("a", equalTo("x"));
+
+        String inline = BinaryDegreeCodec.encodeDescriptionInline(description);
+
+        allocated(dictionary, "FRIEND_OF");
+        allocated(dictionary, "a");
+
+        try (Transaction tx = database.beginTx()) {
+            assertNotEquals(inline, codec.encodeDescription(description));
+            assertEquals(description, codec.decodeDescription(inline));
+            assertEquals(description, codec.decodeDescription(codec.encodeDescription(description)));
+        }
+    }
+
+    private int allocated(TokenDictionary dictionary, String token) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        int id;
+        while ((id = dictionary.idOf(token)) < 0) {
+            assertTrue("Token " + token + " hasn't been allocated in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        return id;
+    }
+}
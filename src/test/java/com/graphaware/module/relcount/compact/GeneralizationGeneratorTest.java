@@ -86,4 +86,52 @@ public class GeneralizationGeneratorTest {
 
         assertNull(generalizer.generate());
     }
+
+    @Test
+    public void shouldGiveUpWhenBudgetIsExhausted() {
+        Set<DetachedRelationshipDescription> toGeneralize = new HashSet<>();
+        toGeneralize.add(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v1")));
+        toGeneralize.add(literal("T1", OUTGOING).with("k1", equalTo("v2")).with("k2", equalTo("v2")));
+        toGeneralize.add(literal("T1", OUTGOING).with("k1", equalTo("v3")).with("k2", equalTo("v3")));
+
+        List<PropertyChangeFrequency> propertyChangeFrequencies = new LinkedList<>();
+        propertyChangeFrequencies.add(new PropertyChangeFrequency("T1", "k1", 0.9));
+        propertyChangeFrequencies.add(new PropertyChangeFrequency("T1", "k2", 0.8));
+
+        assertEquals(literal("T1", OUTGOING).with("k1", any()).with("k2", any()), new GeneralizationGenerator(toGeneralize, propertyChangeFrequencies).generate());
+        assertNull(new GeneralizationGenerator(toGeneralize, propertyChangeFrequencies, 3).generate());
+    }
+
+    @Test
+    public void alreadyGeneralizedPropertiesShouldBeSkipped() {
+        Set<DetachedRelationshipDescription> toGeneralize = new HashSet<>();
+        toGeneralize.add(literal("T1", OUTGOING).with("k1", any()).with("k2", equalTo("v1")));
+        toGeneralize.add(literal("T1", OUTGOING).with("k1", any()).with("k2", equalTo("v2")));
+
+        List<PropertyChangeFrequency> propertyChangeFrequencies = new LinkedList<>();
+        propertyChangeFrequencies.add(new PropertyChangeFrequency("T1", "k1", 0.9));
+        propertyChangeFrequencies.add(new PropertyChangeFrequency("T1", "k2", 0.8));
+
+        assertEquals(literal("T1", OUTGOING).with("k1", any()).with("k2", any()), new GeneralizationGenerator(toGeneralize, propertyChangeFrequencies, 4).generate());
+    }
+
+    @Test
+    public void propertySetsShouldBeGeneratedLazilyWithinBudget() {
+        DetachedRelationshipDescription description1 = literal("T1", OUTGOING);
+        DetachedRelationshipDescription description2 = literal("T1", OUTGOING);
+
+        List<PropertyChangeFrequency> propertyChangeFrequencies = new LinkedList<>();
+        for (int i = 0; i < 40; i++) {
+            description1 = description1.with("k" + i, equalTo("v1"));
+            description2 = description2.with("k" + i, equalTo("v2"));
+            propertyChangeFrequencies.add(new PropertyChangeFrequency("T1", "k" + i, 0.9 - i * 0.01));
+        }
+
+        Set<DetachedRelationshipDescription> toGeneralize = new HashSet<>();
+        toGeneralize.add(description1);
+        toGeneralize.add(description2);
+
+        //generalizing all 40 properties would take 2^40 attempts, the search must give up without creating them
+        assertNull(new GeneralizationGenerator(toGeneralize, propertyChangeFrequencies, 100000).generate());
+    }
 }
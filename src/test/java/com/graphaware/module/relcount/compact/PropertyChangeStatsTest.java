@@ -0,0 +1,106 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Unit test for {@link PropertyChangeStats}.
+ */
+public class PropertyChangeStatsTest {
+
+    @Test
+    public void incrementallyUpdatedStatsShouldProduceSameFrequenciesAsRecomputedOnes() {
+        Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        PropertyChangeStats stats = PropertyChangeStats.of(cachedDegrees);
+
+        DetachedRelationshipDescription d1 = literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v1"));
+        DetachedRelationshipDescription d2 = literal("T1", OUTGOING).with("k1", equalTo("v2"));
+        DetachedRelationshipDescription d3 = literal("T1", INCOMING).with("k1", any()).with("k2", equalTo("v2"));
+        DetachedRelationshipDescription d4 = literal("T2", OUTGOING).with("k3", equalTo(3));
+
+        add(cachedDegrees, stats, d1, 2);
+        add(cachedDegrees, stats, d2, 1);
+        add(cachedDegrees, stats, d3, 5);
+        add(cachedDegrees, stats, d4, 1);
+        assertSameFrequencies(PropertyChangeStats.of(cachedDegrees), stats);
+
+        cachedDegrees.put(d3, 7);
+        stats.changed(d3, 2);
+        assertSameFrequencies(PropertyChangeStats.of(cachedDegrees), stats);
+
+        cachedDegrees.remove(d1);
+        stats.removed(d1, 2);
+        assertSameFrequencies(PropertyChangeStats.of(cachedDegrees), stats);
+
+        cachedDegrees.remove(d4);
+        stats.removed(d4, 1);
+        assertSameFrequencies(PropertyChangeStats.of(cachedDegrees), stats);
+    }
+
+    @Test
+    public void weightedStatsShouldReorderAndLeaveOutProperties() {
+        Map<DetachedRelationshipDescription, Integer> cachedDegrees = new HashMap<>();
+        cachedDegrees.put(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", equalTo("v1")), 2);
+        cachedDegrees.put(literal("T1", OUTGOING).with("k1", equalTo("v2")), 1);
+        cachedDegrees.put(literal("T1", INCOMING).with("k1", any()).with("k2", equalTo("v2")), 5);
+        cachedDegrees.put(literal("T2", OUTGOING).with("k3", equalTo(3)), 1);
+        PropertyChangeStats stats = PropertyChangeStats.of(cachedDegrees);
+
+        assertProperties(stats.produceFrequencies(), "T1.k1", "T2.k3", "T1.k2");
+
+        PropertyChangeStats weighted = stats.weighted(new PropertyWeights() {
+            @Override
+            public double weightOf(String type, String property) {
+                switch (property) {
+                    case "k1":
+                        return 0;
+                    case "k2":
+                        return 3;
+                    default:
+                        return 1;
+                }
+            }
+        });
+
+        assertProperties(weighted.produceFrequencies(), "T1.k2", "T2.k3");
+
+        stats.added(literal("T3", OUTGOING).with("k4", equalTo(4)), 1);
+        assertProperties(weighted.produceFrequencies(), "T1.k2", "T2.k3", "T3.k4");
+    }
+
+    private void assertProperties(List<PropertyChangeFrequency> frequencies, String... expected) {
+        List<String> actual = new ArrayList<>();
+        for (PropertyChangeFrequency frequency : frequencies) {
+            actual.add(frequency.getType() + "." + frequency.getProperty());
+        }
+        assertEquals(Arrays.asList(expected), actual);
+    }
+
+    private void add(Map<DetachedRelationshipDescription, Integer> cachedDegrees, PropertyChangeStats stats, DetachedRelationshipDescription description, int degree) {
+        cachedDegrees.put(description, degree);
+        stats.added(description, degree);
+    }
+
+    private void assertSameFrequencies(PropertyChangeStats expected, PropertyChangeStats actual) {
+        List<PropertyChangeFrequency> expectedFrequencies = expected.produceFrequencies();
+        List<PropertyChangeFrequency> actualFrequencies = actual.produceFrequencies();
+
+        assertEquals(expectedFrequencies.size(), actualFrequencies.size());
+        for (int i = 0; i < expectedFrequencies.size(); i++) {
+            assertEquals(0, expectedFrequencies.get(i).compareTo(actualFrequencies.get(i)));
+        }
+    }
+}
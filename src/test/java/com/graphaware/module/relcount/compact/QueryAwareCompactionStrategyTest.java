@@ -0,0 +1,91 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.common.description.relationship.DetachedRelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import com.graphaware.module.relcount.count.QueryStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Test for {@link QueryAwareCompactionStrategy}.
+ */
+public class QueryAwareCompactionStrategyTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try (Transaction tx = database.beginTx()) {
+            database.createNode(); //ID = 0
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void mostFrequentlyChangingPropertyShouldBeCompactedWhenNotQueried() {
+        Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(literal("test", OUTGOING).with("k1", any()).with("k2", equalTo("x")), 3);
+        expected.put(literal("test", OUTGOING).with("k1", equalTo("a")).with("k2", equalTo("y")), 1);
+
+        assertEquals(expected, compact());
+    }
+
+    @Test
+    public void queriedPropertyShouldBeKeptWhenThresholdAllows() {
+        QueryStatistics.of(database, "TEST").queried(literal("test", OUTGOING).with("k1", equalTo("a")), 1);
+
+        Map<DetachedRelationshipDescription, Integer> expected = new HashMap<>();
+        expected.put(literal("test", OUTGOING).with("k1", equalTo("a")).with("k2", any()), 2);
+        expected.put(literal("test", OUTGOING).with("k1", equalTo("b")).with("k2", equalTo("x")), 1);
+        expected.put(literal("test", OUTGOING).with("k1", equalTo("c")).with("k2", equalTo("x")), 1);
+
+        assertEquals(expected, compact());
+    }
+
+    @Test
+    public void generalizationBudgetShouldBeHonoured() {
+        QueryStatistics.of(database, "TEST").queried(literal("test", OUTGOING).with("k1", equalTo("a")), 1);
+
+        assertEquals(4, compact(new QueryAwareCompactionStrategy(3, 0)).size());
+    }
+
+    private Map<DetachedRelationshipDescription, Integer> compact() {
+        return compact(new QueryAwareCompactionStrategy(3));
+    }
+
+    private Map<DetachedRelationshipDescription, Integer> compact(QueryAwareCompactionStrategy strategy) {
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = new DegreeCachingNode(database.getNodeById(0), "TEST",
+                    RelationshipCountConfigurationImpl.defaultConfiguration().with(strategy));
+
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("a")).with("k2", equalTo("x")), 1);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("a")).with("k2", equalTo("y")), 1);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("b")).with("k2", equalTo("x")), 1);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("c")).with("k2", equalTo("x")), 1);
+
+            tx.success();
+            return new HashMap<>(node.getCachedDegrees());
+        }
+    }
+}
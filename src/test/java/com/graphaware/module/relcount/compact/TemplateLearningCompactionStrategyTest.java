@@ -0,0 +1,162 @@
+package com.graphaware.module.relcount.compact;
+
+import com.graphaware.module.relcount.RelationshipCountConfiguration;
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.cache.DegreeCachingNode;
+import com.graphaware.module.relcount.cache.GraphWideProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Test for {@link TemplateLearningCompactionStrategy} and {@link GeneralizationTemplates}.
+ */
+public class TemplateLearningCompactionStrategyTest {
+
+    private GraphDatabaseService database;
+    private RelationshipCountConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < 4; i++) {
+                database.createNode();
+            }
+            tx.success();
+        }
+
+        configuration = RelationshipCountConfigurationImpl.defaultConfiguration().with(new TemplateLearningCompactionStrategy(2, 2));
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void propertyCompactedAwayOnEnoughNodesShouldBeGeneralizedOnTheWayIn() {
+        compactOn(0);
+        assertTrue(GeneralizationTemplates.of(database, "TEST").getTemplates().isEmpty());
+
+        compactOn(1);
+        assertEquals(Collections.singletonMap("test", Collections.singleton("k1")), GeneralizationTemplates.of(database, "TEST").getTemplates());
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = new DegreeCachingNode(database.getNodeById(2), "TEST", configuration);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v9")).with("k2", equalTo("x")), 1);
+            node.flush();
+
+            assertEquals(Collections.singletonMap(literal("test", OUTGOING).with("k1", any()).with("k2", equalTo("x")), 1), node.getCachedDegrees());
+            tx.success();
+        }
+
+        assertEquals(Arrays.asList("test\u001Fk1"), Arrays.asList(persistedTemplates()));
+    }
+
+    @Test
+    public void existingSpecificDegreesShouldBeMergedWhenTemplateIsApplied() {
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = new DegreeCachingNode(database.getNodeById(3), "TEST", configuration);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v1")), 2);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v2")), 3);
+            node.flush();
+            tx.success();
+        }
+
+        compactOn(0);
+        compactOn(1);
+
+        try (Transaction tx = database.beginTx()) {
+            DegreeCachingNode node = new DegreeCachingNode(database.getNodeById(3), "TEST", configuration);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v3")), 1);
+            node.decrementDegree(literal("test", OUTGOING).with("k1", equalTo("v1")), 1);
+            node.flush();
+
+            assertEquals(Collections.singletonMap(literal("test", OUTGOING).with("k1", any()), 5), node.getCachedDegrees());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void rolledBackCompactionsShouldNotBeLearnedFrom() {
+        compactOn(0);
+        compactOn(1, false);
+
+        assertTrue(GeneralizationTemplates.of(database, "TEST").getTemplates().isEmpty());
+
+        compactOn(2);
+
+        assertEquals(Collections.singletonMap("test", Collections.singleton("k1")), GeneralizationTemplates.of(database, "TEST").getTemplates());
+    }
+
+    @Test
+    public void clearedTemplatesShouldBeForgotten() {
+        compactOn(0);
+        compactOn(1);
+
+        GeneralizationTemplates.clear(database, "TEST");
+
+        assertTrue(GeneralizationTemplates.of(database, "TEST").getTemplates().isEmpty());
+        try (Transaction tx = database.beginTx()) {
+            assertFalse(GraphWideProperties.of(database).hasProperty("TESTTEMPLATES"));
+        }
+
+        compactOn(2);
+        assertTrue(GeneralizationTemplates.of(database, "TEST").getTemplates().isEmpty());
+    }
+
+    private String[] persistedTemplates() {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try (Transaction tx = database.beginTx()) {
+                String[] templates = (String[]) GraphWideProperties.of(database).getProperty("TESTTEMPLATES", null);
+                if (templates != null || System.currentTimeMillis() > deadline) {
+                    return templates;
+                }
+            }
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void compactOn(long nodeId) {
+        compactOn(nodeId, true);
+    }
+
+    private void compactOn(long nodeId, boolean commit) {
+        try (Transaction tx = database.beginTx()) {
+            GeneralizationTemplates.transactionStarted();
+
+            DegreeCachingNode node = new DegreeCachingNode(database.getNodeById(nodeId), "TEST", configuration);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v1")), 1);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v2")), 1);
+            node.incrementDegree(literal("test", OUTGOING).with("k1", equalTo("v3")), 1);
+            node.flush();
+
+            assertEquals(Collections.singletonMap(literal("test", OUTGOING).with("k1", any()), 3), node.getCachedDegrees());
+            if (commit) {
+                tx.success();
+            } else {
+                tx.failure();
+            }
+        }
+    }
+}
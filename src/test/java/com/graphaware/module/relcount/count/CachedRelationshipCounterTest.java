@@ -23,6 +23,7 @@ import com.graphaware.module.relcount.RelationshipCountModule;
 import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
 import com.graphaware.runtime.GraphAwareRuntime;
 import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import com.graphaware.runtime.RuntimeRegistry;
 import com.graphaware.runtime.config.FluentRuntimeConfiguration;
 import com.graphaware.test.util.TestDataBuilder;
 import com.graphaware.tx.executor.single.SimpleTransactionExecutor;
@@ -38,6 +39,11 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static com.graphaware.common.description.predicate.Predicates.equalTo;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
 import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
@@ -46,8 +52,8 @@ import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.
 import static com.graphaware.runtime.config.RuntimeConfiguration.GA_PREFIX;
 import static java.lang.String.valueOf;
 import static java.lang.System.currentTimeMillis;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.BOTH;
 import static org.neo4j.graphdb.Direction.INCOMING;
 import static org.neo4j.graphdb.Direction.OUTGOING;
 import static org.neo4j.graphdb.DynamicRelationshipType.withName;
@@ -573,6 +579,130 @@ public class CachedRelationshipCounterTest {
         assertEquals(13, count(wildcard(withName("FRIEND_OF"), OUTGOING), 9));
     }
 
+    @Test
+    public void outOfSyncNodeShouldBeRepaired() {
+        createNodes();
+        createFirstRelationships();
+
+        txExecutor.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction(GraphDatabaseService database) {
+                String prefix = FluentRuntimeConfiguration.defaultConfiguration().createPrefix(RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID);
+                Node node = database.getNodeById(0);
+                for (String key : node.getPropertyKeys()) {
+                    if (key.startsWith(prefix)) {
+                        node.removeProperty(key);
+                    }
+                }
+                return null;
+            }
+        });
+
+        txExecutor.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction(GraphDatabaseService database) {
+                for (Relationship relationship : database.getNodeById(0).getRelationships(withName("test"), OUTGOING)) {
+                    if (relationship.getEndNode().getId() == 1) {
+                        relationship.delete();
+                        break;
+                    }
+                }
+                database.getNodeById(0).createRelationshipTo(database.getNodeById(6), withName("test")).setProperty("key1", "value2");
+                return null;
+            }
+        });
+
+        assertEquals(0, count(wildcard("test", OUTGOING).with("key1", equalTo("value1")), 0));
+        assertEquals(3, count(wildcard("test", OUTGOING).with("key1", equalTo("value2")), 0));
+        assertEquals(4, count(wildcard("test", OUTGOING), 0));
+        assertEquals(1, count(wildcard("test", INCOMING), 0));
+        assertEquals(1, count(wildcard("test", INCOMING), 6));
+
+        assertEquals(1, RuntimeRegistry.getStartedRuntime(database).getModule(RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID, RelationshipCountModule.class).getRepairCount());
+    }
+
+    @Test
+    public void batchCountsShouldEqualIndividualCounts() {
+        createNodes();
+        createFirstRelationships();
+
+        try (Transaction tx = database.beginTx()) {
+            List<Node> nodes = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                nodes.add(database.getNodeById(i));
+            }
+
+            NodeCounts counts = new CachedRelationshipCounter(database).count(nodes, wildcard("test", BOTH));
+            assertEquals(6, counts.size());
+            assertEquals(5, counts.get(0));
+            for (int i = 1; i < 6; i++) {
+                assertEquals(1, counts.get(i));
+            }
+
+            counts = new CachedRelationshipCounter(database).count(nodes, wildcard("test", OUTGOING).with("key1", equalTo("value2")));
+            assertEquals(2, counts.get(0));
+            for (int i = 1; i < 6; i++) {
+                assertEquals(0, counts.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void batchCountShouldFallBackForNodesWithCompactedDegrees() {
+        createNodes();
+        createFirstRelationships();
+        createSecondRelationships();
+
+        try (Transaction tx = database.beginTx()) {
+            List<Node> nodes = Arrays.asList(database.getNodeById(0), database.getNodeById(2));
+
+            try {
+                new CachedRelationshipCounter(database).count(nodes, wildcard("test", OUTGOING).with("key1", equalTo("value2")));
+                fail();
+            } catch (UnableToCountException e) {
+                //OK
+            }
+
+            NodeCounts counts = new FallbackRelationshipCounter(database).count(nodes, wildcard("test", BOTH).with("key1", equalTo("value2")));
+            assertEquals(2, counts.get(0));
+            assertEquals(1, counts.get(2));
+        }
+    }
+
+    @Test
+    public void multipleDescriptionsShouldBeCountedAtOnceReportingUncountableOnes() {
+        createNodes();
+        createFirstRelationships();
+        createSecondRelationships();
+
+        RelationshipDescription outgoing = wildcard("test", OUTGOING);
+        RelationshipDescription incoming = wildcard("test", INCOMING);
+        RelationshipDescription compactedOut = wildcard("test", OUTGOING).with("key1", equalTo("value2"));
+
+        try (Transaction tx = database.beginTx()) {
+            DescriptionCounts counts = new CachedRelationshipCounter(database).count(database.getNodeById(0), Arrays.asList(outgoing, incoming, compactedOut));
+
+            assertEquals(8, counts.get(outgoing));
+            assertEquals(1, counts.get(incoming));
+            assertFalse(counts.isCountable(compactedOut));
+            assertEquals(Collections.singleton(compactedOut), counts.getUncountable());
+
+            try {
+                counts.get(compactedOut);
+                fail();
+            } catch (UnableToCountException e) {
+                //OK
+            }
+
+            counts = new FallbackRelationshipCounter(database).count(database.getNodeById(0), Arrays.asList(outgoing, incoming, compactedOut));
+
+            assertEquals(8, counts.get(outgoing));
+            assertEquals(1, counts.get(incoming));
+            assertEquals(2, counts.get(compactedOut));
+            assertTrue(counts.getUncountable().isEmpty());
+        }
+    }
+
     private void createFirstRelationships() {
         txExecutor.executeInTransaction(new TransactionCallback<Void>() {
             @Override
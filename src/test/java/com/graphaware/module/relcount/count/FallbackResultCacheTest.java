@@ -0,0 +1,189 @@
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Collections;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link FallbackResultCache}.
+ */
+public class FallbackResultCacheTest {
+
+    private final RelationshipDescription description = literal("TEST", OUTGOING);
+
+    @Test
+    public void disabledCacheShouldNotCacheAnything() {
+        FallbackResultCache cache = new FallbackResultCache(0);
+
+        cache.put(1L, description, 5, cache.stamp());
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get(1L, description));
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesShouldBeEvicted() {
+        FallbackResultCache cache = new FallbackResultCache(2);
+
+        cache.put(1L, description, 1, cache.stamp());
+        cache.put(2L, description, 2, cache.stamp());
+        assertEquals(1, (int) cache.get(1L, description));
+        cache.put(3L, description, 3, cache.stamp());
+
+        assertNull(cache.get(2L, description));
+        assertEquals(1, (int) cache.get(1L, description));
+        assertEquals(3, (int) cache.get(3L, description));
+
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void allResultsOfInvalidatedNodesShouldBeRemoved() {
+        FallbackResultCache cache = new FallbackResultCache(10);
+        RelationshipDescription other = literal("TEST", OUTGOING).with("k", equalTo("v"));
+
+        cache.put(1L, description, 1, cache.stamp());
+        cache.put(1L, other, 2, cache.stamp());
+        cache.put(2L, description, 3, cache.stamp());
+
+        cache.invalidate(Collections.singleton(1L));
+
+        assertNull(cache.get(1L, description));
+        assertNull(cache.get(1L, other));
+        assertEquals(3, (int) cache.get(2L, description));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void resultsCountedBeforeInvalidationShouldNotBeCached() {
+        FallbackResultCache cache = new FallbackResultCache(10);
+
+        long stamp = cache.stamp();
+        cache.invalidate(Collections.singleton(1L));
+        cache.put(1L, description, 1, stamp);
+
+        assertNull(cache.get(1L, description));
+    }
+
+    @Test
+    public void resultsOfOtherNodesShouldBeCachedAfterInvalidation() {
+        FallbackResultCache cache = new FallbackResultCache(10);
+
+        long stamp = cache.stamp();
+        cache.invalidate(Collections.singleton(1L));
+        cache.put(2L, description, 2, stamp);
+
+        assertEquals(2, (int) cache.get(2L, description));
+    }
+
+    @Test
+    public void naiveCountsShouldBeServedFromMemoryAndInvalidatedOnChange() {
+        GraphDatabaseService database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try {
+            GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+            RelationshipCountModule module = new RelationshipCountModule(defaultConfiguration()
+                    .with(new ThresholdBasedCompactionStrategy(2))
+                    .withFallbackResultCacheSize(100));
+            runtime.registerModule(module);
+            runtime.start();
+
+            try (Transaction tx = database.beginTx()) {
+                Node node1 = database.createNode();
+                Node node2 = database.createNode();
+                for (int i = 1; i <= 3; i++) {
+                    node1.createRelationshipTo(node2, withName("TEST")).setProperty("k", "v" + i);
+                }
+                tx.success();
+            }
+
+            FallbackRelationshipCounter counter = new FallbackRelationshipCounter(database);
+            RelationshipDescription v1 = wildcard("TEST", OUTGOING).with("k", equalTo("v1"));
+
+            try (Transaction tx = database.beginTx()) {
+                assertEquals(1, counter.count(database.getNodeById(0), v1));
+                assertEquals(1, counter.count(database.getNodeById(0), v1));
+            }
+
+            assertEquals(2, counter.getFallbackCount());
+            assertEquals(1, module.getFallbackResultCache().getMisses());
+            assertEquals(1, module.getFallbackResultCache().getHits());
+
+            try (Transaction tx = database.beginTx()) {
+                database.getNodeById(0).createRelationshipTo(database.getNodeById(1), withName("TEST")).setProperty("k", "v1");
+                tx.success();
+            }
+
+            try (Transaction tx = database.beginTx()) {
+                assertEquals(2, counter.count(database.getNodeById(0), v1));
+            }
+
+            assertEquals(2, module.getFallbackResultCache().getMisses());
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    @Test
+    public void naiveCountsOfTransactionsWithUncommittedChangesShouldNotBeCached() {
+        GraphDatabaseService database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        try {
+            GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+            RelationshipCountModule module = new RelationshipCountModule(defaultConfiguration()
+                    .with(new ThresholdBasedCompactionStrategy(2))
+                    .withFallbackResultCacheSize(100));
+            runtime.registerModule(module);
+            runtime.start();
+
+            try (Transaction tx = database.beginTx()) {
+                Node node1 = database.createNode();
+                Node node2 = database.createNode();
+                for (int i = 1; i <= 3; i++) {
+                    node1.createRelationshipTo(node2, withName("TEST")).setProperty("k", "v" + i);
+                }
+                tx.success();
+            }
+
+            FallbackRelationshipCounter counter = new FallbackRelationshipCounter(database);
+            RelationshipDescription v1 = wildcard("TEST", OUTGOING).with("k", equalTo("v1"));
+
+            try (Transaction tx = database.beginTx()) {
+                database.getNodeById(0).createRelationshipTo(database.getNodeById(1), withName("TEST")).setProperty("k", "v1");
+                assertEquals(2, counter.count(database.getNodeById(0), v1));
+                tx.failure();
+            }
+
+            assertEquals(0, module.getFallbackResultCache().size());
+
+            try (Transaction tx = database.beginTx()) {
+                assertEquals(1, counter.count(database.getNodeById(0), v1));
+            }
+
+            assertEquals(1, module.getFallbackResultCache().size());
+        } finally {
+            database.shutdown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.common.description.relationship.RelationshipDescription;
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.compact.ThresholdBasedCompactionStrategy;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Arrays;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.Direction.*;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link HybridRelationshipCounter}.
+ */
+public class HybridRelationshipCounterTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(defaultConfiguration().with(new ThresholdBasedCompactionStrategy(2))));
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            Node node1 = database.createNode();
+            Node node2 = database.createNode();
+            for (int i = 1; i <= 3; i++) {
+                node1.createRelationshipTo(node2, withName("TEST")).setProperty("k", "v" + i);
+            }
+            node2.createRelationshipTo(node1, withName("TEST")).setProperty("k", "v1");
+            node1.createRelationshipTo(node2, withName("OTHER"));
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void countsShouldBeTheSameAsNaiveCounts() {
+        HybridRelationshipCounter hybrid = new HybridRelationshipCounter(database);
+        NaiveRelationshipCounter naive = new NaiveRelationshipCounter(database);
+
+        try (Transaction tx = database.beginTx()) {
+            for (RelationshipDescription description : Arrays.asList(
+                    wildcard("TEST", OUTGOING),
+                    wildcard("TEST", BOTH),
+                    wildcard("TEST", OUTGOING).with("k", equalTo("v1")),
+                    wildcard("TEST", INCOMING).with("k", equalTo("v1")),
+                    wildcard("TEST", BOTH).with("k", equalTo("v1")),
+                    wildcard("TEST", BOTH).with("k", equalTo("v4")),
+                    wildcard("OTHER", OUTGOING))) {
+
+                for (long nodeId = 0; nodeId < 2; nodeId++) {
+                    Node node = database.getNodeById(nodeId);
+                    assertEquals(description.toString(), naive.count(node, description), hybrid.count(node, description));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void onlyAmbiguousCachedDegreesShouldBeResolvedByInspectingRelationships() {
+        HybridRelationshipCounter hybrid = new HybridRelationshipCounter(database);
+
+        try (Transaction tx = database.beginTx()) {
+            assertEquals(4, hybrid.count(database.getNodeById(0), wildcard("TEST", BOTH)));
+            assertEquals(0, hybrid.getScans());
+
+            assertEquals(2, hybrid.count(database.getNodeById(0), wildcard("TEST", BOTH).with("k", equalTo("v1"))));
+            assertEquals(1, hybrid.getScans());
+            assertTrue(hybrid.getScannedRelationships() <= 4);
+        }
+    }
+
+    @Test
+    public void batchCountsShouldBeTheSameAsSingleCounts() {
+        HybridRelationshipCounter hybrid = new HybridRelationshipCounter(database);
+        RelationshipDescription description = wildcard("TEST", OUTGOING).with("k", equalTo("v1"));
+
+        try (Transaction tx = database.beginTx()) {
+            NodeCounts counts = hybrid.count(Arrays.asList(database.getNodeById(0), database.getNodeById(1)), description);
+
+            assertEquals(1, counts.get(0));
+            assertEquals(1, counts.get(1));
+
+            DescriptionCounts descriptionCounts = hybrid.count(database.getNodeById(0), Arrays.asList(description, wildcard("OTHER", OUTGOING)));
+
+            assertEquals(1, descriptionCounts.get(description));
+            assertEquals(1, descriptionCounts.get(wildcard("OTHER", OUTGOING)));
+        }
+    }
+}
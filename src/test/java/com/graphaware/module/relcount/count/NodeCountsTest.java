@@ -0,0 +1,34 @@
+package com.graphaware.module.relcount.count;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link NodeCounts}.
+ */
+public class NodeCountsTest {
+
+    @Test
+    public void countsShouldBeRetrievableAfterGrowing() {
+        NodeCounts counts = new NodeCounts();
+
+        for (long nodeId = 0; nodeId < 1000; nodeId++) {
+            counts.put(nodeId * 7, (int) nodeId);
+        }
+        counts.put(7, 42);
+
+        assertEquals(1000, counts.size());
+        assertEquals(42, counts.get(7));
+        assertEquals(999, counts.get(999 * 7));
+        assertTrue(counts.containsKey(0));
+        assertFalse(counts.containsKey(1));
+        assertEquals(0, counts.get(1));
+
+        long[] nodeIds = counts.nodeIds();
+        assertEquals(1000, nodeIds.length);
+        assertEquals(0, nodeIds[0]);
+        assertEquals(7, nodeIds[1]);
+        assertEquals(999 * 7, nodeIds[999]);
+    }
+}
@@ -0,0 +1,74 @@
+package com.graphaware.module.relcount.count;
+
+import com.graphaware.module.relcount.RelationshipCountConfigurationImpl;
+import com.graphaware.module.relcount.compact.QueryAwareCompactionStrategy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static com.graphaware.common.description.predicate.Predicates.any;
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.literal;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Unit test for {@link QueryStatistics}.
+ */
+public class QueryStatisticsTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void setUp() {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    public void onlyPropertiesQueriedWithConcretePredicatesShouldBeRecorded() {
+        QueryStatistics statistics = QueryStatistics.of(database, "TEST");
+
+        statistics.queried(literal("T1", OUTGOING).with("k1", equalTo("v1")).with("k2", any()), 1);
+
+        assertTrue(statistics.isQueried("T1", "k1"));
+        assertFalse(statistics.isQueried("T1", "k2"));
+        assertFalse(statistics.isQueried("T2", "k1"));
+        assertSame(statistics, QueryStatistics.of(database, "TEST"));
+    }
+
+    @Test
+    public void fallbackRatesShouldBeReportedPerType() {
+        QueryStatistics statistics = QueryStatistics.of(database, "TEST");
+
+        statistics.queried(literal("T1", OUTGOING), 4);
+        statistics.fellBack(literal("T1", OUTGOING), 1);
+        statistics.queried(literal("T2", OUTGOING), 2);
+
+        assertEquals(0.25, statistics.getFallbackRates().get("T1"), 0.0001);
+        assertEquals(0.0, statistics.getFallbackRates().get("T2"), 0.0001);
+        assertNull(statistics.getFallbackRates().get("T3"));
+    }
+
+    @Test
+    public void statisticsShouldOnlyBeRecordedForQueryAwareCompaction() {
+        assertSame(QueryStatistics.DISABLED, QueryStatistics.forCounting(database, "TEST", RelationshipCountConfigurationImpl.defaultConfiguration()));
+        assertSame(QueryStatistics.of(database, "TEST"), QueryStatistics.forCounting(database, "TEST",
+                RelationshipCountConfigurationImpl.defaultConfiguration().with(new QueryAwareCompactionStrategy(10))));
+    }
+
+    @Test
+    public void disabledStatisticsShouldRecordNothing() {
+        QueryStatistics.DISABLED.queried(literal("T1", OUTGOING).with("k1", equalTo("v1")), 1);
+        QueryStatistics.DISABLED.fellBack(literal("T1", OUTGOING), 1);
+
+        assertFalse(QueryStatistics.DISABLED.isQueried("T1", "k1"));
+        assertTrue(QueryStatistics.DISABLED.getFallbackRates().isEmpty());
+    }
+}
@@ -0,0 +1,186 @@
+package com.graphaware.module.relcount.metrics;
+
+import com.graphaware.module.relcount.RelationshipCountModule;
+import com.graphaware.module.relcount.compact.QueryAwareCompactionStrategy;
+import com.graphaware.module.relcount.count.CachedRelationshipCounter;
+import com.graphaware.module.relcount.count.FallbackRelationshipCounter;
+import com.graphaware.module.relcount.count.UnableToCountException;
+import com.graphaware.runtime.GraphAwareRuntime;
+import com.graphaware.runtime.GraphAwareRuntimeFactory;
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.graphaware.common.description.predicate.Predicates.equalTo;
+import static com.graphaware.common.description.relationship.RelationshipDescriptionFactory.wildcard;
+import static com.graphaware.module.relcount.RelationshipCountConfigurationImpl.defaultConfiguration;
+import static com.graphaware.module.relcount.metrics.RelcountMetrics.Event.FALLBACKS;
+import static com.graphaware.module.relcount.metrics.RelcountMetrics.Event.UNCOUNTABLE;
+import static com.graphaware.module.relcount.metrics.RelcountMetrics.Operation.*;
+import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link RelcountMetrics} collected by {@link RelationshipCountModule}.
+ */
+public class RelcountMetricsTest {
+
+    private GraphDatabaseService database;
+
+    @After
+    public void tearDown() {
+        if (database != null) {
+            database.shutdown();
+        }
+    }
+
+    @Test
+    public void disabledMetricsShouldRecordNothing() {
+        RelcountMetrics metrics = new RelcountMetrics(false);
+
+        long start = metrics.start();
+        metrics.stop(BEFORE_COMMIT, start);
+        metrics.count(FALLBACKS, 3);
+        metrics.cachedDegreesWritten(100);
+
+        assertEquals(0, start);
+        assertEquals(0, metrics.getLatencies(BEFORE_COMMIT).getCount());
+        assertEquals(0, metrics.getCount(FALLBACKS));
+        assertEquals(0, metrics.getCachedDegreesBytes().getCount());
+    }
+
+    @Test
+    public void snapshotShouldHaveStableKeys() {
+        RelcountMetrics metrics = new RelcountMetrics(true);
+        metrics.register("answer", new Gauge() {
+            @Override
+            public long value() {
+                return 42;
+            }
+        });
+
+        metrics.stop(COUNT_NAIVE_SCAN, metrics.start());
+        metrics.count(UNCOUNTABLE, 2);
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(1L, snapshot.get("countNaiveScanCount"));
+        assertEquals(2L, snapshot.get("uncountable"));
+        assertEquals(42L, snapshot.get("answer"));
+        assertTrue(snapshot.containsKey("beforeCommitP99Micros"));
+        assertTrue(snapshot.containsKey("cachedDegreesBytesMax"));
+    }
+
+    @Test
+    public void gaugeGroupValuesShouldBeReportedByKey() {
+        RelcountMetrics metrics = new RelcountMetrics(true);
+        metrics.register("rate", new GaugeGroup() {
+            @Override
+            public Map<String, ? extends Number> values() {
+                return Collections.singletonMap("TEST", 0.25);
+            }
+        });
+
+        assertEquals(0.25, metrics.snapshot().get("rate.TEST"));
+    }
+
+    @Test
+    public void fallbackRatesShouldBeExposedThroughJmx() throws Exception {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        runtime.registerModule(new RelationshipCountModule(defaultConfiguration().with(new QueryAwareCompactionStrategy(3)).withMetricsEnabled(true)));
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.createNode();
+            for (int i = 0; i < 10; i++) {
+                Relationship relationship = node.createRelationshipTo(database.createNode(), withName("TEST"));
+                relationship.setProperty("k", i);
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.getNodeById(0);
+
+            assertEquals(10, new CachedRelationshipCounter(database).count(node, wildcard("TEST", OUTGOING)));
+
+            try {
+                new CachedRelationshipCounter(database).count(node, wildcard("TEST", OUTGOING).with("k", equalTo(1)));
+                fail();
+            } catch (UnableToCountException e) {
+                //OK
+            }
+        }
+
+        ObjectName name = new ObjectName("com.graphaware.module.relcount:type=Metrics,module=" + RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID);
+        assertEquals(0.5, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "fallbackRate.TEST"));
+    }
+
+    @Test
+    public void moduleShouldCollectMetricsAndExposeThemThroughJmx() throws Exception {
+        database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(database);
+        RelationshipCountModule module = new RelationshipCountModule(defaultConfiguration().withThreshold(3).withMetricsEnabled(true));
+        runtime.registerModule(module);
+        runtime.start();
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.createNode();
+            for (int i = 0; i < 10; i++) {
+                Relationship relationship = node.createRelationshipTo(database.createNode(), withName("TEST"));
+                relationship.setProperty("k", i);
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            Node node = database.getNodeById(0);
+
+            assertEquals(10, new CachedRelationshipCounter(database).count(node, wildcard("TEST", OUTGOING)));
+
+            try {
+                new CachedRelationshipCounter(database).count(node, wildcard("TEST", OUTGOING).with("k", equalTo(1)));
+                fail();
+            } catch (UnableToCountException e) {
+                //OK
+            }
+
+            assertEquals(1, new FallbackRelationshipCounter(database).count(node, wildcard("TEST", OUTGOING).with("k", equalTo(1))));
+        }
+
+        RelcountMetrics metrics = module.getMetrics();
+        assertTrue(metrics.getLatencies(BEFORE_COMMIT).getCount() > 0);
+        assertTrue(metrics.getLatencies(FLUSH).getCount() > 0);
+        assertTrue(metrics.getLatencies(COMPACTION).getCount() > 0);
+        assertTrue(metrics.getCount(RelcountMetrics.Event.COMPACTIONS) > 0);
+        assertTrue(metrics.getCachedDegreesBytes().getCount() > 0);
+        assertEquals(3, metrics.getLatencies(COUNT_CACHED).getCount());
+        assertEquals(3, metrics.getLatencies(CACHE_READ).getCount());
+        assertEquals(2, metrics.getCount(UNCOUNTABLE));
+        assertEquals(1, metrics.getCount(FALLBACKS));
+        assertEquals(1, metrics.getLatencies(COUNT_FALLBACK).getCount());
+        assertEquals(1, metrics.getLatencies(COUNT_NAIVE_SCAN).getCount());
+
+        ObjectName name = new ObjectName("com.graphaware.module.relcount:type=Metrics,module=" + RelationshipCountModule.FULL_RELCOUNT_DEFAULT_ID);
+        assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "uncountable"));
+        assertEquals(0L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "repairs"));
+        assertEquals(0L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "decodedDegreeCacheEvictions"));
+
+        database.shutdown();
+        database = null;
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}